@@ -0,0 +1,318 @@
+package com.ticket.domain;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * microbenchmarks of the seat allocation hot path. Every hold made by a
+ * benchmark is released again so that the venue stays at the same level of
+ * occupancy for the whole run.
+ * 
+ * Run with mvn -P benchmark -DskipTests verify. The gc profiler is enabled by
+ * the profile so the results include the bytes allocated per hold
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SeatAllocationBenchmark {
+
+	private static final String CUSTOMER_EMAIL = "email@email.com";
+
+	/**
+	 * the number of pregenerated request sizes cycled through by the benchmarks
+	 */
+	private static final int REQUEST_SAMPLES = 1024;
+
+	/**
+	 * a venue of a given size filled to a given level along with the request
+	 * sizes to run against it
+	 */
+	@State(Scope.Thread)
+	public static class VenueState {
+
+		/**
+		 * rows x seats per row
+		 */
+		@Param({ "10x30", "100x100", "200x120", "500x200" })
+		public String venueSize;
+
+		/**
+		 * how the venue is filled before the benchmark starts
+		 */
+		@Param({ "EMPTY", "HALF_FULL", "FRAGMENTED", "NEARLY_SOLD_OUT" })
+		public Occupancy occupancy;
+
+		Venue venue;
+
+		Row middleRow;
+
+		int seatsPerRow;
+
+		int[] requestSizes;
+
+		int[] rowRequestSizes;
+
+		int[] groupRequestSizes;
+
+		int nextRequest;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			String[] dimensions = venueSize.split("x");
+			int numRows = Integer.parseInt(dimensions[0]);
+			seatsPerRow = Integer.parseInt(dimensions[1]);
+			venue = createVenue(numRows, seatsPerRow);
+			occupancy.fill(venue, new Random(7));
+			middleRow = (Row) venue.getRows().toArray()[numRows / 2];
+
+			Random random = new Random(42);
+			requestSizes = new int[REQUEST_SAMPLES];
+			rowRequestSizes = new int[REQUEST_SAMPLES];
+			groupRequestSizes = new int[REQUEST_SAMPLES];
+			for (int i = 0; i < REQUEST_SAMPLES; i++) {
+				rowRequestSizes[i] = Math.min(smallRequestSize(random), seatsPerRow);
+				groupRequestSizes[i] = seatsPerRow + 1 + random.nextInt(seatsPerRow * 2);
+				// about 3 percent of the traffic is a group larger than a row
+				requestSizes[i] = random.nextInt(100) < 3 ? groupRequestSizes[i] : rowRequestSizes[i];
+			}
+			// the venue counters and row bitmaps are built lazily, build them
+			// before measuring
+			venue.numSeatsAvailable();
+		}
+
+		int next(int[] sizes) {
+			nextRequest = (nextRequest + 1) & (REQUEST_SAMPLES - 1);
+			return sizes[nextRequest];
+		}
+	}
+
+	/**
+	 * a half full 200x120 venue shared by every thread of a benchmark, to see
+	 * how the row locks scale when many customers hold seats at once
+	 */
+	@State(Scope.Benchmark)
+	public static class SharedVenueState {
+
+		Venue venue;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			venue = createVenue(200, 120);
+			Occupancy.HALF_FULL.fill(venue, new Random(7));
+			venue.numSeatsAvailable();
+		}
+	}
+
+	/**
+	 * the request sizes of one customer of the shared venue
+	 */
+	@State(Scope.Thread)
+	public static class CustomerState {
+
+		int[] requestSizes;
+
+		int nextRequest;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(Thread.currentThread().getId());
+			requestSizes = new int[REQUEST_SAMPLES];
+			for (int i = 0; i < REQUEST_SAMPLES; i++) {
+				requestSizes[i] = random.nextInt(100) < 3 ? 120 + 1 + random.nextInt(120) : smallRequestSize(random);
+			}
+		}
+
+		int next() {
+			nextRequest = (nextRequest + 1) & (REQUEST_SAMPLES - 1);
+			return requestSizes[nextRequest];
+		}
+	}
+
+	/**
+	 * how full the venue is when the benchmark starts. Seats are held by a
+	 * hold that is never committed so they never expire
+	 */
+	public enum Occupancy {
+
+		EMPTY(0),
+
+		/**
+		 * the front half of the venue is sold, as it would be part way
+		 * through an on-sale
+		 */
+		HALF_FULL(0) {
+			@Override
+			void fill(Venue venue, Random random) {
+				SeatHold seatHold = new SeatHold(CUSTOMER_EMAIL, venue);
+				int rowsToFill = venue.getRows().size() / 2;
+				for (Row row : venue.getRows()) {
+					if (rowsToFill-- == 0) {
+						break;
+					}
+					for (Seat seat : row.getSeats()) {
+						seat.placeHold(seatHold);
+					}
+				}
+			}
+		},
+
+		/**
+		 * sixty percent of the seats are taken at random leaving many small gaps
+		 */
+		FRAGMENTED(60),
+
+		/**
+		 * ninety seven percent of the seats are taken at random
+		 */
+		NEARLY_SOLD_OUT(97);
+
+		private final int percentTaken;
+
+		Occupancy(int percentTaken) {
+			this.percentTaken = percentTaken;
+		}
+
+		void fill(Venue venue, Random random) {
+			SeatHold seatHold = new SeatHold(CUSTOMER_EMAIL, venue);
+			for (Row row : venue.getRows()) {
+				for (Seat seat : row.getSeats()) {
+					if (random.nextInt(100) < percentTaken) {
+						seat.placeHold(seatHold);
+					}
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public SeatHold venueFindAndHoldSeats(VenueState state) {
+		SeatHold seatHold = state.venue.findAndHoldSeats(state.next(state.requestSizes), CUSTOMER_EMAIL);
+		if (seatHold != null) {
+			seatHold.invalidate();
+		}
+		return seatHold;
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SeatHold sharedVenueFindAndHoldSeats1Thread(SharedVenueState venueState, CustomerState customerState) {
+		return findAndHoldSeats(venueState, customerState);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SeatHold sharedVenueFindAndHoldSeats4Threads(SharedVenueState venueState, CustomerState customerState) {
+		return findAndHoldSeats(venueState, customerState);
+	}
+
+	@Benchmark
+	@Threads(16)
+	public SeatHold sharedVenueFindAndHoldSeats16Threads(SharedVenueState venueState, CustomerState customerState) {
+		return findAndHoldSeats(venueState, customerState);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public SeatHold sharedVenueFindAndHoldSeats64Threads(SharedVenueState venueState, CustomerState customerState) {
+		return findAndHoldSeats(venueState, customerState);
+	}
+
+	private static SeatHold findAndHoldSeats(SharedVenueState venueState, CustomerState customerState) {
+		SeatHold seatHold = venueState.venue.findAndHoldSeats(customerState.next(), CUSTOMER_EMAIL);
+		if (seatHold != null) {
+			seatHold.invalidate();
+		}
+		return seatHold;
+	}
+
+	@Benchmark
+	public List<Seat> venueHoldSeats(VenueState state) {
+		SeatHold seatHold = new SeatHold(CUSTOMER_EMAIL, state.venue);
+		List<Seat> heldSeats = state.venue.holdSeats(state.next(state.rowRequestSizes), seatHold, state.venue);
+		seatHold.setSeatsHeld(heldSeats);
+		seatHold.invalidate();
+		return heldSeats;
+	}
+
+	@Benchmark
+	public List<Seat> rowHoldSeats(VenueState state) {
+		SeatHold seatHold = new SeatHold(CUSTOMER_EMAIL, state.venue);
+		List<Seat> heldSeats = state.middleRow.holdSeats(state.next(state.rowRequestSizes), seatHold);
+		seatHold.setSeatsHeld(heldSeats);
+		seatHold.invalidate();
+		return heldSeats;
+	}
+
+	@Benchmark
+	public List<Integer> divideSeatRequestsIntoCompleteRows(VenueState state) {
+		return state.venue.divideSeatRequestsIntoCompleteRows(state.next(state.groupRequestSizes));
+	}
+
+	@Benchmark
+	public int venueNumSeatsAvailable(VenueState state) {
+		return state.venue.numSeatsAvailable();
+	}
+
+	/**
+	 * request sizes seen in real traffic. Most requests are for 1 to 8 seats
+	 * with pairs and groups of four the most common
+	 */
+	private static int smallRequestSize(Random random) {
+		int roll = random.nextInt(100);
+		if (roll < 10) {
+			return 1;
+		} else if (roll < 45) {
+			return 2;
+		} else if (roll < 57) {
+			return 3;
+		} else if (roll < 77) {
+			return 4;
+		} else if (roll < 83) {
+			return 5;
+		} else if (roll < 91) {
+			return 6;
+		} else if (roll < 95) {
+			return 7;
+		}
+		return 8;
+	}
+
+	/**
+	 * creates a venue with POJOs instead of the database
+	 */
+	static Venue createVenue(int numRows, int seatsPerRow) {
+		Venue venue = new Venue(1);
+		Set<Row> rows = new LinkedHashSet<>();
+		for (int i = 0; i < numRows; i++) {
+			Row row = new Row(i + 1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (int j = 0; j < seatsPerRow; j++) {
+				seats.add(new Seat(j + 1, row));
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		return venue;
+	}
+
+}
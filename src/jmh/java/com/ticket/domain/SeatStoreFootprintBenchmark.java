@@ -0,0 +1,101 @@
+package com.ticket.domain;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * compares the memory taken per seat by the seat entities of the in-memory
+ * venue with the memory taken by the compact seat store for the same venue.
+ * The bytes per seat are reported as the bytesPerSeat counter next to the
+ * time taken to build each one. The entity graph is measured without
+ * Hibernate, which adds its own snapshot of every loaded seat on top.
+ *
+ * Run with mvn -P benchmark -DskipTests verify -Djmh.include=SeatStoreFootprintBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SeatStoreFootprintBenchmark {
+
+	/**
+	 * the size of the venue built by each benchmark
+	 */
+	@State(Scope.Thread)
+	public static class VenueSize {
+
+		/**
+		 * rows x seats per row
+		 */
+		@Param({ "100x100", "1000x100", "1000x1000" })
+		public String venueSize;
+
+		int numRows;
+
+		int seatsPerRow;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			String[] dimensions = venueSize.split("x");
+			numRows = Integer.parseInt(dimensions[0]);
+			seatsPerRow = Integer.parseInt(dimensions[1]);
+		}
+
+		int numSeats() {
+			return numRows * seatsPerRow;
+		}
+	}
+
+	/**
+	 * the memory taken per seat by the venue built in the last iteration
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+
+		public double bytesPerSeat;
+	}
+
+	@Benchmark
+	public Venue entityGraph(VenueSize size, Footprint footprint) {
+		long before = allocatedBytes();
+		Venue venue = SeatAllocationBenchmark.createVenue(size.numRows, size.seatsPerRow);
+		// builds the row bitmaps and venue counters held next to the seats
+		venue.numSeatsAvailable();
+		footprint.bytesPerSeat = (double) (allocatedBytes() - before) / size.numSeats();
+		return venue;
+	}
+
+	@Benchmark
+	public CompactSeatStore compactStore(VenueSize size, Footprint footprint) {
+		long before = allocatedBytes();
+		CompactSeatStore store = CompactSeatStore.allocateDirect(size.numRows, size.seatsPerRow);
+		// the seats are in the direct buffer, the heap only holds the row counters
+		footprint.bytesPerSeat = (double) (allocatedBytes() - before + store.sizeInBytes()) / size.numSeats();
+		return store;
+	}
+
+	/**
+	 * @return the bytes allocated on the heap by the current thread so far
+	 */
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+	}
+
+}
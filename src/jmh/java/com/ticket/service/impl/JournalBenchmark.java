@@ -0,0 +1,96 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import com.ticket.domain.SeatHold;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * compares the hold throughput of saving every change through JPA before the
+ * service call returns with appending it to the seat journal under each of
+ * the policies for forcing the journal to disk. The journal runs with write
+ * behind, so the database is written in the background. Every hold made by
+ * the benchmark is given up again, so the venue never fills up.
+ *
+ * Run with mvn -P benchmark -DskipTests verify -Djmh.include=JournalBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@Threads(4)
+public class JournalBenchmark {
+
+	private static final String CUSTOMER_EMAIL = "email@email.com";
+
+	/**
+	 * an application context saving the changes one way or the other
+	 */
+	@State(Scope.Benchmark)
+	public static class ServiceState {
+
+		/**
+		 * jpa to write every change through, or journal followed by the value of venue.journalSync
+		 */
+		@Param({ "jpa", "journal-always", "journal-interval", "journal-os" })
+		public String persistence;
+
+		ConfigurableApplicationContext context;
+
+		VenueTicketService venueTicketService;
+
+		Path journalFile;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			journalFile = Files.createTempFile("seats", ".journal");
+			boolean journal = persistence.startsWith("journal-");
+			context = new SpringApplicationBuilder(SqlAllocationBenchmark.BenchmarkApplication.class).web(false).run(
+					"--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "--venue.rows=100",
+					"--venue.seatsPerRow=100", "--venue.seatHoldSeconds=3600", "--venue.journal=" + journal,
+					"--venue.writeBehind=" + journal, "--venue.journalFile=" + journalFile,
+					"--venue.journalSync=" + persistence.substring(persistence.indexOf('-') + 1),
+					"--logging.level.com.ticket=WARN");
+			venueTicketService = context.getBean(VenueTicketService.class);
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws IOException {
+			context.close();
+			Files.deleteIfExists(journalFile);
+		}
+	}
+
+	@Benchmark
+	public SeatHold findAndHoldSeats(ServiceState state) {
+		SeatHold seatHold = state.venueTicketService.findAndHoldSeats(ThreadLocalRandom.current().nextInt(8) + 1,
+				CUSTOMER_EMAIL);
+		if (seatHold != null) {
+			state.venueTicketService.invalidateHold(seatHold);
+		}
+		return seatHold;
+	}
+
+}
@@ -0,0 +1,178 @@
+package com.ticket.service.impl;
+
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ticket.domain.Row;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.Venue;
+
+/**
+ * compares holding seats under the row locks of the venue with sending every
+ * hold through the single allocation thread of a SequencedExecutor, from 1 to
+ * 64 producer threads. Every hold is given up again by the command that made
+ * it, so the venue stays half full for the whole run. The executor runs its
+ * batches without a transaction, so only the cost of the hand-off is measured.
+ *
+ * Run with mvn -P benchmark -DskipTests verify -Djmh.include=SequencedExecutorBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequencedExecutorBenchmark {
+
+	private static final String CUSTOMER_EMAIL = "email@email.com";
+
+	/**
+	 * the number of pregenerated request sizes cycled through by each producer
+	 */
+	private static final int REQUEST_SAMPLES = 1024;
+
+	/**
+	 * a half full 200x120 venue shared by every producer, along with the
+	 * allocation thread when the holds are sequenced
+	 */
+	@State(Scope.Benchmark)
+	public static class VenueState {
+
+		/**
+		 * locked to hold seats on the producer threads, sequenced to hand every hold to the allocation thread
+		 */
+		@Param({ "locked", "sequenced" })
+		public String allocation;
+
+		Venue venue;
+
+		SequencedExecutor executor;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			venue = createVenue(200, 120);
+			SeatHold seatHold = new SeatHold(CUSTOMER_EMAIL, venue);
+			int rowsToFill = 100;
+			for (Row row : venue.getRows()) {
+				if (rowsToFill-- == 0) {
+					break;
+				}
+				for (Seat seat : row.getSeats()) {
+					seat.placeHold(seatHold);
+				}
+			}
+			venue.numSeatsAvailable();
+			if (allocation.equals("sequenced")) {
+				executor = new SequencedExecutor("seat-allocator", 1024, 64, Runnable::run);
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() throws InterruptedException {
+			if (executor != null) {
+				executor.stop();
+			}
+		}
+
+		SeatHold findAndHoldSeats(int numSeats) {
+			if (executor == null) {
+				return holdAndGiveUp(numSeats);
+			}
+			return executor.submit(() -> holdAndGiveUp(numSeats)).join();
+		}
+
+		private SeatHold holdAndGiveUp(int numSeats) {
+			SeatHold seatHold = venue.findAndHoldSeats(numSeats, CUSTOMER_EMAIL);
+			if (seatHold != null) {
+				seatHold.invalidate();
+			}
+			return seatHold;
+		}
+	}
+
+	/**
+	 * the request sizes of one producer, mostly 1 to 8 seats with a few groups larger than a row
+	 */
+	@State(Scope.Thread)
+	public static class ProducerState {
+
+		int[] requestSizes;
+
+		int nextRequest;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Random random = new Random(Thread.currentThread().getId());
+			requestSizes = new int[REQUEST_SAMPLES];
+			for (int i = 0; i < REQUEST_SAMPLES; i++) {
+				requestSizes[i] = random.nextInt(100) < 3 ? 120 + random.nextInt(120) : random.nextInt(8) + 1;
+			}
+		}
+
+		int next() {
+			nextRequest = (nextRequest + 1) & (REQUEST_SAMPLES - 1);
+			return requestSizes[nextRequest];
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public SeatHold findAndHoldSeats1Producer(VenueState venueState, ProducerState producerState) {
+		return venueState.findAndHoldSeats(producerState.next());
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SeatHold findAndHoldSeats4Producers(VenueState venueState, ProducerState producerState) {
+		return venueState.findAndHoldSeats(producerState.next());
+	}
+
+	@Benchmark
+	@Threads(16)
+	public SeatHold findAndHoldSeats16Producers(VenueState venueState, ProducerState producerState) {
+		return venueState.findAndHoldSeats(producerState.next());
+	}
+
+	@Benchmark
+	@Threads(64)
+	public SeatHold findAndHoldSeats64Producers(VenueState venueState, ProducerState producerState) {
+		return venueState.findAndHoldSeats(producerState.next());
+	}
+
+	/**
+	 * creates a venue with POJOs instead of the database
+	 */
+	private static Venue createVenue(int numRows, int seatsPerRow) {
+		Venue venue = new Venue(1);
+		Set<Row> rows = new LinkedHashSet<>();
+		for (int i = 0; i < numRows; i++) {
+			Row row = new Row(i + 1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (int j = 0; j < seatsPerRow; j++) {
+				seats.add(new Seat(j + 1, row));
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		return venue;
+	}
+
+}
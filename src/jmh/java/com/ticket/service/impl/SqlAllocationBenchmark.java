@@ -0,0 +1,130 @@
+package com.ticket.service.impl;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import com.ticket.domain.SeatHold;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * compares holding seats in the in-memory venue, in the compact seat store and
+ * through queries against the seat table, for venues of 10k, 100k and 1M seats. The
+ * front half of the venue is held before the benchmark starts and every hold
+ * made by the benchmark is given up again, so each request searches past the
+ * same full rows.
+ *
+ * Run with mvn -P benchmark -DskipTests verify -Djmh.include=SqlAllocationBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SqlAllocationBenchmark {
+
+	private static final String CUSTOMER_EMAIL = "email@email.com";
+
+	/**
+	 * the number of pregenerated request sizes cycled through by the benchmark
+	 */
+	private static final int REQUEST_SAMPLES = 1024;
+
+	/**
+	 * an application context holding seats one way or the other in a venue of a given size
+	 */
+	@State(Scope.Thread)
+	public static class ServiceState {
+
+		/**
+		 * rows x seats per row
+		 */
+		@Param({ "100x100", "1000x100", "1000x1000" })
+		public String venueSize;
+
+		/**
+		 * the value of venue.allocation, memory for the in-memory venue, compact
+		 * for the compact seat store or sql
+		 */
+		@Param({ "memory", "compact", "sql" })
+		public String allocation;
+
+		ConfigurableApplicationContext context;
+
+		VenueTicketService venueTicketService;
+
+		int[] requestSizes;
+
+		int nextRequest;
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			String[] dimensions = venueSize.split("x");
+			int numRows = Integer.parseInt(dimensions[0]);
+			int seatsPerRow = Integer.parseInt(dimensions[1]);
+			context = new SpringApplicationBuilder(BenchmarkApplication.class).web(false).run(
+					"--spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1", "--venue.rows=" + numRows,
+					"--venue.seatsPerRow=" + seatsPerRow, "--venue.allocation=" + allocation,
+					"--venue.seatHoldSeconds=3600", "--logging.level.com.ticket=WARN");
+			venueTicketService = context.getBean(VenueTicketService.class);
+			venueTicketService.findAndHoldSeats(numRows / 2 * seatsPerRow, CUSTOMER_EMAIL);
+
+			Random random = new Random(42);
+			requestSizes = new int[REQUEST_SAMPLES];
+			for (int i = 0; i < REQUEST_SAMPLES; i++) {
+				requestSizes[i] = random.nextInt(8) + 1;
+			}
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			context.close();
+		}
+
+		int next() {
+			nextRequest = (nextRequest + 1) & (REQUEST_SAMPLES - 1);
+			return requestSizes[nextRequest];
+		}
+	}
+
+	/**
+	 * the service without the console
+	 */
+	@EnableAutoConfiguration
+	@EntityScan(basePackages = "com.ticket")
+	@EnableJpaRepositories(basePackages = "com.ticket")
+	@ComponentScan(basePackages = "com.ticket", excludeFilters = @ComponentScan.Filter(type = FilterType.REGEX, pattern = {
+			"com\\.ticket\\.App", "com\\.ticket\\.console\\..*" }))
+	public static class BenchmarkApplication {
+	}
+
+	@Benchmark
+	public SeatHold findAndHoldSeats(ServiceState state) {
+		SeatHold seatHold = state.venueTicketService.findAndHoldSeats(state.next(), CUSTOMER_EMAIL);
+		if (seatHold != null) {
+			state.venueTicketService.invalidateHold(seatHold);
+		}
+		return seatHold;
+	}
+
+}
@@ -1,21 +1,23 @@
 package com.ticket;
 
+import java.util.concurrent.CompletableFuture;
+
 import javax.annotation.Resource;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.stereotype.Component;
 
 import com.ticket.console.TicketUserInterface;
-import com.ticket.domain.Row;
-import com.ticket.domain.Seat;
 import com.ticket.domain.Venue;
 import com.ticket.repository.RowRepository;
-import com.ticket.repository.SeatRepository;
 import com.ticket.repository.VenueRepository;
+import com.ticket.service.impl.VenueSnapshotter;
 
 @Component
 public class Bootstrap implements ApplicationListener<ContextRefreshedEvent> {
@@ -27,7 +29,13 @@ public class Bootstrap implements ApplicationListener<ContextRefreshedEvent> {
 	@Resource
 	private RowRepository rowRepository;
 	@Resource
-	private SeatRepository seatRepository;
+	private ApplicationEventPublisher eventPublisher;
+	
+	/**
+	 * restores the venue from its latest snapshot, if venue.snapshot=true
+	 */
+	@Autowired(required = false)
+	private VenueSnapshotter venueSnapshotter;
 	
 	/**
 	 * the number of rows defined in the property file
@@ -48,15 +56,52 @@ public class Bootstrap implements ApplicationListener<ContextRefreshedEvent> {
 	private Integer venueId;
 
 	/**
-	 * method to load the venue to the database when the application context starts up 
+	 * method to load the venue to the database when the application context starts up,
+	 * unless another instance sharing the database already loaded it. The venue is
+	 * restored from its latest snapshot instead if there is one
 	 */
 	@Override
 	public void onApplicationEvent(ContextRefreshedEvent event) {
+		if (venueRepository.exists(venueId)) {
+			LOGGER.info("Venue " + venueId + " is already loaded");
+			return;
+		}
+		if (venueSnapshotter != null) {
+			restoreVenue().whenComplete((result, failure) -> {
+				if (failure != null) {
+					LOGGER.error("Could not load venue " + venueId, failure);
+				}
+			});
+			return;
+		}
 		LOGGER.info("Loading venue");
 		loadVenue();
 
 	}
 	
+	/**
+	 * method to restore the venue from its latest snapshot, which is served from memory
+	 * while it is written back to the database. The venue is loaded instead if there is
+	 * no usable snapshot or it could not be written back
+	 * @return completes once the venue is in the database
+	 */
+	public CompletableFuture<Void> restoreVenue() {
+		CompletableFuture<Void> writeBack = venueSnapshotter.restoreVenue(venueId);
+		if (writeBack == null) {
+			LOGGER.info("Loading venue");
+			loadVenue();
+			return CompletableFuture.completedFuture(null);
+		}
+		return writeBack.handle((result, failure) -> {
+			if (failure != null) {
+				LOGGER.error("Could not write venue " + venueId + " restored from its snapshot back to the database,"
+						+ " loading it instead", failure);
+				venueSnapshotter.reloadVenue(venueId, this::loadVenue);
+			}
+			return null;
+		});
+	}
+	
 	/**
 	 * method to load the venue specified in the property file into the database
 	 */
@@ -64,17 +109,14 @@ public class Bootstrap implements ApplicationListener<ContextRefreshedEvent> {
 		Venue venue = new Venue(venueId);
 		venueRepository.save(venue);
 		
-		for (Integer i = 0; i < numRows; i++) {
-			Row row = new Row(i + 1, venue);
-			rowRepository.save(row);
-			for (Integer j = 0; j < numSeatsPerRow; j++) {
-				Seat seat = new Seat(j + 1, row);
-				seatRepository.save(seat);
-			}
-		}
-		
-		venue = venueRepository.findOne(venueId);
-		LOGGER.info("Number of rows: " + venue.getRows().size());
+		// the rows and seats are inserted in batches since saving them one at a time
+		// takes minutes for a large venue
+		long start = System.nanoTime();
+		int numSeats = rowRepository.insertRowsAndSeats(venueId, numRows, numSeatsPerRow);
+		long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+		LOGGER.info("Number of rows: " + numRows + ". Loaded " + numSeats + " seats in " + elapsedMillis + " ms ("
+				+ (numSeats * 1000L / elapsedMillis) + " seats/sec)");
+		eventPublisher.publishEvent(new VenueLoadedEvent(this, venueId));
 		
 	}
 
@@ -0,0 +1,36 @@
+package com.ticket;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * event published when changes to the seats of a venue could not be written
+ * because another instance of the service changed the same seats, so that the
+ * in-memory copy of the venue, which still shows those changes, is discarded
+ */
+public class VenueConflictEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * the id of the venue whose changes were dropped
+	 */
+	private final Integer venueId;
+
+	/**
+	 * instantiates the event
+	 * @param source the object that dropped the changes
+	 * @param venueId the id of the venue whose changes were dropped
+	 */
+	public VenueConflictEvent(Object source, Integer venueId) {
+		super(source);
+		this.venueId = venueId;
+	}
+
+	/**
+	 * @return the venueId
+	 */
+	public Integer getVenueId() {
+		return venueId;
+	}
+
+}
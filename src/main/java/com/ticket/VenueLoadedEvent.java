@@ -0,0 +1,35 @@
+package com.ticket;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * event published once a venue has been loaded into the database so that any
+ * in-memory copy of the venue can be discarded
+ */
+public class VenueLoadedEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * the id of the venue that was loaded
+	 */
+	private final Integer venueId;
+
+	/**
+	 * instantiates the event
+	 * @param source the object that loaded the venue
+	 * @param venueId the id of the venue that was loaded
+	 */
+	public VenueLoadedEvent(Object source, Integer venueId) {
+		super(source);
+		this.venueId = venueId;
+	}
+
+	/**
+	 * @return the venueId
+	 */
+	public Integer getVenueId() {
+		return venueId;
+	}
+
+}
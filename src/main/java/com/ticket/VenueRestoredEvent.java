@@ -0,0 +1,53 @@
+package com.ticket;
+
+import org.springframework.context.ApplicationEvent;
+
+import com.ticket.domain.Venue;
+import com.ticket.service.impl.SeatStateWriter;
+
+/**
+ * event published once a venue has been restored from a snapshot so that it
+ * can be served from memory while it is written back to the database
+ */
+public class VenueRestoredEvent extends ApplicationEvent {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * the venue that was restored
+	 */
+	private final transient Venue venue;
+
+	/**
+	 * the writer the changes to the venue are saved through, which holds them
+	 * back until the venue is back in the database
+	 */
+	private final transient SeatStateWriter seatStateWriter;
+
+	/**
+	 * instantiates the event
+	 * @param source the object that restored the venue
+	 * @param venue the venue that was restored
+	 * @param seatStateWriter the writer the changes to the venue are saved through
+	 */
+	public VenueRestoredEvent(Object source, Venue venue, SeatStateWriter seatStateWriter) {
+		super(source);
+		this.venue = venue;
+		this.seatStateWriter = seatStateWriter;
+	}
+
+	/**
+	 * @return the venue
+	 */
+	public Venue getVenue() {
+		return venue;
+	}
+
+	/**
+	 * @return the seatStateWriter
+	 */
+	public SeatStateWriter getSeatStateWriter() {
+		return seatStateWriter;
+	}
+
+}
@@ -7,7 +7,8 @@ public enum MainMenu {
 
 	NUMBER_OF_SEATS_AVAILABLE(1, "Find out how many seats are still available"), 
 	SELECT_SEATS(0, "Select Seats"),
-	LOGOUT(3, "Logout");
+	LOGOUT(3, "Logout"),
+	MY_SEATS(4, "View my seat holds and reservations");
 
 	/**
 	 * code for the menu option
@@ -1,5 +1,9 @@
 package com.ticket.console;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
 import org.beryx.textio.EnumInputReader;
 import org.beryx.textio.IntInputReader;
 import org.beryx.textio.StringInputReader;
@@ -13,6 +17,8 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.SeatReservation;
 import com.ticket.service.VenueTicketService;
 
 /**
@@ -34,6 +40,16 @@ public class TicketUserInterface {
 	 */
 	private static final String LOGIN_REGEX = "(^[q]$)|(" + EMAIL_REGEX + ")";
 	
+	/**
+	 * the largest number of rows or seats per row shown as a seat map
+	 */
+	private static final int MAX_MAP_SIZE = 40;
+	
+	/**
+	 * the largest number of sections shown for a venue too large for a seat map
+	 */
+	private static final int MAX_SECTIONS = 20;
+	
 	/**
 	 * the main menu reader used to allow the user to interact with the venue ticket service
 	 */
@@ -82,6 +98,18 @@ public class TicketUserInterface {
 	@Value("${venue.id}")
 	private Integer venueId;
 	
+	/**
+	 * number of rows in the venue
+	 */
+	@Value("${venue.rows}")
+	private int venueRows;
+	
+	/**
+	 * number of seats in each row of the venue
+	 */
+	@Value("${venue.seatsPerRow}")
+	private int venueSeatsPerRow;
+	
 	/**
 	 * instantiates the readers used by the terminal to interpret user input
 	 * @param textIO
@@ -152,6 +180,28 @@ public class TicketUserInterface {
 					resetPromptColor();
 					insertWaitTime();
 
+				} else if (menu.equals(MainMenu.MY_SEATS)) {
+					LOGGER.info("Customer " + customerEmail + " selected My Seat Holds and Reservations");
+					List<SeatHold> seatHolds = venueTicketService.findSeatHolds(customerEmail);
+					List<SeatReservation> seatReservations = venueTicketService.findSeatReservations(customerEmail);
+					changeToImportantColor();
+					if (seatHolds.isEmpty() && seatReservations.isEmpty()) {
+						terminal.println("You have no seat holds or reservations.\n");
+					}
+					for (SeatHold heldSeats : seatHolds) {
+						terminal.printf("Seat hold %d: %d seats", heldSeats.getSeatHoldId(), heldSeats.getSeatsHeld().size());
+						if (heldSeats.getExpireTime() != null) {
+							terminal.print(", expires in " + heldSeats.printSecondsToExpiration());
+						}
+						terminal.print("\n");
+					}
+					for (SeatReservation seatReservation : seatReservations) {
+						terminal.printf("Reservation confirmation number: %s\n", seatReservation.getConfirmationId());
+					}
+					terminal.print("\n");
+					resetPromptColor();
+					insertWaitTime();
+
 				} else if(menu.equals(MainMenu.SELECT_SEATS)) {
 					LOGGER.info("Customer " + customerEmail + " selected Select Seats");
 					numberOfSeatsRequested = numberOfSeatsRequestedReader.read("Number of seats requested: ");
@@ -222,13 +272,24 @@ public class TicketUserInterface {
 	}
 	
 	/**
-	 * helper method to print the venue map to the console
+	 * helper method to print the venue map to the console. A venue too large
+	 * for a seat map is shown as a summary of at most 20 sections instead
 	 */
 	private void printVenueMap(){
 		if(displayVenueMap){
-			String venueMap = venueTicketService.printVenue(venueId);
-			LOGGER.debug(venueMap);
-			terminal.print(venueMap);
+			StringBuilder venueMap = new StringBuilder();
+			try {
+				if(venueRows <= MAX_MAP_SIZE && venueSeatsPerRow <= MAX_MAP_SIZE){
+					venueTicketService.renderVenue(venueId, SeatMapViewport.ALL, venueMap);
+				} else {
+					int rowsPerSection = Math.max(1, (venueRows + MAX_SECTIONS - 1) / MAX_SECTIONS);
+					venueTicketService.renderSectionSummary(venueId, rowsPerSection, venueMap);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			LOGGER.debug(venueMap.toString());
+			terminal.print(venueMap.toString());
 		}
 	}
 	
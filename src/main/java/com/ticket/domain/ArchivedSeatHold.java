@@ -0,0 +1,79 @@
+package com.ticket.domain;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * the history of a seat hold that was purged once it stopped holding its
+ * seats. Only what is needed to answer questions about the hold later is
+ * kept, without its seats
+ */
+@Entity
+public class ArchivedSeatHold {
+
+	/**
+	 * the id the seat hold had
+	 */
+	@Id
+	private Integer seatHoldId;
+
+	/**
+	 * the id of the venue of the seat hold
+	 */
+	private Integer venueId;
+
+	/**
+	 * the email of the customer who owned the seat hold
+	 */
+	private String customerEmail;
+
+	/**
+	 * the time when the seat hold expired, null if it was invalidated
+	 */
+	private LocalDateTime expireTime;
+
+	/**
+	 * the time when the seat hold was archived
+	 */
+	private LocalDateTime archiveTime;
+
+	public ArchivedSeatHold(){}
+
+	/**
+	 * @return the seatHoldId
+	 */
+	public Integer getSeatHoldId() {
+		return seatHoldId;
+	}
+
+	/**
+	 * @return the venueId
+	 */
+	public Integer getVenueId() {
+		return venueId;
+	}
+
+	/**
+	 * @return the customerEmail
+	 */
+	public String getCustomerEmail() {
+		return customerEmail;
+	}
+
+	/**
+	 * @return the expireTime
+	 */
+	public LocalDateTime getExpireTime() {
+		return expireTime;
+	}
+
+	/**
+	 * @return the archiveTime
+	 */
+	public LocalDateTime getArchiveTime() {
+		return archiveTime;
+	}
+
+}
@@ -0,0 +1,530 @@
+package com.ticket.domain;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * seat state of a rectangular venue kept outside of the heap, for venues too
+ * large to hold a Seat entity per seat. Every seat takes a single int in a
+ * direct buffer: the top 2 bits hold the state (AVAILABLE, HELD or RESERVED
+ * as in SeatOccupancy) and the other 30 bits the handle of the seat hold or
+ * seat reservation, its id. Only the counters of each row and the row
+ * capacity tree stay on the heap.
+ *
+ * Seats are addressed by position, row index * seats per row + seat index,
+ * both from 0, the row index being the row number - 1. Holds are placed with
+ * the same rules as Row.holdSeats and Venue.findAndHoldSeats. The store does
+ * not expire holds: the owner of a handle releases its seats
+ */
+public class CompactSeatStore {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(CompactSeatStore.class);
+
+	/**
+	 * the number of bytes taken by each seat
+	 */
+	public static final int BYTES_PER_SEAT = 4;
+
+	/**
+	 * the largest handle that can be stored for a seat
+	 */
+	public static final int MAX_HANDLE = (1 << 30) - 1;
+
+	private static final int STATE_SHIFT = 30;
+
+	private final ByteBuffer buffer;
+
+	private final int numRows;
+
+	private final int seatsPerRow;
+
+	/**
+	 * the number of available seats in each row, guarded by the lock of the row
+	 */
+	private final int[] rowSeatsAvailable;
+
+	private final AtomicInteger seatsAvailable = new AtomicInteger();
+
+	private final AtomicInteger seatsHeld = new AtomicInteger();
+
+	private final AtomicInteger seatsReserved = new AtomicInteger();
+
+	private final RowLocks rowLocks = new RowLocks();
+
+	/**
+	 * the largest number of seats each row can hold
+	 */
+	private final RowCapacityTree rowCapacities;
+
+	/**
+	 * instantiates the store with every seat available
+	 */
+	private CompactSeatStore(ByteBuffer buffer, int numRows, int seatsPerRow) {
+		this.buffer = buffer;
+		this.numRows = numRows;
+		this.seatsPerRow = seatsPerRow;
+		this.rowSeatsAvailable = new int[numRows];
+		this.rowCapacities = new RowCapacityTree(numRows);
+		Arrays.fill(rowSeatsAvailable, seatsPerRow);
+		seatsAvailable.set(numRows * seatsPerRow);
+		indexRowCapacities();
+	}
+
+	/**
+	 * creates a store with every seat available in memory outside of the heap
+	 *
+	 * @param numRows
+	 *            the number of rows
+	 * @param seatsPerRow
+	 *            the number of seats in each row
+	 * @return the store
+	 */
+	public static CompactSeatStore allocateDirect(int numRows, int seatsPerRow) {
+		long capacity = (long) numRows * seatsPerRow * BYTES_PER_SEAT;
+		if (capacity > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many seats for a single store: " + numRows + "x" + seatsPerRow);
+		}
+		return new CompactSeatStore(ByteBuffer.allocateDirect((int) capacity), numRows, seatsPerRow);
+	}
+
+	/**
+	 * sets the state of a seat read back from the database. Only meant to be
+	 * called before the store is shared between threads, followed by
+	 * indexRowCapacities once every seat is set
+	 *
+	 * @param position
+	 *            the position of the seat
+	 * @param state
+	 *            the state of the seat: AVAILABLE, HELD or RESERVED
+	 * @param handle
+	 *            the handle of the seat hold or seat reservation of the seat, 0 if it is available
+	 */
+	public void restoreSeat(int position, int state, int handle) {
+		checkHandle(handle);
+		mark(position / seatsPerRow, position, state, state == SeatOccupancy.AVAILABLE ? 0 : handle);
+	}
+
+	/**
+	 * rebuilds the row capacity tree from the state of the seats, once they
+	 * have been restored
+	 */
+	public void indexRowCapacities() {
+		for (int row = 0; row < numRows; row++) {
+			rowCapacities.update(row, largestHold(row));
+		}
+	}
+
+	/**
+	 * @return the number of bytes taken by the store outside of the heap
+	 */
+	public long sizeInBytes() {
+		return buffer.capacity();
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getNumRows() {
+		return numRows;
+	}
+
+	/**
+	 * @return the number of seats in each row
+	 */
+	public int getSeatsPerRow() {
+		return seatsPerRow;
+	}
+
+	/**
+	 * @return number of seats available
+	 */
+	public int numSeatsAvailable() {
+		return seatsAvailable.get();
+	}
+
+	/**
+	 * @return number of seats held
+	 */
+	public int numSeatsHeld() {
+		return seatsHeld.get();
+	}
+
+	/**
+	 * @return number of seats reserved
+	 */
+	public int numSeatsReserved() {
+		return seatsReserved.get();
+	}
+
+	/**
+	 * @param position
+	 *            the position of the seat
+	 * @return the state of the seat: AVAILABLE, HELD or RESERVED
+	 */
+	public int state(int position) {
+		return buffer.getInt(offset(position)) >>> STATE_SHIFT;
+	}
+
+	/**
+	 * @param position
+	 *            the position of the seat
+	 * @return the handle of the seat hold or seat reservation of the seat, 0 if it is available
+	 */
+	public int handle(int position) {
+		return buffer.getInt(offset(position)) & MAX_HANDLE;
+	}
+
+	/**
+	 * holds seats in the first rows that can hold them, splitting the request
+	 * the same way as Venue.findAndHoldSeats when no row can hold it whole
+	 *
+	 * @param numSeatsRequested
+	 *            number of seats requested
+	 * @param holdHandle
+	 *            the handle of the seat hold
+	 * @return the positions of the seats held, or null if they could not all be held
+	 */
+	public int[] findAndHoldSeats(int numSeatsRequested, int holdHandle) {
+		checkHandle(holdHandle);
+		if (numSeatsRequested > numSeatsAvailable()) {
+			LOGGER.info("Not enough remaining seats in the venue");
+			return null;
+		}
+		List<Integer> seatRequests = new ArrayList<>();
+		int numCompleteRows = numSeatsRequested / seatsPerRow;
+		for (int i = 0; i < numCompleteRows; i++) {
+			seatRequests.add(seatsPerRow);
+		}
+		if (numSeatsRequested % seatsPerRow > 0) {
+			seatRequests.add(numSeatsRequested % seatsPerRow);
+		}
+
+		int[] heldSeats = new int[numSeatsRequested];
+		int numHeld = 0;
+		while (numHeld < numSeatsRequested) {
+			List<Integer> unfulfilled = new ArrayList<>();
+			for (Integer request : seatRequests) {
+				int[] held = holdSeatsInFirstRow(request, holdHandle);
+				if (held != null) {
+					System.arraycopy(held, 0, heldSeats, numHeld, held.length);
+					numHeld += held.length;
+				} else {
+					unfulfilled.add(request);
+				}
+			}
+			// halve the requests that could not be fulfilled and try the smaller groups
+			seatRequests = new ArrayList<>();
+			for (Integer request : unfulfilled) {
+				int halvedRequest = request / 2;
+				if (halvedRequest < 1) {
+					releaseHold(holdHandle, Arrays.copyOf(heldSeats, numHeld));
+					return null;
+				}
+				seatRequests.add(halvedRequest + request % 2);
+				seatRequests.add(halvedRequest);
+			}
+		}
+		return heldSeats;
+	}
+
+	/**
+	 * holds seats in the first row that can hold them
+	 *
+	 * @return the positions of the seats held, or null if no row can hold them
+	 */
+	private int[] holdSeatsInFirstRow(int numSeats, int holdHandle) {
+		int row = rowCapacities.firstAtLeast(numSeats, 0);
+		while (row >= 0) {
+			int[] heldSeats = holdSeats(row, numSeats, holdHandle);
+			if (heldSeats != null) {
+				return heldSeats;
+			}
+			row = rowCapacities.firstAtLeast(numSeats, row + 1);
+		}
+		return null;
+	}
+
+	/**
+	 * holds seats in a row with the same rules as Row.holdSeats: a block
+	 * starting from the center, otherwise every other seat on the side of the
+	 * first available seat
+	 *
+	 * @param row
+	 *            the index of the row
+	 * @param numSeats
+	 *            the number of seats to hold
+	 * @param holdHandle
+	 *            the handle of the seat hold
+	 * @return the positions of the seats held, or null if the row cannot hold them
+	 */
+	public int[] holdSeats(int row, int numSeats, int holdHandle) {
+		checkHandle(holdHandle);
+		ReentrantLock lock = rowLocks.lockFor(row + 1);
+		lock.lock();
+		try {
+			if (numSeats > seatsPerRow || numSeats > rowSeatsAvailable[row]) {
+				return null;
+			}
+			int first = row * seatsPerRow;
+			int[] heldSeats = new int[numSeats];
+			if (nextUnavailable(row, 0) >= numSeats) {
+				for (int i = 0; i < numSeats; i++) {
+					heldSeats[i] = first + i;
+				}
+			} else {
+				int firstAvailable = nextAvailable(row, 1);
+				if (firstAvailable < 0) {
+					return null;
+				}
+				int lastUnavailable = firstAvailable - 1;
+				if (lastUnavailable >= 1 && numSeats > (seatsPerRow - lastUnavailable) / 2
+						+ (seatsPerRow - lastUnavailable) % 2) {
+					return null;
+				}
+				int found = 0;
+				for (int seat = firstAvailable; seat < seatsPerRow && found < numSeats; seat += 2) {
+					if (state(first + seat) == SeatOccupancy.AVAILABLE) {
+						heldSeats[found++] = first + seat;
+					}
+				}
+				if (found < numSeats) {
+					return null;
+				}
+			}
+			for (int position : heldSeats) {
+				mark(row, position, SeatOccupancy.HELD, holdHandle);
+			}
+			rowCapacities.update(row, largestHold(row));
+			return heldSeats;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * reserves every seat of a seat hold as one atomic step
+	 *
+	 * @param holdHandle
+	 *            the handle of the seat hold
+	 * @param reservationHandle
+	 *            the handle of the seat reservation
+	 * @param positions
+	 *            the positions of the seats held
+	 * @return whether the seats were reserved. False if any of them is no longer held by the seat hold
+	 */
+	public boolean reserveSeats(int holdHandle, int reservationHandle, int[] positions) {
+		checkHandle(reservationHandle);
+		BitSet lockedStripes = rowLocks.lockAll(rowNumbers(positions));
+		try {
+			for (int position : positions) {
+				if (state(position) != SeatOccupancy.HELD || handle(position) != holdHandle) {
+					return false;
+				}
+			}
+			for (int position : positions) {
+				mark(position / seatsPerRow, position, SeatOccupancy.RESERVED, reservationHandle);
+			}
+			return true;
+		} finally {
+			rowLocks.unlockAll(lockedStripes);
+		}
+	}
+
+	/**
+	 * makes the seats still held by a seat hold available again
+	 *
+	 * @param holdHandle
+	 *            the handle of the seat hold
+	 * @param positions
+	 *            the positions of the seats held
+	 */
+	public void releaseHold(int holdHandle, int[] positions) {
+		BitSet lockedStripes = rowLocks.lockAll(rowNumbers(positions));
+		try {
+			BitSet changedRows = new BitSet(numRows);
+			for (int position : positions) {
+				if (state(position) == SeatOccupancy.HELD && handle(position) == holdHandle) {
+					mark(position / seatsPerRow, position, SeatOccupancy.AVAILABLE, 0);
+					changedRows.set(position / seatsPerRow);
+				}
+			}
+			for (int row = changedRows.nextSetBit(0); row >= 0; row = changedRows.nextSetBit(row + 1)) {
+				rowCapacities.update(row, largestHold(row));
+			}
+		} finally {
+			rowLocks.unlockAll(lockedStripes);
+		}
+	}
+
+	/**
+	 * writes the seat map of part of the venue in the same form as
+	 * Venue.renderSeatMap, one row at a time under the lock of the row
+	 *
+	 * @param out
+	 *            where the seat map is written
+	 * @param viewport
+	 *            the rows and seats shown
+	 * @throws IOException
+	 *             if the seat map cannot be written
+	 */
+	public void renderSeatMap(Appendable out, SeatMapViewport viewport) throws IOException {
+		Venue.appendSeatMapLegend(out);
+		for (int row = 0; row < numRows; row++) {
+			if (viewport.showsRow(row + 1)) {
+				int first = row * seatsPerRow;
+				char[] rowMap;
+				ReentrantLock lock = rowLocks.lockFor(row + 1);
+				lock.lock();
+				try {
+					rowMap = Row.mapOf(seat -> state(first + seat), seatsPerRow, viewport.getFirstSeat(),
+							viewport.getLastSeat());
+				} finally {
+					lock.unlock();
+				}
+				out.append(CharBuffer.wrap(rowMap)).append('\n');
+			}
+		}
+		out.append("\n\n");
+	}
+
+	/**
+	 * writes the number of seats available, held and reserved in each section
+	 * of the venue in the same form as Venue.renderSectionSummary
+	 *
+	 * @param out
+	 *            where the summary is written
+	 * @param rowsPerSection
+	 *            the number of rows in each section
+	 * @throws IOException
+	 *             if the summary cannot be written
+	 */
+	public void renderSectionSummary(Appendable out, int rowsPerSection) throws IOException {
+		if (rowsPerSection < 1) {
+			throw new IllegalArgumentException("Invalid number of rows per section " + rowsPerSection);
+		}
+		out.append("VENUE SECTIONS \n\n");
+		int[] counts = new int[3];
+		for (int row = 0; row < numRows; row++) {
+			ReentrantLock lock = rowLocks.lockFor(row + 1);
+			lock.lock();
+			try {
+				for (int position = row * seatsPerRow; position < (row + 1) * seatsPerRow; position++) {
+					counts[state(position)]++;
+				}
+			} finally {
+				lock.unlock();
+			}
+			if ((row + 1) % rowsPerSection == 0 || row == numRows - 1) {
+				Venue.appendSection(out, row / rowsPerSection * rowsPerSection + 1, row + 1,
+						counts[SeatOccupancy.AVAILABLE], counts[SeatOccupancy.HELD], counts[SeatOccupancy.RESERVED]);
+				Arrays.fill(counts, 0);
+			}
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * moves a seat to a new state and keeps the counters up to date. The
+	 * caller must hold the lock of the row
+	 */
+	private void mark(int row, int position, int state, int handle) {
+		int previous = state(position);
+		buffer.putInt(offset(position), state << STATE_SHIFT | handle);
+		if (previous != state) {
+			counterFor(previous).decrementAndGet();
+			counterFor(state).incrementAndGet();
+			if (previous == SeatOccupancy.AVAILABLE) {
+				rowSeatsAvailable[row]--;
+			} else if (state == SeatOccupancy.AVAILABLE) {
+				rowSeatsAvailable[row]++;
+			}
+		}
+	}
+
+	/**
+	 * the largest number of seats holdSeats can hold in a row, as Row.largestHold.
+	 * The caller must hold the lock of the row
+	 */
+	private int largestHold(int row) {
+		int centerBlock = nextUnavailable(row, 0);
+		int firstAvailable = nextAvailable(row, 1);
+		if (firstAvailable < 0) {
+			return centerBlock;
+		}
+		int side = 0;
+		for (int seat = firstAvailable; seat < seatsPerRow; seat += 2) {
+			if (state(row * seatsPerRow + seat) == SeatOccupancy.AVAILABLE) {
+				side++;
+			}
+		}
+		int lastUnavailable = firstAvailable - 1;
+		if (lastUnavailable >= 1) {
+			side = Math.min(side, (seatsPerRow - lastUnavailable) / 2 + (seatsPerRow - lastUnavailable) % 2);
+		}
+		return Math.max(centerBlock, side);
+	}
+
+	/**
+	 * @return the index in the row of the next available seat, or -1 if there is none
+	 */
+	private int nextAvailable(int row, int fromSeat) {
+		for (int seat = fromSeat; seat < seatsPerRow; seat++) {
+			if (state(row * seatsPerRow + seat) == SeatOccupancy.AVAILABLE) {
+				return seat;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index in the row of the next seat that is not available, or the number of seats per row
+	 */
+	private int nextUnavailable(int row, int fromSeat) {
+		for (int seat = fromSeat; seat < seatsPerRow; seat++) {
+			if (state(row * seatsPerRow + seat) != SeatOccupancy.AVAILABLE) {
+				return seat;
+			}
+		}
+		return seatsPerRow;
+	}
+
+	private int[] rowNumbers(int[] positions) {
+		int[] rowNumbers = new int[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			rowNumbers[i] = positions[i] / seatsPerRow + 1;
+		}
+		return rowNumbers;
+	}
+
+	private AtomicInteger counterFor(int state) {
+		switch (state) {
+		case SeatOccupancy.HELD:
+			return seatsHeld;
+		case SeatOccupancy.RESERVED:
+			return seatsReserved;
+		default:
+			return seatsAvailable;
+		}
+	}
+
+	private static int offset(int position) {
+		return position * BYTES_PER_SEAT;
+	}
+
+	private static void checkHandle(int handle) {
+		if (handle < 0 || handle > MAX_HANDLE) {
+			throw new IllegalArgumentException("Handle out of range: " + handle);
+		}
+	}
+
+}
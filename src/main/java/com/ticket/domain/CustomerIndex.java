@@ -0,0 +1,119 @@
+package com.ticket.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * the seat holds or reservations of each customer indexed by customer email,
+ * so the ones of a customer are found without going through those of every
+ * other customer. The entries of a customer are only changed while the map
+ * holds the lock of that customer, so customers never wait on each other
+ *
+ * @param <T>
+ *            the type of the entries
+ */
+public class CustomerIndex<T> {
+
+	/**
+	 * the entries of each customer, in the order they were added. A customer
+	 * without entries is removed
+	 */
+	private final ConcurrentHashMap<String, List<T>> entriesByCustomer = new ConcurrentHashMap<>();
+
+	/**
+	 * adds an entry for a customer
+	 *
+	 * @param customerEmail
+	 *            the email of the customer, entries without one are not indexed
+	 * @param entry
+	 *            the entry
+	 */
+	public void add(String customerEmail, T entry) {
+		if (customerEmail == null) {
+			return;
+		}
+		entriesByCustomer.compute(customerEmail, (email, entries) -> {
+			List<T> customerEntries = entries == null ? new ArrayList<>(2) : entries;
+			customerEntries.add(entry);
+			return customerEntries;
+		});
+	}
+
+	/**
+	 * removes an entry of a customer
+	 *
+	 * @param customerEmail
+	 *            the email of the customer
+	 * @param entry
+	 *            the entry, compared by identity
+	 * @return whether the entry was in the index
+	 */
+	public boolean remove(String customerEmail, T entry) {
+		if (customerEmail == null) {
+			return false;
+		}
+		boolean[] removed = new boolean[1];
+		entriesByCustomer.computeIfPresent(customerEmail, (email, entries) -> {
+			for (int i = 0; i < entries.size(); i++) {
+				if (entries.get(i) == entry) {
+					entries.remove(i);
+					removed[0] = true;
+					break;
+				}
+			}
+			return entries.isEmpty() ? null : entries;
+		});
+		return removed[0];
+	}
+
+	/**
+	 * @param customerEmail
+	 *            the email of the customer
+	 * @return a copy of the entries of the customer
+	 */
+	public List<T> find(String customerEmail) {
+		return find(customerEmail, entry -> true);
+	}
+
+	/**
+	 * @param customerEmail
+	 *            the email of the customer
+	 * @param filter
+	 *            the entries to return
+	 * @return a copy of the entries of the customer that match the filter
+	 */
+	public List<T> find(String customerEmail, Predicate<T> filter) {
+		if (customerEmail == null) {
+			return Collections.emptyList();
+		}
+		List<T> found = new ArrayList<>();
+		// the entries are copied under the lock of the customer since they are changed under it
+		entriesByCustomer.computeIfPresent(customerEmail, (email, entries) -> {
+			for (T entry : entries) {
+				if (filter.test(entry)) {
+					found.add(entry);
+				}
+			}
+			return entries;
+		});
+		return found;
+	}
+
+	/**
+	 * @return the number of customers with entries in the index
+	 */
+	public int numCustomers() {
+		return entriesByCustomer.size();
+	}
+
+	/**
+	 * removes every entry
+	 */
+	public void clear() {
+		entriesByCustomer.clear();
+	}
+
+}
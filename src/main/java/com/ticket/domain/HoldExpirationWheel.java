@@ -0,0 +1,199 @@
+package com.ticket.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * hashed timer wheel of seat hold expirations. Each committed seat hold is
+ * linked into the bucket of the tick when it expires, so scheduling and
+ * cancelling are constant time no matter how many holds are pending. Holds
+ * expiring more than one rotation away stay in their bucket until the
+ * rotation in which they are due
+ */
+public class HoldExpirationWheel {
+
+	/**
+	 * the default length of a tick
+	 */
+	public static final long DEFAULT_TICK_MILLIS = 10;
+
+	/**
+	 * the default number of buckets
+	 */
+	public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+	/**
+	 * the length of a tick in milliseconds
+	 */
+	private final long tickMillis;
+
+	/**
+	 * the head of the list of expirations in each bucket
+	 */
+	private final Expiration[] buckets;
+
+	/**
+	 * mask used to map a tick onto a bucket
+	 */
+	private final int mask;
+
+	/**
+	 * the last tick whose bucket has been expired
+	 */
+	private long lastTick;
+
+	/**
+	 * the number of pending expirations
+	 */
+	private int size;
+
+	/**
+	 * instantiates the wheel with the default tick and size
+	 *
+	 * @param startMillis
+	 *            the current time in epoch milliseconds
+	 */
+	public HoldExpirationWheel(long startMillis) {
+		this(DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, startMillis);
+	}
+
+	/**
+	 * instantiates the wheel
+	 *
+	 * @param tickMillis
+	 *            the length of a tick in milliseconds
+	 * @param wheelSize
+	 *            the number of buckets, rounded up to a power of two
+	 * @param startMillis
+	 *            the current time in epoch milliseconds
+	 */
+	public HoldExpirationWheel(long tickMillis, int wheelSize, long startMillis) {
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.tickMillis = tickMillis;
+		this.buckets = new Expiration[size];
+		this.mask = size - 1;
+		this.lastTick = startMillis / tickMillis;
+	}
+
+	/**
+	 * schedules the expiration of a seat hold, replacing any expiration
+	 * already scheduled for it
+	 *
+	 * @param seatHold
+	 *            the seat hold
+	 * @param deadlineMillis
+	 *            the time when the hold expires in epoch milliseconds
+	 */
+	public synchronized void schedule(SeatHold seatHold, long deadlineMillis) {
+		cancel(seatHold);
+		// round up so that a hold is never expired before its deadline
+		long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, lastTick + 1);
+		Expiration expiration = new Expiration(seatHold, deadlineMillis, (int) (tick & mask));
+		link(expiration);
+		seatHold.setExpiration(expiration);
+	}
+
+	/**
+	 * cancels the scheduled expiration of a seat hold, if any
+	 *
+	 * @param seatHold
+	 *            the seat hold
+	 */
+	public synchronized void cancel(SeatHold seatHold) {
+		Expiration expiration = seatHold.getExpiration();
+		if (expiration != null) {
+			unlink(expiration);
+			seatHold.setExpiration(null);
+		}
+	}
+
+	/**
+	 * advances the wheel to the given time and removes every seat hold whose
+	 * deadline has passed
+	 *
+	 * @param nowMillis
+	 *            the current time in epoch milliseconds
+	 * @return the seat holds that expired
+	 */
+	public synchronized List<SeatHold> expire(long nowMillis) {
+		long nowTick = nowMillis / tickMillis;
+		if (nowTick <= lastTick) {
+			return Collections.emptyList();
+		}
+		List<SeatHold> expired = null;
+		// no more than one full rotation is needed to visit every bucket
+		long ticks = Math.min(nowTick - lastTick, buckets.length);
+		for (long tick = lastTick + 1; tick <= lastTick + ticks; tick++) {
+			Expiration expiration = buckets[(int) (tick & mask)];
+			while (expiration != null) {
+				Expiration next = expiration.next;
+				if (expiration.deadlineMillis <= nowMillis) {
+					unlink(expiration);
+					expiration.seatHold.setExpiration(null);
+					if (expired == null) {
+						expired = new ArrayList<>();
+					}
+					expired.add(expiration.seatHold);
+				}
+				expiration = next;
+			}
+		}
+		lastTick = nowTick;
+		return expired == null ? Collections.<SeatHold> emptyList() : expired;
+	}
+
+	/**
+	 * @return the number of pending expirations
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	private void link(Expiration expiration) {
+		Expiration head = buckets[expiration.bucket];
+		expiration.next = head;
+		if (head != null) {
+			head.prev = expiration;
+		}
+		buckets[expiration.bucket] = expiration;
+		size++;
+	}
+
+	private void unlink(Expiration expiration) {
+		if (expiration.prev != null) {
+			expiration.prev.next = expiration.next;
+		} else {
+			buckets[expiration.bucket] = expiration.next;
+		}
+		if (expiration.next != null) {
+			expiration.next.prev = expiration.prev;
+		}
+		expiration.prev = null;
+		expiration.next = null;
+		size--;
+	}
+
+	/**
+	 * the scheduled expiration of a seat hold, linked into its bucket
+	 */
+	static final class Expiration {
+
+		private final SeatHold seatHold;
+
+		private final long deadlineMillis;
+
+		private final int bucket;
+
+		private Expiration prev;
+
+		private Expiration next;
+
+		Expiration(SeatHold seatHold, long deadlineMillis, int bucket) {
+			this.seatHold = seatHold;
+			this.deadlineMillis = deadlineMillis;
+			this.bucket = bucket;
+		}
+	}
+
+}
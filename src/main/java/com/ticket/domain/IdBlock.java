@@ -0,0 +1,51 @@
+package com.ticket.domain;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * the next block of ids to be given out for a kind of id. Every application
+ * instance takes a whole block at a time from this counter, so instances
+ * sharing the database never give out the same id
+ */
+@Entity
+public class IdBlock {
+
+	/**
+	 * the name of the kind of id
+	 */
+	@Id
+	private String name;
+
+	/**
+	 * the number of the next block to be given out
+	 */
+	private long nextBlock;
+
+	/**
+	 * instantiation of the counter
+	 * @param name the name of the kind of id
+	 * @param nextBlock the number of the next block to be given out
+	 */
+	public IdBlock(String name, long nextBlock) {
+		this.name = name;
+		this.nextBlock = nextBlock;
+	}
+
+	public IdBlock(){}
+
+	/**
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the nextBlock
+	 */
+	public long getNextBlock() {
+		return nextBlock;
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.ticket.domain;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * stores the times of the entities as timestamp columns instead of serialized
+ * objects, so that queries can compare them
+ */
+@Converter(autoApply = true)
+public class LocalDateTimeConverter implements AttributeConverter<LocalDateTime, Timestamp> {
+
+	@Override
+	public Timestamp convertToDatabaseColumn(LocalDateTime time) {
+		return time == null ? null : Timestamp.valueOf(time);
+	}
+
+	@Override
+	public LocalDateTime convertToEntityAttribute(Timestamp timestamp) {
+		return timestamp == null ? null : timestamp.toLocalDateTime();
+	}
+
+}
@@ -1,10 +1,16 @@
 package com.ticket.domain;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
 
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
@@ -14,6 +20,7 @@ import javax.persistence.Id;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.Transient;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,6 +30,11 @@ public class Row {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(Row.class);
 
+	/**
+	 * locks for rows that do not belong to a venue
+	 */
+	private static final RowLocks UNATTACHED_ROW_LOCKS = new RowLocks();
+
 	/**
 	 * unique identifier for the row throughout the system
 	 */
@@ -38,16 +50,43 @@ public class Row {
 	/**
 	 * list of all the seats in the row
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "row")
+	@OneToMany(mappedBy = "row")
 	@OrderBy("seatNumber ASC")
 	private Set<Seat> seats = new LinkedHashSet<Seat>();
 
 	/**
 	 * venue where the row is located
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private Venue venue;
 
+	/**
+	 * bitmap of the seat states used to search the row without inspecting
+	 * every seat. Built from the seats the first time it is needed
+	 */
+	@Transient
+	private SeatOccupancy occupancy;
+
+	/**
+	 * the seats of the row indexed by seat number - 1. Seats are numbered
+	 * consecutively from 1
+	 */
+	@Transient
+	private Seat[] seatIndex;
+
+	/**
+	 * the seat holds with seats in this row, checked for expiration before the
+	 * row is searched unless the venue has a background reaper
+	 */
+	@Transient
+	private List<SeatHold> activeHolds = new ArrayList<>();
+
+	/**
+	 * the position of the row in the row capacity tree of its venue
+	 */
+	@Transient
+	private int venueIndex = -1;
+
 	public Row() {
 
 	}
@@ -66,20 +105,61 @@ public class Row {
 	}
 
 	/**
-	 * loops through the seats in the row to determine how many are available
+	 * determines how many seats in the row are available
 	 * 
 	 * @return number of available seats
 	 */
 	public int numSeatsAvailable() {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			return refreshOccupancy().numAvailable();
+		} finally {
+			lock.unlock();
+		}
+	}
 
-		Iterator<Seat> it = seats.iterator();
-		int seatsAvailableInRow = 0;
-		while (it.hasNext()) {
-			if (it.next().isAvailable()) {
-				seatsAvailableInRow++;
-			}
+	/**
+	 * determines how many seats in the row are available at a given time
+	 * 
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return number of available seats
+	 */
+	int numSeatsAvailable(LocalDateTime now) {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			return refreshOccupancy(now).numAvailable();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of held seats in the row
+	 */
+	public int numSeatsHeld() {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			return refreshOccupancy().numHeld();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return number of reserved seats in the row
+	 */
+	public int numSeatsReserved() {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			return refreshOccupancy().numReserved();
+		} finally {
+			lock.unlock();
 		}
-		return seatsAvailableInRow;
 	}
 
 	/**
@@ -90,6 +170,22 @@ public class Row {
 	 * @return list of seats that have been held. If unsuccessful, returns null
 	 */
 	public List<Seat> holdSeats(int numSeatsRequested, SeatHold seatHold) {
+		// only one hold can search the row at a time so that a seat cannot be
+		// held twice
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			return holdAvailableSeats(numSeatsRequested, seatHold);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Places a hold on the number of seats requested if they are available.
+	 * The caller must hold the lock of the row
+	 */
+	private List<Seat> holdAvailableSeats(int numSeatsRequested, SeatHold seatHold) {
 		// initialize with the number requested to avoid having to recreate it
 		// internally
 		List<Seat> heldSeats = new ArrayList<>(numSeatsRequested);
@@ -98,15 +194,17 @@ public class Row {
 		if (numSeatsRequested > seats.size()) {
 			return heldSeats;
 		}
-		
-		//put the seats into an array list for easier access
-		List<Seat> seats = new ArrayList<>(this.seats);
+
+		SeatOccupancy occupancy = refreshOccupancy();
+		if (numSeatsRequested > occupancy.numAvailable()) {
+			return heldSeats;
+		}
 
 		// case where we can start from the middle
-		if (seats.get(0).isAvailable()) {
+		if (occupancy.isRangeAvailable(0, numSeatsRequested)) {
 			for (int i = 0; i < numSeatsRequested; i++) {
-				seats.get(i).placeHold(seatHold);
-				heldSeats.add(seats.get(i));
+				seatIndex[i].placeHold(seatHold);
+				heldSeats.add(seatIndex[i]);
 			}
 			return heldSeats;
 		}
@@ -114,22 +212,21 @@ public class Row {
 		// case where we can't start from the middle. Start with whichever side
 		// has the first available seat since this side will have the most seats
 		// available
-		for (int i = 1; i < seats.size(); i++) {
-
-			if (seats.get(i).isAvailable()) {
-				heldSeats = holdRightOrLeftSeats(numSeatsRequested, i, seatHold, seats);
-				return heldSeats;
-			} else {
-				// some optimization to short circuit the holding of seats if I
-				// can already tell there won't be enough in this row
-				if (numSeatsRequested > ((this.seats.size() - i) / 2) + (this.seats.size() - i) % 2) {
-					return heldSeats;
-				}
-			}
+		int firstAvailable = occupancy.nextAvailable(1);
+		if (firstAvailable < 0) {
+			// could not find available seats in the row
+			return heldSeats;
 		}
 
-		// could not find available seats in the row
-		return heldSeats;
+		// some optimization to short circuit the holding of seats if I can
+		// already tell there won't be enough in this row
+		int lastUnavailable = firstAvailable - 1;
+		if (lastUnavailable >= 1 && numSeatsRequested > ((seats.size() - lastUnavailable) / 2)
+				+ (seats.size() - lastUnavailable) % 2) {
+			return heldSeats;
+		}
+
+		return holdRightOrLeftSeats(numSeatsRequested, firstAvailable, seatHold);
 
 	}
 
@@ -138,26 +235,20 @@ public class Row {
 	 * @param numSeats
 	 *            number of seats to be held
 	 * @param startingSeat
-	 *            the first available seat on that side
+	 *            the index of the first available seat on that side
 	 * @return
 	 */
-	private List<Seat> holdRightOrLeftSeats(int numSeats, int startingSeat, SeatHold seatHold, List<Seat> seats) {
+	private List<Seat> holdRightOrLeftSeats(int numSeats, int startingSeat, SeatHold seatHold) {
 		List<Seat> heldSeats = new ArrayList<>(numSeats);
-		List<Seat> availableSeats = new ArrayList<>(numSeats);
 
-		// add the seats on the left or right side of center by moving by twos
-		for (int i = startingSeat; i < seats.size(); i += 2) {
-			if (seats.get(i).isAvailable()) {
-				availableSeats.add(seats.get(i));
-			}
-			if (availableSeats.size() == numSeats) {
-				break;
-			}
-		}
+		// find the seats on the left or right side of center by moving by twos
+		int[] availableSeats = new int[numSeats];
+		int numAvailableSeats = occupancy.collectAvailableEveryOther(startingSeat, numSeats, availableSeats);
 
 		// if there are enough seats available, place hold on the seats
-		if (availableSeats.size() >= numSeats) {
-			for (Seat seat : availableSeats) {
+		if (numAvailableSeats >= numSeats) {
+			for (int i = 0; i < numSeats; i++) {
+				Seat seat = seatIndex[availableSeats[i]];
 				seat.placeHold(seatHold);
 				heldSeats.add(seat);
 			}
@@ -166,25 +257,284 @@ public class Row {
 
 	}
 
+	/**
+	 * builds the occupancy bitmap if needed, otherwise releases the seats of
+	 * any seat holds that have expired unless a background reaper already
+	 * does. The clock is only read when one of them has to happen
+	 * 
+	 * @return the up to date occupancy bitmap
+	 */
+	private SeatOccupancy refreshOccupancy() {
+		if (occupancy != null && occupancy.size() == seats.size() && isExpiredHoldsReleasedInBackground()) {
+			return occupancy;
+		}
+		return refreshOccupancy(LocalDateTime.now());
+	}
+
+	/**
+	 * builds the occupancy bitmap if needed, otherwise releases the seats of
+	 * any seat holds that have expired unless a background reaper already does
+	 * 
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the up to date occupancy bitmap
+	 */
+	private SeatOccupancy refreshOccupancy(LocalDateTime now) {
+		if (occupancy == null || occupancy.size() != seats.size()) {
+			buildOccupancy(now);
+		} else if (!isExpiredHoldsReleasedInBackground()) {
+			releaseHoldsNoLongerHolding(now);
+		}
+		return occupancy;
+	}
+
+	/**
+	 * @return whether the expired seat holds of the row are only released by
+	 *         the background reaper of its venue
+	 */
+	private boolean isExpiredHoldsReleasedInBackground() {
+		return venue != null && venue.isExpiredHoldsReleasedInBackground();
+	}
+
+	/**
+	 * builds the occupancy bitmap from the current state of the seats
+	 * 
+	 * @param now
+	 *            the time used to expire seat holds
+	 */
+	private void buildOccupancy(LocalDateTime now) {
+		occupancy = new SeatOccupancy(seats.size());
+		seatIndex = new Seat[seats.size()];
+		activeHolds.clear();
+		for (Seat seat : seats) {
+			int index = seat.getSeatNumber() - 1;
+			seatIndex[index] = seat;
+			if (seat.isReserved()) {
+				occupancy.markReserved(index);
+			} else if (seat.getSeatHold() != null && seat.getSeatHold().isHolding(now)) {
+				occupancy.markHeld(index);
+				trackHold(seat.getSeatHold());
+			}
+		}
+	}
+
+	/**
+	 * releases the held seats of any seat hold in the row that is no longer
+	 * holding
+	 * 
+	 * @param now
+	 *            the time used to expire seat holds
+	 */
+	void releaseExpiredHolds(LocalDateTime now) {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			if (occupancy != null) {
+				releaseHoldsNoLongerHolding(now);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * releases the held seats of any seat hold in the row that is no longer
+	 * holding. The caller must hold the lock of the row
+	 */
+	private void releaseHoldsNoLongerHolding(LocalDateTime now) {
+		Iterator<SeatHold> it = activeHolds.iterator();
+		while (it.hasNext()) {
+			SeatHold seatHold = it.next();
+			if (!seatHold.isHolding(now)) {
+				it.remove();
+				for (int i = occupancy.nextHeld(0); i >= 0; i = occupancy.nextHeld(i + 1)) {
+					seatIndex[i].releaseHold(seatHold);
+				}
+			}
+		}
+	}
+
+	/**
+	 * stops tracking a seat hold whose seats were released by its venue, so a
+	 * row that is no longer swept does not keep every seat hold it ever had
+	 * 
+	 * @param seatHold
+	 *            the seat hold
+	 */
+	void forgetHold(SeatHold seatHold) {
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			Iterator<SeatHold> it = activeHolds.iterator();
+			while (it.hasNext()) {
+				if (it.next() == seatHold) {
+					it.remove();
+					return;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * records a seat hold so that its seats are released when it expires
+	 */
+	private void trackHold(SeatHold seatHold) {
+		for (SeatHold activeHold : activeHolds) {
+			if (activeHold == seatHold) {
+				return;
+			}
+		}
+		activeHolds.add(seatHold);
+	}
+
+	/**
+	 * @return the position of the row in the row capacity tree of its venue, or -1 if it has none
+	 */
+	int getVenueIndex() {
+		return venueIndex;
+	}
+
+	/**
+	 * @param venueIndex the position of the row in the row capacity tree of its venue
+	 */
+	void setVenueIndex(int venueIndex) {
+		this.venueIndex = venueIndex;
+	}
+
+	/**
+	 * @return the lock that must be held to change the state of the seats in
+	 *         the row
+	 */
+	ReentrantLock getLock() {
+		return (venue != null ? venue.getRowLocks() : UNATTACHED_ROW_LOCKS).lockFor(this);
+	}
+
+	/**
+	 * keeps the occupancy bitmap in sync with a seat whose state has changed.
+	 * The caller must hold the lock of the row
+	 * 
+	 * @param seat
+	 *            the seat that was held, reserved or released
+	 */
+	void updateOccupancy(Seat seat) {
+		if (occupancy == null) {
+			return;
+		}
+		int state;
+		if (seat.isReserved()) {
+			state = SeatOccupancy.RESERVED;
+		} else if (seat.getSeatHold() != null) {
+			state = SeatOccupancy.HELD;
+			trackHold(seat.getSeatHold());
+		} else {
+			state = SeatOccupancy.AVAILABLE;
+		}
+		int previous = occupancy.mark(seat.getSeatNumber() - 1, state);
+		if (venue != null && previous != state) {
+			venue.seatStateChanged(this, seat.getSeatNumber(), previous, state);
+			venue.rowCapacityChanged(this);
+		}
+	}
+
+	/**
+	 * computes the largest number of seats a single call to holdSeats can
+	 * hold in the row given the current state of its seats: either a block
+	 * starting from the center or every other seat on the side of the first
+	 * available seat. The caller must hold the lock of the row and the
+	 * occupancy bitmap must be built
+	 * 
+	 * @return the largest number of seats that can be held
+	 */
+	int largestHold() {
+		// a block of seats starting from the center
+		int centerBlock = occupancy.nextUnavailable(0);
+		int firstAvailable = occupancy.nextAvailable(1);
+		if (firstAvailable < 0) {
+			return centerBlock;
+		}
+		// every other seat on the side of the first available seat
+		int side = occupancy.countAvailableEveryOther(firstAvailable);
+		int lastUnavailable = firstAvailable - 1;
+		if (lastUnavailable >= 1) {
+			side = Math.min(side, (seats.size() - lastUnavailable) / 2 + (seats.size() - lastUnavailable) % 2);
+		}
+		return Math.max(centerBlock, side);
+	}
+
 	/**
 	 * prints a map of the seats in the row
 	 * 
 	 * @return string representation of the row
 	 */
 	public String print() {
-		Iterator<Seat> it = seats.iterator();
-		String rowString = " ";
-		while (it.hasNext()) {
-			Seat currentSeat = it.next();
-			// takes into account the odds being on the left and the evens being
-			// on the right
-			if ((currentSeat.getSeatNumber()) % 2 == 1) {
-				rowString = " " + currentSeat.print() + rowString;
-			} else {
-				rowString = rowString + currentSeat.print() + " ";
-			}
+		StringBuilder rowString = new StringBuilder(seats.size() * 2 + 1);
+		try {
+			render(rowString, 1, Integer.MAX_VALUE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return rowString.toString();
+	}
+
+	/**
+	 * writes a map of some of the seats in the row in one pass over the seat
+	 * states. The odd seats are on the left, counting down to the center, and
+	 * the even seats on the right. The states are copied under the lock of the
+	 * row, so the row is not held while writing
+	 * 
+	 * @param out
+	 *            where the map is written
+	 * @param firstSeat
+	 *            the number of the first seat shown
+	 * @param lastSeat
+	 *            the number of the last seat shown
+	 * @throws IOException
+	 *             if the map cannot be written
+	 */
+	public void render(Appendable out, int firstSeat, int lastSeat) throws IOException {
+		char[] rowMap;
+		ReentrantLock lock = getLock();
+		lock.lock();
+		try {
+			SeatOccupancy seatStates = refreshOccupancy();
+			rowMap = mapOf(seatStates::state, seatStates.size(), firstSeat, lastSeat);
+		} finally {
+			lock.unlock();
 		}
-		return rowString;
+		out.append(CharBuffer.wrap(rowMap));
+	}
+
+	/**
+	 * lays out the map of some of the seats of a row, the odd seats on the
+	 * left counting down to the center and the even seats on the right
+	 * 
+	 * @param states
+	 *            the state of the seat at each index, as in SeatOccupancy
+	 * @param numSeats
+	 *            the number of seats in the row
+	 * @param firstSeat
+	 *            the number of the first seat shown
+	 * @param lastSeat
+	 *            the number of the last seat shown
+	 * @return the map of the row
+	 */
+	static char[] mapOf(IntUnaryOperator states, int numSeats, int firstSeat, int lastSeat) {
+		int first = Math.max(firstSeat, 1);
+		int last = Math.min(lastSeat, numSeats);
+		char[] rowMap = new char[Math.max(0, last - first + 1) * 2 + 1];
+		int position = 0;
+		for (int seatNumber = last % 2 == 1 ? last : last - 1; seatNumber >= first; seatNumber -= 2) {
+			rowMap[position++] = ' ';
+			rowMap[position++] = SeatOccupancy.code(states.applyAsInt(seatNumber - 1));
+		}
+		rowMap[position++] = ' ';
+		for (int seatNumber = first % 2 == 0 ? first : first + 1; seatNumber <= last; seatNumber += 2) {
+			rowMap[position++] = SeatOccupancy.code(states.applyAsInt(seatNumber - 1));
+			rowMap[position++] = ' ';
+		}
+		return rowMap;
 	}
 
 	/**
@@ -227,6 +577,10 @@ public class Row {
 	 */
 	public void setSeats(Set<Seat> seats) {
 		this.seats = seats;
+		this.occupancy = null;
+		if (venue != null) {
+			venue.resetSeatCounts();
+		}
 	}
 
 	/**
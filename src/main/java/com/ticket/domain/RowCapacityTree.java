@@ -0,0 +1,120 @@
+package com.ticket.domain;
+
+/**
+ * segment tree over the rows of a venue that keeps, for every range of rows,
+ * the largest number of seats a single row in the range can hold. Finding the
+ * first row that can hold a request and updating a row after its seats change
+ * both take O(log R) steps instead of scanning the rows from the front
+ */
+public class RowCapacityTree {
+
+	/**
+	 * the number of rows tracked
+	 */
+	private final int size;
+
+	/**
+	 * the number of leaves, the smallest power of two not below the number of rows
+	 */
+	private final int leaves;
+
+	/**
+	 * the tree stored breadth first from index 1. The capacity of row i is at
+	 * index leaves + i and every other node holds the larger of its children
+	 */
+	private final int[] capacities;
+
+	/**
+	 * instantiates the tree with every row unable to hold any seat
+	 *
+	 * @param size
+	 *            the number of rows to track
+	 */
+	public RowCapacityTree(int size) {
+		this.size = size;
+		this.leaves = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.capacities = new int[2 * leaves];
+	}
+
+	/**
+	 * @return the number of rows tracked
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the row
+	 * @return the largest number of seats the row can hold
+	 */
+	public synchronized int get(int index) {
+		return capacities[leaves + index];
+	}
+
+	/**
+	 * @return the largest number of seats any row can hold
+	 */
+	public synchronized int max() {
+		return capacities[1];
+	}
+
+	/**
+	 * records the largest number of seats a row can hold
+	 *
+	 * @param index
+	 *            the index of the row
+	 * @param capacity
+	 *            the largest number of seats the row can hold
+	 */
+	public synchronized void update(int index, int capacity) {
+		int node = leaves + index;
+		if (capacities[node] == capacity) {
+			return;
+		}
+		capacities[node] = capacity;
+		for (node >>>= 1; node > 0; node >>>= 1) {
+			int max = Math.max(capacities[2 * node], capacities[2 * node + 1]);
+			if (capacities[node] == max) {
+				break;
+			}
+			capacities[node] = max;
+		}
+	}
+
+	/**
+	 * finds the first row from a given index that can hold a number of seats
+	 *
+	 * @param numSeats
+	 *            the number of seats to hold
+	 * @param fromIndex
+	 *            the index of the first row to consider
+	 * @return the index of the row, or -1 if no row from the index can hold that many seats
+	 */
+	public synchronized int firstAtLeast(int numSeats, int fromIndex) {
+		if (fromIndex >= size) {
+			return -1;
+		}
+		return find(1, 0, leaves - 1, numSeats, fromIndex);
+	}
+
+	/**
+	 * descends into the leftmost subtree that overlaps the rows from the index
+	 * and has a row with enough capacity
+	 */
+	private int find(int node, int first, int last, int numSeats, int fromIndex) {
+		if (last < fromIndex || capacities[node] < numSeats) {
+			return -1;
+		}
+		if (first == last) {
+			return first;
+		}
+		int middle = (first + last) >>> 1;
+		int index = find(2 * node, first, middle, numSeats, fromIndex);
+		if (index < 0) {
+			index = find(2 * node + 1, middle + 1, last, numSeats, fromIndex);
+		}
+		return index;
+	}
+
+}
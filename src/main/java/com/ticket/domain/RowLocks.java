@@ -0,0 +1,140 @@
+package com.ticket.domain;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * fixed set of locks shared by the rows of a venue. Each row is guarded by the
+ * lock of its stripe, so holds in rows of different stripes can proceed in
+ * parallel while the number of locks stays bounded for very large venues.
+ * Consecutive rows fall into different stripes since customers compete for
+ * the rows closest to the stage
+ */
+public class RowLocks {
+
+	/**
+	 * the number of stripes used when none is given
+	 */
+	public static final int DEFAULT_STRIPES = 64;
+
+	/**
+	 * the lock for each stripe
+	 */
+	private final ReentrantLock[] locks;
+
+	/**
+	 * mask used to map a row number onto a stripe
+	 */
+	private final int mask;
+
+	/**
+	 * instantiates the locks with the default number of stripes
+	 */
+	public RowLocks() {
+		this(DEFAULT_STRIPES);
+	}
+
+	/**
+	 * instantiates the locks
+	 * 
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public RowLocks(int stripes) {
+		int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+		this.locks = new ReentrantLock[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * @param row
+	 *            the row
+	 * @return the stripe that guards the row
+	 */
+	public int stripe(Row row) {
+		return stripe(row.getRowNumber());
+	}
+
+	/**
+	 * @param rowNumber
+	 *            the number of the row, from 1
+	 * @return the stripe that guards the row
+	 */
+	public int stripe(int rowNumber) {
+		return (rowNumber - 1) & mask;
+	}
+
+	/**
+	 * @param row
+	 *            the row
+	 * @return the lock that guards the row
+	 */
+	public ReentrantLock lockFor(Row row) {
+		return locks[stripe(row)];
+	}
+
+	/**
+	 * @param rowNumber
+	 *            the number of the row, from 1
+	 * @return the lock that guards the row
+	 */
+	public ReentrantLock lockFor(int rowNumber) {
+		return locks[stripe(rowNumber)];
+	}
+
+	/**
+	 * acquires the locks of every given row. The locks are always taken in
+	 * stripe order so that two callers locking overlapping rows cannot
+	 * deadlock
+	 * 
+	 * @param rows
+	 *            the rows to lock
+	 * @return the stripes that were locked, to be passed to unlockAll
+	 */
+	public BitSet lockAll(Collection<Row> rows) {
+		BitSet stripes = new BitSet(locks.length);
+		for (Row row : rows) {
+			stripes.set(stripe(row));
+		}
+		return lockStripes(stripes);
+	}
+
+	/**
+	 * acquires the locks of every given row in stripe order
+	 * 
+	 * @param rowNumbers
+	 *            the numbers of the rows to lock, from 1
+	 * @return the stripes that were locked, to be passed to unlockAll
+	 */
+	public BitSet lockAll(int[] rowNumbers) {
+		BitSet stripes = new BitSet(locks.length);
+		for (int rowNumber : rowNumbers) {
+			stripes.set(stripe(rowNumber));
+		}
+		return lockStripes(stripes);
+	}
+
+	private BitSet lockStripes(BitSet stripes) {
+		for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+			locks[i].lock();
+		}
+		return stripes;
+	}
+
+	/**
+	 * releases the locks acquired by lockAll
+	 * 
+	 * @param stripes
+	 *            the stripes returned by lockAll
+	 */
+	public void unlockAll(BitSet stripes) {
+		for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1)) {
+			locks[i].unlock();
+		}
+	}
+
+}
@@ -1,10 +1,16 @@
 package com.ticket.domain;
 
+import java.util.concurrent.locks.ReentrantLock;
+
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Version;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +20,7 @@ import org.slf4j.LoggerFactory;
  *
  */
 @Entity
+@Table(indexes = @Index(name = "seat_row_seat_number", columnList = "row_row_id, seatNumber"))
 public class Seat {
 	
 	public static final Logger LOGGER = LoggerFactory.getLogger(Seat.class);
@@ -34,21 +41,28 @@ public class Seat {
 	/**
 	 * the seat hold associated with this seat
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private SeatHold seatHold;
 	
 	/**
 	 * seat reservation for the seat object
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private SeatReservation seatReservation;
 	
 	/**
 	 * row where the seat is located
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private Row row;
 	
+	/**
+	 * the version of the seat in the database, incremented every time the seat is written
+	 * so that a change made from a stale copy of the seat is detected
+	 */
+	@Version
+	private int version;
+	
 	protected Seat(){}
 	
 	/**
@@ -125,7 +139,18 @@ public class Seat {
 	 * @return time when the seat was held
 	 */
 	public void placeHold(SeatHold seatHold) {
-		this.seatHold = seatHold;
+		if (row == null) {
+			this.seatHold = seatHold;
+			return;
+		}
+		ReentrantLock lock = row.getLock();
+		lock.lock();
+		try {
+			this.seatHold = seatHold;
+			row.updateOccupancy(this);
+		} finally {
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -133,7 +158,55 @@ public class Seat {
 	 * @param seatReservation the reservation on the seat
 	 */
 	public void reserveSeat(SeatReservation seatReservation) {
-		this.seatReservation = seatReservation;
+		if (row == null) {
+			this.seatReservation = seatReservation;
+			return;
+		}
+		ReentrantLock lock = row.getLock();
+		lock.lock();
+		try {
+			this.seatReservation = seatReservation;
+			row.updateOccupancy(this);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * releases the hold on the seat if it is still held by the given seat hold and has not been reserved
+	 * @param seatHold the seat hold being released
+	 */
+	public void releaseHold(SeatHold seatHold) {
+		if (row == null) {
+			if (this.seatHold == seatHold && !isReserved()) {
+				this.seatHold = null;
+			}
+			return;
+		}
+		ReentrantLock lock = row.getLock();
+		lock.lock();
+		try {
+			if (this.seatHold == seatHold && !isReserved()) {
+				this.seatHold = null;
+				row.updateOccupancy(this);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * copies the state of the seat as it is now, so that it can be written
+	 * later even if the seat changes again in the meantime
+	 * @return a seat with only the id, version, seat hold and seat reservation of this seat
+	 */
+	public Seat copyState() {
+		Seat copy = new Seat();
+		copy.seatId = seatId;
+		copy.version = version;
+		copy.seatHold = seatHold;
+		copy.seatReservation = seatReservation;
+		return copy;
 	}
 
 	/**
@@ -150,6 +223,20 @@ public class Seat {
 		this.seatId = seatId;
 	}
 
+	/**
+	 * @return the version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version the version to set
+	 */
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	/**
 	 * @return the seatHold
 	 */
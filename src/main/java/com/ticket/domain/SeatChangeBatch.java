@@ -0,0 +1,118 @@
+package com.ticket.domain;
+
+/**
+ * the seat state changes read from a change feed, oldest first. Each change
+ * carries the state the seat is in afterwards rather than what happened to
+ * it, so applying a change the seat map already shows is harmless
+ */
+public class SeatChangeBatch {
+
+	private static final SeatChangeBatch SNAPSHOT_REQUIRED = new SeatChangeBatch(-1, new long[0], new int[0],
+			new int[0], new byte[0]);
+
+	/**
+	 * the revision the seat map is at once the changes are applied, -1 if a new seat map must be read
+	 */
+	private final long revision;
+
+	private final long[] revisions;
+
+	private final int[] rowNumbers;
+
+	private final int[] seatNumbers;
+
+	private final byte[] states;
+
+	/**
+	 * instantiation of the batch
+	 * @param revision the revision the seat map is at once the changes are applied
+	 * @param revisions the revision of each change
+	 * @param rowNumbers the row number of each change
+	 * @param seatNumbers the seat number of each change
+	 * @param states the state of the seat after each change
+	 */
+	SeatChangeBatch(long revision, long[] revisions, int[] rowNumbers, int[] seatNumbers, byte[] states) {
+		this.revision = revision;
+		this.revisions = revisions;
+		this.rowNumbers = rowNumbers;
+		this.seatNumbers = seatNumbers;
+		this.states = states;
+	}
+
+	/**
+	 * @return the batch telling a viewer that it fell too far behind and must read a new seat map
+	 */
+	public static SeatChangeBatch snapshotRequired() {
+		return SNAPSHOT_REQUIRED;
+	}
+
+	/**
+	 * @return whether the viewer must read a new seat map instead of applying changes
+	 */
+	public boolean isSnapshotRequired() {
+		return this == SNAPSHOT_REQUIRED;
+	}
+
+	/**
+	 * @return the revision to read the next changes from
+	 */
+	public long getRevision() {
+		return revision;
+	}
+
+	/**
+	 * @return the number of changes
+	 */
+	public int size() {
+		return revisions.length;
+	}
+
+	/**
+	 * @param index the index of the change
+	 * @return the revision the venue moved to with the change
+	 */
+	public long getRevision(int index) {
+		return revisions[index];
+	}
+
+	/**
+	 * @param index the index of the change
+	 * @return the number of the row of the seat
+	 */
+	public int getRowNumber(int index) {
+		return rowNumbers[index];
+	}
+
+	/**
+	 * @param index the index of the change
+	 * @return the number of the seat
+	 */
+	public int getSeatNumber(int index) {
+		return seatNumbers[index];
+	}
+
+	/**
+	 * @param index the index of the change
+	 * @return the state of the seat after the change, one of the SeatOccupancy states
+	 */
+	public int getState(int index) {
+		return states[index];
+	}
+
+	/**
+	 * @param index the index of the change
+	 * @return the code shown in the seat map for the state of the seat after the change
+	 */
+	public char getStateCode(int index) {
+		return SeatOccupancy.code(states[index]);
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SeatChangeBatch [revision=" + revision + ", size=" + size() + "]";
+	}
+
+}
@@ -0,0 +1,151 @@
+package com.ticket.domain;
+
+import java.util.function.LongSupplier;
+
+/**
+ * the latest seat state changes of a venue, each one numbered with the state
+ * revision it moved the venue to, kept in a ring of fixed size. Viewers keep
+ * the revision of the seat map they show and read the changes after it, so
+ * they apply only what changed instead of reading the whole seat map again.
+ * Writers never wait for viewers: the oldest change is overwritten when the
+ * ring is full, and a viewer that fell further behind than the ring reaches
+ * back is told to read a new seat map
+ */
+public class SeatChangeFeed {
+
+	/**
+	 * the revision, row number and seat number of each change, indexed by
+	 * sequence modulo the capacity
+	 */
+	private final long[] revisions;
+
+	private final int[] rowNumbers;
+
+	private final int[] seatNumbers;
+
+	/**
+	 * the state of the seat after each change, one of the SeatOccupancy states
+	 */
+	private final byte[] states;
+
+	/**
+	 * one less than the capacity, which is a power of two
+	 */
+	private final int mask;
+
+	/**
+	 * the number of changes recorded since the feed was created
+	 */
+	private long sequence;
+
+	/**
+	 * the feed holds every change made after this revision, as long as no
+	 * change was overwritten since
+	 */
+	private long completeAfter;
+
+	/**
+	 * instantiation of the feed
+	 * @param capacity the smallest number of changes kept, rounded up to a power of two
+	 * @param revision the revision of the venue when the feed is created
+	 */
+	public SeatChangeFeed(int capacity, long revision) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Invalid change feed capacity " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.revisions = new long[size];
+		this.rowNumbers = new int[size];
+		this.seatNumbers = new int[size];
+		this.states = new byte[size];
+		this.mask = size - 1;
+		this.completeAfter = revision;
+	}
+
+	/**
+	 * records the change of a seat. The revision is handed out while the
+	 * feed is locked, so the changes are kept in revision order
+	 * @param rowNumber the number of the row of the seat
+	 * @param seatNumber the number of the seat
+	 * @param state the state the seat is now in
+	 * @param nextRevision hands out the revision of the change
+	 * @return the revision of the change
+	 */
+	public synchronized long record(int rowNumber, int seatNumber, int state, LongSupplier nextRevision) {
+		long revision = nextRevision.getAsLong();
+		int index = (int) (sequence & mask);
+		if (sequence > mask) {
+			// the oldest change is overwritten, so viewers behind it need a new seat map
+			completeAfter = revisions[index];
+		}
+		revisions[index] = revision;
+		rowNumbers[index] = rowNumber;
+		seatNumbers[index] = seatNumber;
+		states[index] = (byte) state;
+		sequence++;
+		return revision;
+	}
+
+	/**
+	 * drops every change, for when the seats of the venue were replaced as a
+	 * whole, so viewers from before need a new seat map
+	 * @param nextRevision hands out the revision of the replacement
+	 * @return the revision of the replacement
+	 */
+	public synchronized long restart(LongSupplier nextRevision) {
+		long revision = nextRevision.getAsLong();
+		completeAfter = revision;
+		sequence = 0;
+		return revision;
+	}
+
+	/**
+	 * reads the changes made after a revision
+	 * @param revision the revision of the seat map of the viewer
+	 * @param maxChanges the largest number of changes read
+	 * @return the changes in revision order, or a batch asking for a new seat
+	 *         map if some of the changes were already overwritten
+	 */
+	public synchronized SeatChangeBatch changesSince(long revision, int maxChanges) {
+		if (revision < completeAfter) {
+			return SeatChangeBatch.snapshotRequired();
+		}
+		long oldest = Math.max(0, sequence - revisions.length);
+		// changes are in revision order, so the first change after the revision is found by binary search
+		long low = oldest;
+		long high = sequence;
+		while (low < high) {
+			long middle = (low + high) >>> 1;
+			if (revisions[(int) (middle & mask)] <= revision) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int size = (int) Math.min(sequence - low, maxChanges);
+		long[] batchRevisions = new long[size];
+		int[] batchRowNumbers = new int[size];
+		int[] batchSeatNumbers = new int[size];
+		byte[] batchStates = new byte[size];
+		for (int i = 0; i < size; i++) {
+			int index = (int) ((low + i) & mask);
+			batchRevisions[i] = revisions[index];
+			batchRowNumbers[i] = rowNumbers[index];
+			batchSeatNumbers[i] = seatNumbers[index];
+			batchStates[i] = states[index];
+		}
+		return new SeatChangeBatch(size == 0 ? revision : batchRevisions[size - 1], batchRevisions, batchRowNumbers,
+				batchSeatNumbers, batchStates);
+	}
+
+	/**
+	 * @return the largest number of changes kept
+	 */
+	public int capacity() {
+		return revisions.length;
+	}
+
+}
@@ -9,8 +9,12 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
+import javax.persistence.Transient;
+import javax.persistence.Version;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +23,7 @@ import org.slf4j.LoggerFactory;
  * describes the information associated with a seat hold placed by a customer
  */
 @Entity
+@Table(indexes = @Index(name = "seat_hold_customer_email", columnList = "customerEmail"))
 public class SeatHold {
 
 	public static final Logger LOGGER = LoggerFactory.getLogger(SeatHold.class);
@@ -33,7 +38,7 @@ public class SeatHold {
 	/**
 	 * the list of seats that are held by the seat hold
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "seatHold")
+	@OneToMany(mappedBy = "seatHold")
 	private List<Seat> seatsHeld;
 	
 	/**
@@ -54,9 +59,21 @@ public class SeatHold {
 	/**
 	 * the venue where the seat hold is located
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private Venue venue;
 	
+	/**
+	 * the version of the seat hold in the database, incremented every time the seat hold is saved
+	 */
+	@Version
+	private int version;
+	
+	/**
+	 * the scheduled expiration of the seat hold in the venue's expiration wheel
+	 */
+	@Transient
+	private HoldExpirationWheel.Expiration expiration;
+	
 	/**
 	 * instantiation of the seat hold
 	 * @param seatsHeld the seats held
@@ -79,6 +96,9 @@ public class SeatHold {
 	public void commitSeatHold(LocalDateTime expireTime){
 		this.expireTime = expireTime;
 		this.inProgress = false;
+		if(venue != null){
+			venue.scheduleExpiration(this);
+		}
 	}
 	
 	/**
@@ -88,22 +108,41 @@ public class SeatHold {
 		return inProgress;
 	}
 	
+	/**
+	 * ends the seat hold and releases the seats that it was holding
+	 */
 	public void invalidate(){
 		this.inProgress = false;
 		if(this.expireTime != null){
 			this.expireTime = null;
 		}
+		if(venue != null){
+			venue.cancelExpiration(this);
+		}
+		if(seatsHeld != null){
+			for(Seat seat : seatsHeld){
+				seat.releaseHold(this);
+			}
+		}
 	}
 
 	/**
 	 * @return whether the seat hold is currently holding the seats
 	 */
 	public boolean isHolding(){
+		return isHolding(LocalDateTime.now());
+	}
+	
+	/**
+	 * @param now the time to compare against the expiration time
+	 * @return whether the seat hold is holding the seats at the given time
+	 */
+	public boolean isHolding(LocalDateTime now){
 		if(this.inProgress){
 			return true;
 		}
 		else 
-		if(expireTime != null && LocalDateTime.now().isBefore(expireTime)){
+		if(expireTime != null && now.isBefore(expireTime)){
 			return true;
 		}
 		return false;
@@ -135,6 +174,20 @@ public class SeatHold {
 		this.seatHoldId = seatHoldId;
 	}
 
+	/**
+	 * @return the version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param version the version to set
+	 */
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
 	/**
 	 * @return the seatsHeld
 	 */
@@ -198,6 +251,20 @@ public class SeatHold {
 		this.inProgress = inProgress;
 	}
 
+	/**
+	 * @return the scheduled expiration, guarded by the expiration wheel
+	 */
+	HoldExpirationWheel.Expiration getExpiration() {
+		return expiration;
+	}
+
+	/**
+	 * @param expiration the scheduled expiration to set, guarded by the expiration wheel
+	 */
+	void setExpiration(HoldExpirationWheel.Expiration expiration) {
+		this.expiration = expiration;
+	}
+
 
 	
 
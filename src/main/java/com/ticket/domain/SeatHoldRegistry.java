@@ -0,0 +1,330 @@
+package com.ticket.domain;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the live seat holds indexed by id in an open addressing table with
+ * primitive int keys, so a seat hold is found without boxing its id or
+ * reading it from the database. Each entry keeps the seat hold, the ids of
+ * its seats and the time it expires. Entries are removed when their hold is
+ * reserved, invalidated or expires, expired entries are swept before the
+ * table grows and the table shrinks as entries are removed, so its size
+ * follows the number of live seat holds
+ */
+public class SeatHoldRegistry {
+
+	/**
+	 * the expiration time of a seat hold that is removed explicitly rather
+	 * than when it expires
+	 */
+	public static final long NEVER_EXPIRES = Long.MAX_VALUE;
+
+	/**
+	 * the expiration time returned for a seat hold that is not in the registry
+	 */
+	public static final long NOT_FOUND = Long.MIN_VALUE;
+
+	/**
+	 * the key of an empty slot. Seat hold ids start at one
+	 */
+	private static final int EMPTY = 0;
+
+	private static final int DEFAULT_CAPACITY = 64;
+
+	/**
+	 * the smallest size the table shrinks to
+	 */
+	private final int minCapacity;
+
+	/**
+	 * the seat hold id in each slot
+	 */
+	private int[] keys;
+
+	/**
+	 * the seat hold in each slot, null if the caller only keeps its seats
+	 */
+	private SeatHold[] seatHolds;
+
+	/**
+	 * the ids of the seats of the seat hold in each slot
+	 */
+	private int[][] seatIds;
+
+	/**
+	 * the time in epoch milliseconds when the seat hold in each slot expires
+	 */
+	private long[] expireMillis;
+
+	/**
+	 * mask used to map a hash onto a slot
+	 */
+	private int mask;
+
+	/**
+	 * the number of seat holds in the registry
+	 */
+	private int size;
+
+	public SeatHoldRegistry() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param minCapacity
+	 *            the smallest number of slots, rounded up to a power of two
+	 */
+	public SeatHoldRegistry(int minCapacity) {
+		this.minCapacity = Integer.highestOneBit(Math.max(2, minCapacity) - 1) << 1;
+		allocate(this.minCapacity);
+	}
+
+	/**
+	 * adds a seat hold, replacing any entry with the same id
+	 *
+	 * @param seatHoldId
+	 *            the id of the seat hold, greater than zero
+	 * @param seatHold
+	 *            the seat hold, or null
+	 * @param seatIds
+	 *            the ids of the seats of the seat hold
+	 * @param expireMillis
+	 *            the time in epoch milliseconds when the seat hold expires,
+	 *            or NEVER_EXPIRES
+	 */
+	public synchronized void register(int seatHoldId, SeatHold seatHold, int[] seatIds, long expireMillis) {
+		if (seatHoldId <= EMPTY) {
+			throw new IllegalArgumentException("Invalid seat hold id " + seatHoldId);
+		}
+		int index = indexOf(seatHoldId);
+		if (index < 0) {
+			if ((size + 1) * 2 > keys.length) {
+				// make room by dropping the expired seat holds, and grow unless that
+				// freed enough slots to put off the next sweep for a while
+				removeExpiredEntries(System.currentTimeMillis());
+				if ((size + 1) * 8 > keys.length * 3) {
+					resize(keys.length * 2);
+				}
+			}
+			index = hash(seatHoldId) & mask;
+			while (keys[index] != EMPTY) {
+				index = (index + 1) & mask;
+			}
+			keys[index] = seatHoldId;
+			size++;
+		}
+		this.seatHolds[index] = seatHold;
+		this.seatIds[index] = seatIds;
+		this.expireMillis[index] = expireMillis;
+	}
+
+	/**
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @return the seat hold, or null if it is not in the registry or was
+	 *         registered without one
+	 */
+	public synchronized SeatHold findSeatHold(int seatHoldId) {
+		int index = indexOf(seatHoldId);
+		return index < 0 ? null : seatHolds[index];
+	}
+
+	/**
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @return the ids of the seats of the seat hold, or null if it is not in
+	 *         the registry
+	 */
+	public synchronized int[] findSeatIds(int seatHoldId) {
+		int index = indexOf(seatHoldId);
+		return index < 0 ? null : seatIds[index];
+	}
+
+	/**
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @return the time in epoch milliseconds when the seat hold expires, or
+	 *         NOT_FOUND if it is not in the registry
+	 */
+	public synchronized long findExpireMillis(int seatHoldId) {
+		int index = indexOf(seatHoldId);
+		return index < 0 ? NOT_FOUND : expireMillis[index];
+	}
+
+	/**
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @return whether the seat hold was in the registry
+	 */
+	public synchronized boolean remove(int seatHoldId) {
+		int index = indexOf(seatHoldId);
+		if (index < 0) {
+			return false;
+		}
+		removeAt(index);
+		shrink();
+		return true;
+	}
+
+	/**
+	 * removes every seat hold that has expired
+	 *
+	 * @param nowMillis
+	 *            the current time in epoch milliseconds
+	 * @return the number of seat holds removed
+	 */
+	public synchronized int removeExpired(long nowMillis) {
+		int removed = removeExpiredEntries(nowMillis);
+		shrink();
+		return removed;
+	}
+
+	/**
+	 * removes every seat hold
+	 */
+	public synchronized void clear() {
+		allocate(minCapacity);
+		size = 0;
+	}
+
+	/**
+	 * @return the number of seat holds in the registry
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * @return the number of slots of the table
+	 */
+	synchronized int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * @param seatHold
+	 *            the seat hold
+	 * @return the ids of the seats held by the seat hold that have been saved
+	 */
+	public static int[] seatIdsOf(SeatHold seatHold) {
+		List<Seat> seats = seatHold.getSeatsHeld();
+		if (seats == null) {
+			return new int[0];
+		}
+		int[] ids = new int[seats.size()];
+		int count = 0;
+		for (Seat seat : seats) {
+			if (seat.getSeatId() != null) {
+				ids[count++] = seat.getSeatId();
+			}
+		}
+		return count == ids.length ? ids : Arrays.copyOf(ids, count);
+	}
+
+	/**
+	 * @return the slot of a seat hold, or -1 if it is not in the registry
+	 */
+	private int indexOf(int seatHoldId) {
+		for (int index = hash(seatHoldId) & mask;; index = (index + 1) & mask) {
+			if (keys[index] == seatHoldId) {
+				return index;
+			}
+			if (keys[index] == EMPTY) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * removes the expired seat holds without shrinking the table
+	 */
+	private int removeExpiredEntries(long nowMillis) {
+		int removed = 0;
+		for (int index = 0; index < keys.length; index++) {
+			// a removal can shift the next entry of the cluster into this slot, so it is looked at again
+			while (keys[index] != EMPTY && expireMillis[index] <= nowMillis) {
+				removeAt(index);
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * empties a slot and shifts back the entries after it in the same
+	 * cluster that would no longer be found, so no tombstones are needed
+	 */
+	private void removeAt(int index) {
+		int hole = index;
+		for (int next = (index + 1) & mask; keys[next] != EMPTY; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			// the entry can fill the hole unless its home slot lies after the hole
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				move(next, hole);
+				hole = next;
+			}
+		}
+		keys[hole] = EMPTY;
+		seatHolds[hole] = null;
+		seatIds[hole] = null;
+		size--;
+	}
+
+	private void move(int from, int to) {
+		keys[to] = keys[from];
+		seatHolds[to] = seatHolds[from];
+		seatIds[to] = seatIds[from];
+		expireMillis[to] = expireMillis[from];
+	}
+
+	/**
+	 * halves the table once it is mostly empty
+	 */
+	private void shrink() {
+		int capacity = keys.length;
+		while (capacity > minCapacity && size * 8 < capacity) {
+			capacity /= 2;
+		}
+		if (capacity != keys.length) {
+			resize(capacity);
+		}
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		SeatHold[] oldSeatHolds = seatHolds;
+		int[][] oldSeatIds = seatIds;
+		long[] oldExpireMillis = expireMillis;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				int index = hash(oldKeys[i]) & mask;
+				while (keys[index] != EMPTY) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				seatHolds[index] = oldSeatHolds[i];
+				seatIds[index] = oldSeatIds[i];
+				expireMillis[index] = oldExpireMillis[i];
+			}
+		}
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		seatHolds = new SeatHold[capacity];
+		seatIds = new int[capacity][];
+		expireMillis = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * spreads the sequential seat hold ids over the table
+	 */
+	private static int hash(int seatHoldId) {
+		int hash = seatHoldId * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+
+}
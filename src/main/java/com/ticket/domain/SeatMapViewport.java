@@ -0,0 +1,124 @@
+package com.ticket.domain;
+
+/**
+ * the part of a venue shown in a seat map: a range of rows and a range of
+ * seats in each row, both inclusive and numbered from 1
+ */
+public class SeatMapViewport {
+
+	/**
+	 * the viewport showing every seat of a venue
+	 */
+	public static final SeatMapViewport ALL = new SeatMapViewport(1, Integer.MAX_VALUE, 1, Integer.MAX_VALUE);
+
+	/**
+	 * the number of the first row shown
+	 */
+	private final int firstRow;
+
+	/**
+	 * the number of the last row shown
+	 */
+	private final int lastRow;
+
+	/**
+	 * the number of the first seat shown in each row
+	 */
+	private final int firstSeat;
+
+	/**
+	 * the number of the last seat shown in each row
+	 */
+	private final int lastSeat;
+
+	/**
+	 * instantiation of the viewport
+	 * @param firstRow the number of the first row shown
+	 * @param lastRow the number of the last row shown
+	 * @param firstSeat the number of the first seat shown in each row
+	 * @param lastSeat the number of the last seat shown in each row
+	 */
+	public SeatMapViewport(int firstRow, int lastRow, int firstSeat, int lastSeat) {
+		if (firstRow < 1 || lastRow < firstRow || firstSeat < 1 || lastSeat < firstSeat) {
+			throw new IllegalArgumentException("Invalid viewport rows " + firstRow + "-" + lastRow + ", seats "
+					+ firstSeat + "-" + lastSeat);
+		}
+		this.firstRow = firstRow;
+		this.lastRow = lastRow;
+		this.firstSeat = firstSeat;
+		this.lastSeat = lastSeat;
+	}
+
+	/**
+	 * @param rowNumber the number of a row
+	 * @return whether the row is shown
+	 */
+	public boolean showsRow(int rowNumber) {
+		return rowNumber >= firstRow && rowNumber <= lastRow;
+	}
+
+	/**
+	 * @return the firstRow
+	 */
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	/**
+	 * @return the lastRow
+	 */
+	public int getLastRow() {
+		return lastRow;
+	}
+
+	/**
+	 * @return the firstSeat
+	 */
+	public int getFirstSeat() {
+		return firstSeat;
+	}
+
+	/**
+	 * @return the lastSeat
+	 */
+	public int getLastSeat() {
+		return lastSeat;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof SeatMapViewport)) {
+			return false;
+		}
+		SeatMapViewport other = (SeatMapViewport) obj;
+		return firstRow == other.firstRow && lastRow == other.lastRow && firstSeat == other.firstSeat
+				&& lastSeat == other.lastSeat;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		int result = firstRow;
+		result = 31 * result + lastRow;
+		result = 31 * result + firstSeat;
+		result = 31 * result + lastSeat;
+		return result;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SeatMapViewport [rows=" + firstRow + "-" + lastRow + ", seats=" + firstSeat + "-" + lastSeat + "]";
+	}
+
+}
@@ -0,0 +1,400 @@
+package com.ticket.domain;
+
+/**
+ * compact bitmap of the state of every seat in a row. The seat at index i
+ * (seat number i + 1) is tracked by bit i of the available, held and reserved
+ * bitmaps so that searches can be done a 64 seat word at a time instead of
+ * inspecting every Seat object
+ */
+public class SeatOccupancy {
+
+	/**
+	 * mask selecting the even indexes of a word (odd seat numbers, the left side of the row)
+	 */
+	private static final long EVEN_INDEX_MASK = 0x5555555555555555L;
+
+	/**
+	 * mask selecting the odd indexes of a word (even seat numbers, the right side of the row)
+	 */
+	private static final long ODD_INDEX_MASK = 0xAAAAAAAAAAAAAAAAL;
+
+	/**
+	 * state of a seat that is neither held nor reserved
+	 */
+	public static final int AVAILABLE = 0;
+
+	/**
+	 * state of a held seat
+	 */
+	public static final int HELD = 1;
+
+	/**
+	 * state of a reserved seat
+	 */
+	public static final int RESERVED = 2;
+
+	/**
+	 * @param state the state of a seat
+	 * @return the code printed for the state
+	 */
+	public static char code(int state) {
+		switch (state) {
+		case HELD:
+			return Seat.SEAT_HELD_CODE.charAt(0);
+		case RESERVED:
+			return Seat.SEAT_RESERVED_CODE.charAt(0);
+		default:
+			return Seat.SEAT_AVAILABLE_CODE.charAt(0);
+		}
+	}
+
+	/**
+	 * the number of seats tracked
+	 */
+	private final int size;
+
+	/**
+	 * running count of the available seats
+	 */
+	private int numAvailable;
+
+	/**
+	 * running count of the held seats
+	 */
+	private int numHeld;
+
+	/**
+	 * running count of the reserved seats
+	 */
+	private int numReserved;
+
+	/**
+	 * bit set for every seat that is neither held nor reserved
+	 */
+	private final long[] available;
+
+	/**
+	 * bit set for every seat that is held
+	 */
+	private final long[] held;
+
+	/**
+	 * bit set for every seat that is reserved
+	 */
+	private final long[] reserved;
+
+	/**
+	 * instantiates the bitmap with every seat available
+	 *
+	 * @param size
+	 *            the number of seats to track
+	 */
+	public SeatOccupancy(int size) {
+		this.size = size;
+		int words = (size + 63) >>> 6;
+		this.available = new long[words];
+		this.held = new long[words];
+		this.reserved = new long[words];
+		for (int w = 0; w < words; w++) {
+			available[w] = -1L;
+		}
+		if ((size & 63) != 0) {
+			available[words - 1] = -1L >>> (64 - (size & 63));
+		}
+		this.numAvailable = size;
+	}
+
+	/**
+	 * @return the number of seats tracked
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index
+	 *            the index of the seat
+	 * @return whether the seat is neither held nor reserved
+	 */
+	public boolean isAvailable(int index) {
+		return isSet(available, index);
+	}
+
+	/**
+	 * @param index
+	 *            the index of the seat
+	 * @return whether the seat is held
+	 */
+	public boolean isHeld(int index) {
+		return isSet(held, index);
+	}
+
+	/**
+	 * @param index
+	 *            the index of the seat
+	 * @return whether the seat is reserved
+	 */
+	public boolean isReserved(int index) {
+		return isSet(reserved, index);
+	}
+
+	/**
+	 * @param index
+	 *            the index of the seat
+	 * @return the state of the seat: AVAILABLE, HELD or RESERVED
+	 */
+	public int state(int index) {
+		if (isSet(reserved, index)) {
+			return RESERVED;
+		} else if (isSet(held, index)) {
+			return HELD;
+		}
+		return AVAILABLE;
+	}
+
+	/**
+	 * marks the seat as available
+	 *
+	 * @param index
+	 *            the index of the seat
+	 */
+	public void markAvailable(int index) {
+		mark(index, AVAILABLE);
+	}
+
+	/**
+	 * marks the seat as held
+	 *
+	 * @param index
+	 *            the index of the seat
+	 */
+	public void markHeld(int index) {
+		mark(index, HELD);
+	}
+
+	/**
+	 * marks the seat as reserved
+	 *
+	 * @param index
+	 *            the index of the seat
+	 */
+	public void markReserved(int index) {
+		mark(index, RESERVED);
+	}
+
+	/**
+	 * moves the seat to a new state and keeps the running counts up to date
+	 *
+	 * @param index
+	 *            the index of the seat
+	 * @param state
+	 *            the new state: AVAILABLE, HELD or RESERVED
+	 * @return the previous state of the seat
+	 */
+	public int mark(int index, int state) {
+		int previous = state(index);
+		if (previous == state) {
+			return previous;
+		}
+		switch (previous) {
+		case HELD:
+			clear(held, index);
+			numHeld--;
+			break;
+		case RESERVED:
+			clear(reserved, index);
+			numReserved--;
+			break;
+		default:
+			clear(available, index);
+			numAvailable--;
+		}
+		switch (state) {
+		case HELD:
+			set(held, index);
+			numHeld++;
+			break;
+		case RESERVED:
+			set(reserved, index);
+			numReserved++;
+			break;
+		default:
+			set(available, index);
+			numAvailable++;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return the number of available seats
+	 */
+	public int numAvailable() {
+		return numAvailable;
+	}
+
+	/**
+	 * @return the number of held seats
+	 */
+	public int numHeld() {
+		return numHeld;
+	}
+
+	/**
+	 * @return the number of reserved seats
+	 */
+	public int numReserved() {
+		return numReserved;
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the index to start searching from (inclusive)
+	 * @return the index of the next available seat, or -1 if there is none
+	 */
+	public int nextAvailable(int fromIndex) {
+		return nextSetBit(available, fromIndex, -1L);
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the index to start searching from (inclusive)
+	 * @return the index of the next held seat, or -1 if there is none
+	 */
+	public int nextHeld(int fromIndex) {
+		return nextSetBit(held, fromIndex, -1L);
+	}
+
+	/**
+	 * @param fromIndex
+	 *            the index to start searching from (inclusive)
+	 * @return the index of the next seat that is held or reserved, or the
+	 *         number of seats if there is none
+	 */
+	public int nextUnavailable(int fromIndex) {
+		if (fromIndex >= size) {
+			return size;
+		}
+		int w = fromIndex >>> 6;
+		long word = ~available[w] & (-1L << fromIndex);
+		while (true) {
+			if (word != 0) {
+				return Math.min(size, (w << 6) + Long.numberOfTrailingZeros(word));
+			}
+			if (++w == available.length) {
+				return size;
+			}
+			word = ~available[w];
+		}
+	}
+
+	/**
+	 * counts the available seats on one side of the row from a starting index
+	 *
+	 * @param fromIndex
+	 *            the index to start from. Its parity decides the side of the row
+	 * @return the number of available seats at the starting index or further
+	 *         from the center on the same side
+	 */
+	public int countAvailableEveryOther(int fromIndex) {
+		if (fromIndex >= size) {
+			return 0;
+		}
+		long sideMask = (fromIndex & 1) == 0 ? EVEN_INDEX_MASK : ODD_INDEX_MASK;
+		int w = fromIndex >>> 6;
+		int count = Long.bitCount(available[w] & sideMask & (-1L << fromIndex));
+		while (++w < available.length) {
+			count += Long.bitCount(available[w] & sideMask);
+		}
+		return count;
+	}
+
+	/**
+	 * determines whether every seat in a contiguous range of indexes is available
+	 *
+	 * @param fromIndex
+	 *            the first index of the range
+	 * @param count
+	 *            the number of seats in the range
+	 * @return whether all of the seats in the range are available
+	 */
+	public boolean isRangeAvailable(int fromIndex, int count) {
+		if (count <= 0) {
+			return true;
+		}
+		int end = fromIndex + count - 1;
+		if (fromIndex < 0 || end >= size) {
+			return false;
+		}
+		int firstWord = fromIndex >>> 6;
+		int lastWord = end >>> 6;
+		for (int w = firstWord; w <= lastWord; w++) {
+			long mask = -1L;
+			if (w == firstWord) {
+				mask &= -1L << fromIndex;
+			}
+			if (w == lastWord) {
+				mask &= -1L >>> (63 - (end & 63));
+			}
+			if ((available[w] & mask) != mask) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * collects the indexes of available seats on one side of the row, moving
+	 * away from the center by twos from the starting index
+	 *
+	 * @param fromIndex
+	 *            the index to start from. Its parity decides the side of the row
+	 * @param count
+	 *            the maximum number of indexes to collect
+	 * @param indexes
+	 *            array of at least count elements that receives the indexes
+	 * @return the number of indexes collected
+	 */
+	public int collectAvailableEveryOther(int fromIndex, int count, int[] indexes) {
+		long sideMask = (fromIndex & 1) == 0 ? EVEN_INDEX_MASK : ODD_INDEX_MASK;
+		int found = 0;
+		int index = nextSetBit(available, fromIndex, sideMask);
+		while (index >= 0 && found < count) {
+			indexes[found++] = index;
+			index = nextSetBit(available, index + 1, sideMask);
+		}
+		return found;
+	}
+
+	/**
+	 * finds the next set bit of the bitmap restricted by a mask applied to every word
+	 */
+	private int nextSetBit(long[] bits, int fromIndex, long wordMask) {
+		if (fromIndex >= size) {
+			return -1;
+		}
+		int w = fromIndex >>> 6;
+		long word = bits[w] & wordMask & (-1L << fromIndex);
+		while (true) {
+			if (word != 0) {
+				return (w << 6) + Long.numberOfTrailingZeros(word);
+			}
+			if (++w == bits.length) {
+				return -1;
+			}
+			word = bits[w] & wordMask;
+		}
+	}
+
+	private static boolean isSet(long[] bits, int index) {
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	private static void set(long[] bits, int index) {
+		bits[index >>> 6] |= 1L << index;
+	}
+
+	private static void clear(long[] bits, int index) {
+		bits[index >>> 6] &= ~(1L << index);
+	}
+
+}
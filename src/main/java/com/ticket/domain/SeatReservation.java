@@ -7,8 +7,10 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
+import javax.persistence.Table;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +19,8 @@ import org.slf4j.LoggerFactory;
  * describes the information associated with a seat reservation placed by a customer
  */
 @Entity
+@Table(indexes = { @Index(name = "seat_reservation_customer_email", columnList = "customerEmail"),
+		@Index(name = "seat_reservation_confirmation_id", columnList = "confirmationId", unique = true) })
 public class SeatReservation {
 	public static final Logger LOGGER = LoggerFactory.getLogger(SeatReservation.class);
 
@@ -24,11 +28,6 @@ public class SeatReservation {
 	@GeneratedValue(strategy=GenerationType.AUTO)
 	private Integer seatReservationId;
 	
-	/**
-	 * the next confirmation id to be give out
-	 */
-	private static String nextConfirmationId = "VX3529";
-	
 	/**
 	 * the customer email
 	 */
@@ -42,42 +41,27 @@ public class SeatReservation {
 	/**
 	 * the venue where the seat reservation sits
 	 */
-	@ManyToOne
+	@ManyToOne(fetch = FetchType.LAZY)
 	private Venue venue;
 	
 	/**
 	 * the list of seats that are associated with this reservation
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "seatReservation")
+	@OneToMany(mappedBy = "seatReservation")
 	private List<Seat> reservedSeats;
 
 	/**
 	 * instantiation of the seat reservation
-	 * @param customerEmail
-	 * @param reservedSeats
+	 * @param customerEmail the email of the customer
+	 * @param confirmationId the confirmation id given to the customer
 	 */
-	public SeatReservation(String customerEmail) {
-		this.confirmationId = nextConfirmationId;
-		updateNextConfirmationId();
+	public SeatReservation(String customerEmail, String confirmationId) {
+		this.confirmationId = confirmationId;
 		this.customerEmail = customerEmail;
 	}
 	
 	public SeatReservation(){}
 
-	/**
-	 * method to update the next confirmation id for the next time a seat reservation is instantiated
-	 */
-	private void updateNextConfirmationId() {
-		nextConfirmationId = "VX" + (Integer.parseInt(nextConfirmationId.substring(2)) + 1);
-	}
-
-	/**
-	 * @return the nextConfirmationId
-	 */
-	public static String getNextConfirmationId() {
-		return nextConfirmationId;
-	}
-
 	/**
 	 * @return the customer email
 	 */
@@ -106,6 +90,13 @@ public class SeatReservation {
 		return seatReservationId;
 	}
 
+	/**
+	 * @param seatReservationId the seatReservationId to set
+	 */
+	public void setSeatReservationId(Integer seatReservationId) {
+		this.seatReservationId = seatReservationId;
+	}
+
 	
 
 }
@@ -1,18 +1,32 @@
 package com.ticket.domain;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
 
 import javax.persistence.Entity;
-import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
 import javax.persistence.OrderBy;
+import javax.persistence.Transient;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,10 +40,31 @@ import org.slf4j.LoggerFactory;
  *
  */
 @Entity
+@NamedEntityGraph(name = Venue.SEAT_MAP_GRAPH, attributeNodes = @NamedAttributeNode(value = "rows", subgraph = "rows"), subgraphs = {
+		@NamedSubgraph(name = "rows", attributeNodes = @NamedAttributeNode(value = "seats", subgraph = "seats")),
+		@NamedSubgraph(name = "seats", attributeNodes = { @NamedAttributeNode("seatHold"),
+				@NamedAttributeNode("seatReservation") }) })
 public class Venue {
 
+	/**
+	 * entity graph loading the rows, the seats and the seat holds of the seats
+	 * in a single query. Everything else about the venue is loaded lazily
+	 */
+	public static final String SEAT_MAP_GRAPH = "Venue.seatMap";
+
 	public static final Logger LOGGER = LoggerFactory.getLogger(Venue.class);
 
+	/**
+	 * source of the state revisions of every venue, so a venue that is loaded
+	 * again never repeats a revision of the copy it replaces
+	 */
+	private static final AtomicLong STATE_REVISIONS = new AtomicLong();
+
+	/**
+	 * the number of seat changes kept for viewers unless configured otherwise
+	 */
+	public static final int DEFAULT_SEAT_CHANGE_FEED_SIZE = 1024;
+
 	/**
 	 * the unique identifier for the venue
 	 */
@@ -39,24 +74,122 @@ public class Venue {
 	/**
 	 * the rows in the venue
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "venue")
+	@OneToMany(mappedBy = "venue")
 	@OrderBy("rowId ASC")
 	private Set<Row> rows = new LinkedHashSet<Row>();
 
 	/**
 	 * the seat holds for the venue
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "venue")
+	@OneToMany(mappedBy = "venue")
 	@OrderBy("seatHoldId ASC")
 	private Set<SeatHold> seatHolds = new LinkedHashSet<SeatHold>();
 
 	/**
 	 * the seat reservations for the venue
 	 */
-	@OneToMany(fetch = FetchType.EAGER, mappedBy = "venue")
+	@OneToMany(mappedBy = "venue")
 	@OrderBy("seatReservationId ASC")
 	private Set<SeatReservation> seatReservations = new LinkedHashSet<SeatReservation>();
 
+	/**
+	 * flag indicating that the seat counters have been loaded from the rows
+	 */
+	@Transient
+	private volatile boolean seatCountsLoaded;
+
+	/**
+	 * running count of the available seats in the venue
+	 */
+	@Transient
+	private final AtomicInteger seatsAvailable = new AtomicInteger();
+
+	/**
+	 * running count of the held seats in the venue
+	 */
+	@Transient
+	private final AtomicInteger seatsHeld = new AtomicInteger();
+
+	/**
+	 * running count of the reserved seats in the venue
+	 */
+	@Transient
+	private final AtomicInteger seatsReserved = new AtomicInteger();
+
+	/**
+	 * the locks guarding the seats of each row
+	 */
+	@Transient
+	private final RowLocks rowLocks = new RowLocks();
+
+	/**
+	 * committed seat holds bucketed by the time they expire
+	 */
+	@Transient
+	private final HoldExpirationWheel holdExpirations = new HoldExpirationWheel(System.currentTimeMillis());
+
+	/**
+	 * flag indicating that a background reaper releases the expired seat
+	 * holds, so reading the seat counters does not need to look at the clock
+	 */
+	@Transient
+	private volatile boolean expiredHoldsReleasedInBackground;
+
+	/**
+	 * the seat holds of the venue still holding their seats, indexed by seat
+	 * hold id. They are registered without an expiration time and removed
+	 * when the expiration wheel releases them, since a hold can be committed
+	 * again with a later expiration time
+	 */
+	@Transient
+	private final SeatHoldRegistry liveSeatHolds = new SeatHoldRegistry();
+
+	/**
+	 * the live seat holds indexed by customer email, kept in sync with the
+	 * live seat holds indexed by id
+	 */
+	@Transient
+	private final CustomerIndex<SeatHold> liveSeatHoldsByCustomer = new CustomerIndex<>();
+
+	/**
+	 * the reservations made in the venue since it was loaded, indexed by
+	 * customer email. They may not have been saved yet
+	 */
+	@Transient
+	private final CustomerIndex<SeatReservation> seatReservationsByCustomer = new CustomerIndex<>();
+
+	/**
+	 * the largest number of seats each row can hold, used to find the first
+	 * row that can hold a request without trying every row
+	 */
+	@Transient
+	private RowCapacityTree rowCapacities;
+
+	/**
+	 * the rows indexed by their position in the row capacity tree
+	 */
+	@Transient
+	private Row[] rowsByIndex;
+
+	/**
+	 * revision of the state of the seats, increased every time a seat is
+	 * held, reserved or released and whenever the rows are replaced
+	 */
+	@Transient
+	private final AtomicLong stateRevision = new AtomicLong(STATE_REVISIONS.incrementAndGet());
+
+	/**
+	 * hands out the revision of each change of the state of the seats
+	 */
+	@Transient
+	private final LongSupplier stateRevisions = this::nextStateRevision;
+
+	/**
+	 * the latest seat changes, for viewers that only apply what changed to their seat map
+	 */
+	@Transient
+	private volatile SeatChangeFeed seatChanges = new SeatChangeFeed(DEFAULT_SEAT_CHANGE_FEED_SIZE, stateRevision.get());
+
 
 	public Venue(){}
 	
@@ -75,12 +208,411 @@ public class Venue {
 	 * @return number of seats available
 	 */
 	public int numSeatsAvailable() {
-		Iterator<Row> it = this.getRows().iterator();
-		int seatsAvailableInVenue = 0;
-		while (it.hasNext()) {
-			seatsAvailableInVenue += it.next().numSeatsAvailable();
+		refreshSeatCounts();
+		return seatsAvailable.get();
+	}
+
+	/**
+	 * @return number of seats held in the venue
+	 */
+	public int numSeatsHeld() {
+		refreshSeatCounts();
+		return seatsHeld.get();
+	}
+
+	/**
+	 * @return number of seats reserved in the venue
+	 */
+	public int numSeatsReserved() {
+		refreshSeatCounts();
+		return seatsReserved.get();
+	}
+
+	/**
+	 * loads the seat counters from the rows the first time they are needed,
+	 * afterwards releases the seats of any seat holds that have expired unless
+	 * a background reaper already does
+	 */
+	private void refreshSeatCounts() {
+		if (!seatCountsLoaded) {
+			loadSeatCounts(LocalDateTime.now());
+		} else if (!expiredHoldsReleasedInBackground) {
+			releaseExpiredHolds(LocalDateTime.now());
+		}
+	}
+
+	/**
+	 * counts the seats of every row in each state, links the seat holds
+	 * already in the venue to their seats and schedules their expiration
+	 * @param now the time used to expire seat holds
+	 */
+	private synchronized void loadSeatCounts(LocalDateTime now) {
+		if (seatCountsLoaded) {
+			return;
+		}
+		// hold every row still while counting so no change is missed
+		Collection<SeatHold> linkedSeatHolds;
+		BitSet lockedStripes = rowLocks.lockAll(rows);
+		try {
+			int available = 0;
+			int held = 0;
+			int reserved = 0;
+			for (Row row : rows) {
+				available += row.numSeatsAvailable(now);
+				held += row.numSeatsHeld();
+				reserved += row.numSeatsReserved();
+			}
+			seatsAvailable.set(available);
+			seatsHeld.set(held);
+			seatsReserved.set(reserved);
+			indexRowCapacities();
+			linkedSeatHolds = linkSeatHolds(now);
+			seatCountsLoaded = true;
+		} finally {
+			rowLocks.unlockAll(lockedStripes);
+		}
+		for (SeatHold seatHold : linkedSeatHolds) {
+			if (!seatHold.isInProgress() && seatHold.isHolding(now)) {
+				scheduleExpiration(seatHold);
+			}
+		}
+	}
+
+	/**
+	 * builds the row capacity tree from the current state of the rows. The
+	 * caller must hold the locks of every row
+	 */
+	private void indexRowCapacities() {
+		RowCapacityTree capacities = new RowCapacityTree(rows.size());
+		Row[] indexedRows = new Row[rows.size()];
+		int index = 0;
+		for (Row row : rows) {
+			row.setVenueIndex(index);
+			indexedRows[index] = row;
+			capacities.update(index, row.largestHold());
+			index++;
+		}
+		rowCapacities = capacities;
+		rowsByIndex = indexedRows;
+	}
+
+	/**
+	 * rebuilds the seats held by every seat hold from the seats of the rows
+	 * and indexes the seat holds that are still holding by id. The seat map of
+	 * a venue does not include the seats held by a seat hold or the seat holds
+	 * that no longer hold any seat, so only the seat holds found in the seats
+	 * are kept in memory. The caller must hold the locks of every row
+	 * @param now the time used to expire seat holds
+	 * @return the seat holds of the seats
+	 */
+	private Collection<SeatHold> linkSeatHolds(LocalDateTime now) {
+		Map<SeatHold, List<Seat>> seatsBySeatHold = new IdentityHashMap<>();
+		for (Row row : rows) {
+			for (Seat seat : row.getSeats()) {
+				if (seat.getSeatHold() != null) {
+					seatsBySeatHold.computeIfAbsent(seat.getSeatHold(), seatHold -> new ArrayList<>()).add(seat);
+				}
+			}
+		}
+		liveSeatHolds.clear();
+		liveSeatHoldsByCustomer.clear();
+		for (Map.Entry<SeatHold, List<Seat>> entry : seatsBySeatHold.entrySet()) {
+			SeatHold seatHold = entry.getKey();
+			seatHold.setSeatsHeld(entry.getValue());
+			if (seatHold.getSeatHoldId() != null && seatHold.isHolding(now)) {
+				addSeatHold(seatHold);
+			}
+		}
+		return seatsBySeatHold.keySet();
+	}
+
+	/**
+	 * discards the seat counters so that they are recounted from the rows
+	 */
+	void resetSeatCounts() {
+		seatCountsLoaded = false;
+		seatChanges.restart(stateRevisions);
+	}
+
+	/**
+	 * keeps the seat counters in sync and records the change for viewers when
+	 * a seat in one of the rows changes state. The caller must hold the lock of
+	 * the row
+	 * @param row the row of the seat
+	 * @param seatNumber the number of the seat
+	 * @param previousState the state the seat was in
+	 * @param state the state the seat is now in
+	 */
+	void seatStateChanged(Row row, int seatNumber, int previousState, int state) {
+		seatChanges.record(row.getRowNumber(), seatNumber, state, stateRevisions);
+		if (!seatCountsLoaded) {
+			return;
+		}
+		counterFor(previousState).decrementAndGet();
+		counterFor(state).incrementAndGet();
+	}
+
+	/**
+	 * moves the state revision past every revision handed out so far. The
+	 * revision only ever grows, even when seats change in several rows at once
+	 * @return the new revision
+	 */
+	private long nextStateRevision() {
+		long revision = STATE_REVISIONS.incrementAndGet();
+		stateRevision.accumulateAndGet(revision, Math::max);
+		return revision;
+	}
+
+	/**
+	 * releases the seats of any seat hold that is due to expire, then reads
+	 * the seat changes made after a revision
+	 * @param revision the revision of the seat map of the viewer
+	 * @param maxChanges the largest number of changes read
+	 * @return the changes, or a batch asking for a new seat map if the viewer fell too far behind
+	 */
+	public SeatChangeBatch findSeatChanges(long revision, int maxChanges) {
+		refreshSeatCounts();
+		return seatChanges.changesSince(revision, maxChanges);
+	}
+
+	/**
+	 * replaces the seat change feed with one of another size. Only meant to be
+	 * called before the venue is shared between threads
+	 * @param size the number of seat changes kept for viewers
+	 */
+	public void setSeatChangeFeedSize(int size) {
+		seatChanges = new SeatChangeFeed(size, stateRevision.get());
+	}
+
+	/**
+	 * releases the seats of any seat hold that is due to expire, so that its
+	 * expiration is part of the state, then reads the state revision
+	 * @return the revision of the state of the seats. Two reads returning the
+	 *         same revision saw the same seat states
+	 */
+	public long currentStateRevision() {
+		refreshSeatCounts();
+		return stateRevision.get();
+	}
+
+	/**
+	 * keeps the row capacity tree in sync when a seat in one of the rows
+	 * changes state. The caller must hold the lock of the row
+	 * @param row the row of the seat
+	 */
+	void rowCapacityChanged(Row row) {
+		if (!seatCountsLoaded || row.getVenueIndex() < 0) {
+			return;
+		}
+		rowCapacities.update(row.getVenueIndex(), row.largestHold());
+	}
+
+	/**
+	 * @param state the state of a seat
+	 * @return the counter of the seats in that state
+	 */
+	private AtomicInteger counterFor(int state) {
+		switch (state) {
+		case SeatOccupancy.HELD:
+			return seatsHeld;
+		case SeatOccupancy.RESERVED:
+			return seatsReserved;
+		default:
+			return seatsAvailable;
+		}
+	}
+
+	/**
+	 * schedules the release of the seats of a committed seat hold once it
+	 * expires, replacing any expiration already scheduled for it
+	 * @param seatHold the committed seat hold
+	 */
+	void scheduleExpiration(SeatHold seatHold) {
+		LocalDateTime expireTime = seatHold.getExpireTime();
+		if (expireTime != null) {
+			holdExpirations.schedule(seatHold, toEpochMillis(expireTime, true));
+		} else {
+			holdExpirations.cancel(seatHold);
+		}
+	}
+
+	/**
+	 * cancels the scheduled release of the seats of a seat hold
+	 * @param seatHold the seat hold
+	 */
+	void cancelExpiration(SeatHold seatHold) {
+		holdExpirations.cancel(seatHold);
+		removeSeatHold(seatHold);
+		forgetSeatHold(seatHold);
+	}
+
+	/**
+	 * stops the rows of the seats of a seat hold from tracking it once it has
+	 * ended
+	 * @param seatHold the seat hold
+	 */
+	private void forgetSeatHold(SeatHold seatHold) {
+		List<Seat> seatsHeld = seatHold.getSeatsHeld();
+		if (seatsHeld == null) {
+			return;
+		}
+		Row forgottenRow = null;
+		for (Seat seat : seatsHeld) {
+			// the seats of a hold in the same row are next to each other in the list
+			if (seat.getRow() != null && seat.getRow() != forgottenRow) {
+				forgottenRow = seat.getRow();
+				forgottenRow.forgetHold(seatHold);
+			}
+		}
+	}
+
+	/**
+	 * releases the seats of every seat hold that has expired. Only the buckets
+	 * of the expiration wheel that are due are looked at, so this is constant
+	 * time when nothing has expired. Once a background reaper is registered
+	 * this is the only place where seat holds expire
+	 * @param now the time used to expire seat holds
+	 */
+	public void releaseExpiredHolds(LocalDateTime now) {
+		List<SeatHold> expiredHolds = holdExpirations.expire(toEpochMillis(now, false));
+		// the seats are released outside of the wheel lock as releasing them takes the row locks
+		for (SeatHold seatHold : expiredHolds) {
+			if (seatHold.isHolding(now)) {
+				// the hold was committed again with a later expiration time
+				scheduleExpiration(seatHold);
+				continue;
+			}
+			removeSeatHold(seatHold);
+			if (seatHold.getSeatsHeld() != null) {
+				for (Seat seat : seatHold.getSeatsHeld()) {
+					seat.releaseHold(seatHold);
+				}
+				forgetSeatHold(seatHold);
+			} else {
+				for (Row row : rows) {
+					row.releaseExpiredHolds(now);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the number of seat holds waiting to expire
+	 */
+	public int numPendingExpirations() {
+		return holdExpirations.size();
+	}
+
+	/**
+	 * converts a time to epoch milliseconds, rounding deadlines up and the
+	 * current time down so that a hold is never released while still holding
+	 */
+	private static long toEpochMillis(LocalDateTime time, boolean roundUp) {
+		long millis = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		return roundUp && time.getNano() % 1000000 != 0 ? millis + 1 : millis;
+	}
+
+	/**
+	 * adds a saved seat hold to the venue so it can be found by its id
+	 * @param seatHold the seat hold
+	 */
+	public void addSeatHold(SeatHold seatHold) {
+		liveSeatHolds.register(seatHold.getSeatHoldId(), seatHold, SeatHoldRegistry.seatIdsOf(seatHold),
+				SeatHoldRegistry.NEVER_EXPIRES);
+		liveSeatHoldsByCustomer.add(seatHold.getCustomerEmail(), seatHold);
+	}
+
+	/**
+	 * removes a seat hold that no longer holds its seats from the seat holds found by id
+	 * @param seatHold the seat hold
+	 */
+	private void removeSeatHold(SeatHold seatHold) {
+		if (seatHold.getSeatHoldId() != null) {
+			liveSeatHolds.remove(seatHold.getSeatHoldId());
+		}
+		liveSeatHoldsByCustomer.remove(seatHold.getCustomerEmail(), seatHold);
+	}
+
+	/**
+	 * @param seatHoldId the id of the seat hold
+	 * @return the seat hold of the venue with the given id, or null if there is
+	 *         none or it no longer holds its seats
+	 */
+	public SeatHold findSeatHold(Integer seatHoldId) {
+		refreshSeatCounts();
+		return seatHoldId == null ? null : liveSeatHolds.findSeatHold(seatHoldId);
+	}
+
+	/**
+	 * @param customerEmail the email of the customer
+	 * @return the seat holds of the customer still holding their seats, oldest first
+	 */
+	public List<SeatHold> findSeatHolds(String customerEmail) {
+		refreshSeatCounts();
+		// a seat hold that expired is only released by the next tick of the expiration wheel
+		return liveSeatHoldsByCustomer.find(customerEmail, SeatHold::isHolding);
+	}
+
+	/**
+	 * @param customerEmail the email of the customer
+	 * @return the reservations of the customer made since the venue was loaded, oldest first
+	 */
+	public List<SeatReservation> findSeatReservations(String customerEmail) {
+		return seatReservationsByCustomer.find(customerEmail);
+	}
+
+	/**
+	 * adds a reservation made before the venue was loaded so it can be found
+	 * by customer email
+	 * @param seatReservation the reservation
+	 */
+	public void addSeatReservation(SeatReservation seatReservation) {
+		seatReservationsByCustomer.add(seatReservation.getCustomerEmail(), seatReservation);
+	}
+
+	/**
+	 * @return the number of seat holds of the venue still holding their seats
+	 */
+	public int numLiveSeatHolds() {
+		return liveSeatHolds.size();
+	}
+	
+	/**
+	 * reserves every seat of a seat hold as one atomic step. The rows of the
+	 * seats are locked together so the hold cannot expire or be invalidated
+	 * part way through
+	 * @param seatHold the seat hold whose seats are reserved
+	 * @param seatReservation the reservation for the seats
+	 * @return whether the seats were reserved. False if the hold is no longer holding its seats
+	 */
+	public boolean reserveSeats(SeatHold seatHold, SeatReservation seatReservation) {
+		List<Seat> seatsHeld = seatHold.getSeatsHeld();
+		if (seatsHeld == null) {
+			return false;
+		}
+		List<Row> seatRows = new ArrayList<>(seatsHeld.size());
+		for (Seat seat : seatsHeld) {
+			seatRows.add(seat.getRow());
+		}
+		BitSet lockedStripes = rowLocks.lockAll(seatRows);
+		try {
+			if (!seatHold.isHolding()) {
+				return false;
+			}
+			for (Seat seat : seatsHeld) {
+				if (seat.getSeatHold() != seatHold || seat.isReserved()) {
+					return false;
+				}
+			}
+			for (Seat seat : seatsHeld) {
+				seat.reserveSeat(seatReservation);
+			}
+			removeSeatHold(seatHold);
+			seatReservationsByCustomer.add(seatReservation.getCustomerEmail(), seatReservation);
+			return true;
+		} finally {
+			rowLocks.unlockAll(lockedStripes);
 		}
-		return seatsAvailableInVenue;
 	}
 	
 	/**
@@ -139,6 +671,8 @@ public class Venue {
 						int halvedRequest = request / 2;
 						if(halvedRequest < 1){
 							//unlikely scenario for a multithreaded app where a seat request of 1 cannot be fulfilled so we attempt to divide it
+							//release the seats that were already held for this request
+							seatHold.setSeatsHeld(heldSeats);
 							seatHold.invalidate();
 							return null;
 						}
@@ -182,21 +716,27 @@ public class Venue {
 	}
 	
 	/**
-	 * loops through all the rows and sends back a seat hold list for the number
-	 * of seats requested
+	 * holds the number of seats requested in the first row that can hold them.
+	 * The row capacity tree points straight at the candidate rows, which are
+	 * then tried in order since a row may have changed since it was indexed
 	 * 
 	 * @param seatsRequested
 	 * @return held seats
 	 */
 	public List<Seat> holdSeats(int seatsRequested, SeatHold seatHold, Venue venue) {
-		List<Seat> heldSeats = new ArrayList<>(seatsRequested);
-		Iterator<Row> it = venue.getRows().iterator();
+		venue.refreshSeatCounts();
+		RowCapacityTree capacities = venue.rowCapacities;
+		Row[] indexedRows = venue.rowsByIndex;
 
-		while (it.hasNext() && heldSeats.isEmpty()) {
-			Row currentRow = it.next();
-			heldSeats = currentRow.holdSeats(seatsRequested, seatHold);
+		int index = capacities.firstAtLeast(seatsRequested, 0);
+		while (index >= 0) {
+			List<Seat> heldSeats = indexedRows[index].holdSeats(seatsRequested, seatHold);
+			if (!heldSeats.isEmpty()) {
+				return heldSeats;
+			}
+			index = capacities.firstAtLeast(seatsRequested, index + 1);
 		}
-		return heldSeats;
+		return new ArrayList<>(0);
 	}
 	
 	
@@ -215,25 +755,106 @@ public class Venue {
 	public static final String SEAT_MAP_PRINT_ERROR_MSG = "Seat map is too large to display. Only maps of 40x40 or smaller can be displayed.\n\n";
 	
 	/**
-	 * @param venue
-	 * @return
+	 * decides whether to print the seat map to the console based on the size of the venue
+	 * @return whether the venue is no larger than 40x40
+	 */
+	public boolean isSeatMapPrintable() {
+		return getRows().size() <= 40 && getNumberOfSeatsPerRow() <= 40;
+	}
+
+	/**
+	 * @return the seat map of the venue, or an error message if it is too large to display
 	 */
 	public String printVenue() {
-		//decide whether to print it to the console based on the size of the venue
-		if(this.getRows().size() > 40 || getNumberOfSeatsPerRow() > 40){
+		if(!isSeatMapPrintable()){
 			return SEAT_MAP_PRINT_ERROR_MSG;
 		}
-		Iterator<Row> it = this.getRows().iterator();
-		String venueModel = "";
-		while (it.hasNext()) {
-			venueModel += it.next().print() + "\n";
+		StringBuilder venueModel = new StringBuilder((getNumberOfSeatsPerRow() * 2 + 2) * getRows().size() + 100);
+		try {
+			renderSeatMap(venueModel, SeatMapViewport.ALL);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		venueModel = "VENUE SEAT MAP \n\n" + 
-				Seat.SEAT_AVAILABLE_CODE +  " = Available, " + 
-				Seat.SEAT_HELD_CODE + " = Held, " + 
-				Seat.SEAT_RESERVED_CODE + " = Reserved \n\n" + 
-				venueModel + "\n\n";
-		return venueModel;
+		return venueModel.toString();
+	}
+
+	/**
+	 * writes the seat map of part of the venue row by row, so a map of any
+	 * size is written without building it in memory first
+	 * @param out where the seat map is written
+	 * @param viewport the rows and seats shown
+	 * @throws IOException if the seat map cannot be written
+	 */
+	public void renderSeatMap(Appendable out, SeatMapViewport viewport) throws IOException {
+		appendSeatMapLegend(out);
+		for (Row row : rows) {
+			if (viewport.showsRow(row.getRowNumber())) {
+				row.render(out, viewport.getFirstSeat(), viewport.getLastSeat());
+				out.append('\n');
+			}
+		}
+		out.append("\n\n");
+	}
+
+	/**
+	 * writes the number of seats available, held and reserved in each section
+	 * of the venue, a section being a block of consecutive rows. It shows
+	 * venues too large for a seat map in a few lines
+	 * @param out where the summary is written
+	 * @param rowsPerSection the number of rows in each section
+	 * @throws IOException if the summary cannot be written
+	 */
+	public void renderSectionSummary(Appendable out, int rowsPerSection) throws IOException {
+		if (rowsPerSection < 1) {
+			throw new IllegalArgumentException("Invalid number of rows per section " + rowsPerSection);
+		}
+		out.append("VENUE SECTIONS \n\n");
+		int sectionRows = 0;
+		int firstRow = 0;
+		int lastRow = 0;
+		int available = 0;
+		int held = 0;
+		int reserved = 0;
+		for (Row row : rows) {
+			if (sectionRows == 0) {
+				firstRow = row.getRowNumber();
+				available = 0;
+				held = 0;
+				reserved = 0;
+			}
+			lastRow = row.getRowNumber();
+			available += row.numSeatsAvailable();
+			held += row.numSeatsHeld();
+			reserved += row.numSeatsReserved();
+			if (++sectionRows == rowsPerSection) {
+				appendSection(out, firstRow, lastRow, available, held, reserved);
+				sectionRows = 0;
+			}
+		}
+		if (sectionRows > 0) {
+			appendSection(out, firstRow, lastRow, available, held, reserved);
+		}
+		out.append('\n');
+	}
+
+	/**
+	 * writes the title and the legend of a seat map
+	 * @param out where the seat map is written
+	 * @throws IOException if the seat map cannot be written
+	 */
+	static void appendSeatMapLegend(Appendable out) throws IOException {
+		out.append("VENUE SEAT MAP \n\n")
+				.append(Seat.SEAT_AVAILABLE_CODE).append(" = Available, ")
+				.append(Seat.SEAT_HELD_CODE).append(" = Held, ")
+				.append(Seat.SEAT_RESERVED_CODE).append(" = Reserved \n\n");
+	}
+
+	static void appendSection(Appendable out, int firstRow, int lastRow, int available, int held,
+			int reserved) throws IOException {
+		out.append("Rows ").append(Integer.toString(firstRow)).append('-').append(Integer.toString(lastRow))
+				.append(": ").append(Integer.toString(available)).append(" available, ")
+				.append(Integer.toString(held)).append(" held, ")
+				.append(Integer.toString(reserved)).append(" reserved\n");
 	}
 
 	/**
@@ -262,6 +883,28 @@ public class Venue {
 	 */
 	public void setRows(Set<Row> rows) {
 		this.rows = rows;
+		resetSeatCounts();
+	}
+
+	/**
+	 * @return the locks guarding the seats of each row
+	 */
+	public RowLocks getRowLocks() {
+		return rowLocks;
+	}
+
+	/**
+	 * @return whether a background reaper releases the expired seat holds
+	 */
+	public boolean isExpiredHoldsReleasedInBackground() {
+		return expiredHoldsReleasedInBackground;
+	}
+
+	/**
+	 * @param expiredHoldsReleasedInBackground whether a background reaper releases the expired seat holds
+	 */
+	public void setExpiredHoldsReleasedInBackground(boolean expiredHoldsReleasedInBackground) {
+		this.expiredHoldsReleasedInBackground = expiredHoldsReleasedInBackground;
 	}
 
 	/**
@@ -298,8 +941,9 @@ public class Venue {
 	 */
 	@Override
 	public String toString() {
-		return "Venue [venueId=" + venueId + ", rows=" + rows + ", seatHolds=" + seatHolds + "]";
+		return "Venue [venueId=" + venueId + "]";
 	}	
+
 	
 	
 }
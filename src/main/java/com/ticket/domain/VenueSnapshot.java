@@ -0,0 +1,597 @@
+package com.ticket.domain;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * the whole seat state of a venue in a compact binary form: its rows and
+ * seats with their ids, the state of every seat, the seat holds still holding
+ * with their expire time and the reservations of the reserved seats. Each
+ * seat takes three ints, its id, its version and a reference whose top 2 bits
+ * hold the state (as in SeatOccupancy) and the other 30 bits the index of its
+ * seat hold or reservation.
+ *
+ * A snapshot is written one row at a time, each row under its own lock, so
+ * allocation goes on in the other rows while it is written. Seat holds that
+ * span rows may therefore be caught half way; a snapshot taken with a seat
+ * journal records the journal position it was started at, and replaying the
+ * journal from there brings it up to date. The snapshot ends with a checksum
+ * of everything before it
+ */
+public class VenueSnapshot {
+
+	/**
+	 * marks a snapshot, "VSNP"
+	 */
+	private static final int MAGIC = 0x56534E50;
+
+	private static final int FORMAT_VERSION = 1;
+
+	private static final int STATE_SHIFT = 30;
+
+	private static final int INDEX_MASK = (1 << STATE_SHIFT) - 1;
+
+	private final int venueId;
+
+	/**
+	 * the time the snapshot was started in epoch milliseconds
+	 */
+	private final long createdMillis;
+
+	/**
+	 * the position of the seat journal when the snapshot was started, 0 if there is none
+	 */
+	private final long journalPosition;
+
+	/**
+	 * the largest seat hold id given out when the snapshot was started
+	 */
+	private final int lastSeatHoldId;
+
+	private final int[] rowIds;
+
+	private final int[] rowNumbers;
+
+	/**
+	 * the index of the first seat of each row, followed by the number of seats
+	 */
+	private final int[] rowStarts;
+
+	/**
+	 * the id, version and reference of each seat, row after row in seat number order
+	 */
+	private final int[] seatIds;
+
+	private final int[] seatVersions;
+
+	private final int[] seatRefs;
+
+	/**
+	 * the seat holds referred to by the seats, null once dropped
+	 */
+	private final List<SeatHold> seatHolds;
+
+	/**
+	 * the reservations referred to by the seats
+	 */
+	private final List<SeatReservation> seatReservations;
+
+	/**
+	 * the index of each row by row number, built when the first change is applied
+	 */
+	private Map<Integer, Integer> rowIndexes;
+
+	private Map<Integer, Integer> seatHoldIndexes;
+
+	private Map<String, Integer> seatReservationIndexes;
+
+	private VenueSnapshot(int venueId, long createdMillis, long journalPosition, int lastSeatHoldId, int[] rowIds,
+			int[] rowNumbers, int[] rowStarts, int[] seatIds, int[] seatVersions, int[] seatRefs,
+			List<SeatHold> seatHolds, List<SeatReservation> seatReservations) {
+		this.venueId = venueId;
+		this.createdMillis = createdMillis;
+		this.journalPosition = journalPosition;
+		this.lastSeatHoldId = lastSeatHoldId;
+		this.rowIds = rowIds;
+		this.rowNumbers = rowNumbers;
+		this.rowStarts = rowStarts;
+		this.seatIds = seatIds;
+		this.seatVersions = seatVersions;
+		this.seatRefs = seatRefs;
+		this.seatHolds = seatHolds;
+		this.seatReservations = seatReservations;
+	}
+
+	/**
+	 * writes a snapshot of a venue. Only one row is locked at a time, and the
+	 * caller is expected to write to a file that replaces the previous
+	 * snapshot once complete
+	 * @param venue the venue
+	 * @param journalPosition the position of the seat journal, taken before the snapshot is started
+	 * @param lastSeatHoldId the largest seat hold id given out so far
+	 * @param out where the snapshot is written
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public static void write(Venue venue, long journalPosition, int lastSeatHoldId, OutputStream out)
+			throws IOException {
+		CRC32 checksum = new CRC32();
+		DataOutputStream data = new DataOutputStream(new CheckedOutputStream(out, checksum));
+		LocalDateTime now = LocalDateTime.now();
+		data.writeInt(MAGIC);
+		data.writeInt(FORMAT_VERSION);
+		data.writeInt(venue.getVenueId());
+		data.writeLong(System.currentTimeMillis());
+		data.writeLong(journalPosition);
+		data.writeInt(lastSeatHoldId);
+		data.writeInt(venue.getRows().size());
+		Map<SeatHold, Integer> seatHoldIndexes = new IdentityHashMap<>();
+		Map<SeatReservation, Integer> seatReservationIndexes = new IdentityHashMap<>();
+		for (Row row : venue.getRows()) {
+			int[] refs;
+			int[] ids;
+			int[] versions;
+			ReentrantLock lock = row.getLock();
+			lock.lock();
+			try {
+				int numSeats = row.getSeats().size();
+				refs = new int[numSeats];
+				ids = new int[numSeats];
+				versions = new int[numSeats];
+				for (Seat seat : row.getSeats()) {
+					int index = seat.getSeatNumber() - 1;
+					ids[index] = seat.getSeatId();
+					versions[index] = seat.getVersion();
+					refs[index] = refOf(seat, now, seatHoldIndexes, seatReservationIndexes);
+				}
+			} finally {
+				lock.unlock();
+			}
+			data.writeInt(row.getRowId());
+			data.writeInt(row.getRowNumber());
+			data.writeInt(refs.length);
+			for (int i = 0; i < refs.length; i++) {
+				data.writeInt(ids[i]);
+				data.writeInt(versions[i]);
+				data.writeInt(refs[i]);
+			}
+		}
+		data.writeInt(seatHoldIndexes.size());
+		for (SeatHold seatHold : ordered(seatHoldIndexes)) {
+			data.writeInt(seatHold.getSeatHoldId());
+			data.writeInt(seatHold.getVersion());
+			LocalDateTime expireTime = seatHold.getExpireTime();
+			data.writeLong(expireTime == null ? 0 : expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+			writeString(data, seatHold.getCustomerEmail());
+		}
+		data.writeInt(seatReservationIndexes.size());
+		for (SeatReservation seatReservation : ordered(seatReservationIndexes)) {
+			writeString(data, seatReservation.getConfirmationId());
+			writeString(data, seatReservation.getCustomerEmail());
+		}
+		data.flush();
+		new DataOutputStream(out).writeInt((int) checksum.getValue());
+		out.flush();
+	}
+
+	/**
+	 * @return the reference of a seat, giving an index to the seat hold or
+	 *         reservation of the seat the first time one is seen. Seat holds
+	 *         not saved yet are left out, the seats are written as available
+	 */
+	private static int refOf(Seat seat, LocalDateTime now, Map<SeatHold, Integer> seatHoldIndexes,
+			Map<SeatReservation, Integer> seatReservationIndexes) {
+		if (seat.getSeatReservation() != null) {
+			Integer index = seatReservationIndexes.computeIfAbsent(seat.getSeatReservation(),
+					seatReservation -> seatReservationIndexes.size());
+			return SeatOccupancy.RESERVED << STATE_SHIFT | index;
+		}
+		SeatHold seatHold = seat.getSeatHold();
+		if (seatHold != null && seatHold.getSeatHoldId() != null && !seatHold.isInProgress()
+				&& seatHold.isHolding(now)) {
+			Integer index = seatHoldIndexes.computeIfAbsent(seatHold, held -> seatHoldIndexes.size());
+			return SeatOccupancy.HELD << STATE_SHIFT | index;
+		}
+		return SeatOccupancy.AVAILABLE << STATE_SHIFT;
+	}
+
+	/**
+	 * @return the keys of an index in index order
+	 */
+	private static <T> List<T> ordered(Map<T, Integer> indexes) {
+		List<T> ordered = new ArrayList<>(indexes.size());
+		for (int i = 0; i < indexes.size(); i++) {
+			ordered.add(null);
+		}
+		indexes.forEach((value, index) -> ordered.set(index, value));
+		return ordered;
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		data.writeShort(bytes.length);
+		data.write(bytes);
+	}
+
+	/**
+	 * reads a snapshot, such as one mapped from a file
+	 * @param buffer the snapshot, from its position to its limit
+	 * @return the snapshot
+	 * @throws IllegalArgumentException if the buffer does not hold a complete snapshot
+	 */
+	public static VenueSnapshot read(ByteBuffer buffer) {
+		ByteBuffer snapshot = buffer.slice();
+		if (snapshot.remaining() < 4) {
+			throw new IllegalArgumentException("Snapshot too short");
+		}
+		int end = snapshot.limit() - 4;
+		ByteBuffer content = snapshot.duplicate();
+		content.limit(end);
+		CRC32 checksum = new CRC32();
+		checksum.update(content);
+		if ((int) checksum.getValue() != snapshot.getInt(end)) {
+			throw new IllegalArgumentException("Snapshot checksum does not match");
+		}
+		snapshot.limit(end);
+		try {
+			if (snapshot.getInt() != MAGIC || snapshot.getInt() != FORMAT_VERSION) {
+				throw new IllegalArgumentException("Not a venue snapshot");
+			}
+			int venueId = snapshot.getInt();
+			long createdMillis = snapshot.getLong();
+			long journalPosition = snapshot.getLong();
+			int lastSeatHoldId = snapshot.getInt();
+			int numRows = snapshot.getInt();
+			int[] rowIds = new int[numRows];
+			int[] rowNumbers = new int[numRows];
+			int[] rowStarts = new int[numRows + 1];
+			// three ints for each seat and three for each row
+			int maxSeats = snapshot.remaining() / 12;
+			int[] seatIds = new int[maxSeats];
+			int[] seatVersions = new int[maxSeats];
+			int[] seatRefs = new int[maxSeats];
+			int numSeats = 0;
+			for (int r = 0; r < numRows; r++) {
+				rowIds[r] = snapshot.getInt();
+				rowNumbers[r] = snapshot.getInt();
+				int rowSeats = snapshot.getInt();
+				rowStarts[r] = numSeats;
+				for (int s = 0; s < rowSeats; s++) {
+					seatIds[numSeats] = snapshot.getInt();
+					seatVersions[numSeats] = snapshot.getInt();
+					seatRefs[numSeats++] = snapshot.getInt();
+				}
+			}
+			rowStarts[numRows] = numSeats;
+			int numSeatHolds = snapshot.getInt();
+			List<SeatHold> seatHolds = new ArrayList<>(numSeatHolds);
+			for (int i = 0; i < numSeatHolds; i++) {
+				int seatHoldId = snapshot.getInt();
+				int version = snapshot.getInt();
+				long expireMillis = snapshot.getLong();
+				SeatHold seatHold = newSeatHold(seatHoldId, readString(snapshot), expireMillis);
+				seatHold.setVersion(version);
+				seatHolds.add(seatHold);
+			}
+			int numSeatReservations = snapshot.getInt();
+			List<SeatReservation> seatReservations = new ArrayList<>(numSeatReservations);
+			for (int i = 0; i < numSeatReservations; i++) {
+				String confirmationId = readString(snapshot);
+				seatReservations.add(new SeatReservation(readString(snapshot), confirmationId));
+			}
+			return new VenueSnapshot(venueId, createdMillis, journalPosition, lastSeatHoldId, rowIds, rowNumbers,
+					rowStarts, seatIds, seatVersions, seatRefs, seatHolds, seatReservations);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Snapshot is truncated", e);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static SeatHold newSeatHold(int seatHoldId, String customerEmail, long expireMillis) {
+		SeatHold seatHold = new SeatHold(customerEmail, null);
+		seatHold.setSeatHoldId(seatHoldId);
+		seatHold.commitSeatHold(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+		return seatHold;
+	}
+
+	/**
+	 * places a seat hold on seats, as a seat journal records it. A seat hold
+	 * already in the snapshot is replaced, and reserved seats are left alone
+	 * @param seatHoldId the id of the seat hold
+	 * @param customerEmail the email of the customer
+	 * @param expireMillis the time the seat hold expires in epoch milliseconds
+	 * @param rowNumbers the row number of each seat
+	 * @param seatNumbers the seat number of each seat
+	 */
+	public void applySeatHold(int seatHoldId, String customerEmail, long expireMillis, int[] rowNumbers,
+			int[] seatNumbers) {
+		if (seatHoldIndexes == null) {
+			seatHoldIndexes = new HashMap<>();
+			for (int i = 0; i < seatHolds.size(); i++) {
+				seatHoldIndexes.put(seatHolds.get(i).getSeatHoldId(), i);
+			}
+		}
+		SeatHold seatHold = newSeatHold(seatHoldId, customerEmail, expireMillis);
+		Integer index = seatHoldIndexes.get(seatHoldId);
+		if (index == null) {
+			index = seatHolds.size();
+			seatHolds.add(seatHold);
+			seatHoldIndexes.put(seatHoldId, index);
+		} else {
+			seatHold.setVersion(seatHolds.get(index).getVersion());
+			seatHolds.set(index, seatHold);
+		}
+		for (int i = 0; i < rowNumbers.length; i++) {
+			int seat = seatIndex(rowNumbers[i], seatNumbers[i]);
+			if (seatRefs[seat] >>> STATE_SHIFT != SeatOccupancy.RESERVED) {
+				seatRefs[seat] = SeatOccupancy.HELD << STATE_SHIFT | index;
+			}
+		}
+	}
+
+	/**
+	 * reserves seats, as a seat journal records it. A reservation already in
+	 * the snapshot is kept
+	 * @param confirmationId the confirmation id of the reservation
+	 * @param customerEmail the email of the customer
+	 * @param rowNumbers the row number of each seat
+	 * @param seatNumbers the seat number of each seat
+	 */
+	public void applySeatReservation(String confirmationId, String customerEmail, int[] rowNumbers,
+			int[] seatNumbers) {
+		if (seatReservationIndexes == null) {
+			seatReservationIndexes = new HashMap<>();
+			for (int i = 0; i < seatReservations.size(); i++) {
+				seatReservationIndexes.put(seatReservations.get(i).getConfirmationId(), i);
+			}
+		}
+		Integer index = seatReservationIndexes.get(confirmationId);
+		if (index == null) {
+			index = seatReservations.size();
+			seatReservations.add(new SeatReservation(customerEmail, confirmationId));
+			seatReservationIndexes.put(confirmationId, index);
+		}
+		for (int i = 0; i < rowNumbers.length; i++) {
+			seatRefs[seatIndex(rowNumbers[i], seatNumbers[i])] = SeatOccupancy.RESERVED << STATE_SHIFT | index;
+		}
+	}
+
+	/**
+	 * ends a seat hold, as a seat journal records it. Its seats are available
+	 * again unless they were reserved
+	 * @param seatHoldId the id of the seat hold
+	 */
+	public void applySeatHoldInvalidation(int seatHoldId) {
+		for (SeatHold seatHold : seatHolds) {
+			if (seatHold != null && seatHold.getSeatHoldId() == seatHoldId) {
+				seatHold.invalidate();
+			}
+		}
+	}
+
+	/**
+	 * @return the index of a seat in the seat arrays
+	 */
+	private int seatIndex(int rowNumber, int seatNumber) {
+		if (rowIndexes == null) {
+			rowIndexes = new HashMap<>();
+			for (int r = 0; r < rowNumbers.length; r++) {
+				rowIndexes.put(rowNumbers[r], r);
+			}
+		}
+		Integer row = rowIndexes.get(rowNumber);
+		if (row == null || seatNumber < 1 || seatNumber > rowStarts[row + 1] - rowStarts[row]) {
+			throw new IllegalArgumentException("No seat " + seatNumber + " in row " + rowNumber);
+		}
+		return rowStarts[row] + seatNumber - 1;
+	}
+
+	/**
+	 * builds the venue of the snapshot without the database. The seat holds
+	 * that no longer hold their seats are dropped, their seats are available,
+	 * and so are those whose seats were all reserved since
+	 * @param now the time used to expire seat holds
+	 * @return the venue, with the ids of the rows, seats and seat holds saved
+	 */
+	public Venue toVenue(LocalDateTime now) {
+		Venue venue = new Venue(venueId);
+		boolean[] holding = new boolean[seatHolds.size()];
+		for (int seat = 0; seat < numSeats(); seat++) {
+			if (seatRefs[seat] >>> STATE_SHIFT == SeatOccupancy.HELD) {
+				holding[seatRefs[seat] & INDEX_MASK] = true;
+			}
+		}
+		for (int i = 0; i < seatHolds.size(); i++) {
+			SeatHold seatHold = seatHolds.get(i);
+			if (seatHold != null && (!holding[i] || !seatHold.isHolding(now))) {
+				seatHolds.set(i, null);
+			} else if (seatHold != null) {
+				seatHold.setVenue(venue);
+			}
+		}
+		for (SeatReservation seatReservation : seatReservations) {
+			venue.addSeatReservation(seatReservation);
+		}
+		Set<Row> rows = new LinkedHashSet<>(capacityFor(rowIds.length));
+		for (int r = 0; r < rowIds.length; r++) {
+			Row row = toRow(r);
+			row.setVenue(venue);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		return venue;
+	}
+
+	/**
+	 * builds a row of the snapshot with its seats, in a method of its own so
+	 * that it is compiled early on when a large venue is restored
+	 * @param r the index of the row
+	 * @return the row, not attached to a venue yet
+	 */
+	private Row toRow(int r) {
+		Row row = new Row(rowNumbers[r], null);
+		row.setRowId(rowIds[r]);
+		Set<Seat> seats = new LinkedHashSet<>(capacityFor(rowStarts[r + 1] - rowStarts[r]));
+		for (int seat = rowStarts[r]; seat < rowStarts[r + 1]; seat++) {
+			Seat restored = new Seat(seat - rowStarts[r] + 1, row);
+			restored.setSeatId(seatIds[seat]);
+			restored.setVersion(seatVersions[seat]);
+			if (seatRefs[seat] >>> STATE_SHIFT != SeatOccupancy.AVAILABLE) {
+				restored.setSeatHold(getSeatHold(seat));
+				restored.setSeatReservation(getSeatReservation(seat));
+			}
+			seats.add(restored);
+		}
+		row.setSeats(seats);
+		return row;
+	}
+
+	/**
+	 * @return the capacity of a hash set holding a number of elements without growing
+	 */
+	private static int capacityFor(int size) {
+		return size * 4 / 3 + 1;
+	}
+
+	/**
+	 * @param seat the index of the seat
+	 * @return the seat hold holding the seat, null if there is none or it was dropped
+	 */
+	public SeatHold getSeatHold(int seat) {
+		int ref = seatRefs[seat];
+		return ref >>> STATE_SHIFT == SeatOccupancy.HELD ? seatHolds.get(ref & INDEX_MASK) : null;
+	}
+
+	/**
+	 * @param seat the index of the seat
+	 * @return the reservation of the seat, null if there is none
+	 */
+	public SeatReservation getSeatReservation(int seat) {
+		int ref = seatRefs[seat];
+		return ref >>> STATE_SHIFT == SeatOccupancy.RESERVED ? seatReservations.get(ref & INDEX_MASK) : null;
+	}
+
+	/**
+	 * @return the seat holds of the snapshot that were not dropped
+	 */
+	public List<SeatHold> getSeatHolds() {
+		List<SeatHold> kept = new ArrayList<>(seatHolds.size());
+		for (SeatHold seatHold : seatHolds) {
+			if (seatHold != null) {
+				kept.add(seatHold);
+			}
+		}
+		return kept;
+	}
+
+	/**
+	 * @return the reservations of the reserved seats, not saved yet
+	 */
+	public List<SeatReservation> getSeatReservations() {
+		return seatReservations;
+	}
+
+	/**
+	 * @return the venueId
+	 */
+	public int getVenueId() {
+		return venueId;
+	}
+
+	/**
+	 * @return the time the snapshot was started in epoch milliseconds
+	 */
+	public long getCreatedMillis() {
+		return createdMillis;
+	}
+
+	/**
+	 * @return the position of the seat journal when the snapshot was started
+	 */
+	public long getJournalPosition() {
+		return journalPosition;
+	}
+
+	/**
+	 * @return the largest seat hold id given out when the snapshot was started
+	 */
+	public int getLastSeatHoldId() {
+		return lastSeatHoldId;
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int numRows() {
+		return rowIds.length;
+	}
+
+	/**
+	 * @param row the index of the row
+	 * @return the id of the row
+	 */
+	public int getRowId(int row) {
+		return rowIds[row];
+	}
+
+	/**
+	 * @param row the index of the row
+	 * @return the number of the row
+	 */
+	public int getRowNumber(int row) {
+		return rowNumbers[row];
+	}
+
+	/**
+	 * @param row the index of the row
+	 * @return the index of the first seat of the row
+	 */
+	public int firstSeat(int row) {
+		return rowStarts[row];
+	}
+
+	/**
+	 * @return the number of seats
+	 */
+	public int numSeats() {
+		return rowStarts[rowIds.length];
+	}
+
+	/**
+	 * @param seat the index of the seat
+	 * @return the id of the seat
+	 */
+	public int getSeatId(int seat) {
+		return seatIds[seat];
+	}
+
+	/**
+	 * @param seat the index of the seat
+	 * @return the version of the seat
+	 */
+	public int getSeatVersion(int seat) {
+		return seatVersions[seat];
+	}
+
+}
@@ -0,0 +1,9 @@
+package com.ticket.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import com.ticket.domain.ArchivedSeatHold;
+
+public interface ArchivedSeatHoldRepository extends JpaRepository<ArchivedSeatHold, Integer>{
+
+}
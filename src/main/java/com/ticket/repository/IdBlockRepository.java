@@ -0,0 +1,31 @@
+package com.ticket.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+
+import com.ticket.domain.IdBlock;
+
+public interface IdBlockRepository extends JpaRepository<IdBlock, String>{
+
+	/**
+	 * moves the counter to the next block. The update locks the counter until
+	 * the transaction ends, so concurrent callers take different blocks
+	 * @param name the name of the kind of id
+	 * @return the number of counters updated, 0 if the counter does not exist yet
+	 */
+	@Modifying
+	@Query("update IdBlock b set b.nextBlock = b.nextBlock + 1 where b.name = ?1")
+	public int incrementNextBlock(String name);
+
+	/**
+	 * moves the counter forward to a block unless it is already past it
+	 * @param name the name of the kind of id
+	 * @param nextBlock the number of the next block to be given out
+	 * @return the number of counters updated
+	 */
+	@Modifying
+	@Query("update IdBlock b set b.nextBlock = ?2 where b.name = ?1 and b.nextBlock < ?2")
+	public int advanceNextBlock(String name, long nextBlock);
+
+}
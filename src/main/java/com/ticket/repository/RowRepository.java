@@ -4,6 +4,12 @@ import org.springframework.data.jpa.repository.JpaRepository;
 
 import com.ticket.domain.Row;
 
-public interface RowRepository extends JpaRepository<Row, Integer>{
+public interface RowRepository extends JpaRepository<Row, Integer>, RowRepositoryCustom{
+
+	/**
+	 * @param venueId the id of the venue
+	 * @return the number of rows in the venue
+	 */
+	long countByVenueVenueId(Integer venueId);
 
 }
@@ -0,0 +1,37 @@
+package com.ticket.repository;
+
+import com.ticket.domain.VenueSnapshot;
+
+/**
+ * bulk operations on the rows of a venue that bypass the entity manager
+ */
+public interface RowRepositoryCustom {
+
+	/**
+	 * inserts the rows and seats of a venue laid out as a rectangle using
+	 * batched JDBC statements instead of saving every entity on its own
+	 * 
+	 * @param venueId
+	 *            the id of the venue, which must already be saved
+	 * @param numRows
+	 *            the number of rows, numbered from 1
+	 * @param numSeatsPerRow
+	 *            the number of seats in each row, numbered from 1
+	 * @return the number of seats inserted
+	 */
+	int insertRowsAndSeats(Integer venueId, int numRows, int numSeatsPerRow);
+
+	/**
+	 * inserts the rows and seats of a venue snapshot with the ids and versions
+	 * they had, each seat linked to its seat hold and reservation. The seat
+	 * holds and reservations must already be saved, and the identity columns
+	 * are moved past the inserted ids. The statements commit the current
+	 * transaction
+	 * 
+	 * @param snapshot
+	 *            the snapshot, whose venue must already be saved
+	 * @return the number of seats inserted
+	 */
+	int insertRowsAndSeats(VenueSnapshot snapshot);
+
+}
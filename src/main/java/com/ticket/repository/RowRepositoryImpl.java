@@ -0,0 +1,165 @@
+package com.ticket.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.VenueSnapshot;
+
+/**
+ * JDBC implementation of the bulk row operations. The ids are generated by the
+ * identity columns of the tables so a whole batch is sent in one round trip.
+ * Each batch is committed on its own, which the database handles much faster
+ * than a single transaction holding every seat of a large venue
+ */
+public class RowRepositoryImpl implements RowRepositoryCustom {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	/**
+	 * the number of statements sent to the database in a single batch
+	 */
+	@Value("${venue.bootstrapBatchSize:10000}")
+	private int batchSize;
+
+	/**
+	 * see RowRepositoryCustom for method summary
+	 */
+	@Override
+	public int insertRowsAndSeats(Integer venueId, int numRows, int numSeatsPerRow) {
+		Integer lastRowId = jdbcTemplate.queryForObject("select max(row_id) from row", Integer.class);
+		jdbcTemplate.batchUpdate("insert into row (row_number, venue_venue_id) values (?, ?)",
+				new BatchPreparedStatementSetter() {
+
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						ps.setInt(1, i + 1);
+						ps.setInt(2, venueId);
+					}
+
+					@Override
+					public int getBatchSize() {
+						return numRows;
+					}
+				});
+
+		// read back the generated ids of the rows that were just inserted
+		Map<Integer, Integer> rowIds = new HashMap<>();
+		jdbcTemplate.query("select row_id, row_number from row where venue_venue_id = ? and row_id > ?",
+				rs -> {
+					rowIds.put(rs.getInt(2), rs.getInt(1));
+				}, venueId, lastRowId == null ? 0 : lastRowId);
+
+		int numSeats = numRows * numSeatsPerRow;
+		for (int start = 0; start < numSeats; start += batchSize) {
+			int first = start;
+			int count = Math.min(batchSize, numSeats - start);
+			jdbcTemplate.batchUpdate("insert into seat (seat_number, row_row_id, version) values (?, ?, 0)",
+					new BatchPreparedStatementSetter() {
+
+						@Override
+						public void setValues(PreparedStatement ps, int i) throws SQLException {
+							int seat = first + i;
+							ps.setInt(1, seat % numSeatsPerRow + 1);
+							ps.setInt(2, rowIds.get(seat / numSeatsPerRow + 1));
+						}
+
+						@Override
+						public int getBatchSize() {
+							return count;
+						}
+					});
+		}
+		return numSeats;
+	}
+
+	/**
+	 * see RowRepositoryCustom for method summary
+	 */
+	@Override
+	public int insertRowsAndSeats(VenueSnapshot snapshot) {
+		jdbcTemplate.batchUpdate("insert into row (row_id, row_number, venue_venue_id) values (?, ?, ?)",
+				new BatchPreparedStatementSetter() {
+
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						ps.setInt(1, snapshot.getRowId(i));
+						ps.setInt(2, snapshot.getRowNumber(i));
+						ps.setInt(3, snapshot.getVenueId());
+					}
+
+					@Override
+					public int getBatchSize() {
+						return snapshot.numRows();
+					}
+				});
+
+		// the row of each seat, found by walking the rows along with the seats
+		int[] seatRows = new int[snapshot.numSeats()];
+		for (int row = 0; row < snapshot.numRows(); row++) {
+			int end = row + 1 < snapshot.numRows() ? snapshot.firstSeat(row + 1) : snapshot.numSeats();
+			for (int seat = snapshot.firstSeat(row); seat < end; seat++) {
+				seatRows[seat] = row;
+			}
+		}
+		int numSeats = snapshot.numSeats();
+		for (int start = 0; start < numSeats; start += batchSize) {
+			int first = start;
+			int count = Math.min(batchSize, numSeats - start);
+			jdbcTemplate.batchUpdate("insert into seat (seat_id, seat_number, row_row_id, version,"
+					+ " seat_hold_seat_hold_id, seat_reservation_seat_reservation_id) values (?, ?, ?, ?, ?, ?)",
+					new BatchPreparedStatementSetter() {
+
+						@Override
+						public void setValues(PreparedStatement ps, int i) throws SQLException {
+							int seat = first + i;
+							int row = seatRows[seat];
+							ps.setInt(1, snapshot.getSeatId(seat));
+							ps.setInt(2, seat - snapshot.firstSeat(row) + 1);
+							ps.setInt(3, snapshot.getRowId(row));
+							ps.setInt(4, snapshot.getSeatVersion(seat));
+							SeatHold seatHold = snapshot.getSeatHold(seat);
+							if (seatHold == null) {
+								ps.setNull(5, Types.INTEGER);
+							} else {
+								ps.setInt(5, seatHold.getSeatHoldId());
+							}
+							SeatReservation seatReservation = snapshot.getSeatReservation(seat);
+							if (seatReservation == null) {
+								ps.setNull(6, Types.INTEGER);
+							} else {
+								ps.setInt(6, seatReservation.getSeatReservationId());
+							}
+						}
+
+						@Override
+						public int getBatchSize() {
+							return count;
+						}
+					});
+		}
+		restartIds("row", "row_id");
+		restartIds("seat", "seat_id");
+		return numSeats;
+	}
+
+	/**
+	 * makes the identity column of a table give out ids above those already in the table
+	 */
+	private void restartIds(String table, String idColumn) {
+		Integer lastId = jdbcTemplate.queryForObject("select max(" + idColumn + ") from " + table, Integer.class);
+		jdbcTemplate.execute("alter table " + table + " alter column " + idColumn + " restart with "
+				+ (lastId == null ? 1 : lastId + 1));
+	}
+
+}
@@ -1,9 +1,35 @@
 package com.ticket.repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import com.ticket.domain.SeatHold;
 
-public interface SeatHoldRepository extends JpaRepository<SeatHold, Integer>{
+public interface SeatHoldRepository extends JpaRepository<SeatHold, Integer>, SeatHoldRepositoryCustom{
+
+	/**
+	 * ends a seat hold without loading it, so that its seats are available
+	 * @param seatHoldId the id of the seat hold
+	 * @return the number of seat holds changed
+	 */
+	@Modifying
+	@Query("update SeatHold h set h.inProgress = false, h.expireTime = null, h.version = h.version + 1 where h.seatHoldId = ?1")
+	public int invalidate(Integer seatHoldId);
+
+	/**
+	 * finds the seat holds of a customer that are still holding their seats
+	 * through the index on the customer email, with their seats
+	 * @param customerEmail the email of the customer
+	 * @param now the time used to expire seat holds
+	 * @return the seat holds, oldest first
+	 */
+	@EntityGraph(attributePaths = "seatsHeld")
+	@Query("select distinct h from SeatHold h where h.customerEmail = ?1 and (h.inProgress = true or h.expireTime > ?2) order by h.seatHoldId")
+	public List<SeatHold> findLiveSeatHolds(String customerEmail, LocalDateTime now);
 
 }
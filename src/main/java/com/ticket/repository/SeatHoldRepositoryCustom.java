@@ -0,0 +1,94 @@
+package com.ticket.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import com.ticket.domain.SeatHold;
+
+/**
+ * bulk operations on seat holds that bypass the entity manager
+ */
+public interface SeatHoldRepositoryCustom {
+
+	/**
+	 * finds the seat holds that no longer hold their seats: those that were
+	 * invalidated and those that expired before a given time. Seat holds still
+	 * in progress are never returned
+	 * 
+	 * @param expiredBefore
+	 *            the time before which a seat hold must have expired
+	 * @param limit
+	 *            the largest number of ids returned
+	 * @return the ids of the seat holds, lowest first
+	 */
+	List<Integer> findEndedSeatHoldIds(LocalDateTime expiredBefore, int limit);
+
+	/**
+	 * @param seatHoldIds
+	 *            the ids of the seat holds
+	 * @return an estimate of the number of bytes the rows of the seat holds
+	 *         take up in the seat hold table
+	 */
+	long estimateSize(List<Integer> seatHoldIds);
+
+	/**
+	 * copies seat holds to the archived seat hold table
+	 * 
+	 * @param seatHoldIds
+	 *            the ids of the seat holds
+	 * @param archiveTime
+	 *            the time recorded as the time they were archived
+	 * @return the number of seat holds archived
+	 */
+	int archiveSeatHolds(List<Integer> seatHoldIds, LocalDateTime archiveTime);
+
+	/**
+	 * clears the seat hold of the seats that refer to any of the seat holds.
+	 * The version of the seats is left alone since a seat hold that no longer
+	 * holds its seats does not change the state of a seat
+	 * 
+	 * @param seatHoldIds
+	 *            the ids of the seat holds
+	 * @return the number of seats updated
+	 */
+	int unlinkSeats(List<Integer> seatHoldIds);
+
+	/**
+	 * deletes seat holds no seat refers to any more
+	 * 
+	 * @param seatHoldIds
+	 *            the ids of the seat holds
+	 * @return the number of seat holds deleted
+	 */
+	int deleteSeatHolds(List<Integer> seatHoldIds);
+
+	/**
+	 * inserts seat holds with the ids and versions they were given before,
+	 * such as those read back from the seat journal, without any seats
+	 * 
+	 * @param venueId
+	 *            the id of the venue of the seat holds
+	 * @param seatHolds
+	 *            the seat holds, which must have an id
+	 * @return the number of seat holds inserted
+	 */
+	int insertSeatHolds(Integer venueId, Collection<SeatHold> seatHolds);
+
+	/**
+	 * makes the database give new seat holds ids above a given id, so that
+	 * the ids of the seat holds inserted with insertSeatHolds are not given
+	 * out again. The statement commits the current transaction
+	 * 
+	 * @param seatHoldId
+	 *            the largest id given out so far
+	 */
+	void skipSeatHoldIds(int seatHoldId);
+
+	/**
+	 * @return the largest seat hold id in the seat hold table or among the
+	 *         archived seat holds, 0 if there are none
+	 */
+	int findLastSeatHoldId();
+
+}
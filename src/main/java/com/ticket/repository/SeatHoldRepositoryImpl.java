@@ -0,0 +1,133 @@
+package com.ticket.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.ticket.domain.SeatHold;
+
+/**
+ * JDBC implementation of the bulk seat hold operations. The statements join
+ * the transaction of the caller, if any
+ */
+public class SeatHoldRepositoryImpl implements SeatHoldRepositoryCustom {
+
+	/**
+	 * estimate of the bytes taken by a seat hold row apart from the customer
+	 * email: the fixed size columns, the row header and the primary key entry
+	 */
+	static final int SEAT_HOLD_ROW_BYTES = 48;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public List<Integer> findEndedSeatHoldIds(LocalDateTime expiredBefore, int limit) {
+		return jdbcTemplate.queryForList("select seat_hold_id from seat_hold where in_progress = false"
+				+ " and (expire_time is null or expire_time <= ?) order by seat_hold_id limit ?", Integer.class,
+				Timestamp.valueOf(expiredBefore), limit);
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public long estimateSize(List<Integer> seatHoldIds) {
+		if (seatHoldIds.isEmpty()) {
+			return 0;
+		}
+		return jdbcTemplate.queryForObject("select count(*) * " + SEAT_HOLD_ROW_BYTES
+				+ " + coalesce(sum(length(customer_email)), 0) from seat_hold where seat_hold_id in ("
+				+ SeatRepositoryImpl.placeholders(seatHoldIds.size()) + ")", Long.class, seatHoldIds.toArray());
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public int archiveSeatHolds(List<Integer> seatHoldIds, LocalDateTime archiveTime) {
+		if (seatHoldIds.isEmpty()) {
+			return 0;
+		}
+		List<Object> args = new ArrayList<>(seatHoldIds.size() + 1);
+		args.add(Timestamp.valueOf(archiveTime));
+		args.addAll(seatHoldIds);
+		return jdbcTemplate.update("insert into archived_seat_hold"
+				+ " (seat_hold_id, venue_id, customer_email, expire_time, archive_time)"
+				+ " select seat_hold_id, venue_venue_id, customer_email, expire_time, ? from seat_hold"
+				+ " where seat_hold_id in (" + SeatRepositoryImpl.placeholders(seatHoldIds.size()) + ")",
+				args.toArray());
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public int unlinkSeats(List<Integer> seatHoldIds) {
+		if (seatHoldIds.isEmpty()) {
+			return 0;
+		}
+		return jdbcTemplate.update("update seat set seat_hold_seat_hold_id = null where seat_hold_seat_hold_id in ("
+				+ SeatRepositoryImpl.placeholders(seatHoldIds.size()) + ")", seatHoldIds.toArray());
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public int deleteSeatHolds(List<Integer> seatHoldIds) {
+		if (seatHoldIds.isEmpty()) {
+			return 0;
+		}
+		return jdbcTemplate.update("delete from seat_hold where seat_hold_id in ("
+				+ SeatRepositoryImpl.placeholders(seatHoldIds.size()) + ")", seatHoldIds.toArray());
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public int insertSeatHolds(Integer venueId, Collection<SeatHold> seatHolds) {
+		List<Object[]> args = new ArrayList<>(seatHolds.size());
+		for (SeatHold seatHold : seatHolds) {
+			args.add(new Object[] { seatHold.getSeatHoldId(), venueId, seatHold.getCustomerEmail(),
+					seatHold.getExpireTime() == null ? null : Timestamp.valueOf(seatHold.getExpireTime()),
+					seatHold.isInProgress(), seatHold.getVersion() });
+		}
+		jdbcTemplate.batchUpdate("insert into seat_hold"
+				+ " (seat_hold_id, venue_venue_id, customer_email, expire_time, in_progress, version)"
+				+ " values (?, ?, ?, ?, ?, ?)", args);
+		return args.size();
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public void skipSeatHoldIds(int seatHoldId) {
+		Integer lastSeatHoldId = jdbcTemplate.queryForObject("select max(seat_hold_id) from seat_hold", Integer.class);
+		int nextSeatHoldId = Math.max(seatHoldId, lastSeatHoldId == null ? 0 : lastSeatHoldId) + 1;
+		jdbcTemplate.execute("alter table seat_hold alter column seat_hold_id restart with " + nextSeatHoldId);
+	}
+
+	/**
+	 * see SeatHoldRepositoryCustom for method summary
+	 */
+	@Override
+	public int findLastSeatHoldId() {
+		Integer lastSeatHoldId = jdbcTemplate.queryForObject("select max(seat_hold_id) from seat_hold", Integer.class);
+		Integer lastArchivedSeatHoldId = jdbcTemplate.queryForObject("select max(seat_hold_id) from archived_seat_hold",
+				Integer.class);
+		return Math.max(lastSeatHoldId == null ? 0 : lastSeatHoldId,
+				lastArchivedSeatHoldId == null ? 0 : lastArchivedSeatHoldId);
+	}
+
+}
@@ -1,9 +1,39 @@
 package com.ticket.repository;
 
+import java.util.Collection;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 
 import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+
+public interface SeatRepository extends JpaRepository<Seat, Integer>, SeatRepositoryCustom{
+
+	/**
+	 * places a seat hold on seats with a single statement. Only the seats still
+	 * at the given version are updated and their version is incremented
+	 * @param seatHold the seat hold, which must already be saved
+	 * @param seatIds the ids of the seats
+	 * @param version the version of the seats
+	 * @return the number of seats updated
+	 */
+	@Modifying
+	@Query("update Seat s set s.seatHold = ?1, s.version = s.version + 1 where s.seatId in ?2 and s.version = ?3")
+	public int updateSeatHold(SeatHold seatHold, Collection<Integer> seatIds, int version);
 
-public interface SeatRepository extends JpaRepository<Seat, Integer>{
+	/**
+	 * reserves seats with a single statement. Only the seats still at the
+	 * given version are updated and their version is incremented
+	 * @param seatReservation the seat reservation, which must already be saved
+	 * @param seatIds the ids of the seats
+	 * @param version the version of the seats
+	 * @return the number of seats updated
+	 */
+	@Modifying
+	@Query("update Seat s set s.seatReservation = ?1, s.version = s.version + 1 where s.seatId in ?2 and s.version = ?3")
+	public int updateSeatReservation(SeatReservation seatReservation, Collection<Integer> seatIds, int version);
 
 }
@@ -0,0 +1,189 @@
+package com.ticket.repository;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import com.ticket.domain.Seat;
+
+/**
+ * bulk operations on seats that bypass the entity manager
+ */
+public interface SeatRepositoryCustom {
+
+	/**
+	 * writes the seat hold and seat reservation of seats using batched JDBC
+	 * statements instead of merging every seat on its own. The seat holds and
+	 * seat reservations must already be saved. A seat is only written if it is
+	 * still at its version, which is incremented in the database; the version
+	 * of the seats in memory is left for the caller to move on once the
+	 * transaction commits
+	 * 
+	 * @param seats
+	 *            the seats
+	 * @return the number of seats updated
+	 * @throws ObjectOptimisticLockingFailureException
+	 *             if some seats were changed since they were read, with the
+	 *             list of their ids as identifier
+	 */
+	int updateSeatStates(Collection<Seat> seats);
+
+	/**
+	 * finds the seats that the in-memory venue would hold for a request that
+	 * fits in one row: the first row, in row order, where either the seats
+	 * from the center are available or enough seats are available every other
+	 * seat from the first available seat on the side
+	 * 
+	 * @param venueId
+	 *            the id of the venue
+	 * @param numSeats
+	 *            the number of seats to hold
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the ids of the seats, or an empty list if no row can hold them
+	 */
+	List<Integer> findSeatsToHold(Integer venueId, int numSeats, LocalDateTime now);
+
+	/**
+	 * places a seat hold on the seats that are still available, as a
+	 * compare-and-set against seats held or reserved in the meantime
+	 * 
+	 * @param seatHoldId
+	 *            the id of the seat hold, which must already be saved
+	 * @param seatIds
+	 *            the ids of the seats
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the number of seats held, less than the number of ids if some were taken
+	 */
+	int claimSeats(Integer seatHoldId, Collection<Integer> seatIds, LocalDateTime now);
+
+	/**
+	 * releases the seats that are held by a seat hold
+	 * 
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @param seatIds
+	 *            the ids of the seats
+	 * @return the number of seats released
+	 */
+	int releaseSeats(Integer seatHoldId, Collection<Integer> seatIds);
+
+	/**
+	 * reserves the seats of a seat hold that are not reserved yet, if the seat
+	 * hold is still holding them
+	 * 
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @param seatReservationId
+	 *            the id of the seat reservation, which must already be saved
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the number of seats reserved
+	 */
+	int reserveSeatsOfHold(Integer seatHoldId, Integer seatReservationId, LocalDateTime now);
+
+	/**
+	 * reserves the given seats of a seat hold, if the seat hold is still
+	 * holding them. The seats are found by id instead of by seat hold
+	 * 
+	 * @param seatHoldId
+	 *            the id of the seat hold
+	 * @param seatIds
+	 *            the ids of the seats held by the seat hold
+	 * @param seatReservationId
+	 *            the id of the seat reservation, which must already be saved
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the number of seats reserved
+	 */
+	int reserveSeats(Integer seatHoldId, int[] seatIds, Integer seatReservationId, LocalDateTime now);
+
+	/**
+	 * @param venueId
+	 *            the id of the venue
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @return the number of seats that are neither held nor reserved
+	 */
+	int countAvailableSeats(Integer venueId, LocalDateTime now);
+
+	/**
+	 * @param venueId
+	 *            the id of the venue
+	 * @return the number of seats in the first row of the venue
+	 */
+	int countSeatsPerRow(Integer venueId);
+
+	/**
+	 * places a seat hold on seats found by their row and seat number, for
+	 * seats whose ids are not known, such as those read back from the seat
+	 * journal. The seats are not checked for being available
+	 * 
+	 * @param venueId
+	 *            the id of the venue
+	 * @param seatHoldId
+	 *            the id of the seat hold, which must already be saved
+	 * @param rowNumbers
+	 *            the row number of each seat
+	 * @param seatNumbers
+	 *            the seat number of each seat
+	 * @return the number of seats updated
+	 */
+	int holdSeatsByNumber(Integer venueId, Integer seatHoldId, int[] rowNumbers, int[] seatNumbers);
+
+	/**
+	 * reserves seats found by their row and seat number, for seats whose ids
+	 * are not known, such as those read back from the seat journal
+	 * 
+	 * @param venueId
+	 *            the id of the venue
+	 * @param seatReservationId
+	 *            the id of the seat reservation, which must already be saved
+	 * @param rowNumbers
+	 *            the row number of each seat
+	 * @param seatNumbers
+	 *            the seat number of each seat
+	 * @return the number of seats updated
+	 */
+	int reserveSeatsByNumber(Integer venueId, Integer seatReservationId, int[] rowNumbers, int[] seatNumbers);
+
+	/**
+	 * reads the state of every seat of a venue in one query without loading
+	 * the seats, for a venue whose seats are kept outside of the entity model
+	 * 
+	 * @param venueId
+	 *            the id of the venue
+	 * @param now
+	 *            the time used to expire seat holds
+	 * @param handler
+	 *            receives the state of each seat
+	 */
+	void readSeatStates(Integer venueId, LocalDateTime now, SeatStateHandler handler);
+
+	/**
+	 * receives the seats read by readSeatStates
+	 */
+	interface SeatStateHandler {
+
+		/**
+		 * @param rowNumber
+		 *            the number of the row of the seat
+		 * @param seatNumber
+		 *            the number of the seat
+		 * @param state
+		 *            the state of the seat, as in SeatOccupancy
+		 * @param id
+		 *            the id of the reservation of a reserved seat or of the
+		 *            seat hold of a held seat, 0 for an available seat
+		 * @param expireMillis
+		 *            the time in epoch milliseconds when the seat hold of a
+		 *            held seat expires, Long.MAX_VALUE if it is still in
+		 *            progress
+		 */
+		void seat(int rowNumber, int seatNumber, int state, int id, long expireMillis);
+	}
+
+}
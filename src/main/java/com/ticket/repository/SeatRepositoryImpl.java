@@ -0,0 +1,361 @@
+package com.ticket.repository;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatOccupancy;
+import com.ticket.domain.SeatReservation;
+
+/**
+ * JDBC implementation of the bulk seat operations. The statements join the
+ * transaction of the caller, if any
+ */
+public class SeatRepositoryImpl implements SeatRepositoryCustom {
+
+	/**
+	 * the number of rows examined by each query of the seat search
+	 */
+	private static final int ROW_PAGE_SIZE = 64;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	/**
+	 * the number of statements sent to the database in a single batch
+	 */
+	@Value("${venue.seatUpdateBatchSize:1000}")
+	private int batchSize;
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int updateSeatStates(Collection<Seat> seats) {
+		List<Seat> seatList = new ArrayList<>(seats);
+		List<Object[]> states = new ArrayList<>(seatList.size());
+		for (Seat seat : seatList) {
+			states.add(new Object[] { idOf(seat.getSeatHold()), idOf(seat.getSeatReservation()), seat.getSeatId(),
+					seat.getVersion() });
+		}
+		int[][] counts = jdbcTemplate.batchUpdate("update seat set seat_hold_seat_hold_id = ?,"
+				+ " seat_reservation_seat_reservation_id = ?, version = version + 1 where seat_id = ? and version = ?",
+				states, batchSize, new ParameterizedPreparedStatementSetter<Object[]>() {
+
+					@Override
+					public void setValues(PreparedStatement ps, Object[] state) throws SQLException {
+						ps.setObject(1, state[0], Types.INTEGER);
+						ps.setObject(2, state[1], Types.INTEGER);
+						ps.setObject(3, state[2], Types.INTEGER);
+						ps.setObject(4, state[3], Types.INTEGER);
+					}
+				});
+		List<Integer> changedSeatIds = new ArrayList<>();
+		int i = 0;
+		for (int[] batch : counts) {
+			for (int count : batch) {
+				if (count == 0) {
+					changedSeatIds.add(seatList.get(i).getSeatId());
+				}
+				i++;
+			}
+		}
+		if (!changedSeatIds.isEmpty()) {
+			throw new ObjectOptimisticLockingFailureException(Seat.class, changedSeatIds);
+		}
+		return states.size();
+	}
+
+	private static Integer idOf(SeatHold seatHold) {
+		if (seatHold == null) {
+			return null;
+		}
+		if (seatHold.getSeatHoldId() == null) {
+			throw new IllegalStateException("The seat hold of a seat must be saved before the seat");
+		}
+		return seatHold.getSeatHoldId();
+	}
+
+	private static Integer idOf(SeatReservation seatReservation) {
+		if (seatReservation == null) {
+			return null;
+		}
+		if (seatReservation.getSeatReservationId() == null) {
+			throw new IllegalStateException("The seat reservation of a seat must be saved before the seat");
+		}
+		return seatReservation.getSeatReservationId();
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary. Each page of rows is
+	 * searched with one query, which works out the gaps of every row in a
+	 * single pass over its seats and joins back the seats that the row would
+	 * hold, in row and seat order. The database has no window functions, so
+	 * the seats past the request on the side are cut off while reading
+	 */
+	@Override
+	public List<Integer> findSeatsToHold(Integer venueId, int numSeats, LocalDateTime now) {
+		Timestamp time = Timestamp.valueOf(now);
+		// for each row: its size, the end of the block of available seats from
+		// the center and the first available seat on the side
+		String rowGaps = "select s.row_row_id row_id, count(*) size,"
+				+ " min(case when " + heldAvailable("s") + " then null else s.seat_number end) first_unavailable,"
+				+ " min(case when s.seat_number >= 2 and " + heldAvailable("s") + " then s.seat_number end) first_side"
+				+ " from seat s left join seat_hold h on h.seat_hold_id = s.seat_hold_seat_hold_id"
+				+ " where s.row_row_id in (select r.row_id from row r where r.venue_venue_id = ? and r.row_id > ?"
+				+ " order by r.row_id limit ?) group by s.row_row_id";
+		String centerBlock = "coalesce(g.first_unavailable - 1, g.size)";
+		// the same short circuit as the row: the side cannot hold more than every other seat past the last unavailable one
+		String sideFits = "(g.first_side < 3 or ? <= (g.size - g.first_side + 2) / 2 + mod(g.size - g.first_side + 2, 2))";
+		// every row of the page is returned, with no seat if it cannot hold the request
+		String seatQuery = "select g.row_id, s.seat_id from (" + rowGaps + ") g"
+				+ " left join seat s on s.row_row_id = g.row_id and g.size >= ? and ((" + centerBlock + " >= ?"
+				+ " and s.seat_number <= ?) or (" + centerBlock + " < ? and s.seat_number >= g.first_side"
+				+ " and mod(s.seat_number - g.first_side, 2) = 0 and " + sideFits + " and " + available("s") + "))"
+				+ " order by g.row_id, s.seat_number";
+		int lastRowId = 0;
+		while (true) {
+			RowSeats rowSeats = jdbcTemplate.query(seatQuery, rs -> {
+				RowSeats found = new RowSeats();
+				while (rs.next()) {
+					int rowId = rs.getInt(1);
+					if (rowId != found.lastRowId) {
+						found.lastRowId = rowId;
+						found.seatIds.clear();
+					}
+					Integer seatId = (Integer) rs.getObject(2);
+					if (seatId != null) {
+						found.seatIds.add(seatId);
+						if (found.seatIds.size() == numSeats) {
+							return found;
+						}
+					}
+				}
+				found.seatIds.clear();
+				return found;
+			}, time, time, venueId, lastRowId, ROW_PAGE_SIZE, numSeats, numSeats, numSeats, numSeats, numSeats, time);
+			if (!rowSeats.seatIds.isEmpty() || rowSeats.lastRowId == 0) {
+				return rowSeats.seatIds;
+			}
+			lastRowId = rowSeats.lastRowId;
+		}
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int claimSeats(Integer seatHoldId, Collection<Integer> seatIds, LocalDateTime now) {
+		List<Object> args = new ArrayList<>(seatIds.size() + 2);
+		args.add(seatHoldId);
+		args.addAll(seatIds);
+		args.add(Timestamp.valueOf(now));
+		return jdbcTemplate.update("update seat s set seat_hold_seat_hold_id = ?, version = version + 1"
+				+ " where s.seat_id in (" + placeholders(seatIds.size()) + ") and " + available("s"), args.toArray());
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int releaseSeats(Integer seatHoldId, Collection<Integer> seatIds) {
+		List<Object> args = new ArrayList<>(seatIds.size() + 1);
+		args.add(seatHoldId);
+		args.addAll(seatIds);
+		return jdbcTemplate.update("update seat set seat_hold_seat_hold_id = null, version = version + 1"
+				+ " where seat_hold_seat_hold_id = ? and seat_id in (" + placeholders(seatIds.size()) + ")",
+				args.toArray());
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int reserveSeatsOfHold(Integer seatHoldId, Integer seatReservationId, LocalDateTime now) {
+		return jdbcTemplate.update("update seat set seat_reservation_seat_reservation_id = ?, version = version + 1"
+				+ " where seat_hold_seat_hold_id = ? and seat_reservation_seat_reservation_id is null and " + holding(),
+				seatReservationId, seatHoldId, seatHoldId, Timestamp.valueOf(now));
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int reserveSeats(Integer seatHoldId, int[] seatIds, Integer seatReservationId, LocalDateTime now) {
+		List<Object> args = new ArrayList<>(seatIds.length + 4);
+		args.add(seatReservationId);
+		for (int seatId : seatIds) {
+			args.add(seatId);
+		}
+		args.add(seatHoldId);
+		args.add(seatHoldId);
+		args.add(Timestamp.valueOf(now));
+		return jdbcTemplate.update("update seat set seat_reservation_seat_reservation_id = ?, version = version + 1"
+				+ " where seat_id in (" + placeholders(seatIds.length) + ") and seat_hold_seat_hold_id = ?"
+				+ " and seat_reservation_seat_reservation_id is null and " + holding(), args.toArray());
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int countAvailableSeats(Integer venueId, LocalDateTime now) {
+		return jdbcTemplate.queryForObject("select count(*) from seat s join row r on s.row_row_id = r.row_id"
+				+ " left join seat_hold h on h.seat_hold_id = s.seat_hold_seat_hold_id"
+				+ " where r.venue_venue_id = ? and " + heldAvailable("s"), Integer.class, venueId, Timestamp.valueOf(now));
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int countSeatsPerRow(Integer venueId) {
+		return jdbcTemplate.queryForObject(
+				"select count(*) from seat where row_row_id = (select min(row_id) from row where venue_venue_id = ?)",
+				Integer.class, venueId);
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int holdSeatsByNumber(Integer venueId, Integer seatHoldId, int[] rowNumbers, int[] seatNumbers) {
+		return updateSeatsByNumber("seat_hold_seat_hold_id", venueId, seatHoldId, rowNumbers, seatNumbers);
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public int reserveSeatsByNumber(Integer venueId, Integer seatReservationId, int[] rowNumbers, int[] seatNumbers) {
+		return updateSeatsByNumber("seat_reservation_seat_reservation_id", venueId, seatReservationId, rowNumbers,
+				seatNumbers);
+	}
+
+	/**
+	 * see SeatRepositoryCustom for method summary
+	 */
+	@Override
+	public void readSeatStates(Integer venueId, LocalDateTime now, SeatStateHandler handler) {
+		Timestamp time = Timestamp.valueOf(now);
+		jdbcTemplate.query("select r.row_number, s.seat_number, s.seat_reservation_seat_reservation_id,"
+				+ " h.seat_hold_id, h.in_progress, h.expire_time from seat s join row r on s.row_row_id = r.row_id"
+				+ " left join seat_hold h on h.seat_hold_id = s.seat_hold_seat_hold_id where r.venue_venue_id = ?",
+				rs -> {
+					int reservationId = rs.getInt(3);
+					int seatHoldId = rs.getInt(4);
+					boolean inProgress = rs.getBoolean(5);
+					Timestamp expireTime = rs.getTimestamp(6);
+					if (reservationId != 0) {
+						handler.seat(rs.getInt(1), rs.getInt(2), SeatOccupancy.RESERVED, reservationId, 0);
+					} else if (seatHoldId != 0 && inProgress) {
+						handler.seat(rs.getInt(1), rs.getInt(2), SeatOccupancy.HELD, seatHoldId, Long.MAX_VALUE);
+					} else if (seatHoldId != 0 && expireTime != null && expireTime.after(time)) {
+						handler.seat(rs.getInt(1), rs.getInt(2), SeatOccupancy.HELD, seatHoldId, expireTime.getTime());
+					} else {
+						handler.seat(rs.getInt(1), rs.getInt(2), SeatOccupancy.AVAILABLE, 0, 0);
+					}
+				}, venueId);
+	}
+
+	/**
+	 * sets a column of seats found by their row and seat number in batches
+	 */
+	private int updateSeatsByNumber(String column, Integer venueId, Integer id, int[] rowNumbers,
+			int[] seatNumbers) {
+		List<int[]> seats = new ArrayList<>(rowNumbers.length);
+		for (int i = 0; i < rowNumbers.length; i++) {
+			seats.add(new int[] { rowNumbers[i], seatNumbers[i] });
+		}
+		int[][] counts = jdbcTemplate.batchUpdate("update seat set " + column + " = ? where row_row_id ="
+				+ " (select row_id from row where venue_venue_id = ? and row_number = ?) and seat_number = ?",
+				seats, batchSize, new ParameterizedPreparedStatementSetter<int[]>() {
+
+					@Override
+					public void setValues(PreparedStatement ps, int[] seat) throws SQLException {
+						ps.setInt(1, id);
+						ps.setInt(2, venueId);
+						ps.setInt(3, seat[0]);
+						ps.setInt(4, seat[1]);
+					}
+				});
+		int updated = 0;
+		for (int[] batch : counts) {
+			for (int count : batch) {
+				updated += count;
+			}
+		}
+		return updated;
+	}
+
+	/**
+	 * @param seat
+	 *            the alias of the seat table
+	 * @return the condition that a seat is neither reserved nor held by a seat
+	 *         hold that is still holding, with one parameter for the current time
+	 */
+	private static String available(String seat) {
+		return seat + ".seat_reservation_seat_reservation_id is null and (" + seat + ".seat_hold_seat_hold_id is null"
+				+ " or exists (select 1 from seat_hold h where h.seat_hold_id = " + seat + ".seat_hold_seat_hold_id"
+				+ " and h.in_progress = false and (h.expire_time is null or h.expire_time <= ?)))";
+	}
+
+	/**
+	 * @return the condition that a seat hold is still holding its seats, with
+	 *         parameters for the id of the seat hold and the current time
+	 */
+	private static String holding() {
+		return "exists (select 1 from seat_hold h where h.seat_hold_id = ?"
+				+ " and (h.in_progress = true or h.expire_time > ?))";
+	}
+
+	/**
+	 * the same condition as available for a query that outer joins the seat
+	 * hold of the seat as h, which is cheaper than a subquery for every seat
+	 */
+	private static String heldAvailable(String seat) {
+		return seat + ".seat_reservation_seat_reservation_id is null and (h.seat_hold_id is null"
+				+ " or (h.in_progress = false and (h.expire_time is null or h.expire_time <= ?)))";
+	}
+
+	/**
+	 * @return the parameter markers of an in list
+	 */
+	static String placeholders(int count) {
+		StringBuilder placeholders = new StringBuilder(count * 3);
+		for (int i = 0; i < count; i++) {
+			placeholders.append(i == 0 ? "?" : ", ?");
+		}
+		return placeholders.toString();
+	}
+
+	/**
+	 * the seats found by the seat search in a page of rows
+	 */
+	private static final class RowSeats {
+
+		/**
+		 * the last row read, 0 if the page had no rows
+		 */
+		private int lastRowId;
+
+		/**
+		 * the seats that the last row read would hold, empty if it cannot hold the request
+		 */
+		private final List<Integer> seatIds = new ArrayList<>();
+	}
+
+}
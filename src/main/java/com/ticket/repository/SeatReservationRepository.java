@@ -1,5 +1,8 @@
 package com.ticket.repository;
 
+import java.util.List;
+
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 
@@ -7,7 +10,24 @@ import com.ticket.domain.SeatReservation;
 
 public interface SeatReservationRepository extends JpaRepository<SeatReservation, Integer>{
 
+	@EntityGraph(attributePaths = "reservedSeats")
 	@Query("select s from SeatReservation s where s.confirmationId=?1")
 	public SeatReservation getReservationByConfirmationId(String confirmationId);
+
+	/**
+	 * finds the reservations of a customer through the index on the customer email
+	 * @param customerEmail the email of the customer
+	 * @return the reservations, oldest first
+	 */
+	@Query("select s from SeatReservation s where s.customerEmail=?1 order by s.seatReservationId")
+	public List<SeatReservation> findByCustomerEmail(String customerEmail);
+
+	/**
+	 * reads only what a reservation summary needs, without loading the reservation or its seats
+	 * @param confirmationId the confirmation id
+	 * @return the customer email, row number and seat number of each reserved seat, empty if there is no such reservation
+	 */
+	@Query("select r.customerEmail, row.rowNumber, seat.seatNumber from Seat seat join seat.seatReservation r join seat.row row where r.confirmationId=?1 order by row.rowNumber, seat.seatNumber")
+	public List<Object[]> findReservedSeatsByConfirmationId(String confirmationId);
 	
 }
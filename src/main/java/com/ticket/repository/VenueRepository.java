@@ -1,9 +1,19 @@
 package com.ticket.repository;
 
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 import com.ticket.domain.Venue;
 
 public interface VenueRepository extends JpaRepository<Venue, Integer>{
 
+	/**
+	 * loads a venue with its rows, its seats and the seat holds and
+	 * reservations of its seats in a single query
+	 * @param venueId the id of the venue
+	 * @return the venue, or null if there is none
+	 */
+	@EntityGraph(Venue.SEAT_MAP_GRAPH)
+	public Venue findSeatMapByVenueId(Integer venueId);
+
 }
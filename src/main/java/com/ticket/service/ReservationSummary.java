@@ -0,0 +1,120 @@
+package com.ticket.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatReservation;
+
+/**
+ * what is needed to check a confirmation number: the customer and the
+ * position of each reserved seat. It holds no entities, so it can be kept in
+ * memory and handed out without touching the database
+ */
+public class ReservationSummary {
+
+	/**
+	 * the confirmation id of the reservation
+	 */
+	private final String confirmationId;
+
+	/**
+	 * the email of the customer who made the reservation
+	 */
+	private final String customerEmail;
+
+	/**
+	 * the row number of each reserved seat
+	 */
+	private final int[] rowNumbers;
+
+	/**
+	 * the seat number of each reserved seat
+	 */
+	private final int[] seatNumbers;
+
+	/**
+	 * instantiation of the summary
+	 * @param confirmationId the confirmation id of the reservation
+	 * @param customerEmail the email of the customer
+	 * @param rowNumbers the row number of each reserved seat
+	 * @param seatNumbers the seat number of each reserved seat, in the same order
+	 */
+	public ReservationSummary(String confirmationId, String customerEmail, int[] rowNumbers, int[] seatNumbers) {
+		if (rowNumbers.length != seatNumbers.length) {
+			throw new IllegalArgumentException("Every seat needs a row number and a seat number");
+		}
+		this.confirmationId = confirmationId;
+		this.customerEmail = customerEmail;
+		this.rowNumbers = rowNumbers;
+		this.seatNumbers = seatNumbers;
+	}
+
+	/**
+	 * @param seatReservation the reservation
+	 * @param seats the seats reserved, attached to their rows
+	 * @return the summary of the reservation, with the seats ordered by row and seat number
+	 */
+	public static ReservationSummary of(SeatReservation seatReservation, List<Seat> seats) {
+		List<Seat> orderedSeats = new ArrayList<>(seats);
+		orderedSeats.sort(Comparator.comparing((Seat seat) -> seat.getRow().getRowNumber())
+				.thenComparing(Seat::getSeatNumber));
+		int[] rowNumbers = new int[orderedSeats.size()];
+		int[] seatNumbers = new int[orderedSeats.size()];
+		for (int i = 0; i < orderedSeats.size(); i++) {
+			rowNumbers[i] = orderedSeats.get(i).getRow().getRowNumber();
+			seatNumbers[i] = orderedSeats.get(i).getSeatNumber();
+		}
+		return new ReservationSummary(seatReservation.getConfirmationId(), seatReservation.getCustomerEmail(),
+				rowNumbers, seatNumbers);
+	}
+
+	/**
+	 * @return the confirmation id
+	 */
+	public String getConfirmationId() {
+		return confirmationId;
+	}
+
+	/**
+	 * @return the customer email
+	 */
+	public String getCustomerEmail() {
+		return customerEmail;
+	}
+
+	/**
+	 * @return the number of reserved seats
+	 */
+	public int getNumSeats() {
+		return seatNumbers.length;
+	}
+
+	/**
+	 * @param index the index of the seat
+	 * @return the row number of the seat
+	 */
+	public int getRowNumber(int index) {
+		return rowNumbers[index];
+	}
+
+	/**
+	 * @param index the index of the seat
+	 * @return the seat number of the seat
+	 */
+	public int getSeatNumber(int index) {
+		return seatNumbers[index];
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "ReservationSummary [confirmationId=" + confirmationId + ", customerEmail=" + customerEmail
+				+ ", rowNumbers=" + Arrays.toString(rowNumbers) + ", seatNumbers=" + Arrays.toString(seatNumbers) + "]";
+	}
+
+}
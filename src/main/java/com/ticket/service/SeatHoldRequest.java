@@ -0,0 +1,50 @@
+package com.ticket.service;
+
+/**
+ * a request from a customer to find and hold a number of seats, submitted as part of a batch
+ */
+public class SeatHoldRequest {
+
+	/**
+	 * the number of seats to find and hold
+	 */
+	private final int numSeats;
+
+	/**
+	 * the email of the customer
+	 */
+	private final String customerEmail;
+
+	/**
+	 * instantiation of the request
+	 * @param numSeats the number of seats to find and hold
+	 * @param customerEmail the email of the customer
+	 */
+	public SeatHoldRequest(int numSeats, String customerEmail) {
+		this.numSeats = numSeats;
+		this.customerEmail = customerEmail;
+	}
+
+	/**
+	 * @return the number of seats to find and hold
+	 */
+	public int getNumSeats() {
+		return numSeats;
+	}
+
+	/**
+	 * @return the customer email
+	 */
+	public String getCustomerEmail() {
+		return customerEmail;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "SeatHoldRequest [numSeats=" + numSeats + ", customerEmail=" + customerEmail + "]";
+	}
+
+}
@@ -1,6 +1,12 @@
 package com.ticket.service;
 
+import java.io.IOException;
+import java.util.List;
+
+import com.ticket.domain.SeatChangeBatch;
 import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.SeatReservation;
 import com.ticket.domain.Venue;
 
 /**
@@ -14,9 +20,74 @@ public interface VenueTicketService extends TicketService{
 	 */
 	String printVenue(Integer venueId);
 	
+	/**
+	 * writes the seat map of part of the venue, whatever the size of the venue
+	 * @param venueId the id of the venue
+	 * @param viewport the rows and seats shown
+	 * @param out where the seat map is written
+	 * @throws IOException if the seat map cannot be written
+	 */
+	void renderVenue(Integer venueId, SeatMapViewport viewport, Appendable out) throws IOException;
+	
+	/**
+	 * writes the number of seats available, held and reserved in each section of the venue
+	 * @param venueId the id of the venue
+	 * @param rowsPerSection the number of rows in each section
+	 * @param out where the summary is written
+	 * @throws IOException if the summary cannot be written
+	 */
+	void renderSectionSummary(Integer venueId, int rowsPerSection, Appendable out) throws IOException;
+	
+	/**
+	 * reads the revision of the state of the seats of a venue. Read it before
+	 * rendering a seat map, then follow the changes made after it
+	 * @param venueId the id of the venue
+	 * @return the revision
+	 */
+	long getStateRevision(Integer venueId);
+	
+	/**
+	 * reads the seat changes of a venue made after a revision, so a seat map
+	 * rendered at that revision is kept up to date by applying them
+	 * @param venueId the id of the venue
+	 * @param revision the revision of the seat map, or of the last changes read
+	 * @param maxChanges the largest number of changes read
+	 * @return the changes, or a batch asking for a new seat map if the changes after the revision are no longer kept
+	 */
+	SeatChangeBatch findSeatChanges(Integer venueId, long revision, int maxChanges);
+	
 	/**
 	 * invalidates a seat hold
 	 */
 	void invalidateHold(SeatHold seatHold);
 	
+	/**
+	 * finds and holds the best available seats for a batch of requests in one
+	 * pass over the venue, saving every seat hold in a single transaction
+	 * @param requests the requests, served in order
+	 * @return the seat hold of each request in the same order, null for a request whose seats could not be held
+	 */
+	List<SeatHold> findAndHoldSeats(List<SeatHoldRequest> requests);
+	
+	/**
+	 * finds the seat holds of a customer that are still holding their seats
+	 * @param customerEmail the email of the customer
+	 * @return the seat holds, oldest first
+	 */
+	List<SeatHold> findSeatHolds(String customerEmail);
+	
+	/**
+	 * finds the reservations of a customer
+	 * @param customerEmail the email of the customer
+	 * @return the reservations, oldest first
+	 */
+	List<SeatReservation> findSeatReservations(String customerEmail);
+	
+	/**
+	 * finds the summary of a reservation by its confirmation id, from memory when it was looked up or made recently
+	 * @param confirmationId the confirmation id
+	 * @return the summary, or null if there is no such reservation
+	 */
+	ReservationSummary findReservation(String confirmationId);
+	
 }
@@ -0,0 +1,34 @@
+package com.ticket.service.impl;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * defers work that must only happen once the transaction of a service call
+ * commits, such as journaling a change or caching a reservation, so that a
+ * call rolled back leaves nothing behind
+ */
+final class AfterCommit {
+
+	private AfterCommit() {}
+
+	/**
+	 * runs an action once the current transaction commits, or straight away
+	 * when there is no transaction
+	 * @param action the action, which is dropped if the transaction rolls back
+	 */
+	static void run(Runnable action) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			action.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+			@Override
+			public void afterCommit() {
+				action.run();
+			}
+		});
+	}
+
+}
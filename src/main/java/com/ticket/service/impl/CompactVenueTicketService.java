@@ -0,0 +1,524 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.VenueLoadedEvent;
+import com.ticket.domain.CompactSeatStore;
+import com.ticket.domain.HoldExpirationWheel;
+import com.ticket.domain.SeatChangeBatch;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatHoldRegistry;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.SeatOccupancy;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.ReservationSummary;
+import com.ticket.service.SeatHoldRequest;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * ticket service that keeps the seats of the venue in a CompactSeatStore
+ * instead of the entity graph, for venues of hundreds of thousands of seats.
+ * The state of every seat is read once with a single query and kept in 4
+ * bytes outside of the heap; only the seat holds still holding are kept on
+ * the heap. Seats are picked with the same rules as the in-memory venue and
+ * written to the database by row and seat number in the same transaction as
+ * their seat hold or reservation.
+ *
+ * The store is only kept in sync with the changes made by this service, so
+ * like the write behind it is meant for a database used by a single instance
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "venue.allocation", havingValue = "compact")
+public class CompactVenueTicketService implements VenueTicketService {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(CompactVenueTicketService.class);
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	private VenueRepository venueRepository;
+
+	@Autowired
+	private RowRepository rowRepository;
+
+	@Autowired
+	private ConfirmationIdGenerator confirmationIdGenerator;
+
+	@Autowired
+	private ReservationSummaryCache reservationSummaryCache;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * the seats of the venue, read the first time they are needed
+	 */
+	private volatile CompactSeatStore store;
+
+	/**
+	 * the positions of the seats of the seat holds still holding, indexed by
+	 * seat hold id. A seat hold is removed by whichever call ends it first:
+	 * its reservation, its invalidation or its expiration
+	 */
+	private final SeatHoldRegistry seatHoldRegistry = new SeatHoldRegistry();
+
+	/**
+	 * the seat holds still holding bucketed by the time they expire
+	 */
+	private volatile HoldExpirationWheel holdExpirations = new HoldExpirationWheel(System.currentTimeMillis());
+
+	/**
+	 * the number of seconds for which a seat hold will apply
+	 */
+	@Value("${venue.seatHoldSeconds}")
+	private Integer seatHoldSeconds;
+
+	/**
+	 * the id for the venue used in this application
+	 */
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public int numSeatsAvailable() {
+		return seats().numSeatsAvailable();
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public SeatHold findAndHoldSeats(int numSeatsRequested, String customerEmail) {
+		LOGGER.info("Attempting to find and hold " + numSeatsRequested + " seats in the venue");
+		CompactSeatStore seats = seats();
+		List<HeldSeats> held = new ArrayList<>(1);
+		SeatHold seatHold = inTransaction(seats, held,
+				status -> holdSeats(seats, numSeatsRequested, customerEmail, LocalDateTime.now(), held, status));
+		register(held);
+		return seatHold;
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findAndHoldSeats(List<SeatHoldRequest> requests) {
+		LOGGER.info("Attempting to find and hold seats for a batch of " + requests.size() + " requests");
+		CompactSeatStore seats = seats();
+		List<HeldSeats> held = new ArrayList<>(requests.size());
+		List<SeatHold> seatHolds = inTransaction(seats, held, status -> {
+			LocalDateTime now = LocalDateTime.now();
+			List<SeatHold> heldSeatHolds = new ArrayList<>(requests.size());
+			for (SeatHoldRequest request : requests) {
+				heldSeatHolds.add(holdSeats(seats, request.getNumSeats(), request.getCustomerEmail(), now, held, null));
+			}
+			return heldSeatHolds;
+		});
+		register(held);
+		return seatHolds;
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public String reserveSeats(int seatHoldId, String customerEmail) {
+		CompactSeatStore seats = seats();
+		SeatHold seatHold = seatHoldRegistry.findSeatHold(seatHoldId);
+		int[] positions = seatHoldRegistry.findSeatIds(seatHoldId);
+		// removing the seat hold keeps its expiration or another call from releasing the seats meanwhile
+		if (seatHold == null || !seatHoldRegistry.remove(seatHoldId)) {
+			return null;
+		}
+		holdExpirations.cancel(seatHold);
+		if (!seatHold.isHolding()) {
+			seats.releaseHold(seatHoldId, positions);
+			return null;
+		}
+		SeatReservation reservation;
+		try {
+			reservation = transactionTemplate.execute(status -> {
+				SeatReservation saved = seatReservationRepository.saveAndFlush(
+						new SeatReservation(customerEmail, confirmationIdGenerator.nextConfirmationId()));
+				if (seatRepository.reserveSeatsOfHold(seatHoldId, saved.getSeatReservationId(),
+						LocalDateTime.now()) < positions.length) {
+					status.setRollbackOnly();
+					return null;
+				}
+				// the seat hold ends so that it is no longer found among the live seat holds of the customer
+				seatHoldRepository.invalidate(seatHoldId);
+				return saved;
+			});
+		} catch (RuntimeException | Error e) {
+			// the seats are still held in the database, so they stay held until the seat hold expires
+			register(seatHoldId, seatHold, positions);
+			throw e;
+		}
+		if (reservation == null) {
+			// the seat hold no longer held its seats in the database
+			seats.releaseHold(seatHoldId, positions);
+			return null;
+		}
+		seats.reserveSeats(seatHoldId, reservation.getSeatReservationId(), positions);
+		return reservation.getConfirmationId();
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void invalidateHold(SeatHold seatHold) {
+		// the seats of a seat hold that is no longer holding are available, so only the seat hold is changed
+		seatHold.setInProgress(false);
+		seatHold.setExpireTime(null);
+		transactionTemplate.execute(status -> seatHoldRepository.invalidate(seatHold.getSeatHoldId()));
+		release(seats(), seatHold.getSeatHoldId());
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findSeatHolds(String customerEmail) {
+		return seatHoldRepository.findLiveSeatHolds(customerEmail, LocalDateTime.now());
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatReservation> findSeatReservations(String customerEmail) {
+		return seatReservationRepository.findByCustomerEmail(customerEmail);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public ReservationSummary findReservation(String confirmationId) {
+		return reservationSummaryCache.get(confirmationId);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public String printVenue(Integer venueId) {
+		CompactSeatStore seats = seats();
+		if (seats.getNumRows() > 40 || seats.getSeatsPerRow() > 40) {
+			return Venue.SEAT_MAP_PRINT_ERROR_MSG;
+		}
+		StringBuilder venueModel = new StringBuilder((seats.getSeatsPerRow() * 2 + 2) * seats.getNumRows() + 100);
+		try {
+			seats.renderSeatMap(venueModel, SeatMapViewport.ALL);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return venueModel.toString();
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderVenue(Integer venueId, SeatMapViewport viewport, Appendable out) throws IOException {
+		seats().renderSeatMap(out, viewport);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderSectionSummary(Integer venueId, int rowsPerSection, Appendable out) throws IOException {
+		seats().renderSectionSummary(out, rowsPerSection);
+	}
+
+	/**
+	 * see VenueTicketService for method summary. The seat changes are not
+	 * recorded, so there is no revision to follow
+	 */
+	@Override
+	public long getStateRevision(Integer venueId) {
+		return 0;
+	}
+
+	/**
+	 * see VenueTicketService for method summary. The seat changes are not
+	 * recorded, so viewers always read a new seat map
+	 */
+	@Override
+	public SeatChangeBatch findSeatChanges(Integer venueId, long revision, int maxChanges) {
+		return SeatChangeBatch.snapshotRequired();
+	}
+
+	/**
+	 * @return the number of seat holds made by this service that are still holding
+	 */
+	public int numLiveSeatHolds() {
+		return seatHoldRegistry.size();
+	}
+
+	/**
+	 * @return the number of bytes taken by the seats outside of the heap, 0 if they have not been read yet
+	 */
+	public long seatStoreBytes() {
+		CompactSeatStore seats = store;
+		return seats == null ? 0 : seats.sizeInBytes();
+	}
+
+	/**
+	 * drops the seats read before the venue was loaded again, so they are read from the new venue
+	 * @param event the event
+	 */
+	@EventListener
+	public void onVenueLoaded(VenueLoadedEvent event) {
+		if (event.getVenueId().equals(venueId)) {
+			synchronized (this) {
+				store = null;
+				seatHoldRegistry.clear();
+				holdExpirations = new HoldExpirationWheel(System.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * reads the seats the first time they are needed, then releases the seats
+	 * of the seat holds that have expired. Only the buckets of the expiration
+	 * wheel that are due are looked at
+	 * @return the seats of the venue
+	 */
+	private CompactSeatStore seats() {
+		CompactSeatStore seats = store;
+		if (seats == null) {
+			seats = readSeats();
+		}
+		for (SeatHold seatHold : holdExpirations.expire(System.currentTimeMillis())) {
+			release(seats, seatHold.getSeatHoldId());
+		}
+		return seats;
+	}
+
+	/**
+	 * reads the state of every seat of the venue into a new store, along with
+	 * the seat holds still holding
+	 * @return the seats of the venue
+	 */
+	private synchronized CompactSeatStore readSeats() {
+		if (store != null) {
+			return store;
+		}
+		long start = System.nanoTime();
+		int numRows = (int) rowRepository.countByVenueVenueId(venueId);
+		int seatsPerRow = seatRepository.countSeatsPerRow(venueId);
+		CompactSeatStore seats = CompactSeatStore.allocateDirect(numRows, seatsPerRow);
+		Map<Integer, HeldSeats> seatHolds = new HashMap<>();
+		seatRepository.readSeatStates(venueId, LocalDateTime.now(), (rowNumber, seatNumber, state, id, expireMillis) -> {
+			if (rowNumber < 1 || rowNumber > numRows || seatNumber < 1 || seatNumber > seatsPerRow) {
+				throw new IllegalStateException("Seat " + seatNumber + " in row " + rowNumber + " is outside of the "
+						+ numRows + "x" + seatsPerRow + " venue " + venueId);
+			}
+			int position = (rowNumber - 1) * seatsPerRow + seatNumber - 1;
+			seats.restoreSeat(position, state, id);
+			if (state == SeatOccupancy.HELD) {
+				seatHolds.computeIfAbsent(id, seatHoldId -> new HeldSeats(seatHoldId, expireMillis)).add(position);
+			}
+		});
+		seats.indexRowCapacities();
+		for (HeldSeats held : seatHolds.values()) {
+			register(held.seatHoldId, held.toSeatHold(), held.positions());
+		}
+		LOGGER.info("Read " + numRows * seatsPerRow + " seats of venue " + venueId + " into " + seats.sizeInBytes()
+				+ " bytes outside of the heap in " + (System.nanoTime() - start) / 1000000 + " ms");
+		store = seats;
+		return seats;
+	}
+
+	/**
+	 * finds and holds seats in the store, then saves the seat hold and writes
+	 * its seats within the current transaction
+	 * @param held collects the seats held, so they are given back if the transaction fails
+	 * @param status the current transaction, rolled back if the seats cannot be held, or null to drop the seat hold instead
+	 * @return the seat hold, or null if the seats could not be held
+	 */
+	private SeatHold holdSeats(CompactSeatStore seats, int numSeatsRequested, String customerEmail,
+			LocalDateTime now, List<HeldSeats> held, TransactionStatus status) {
+		// the seat hold is saved first so that its id is the handle of its seats
+		SeatHold seatHold = new SeatHold(customerEmail, venueRepository.getOne(venueId));
+		seatHold.setExpireTime(now.plusSeconds(seatHoldSeconds));
+		seatHold.setInProgress(false);
+		seatHoldRepository.saveAndFlush(seatHold);
+
+		int[] positions = seats.findAndHoldSeats(numSeatsRequested, seatHold.getSeatHoldId());
+		if (positions == null) {
+			LOGGER.info("Could not hold " + numSeatsRequested + " seats");
+			if (status != null) {
+				status.setRollbackOnly();
+			} else {
+				seatHoldRepository.delete(seatHold);
+			}
+			return null;
+		}
+		HeldSeats heldSeats = new HeldSeats(seatHold.getSeatHoldId(), toEpochMillis(seatHold.getExpireTime()));
+		for (int position : positions) {
+			heldSeats.add(position);
+		}
+		held.add(heldSeats);
+		int[] rowNumbers = new int[positions.length];
+		int[] seatNumbers = new int[positions.length];
+		for (int i = 0; i < positions.length; i++) {
+			rowNumbers[i] = positions[i] / seats.getSeatsPerRow() + 1;
+			seatNumbers[i] = positions[i] % seats.getSeatsPerRow() + 1;
+		}
+		int numSeatsHeld = seatRepository.holdSeatsByNumber(venueId, seatHold.getSeatHoldId(), rowNumbers, seatNumbers);
+		if (numSeatsHeld != positions.length) {
+			throw new IllegalStateException("Held " + numSeatsHeld + " of the " + positions.length + " seats of seat hold "
+					+ seatHold.getSeatHoldId() + " in venue " + venueId);
+		}
+		return seatHold;
+	}
+
+	/**
+	 * runs a call that holds seats in a transaction, giving the seats it held
+	 * back to the store if the transaction does not commit
+	 */
+	private <T> T inTransaction(CompactSeatStore seats, List<HeldSeats> held, Function<TransactionStatus, T> call) {
+		try {
+			return transactionTemplate.execute(call::apply);
+		} catch (RuntimeException | Error e) {
+			for (HeldSeats heldSeats : held) {
+				seats.releaseHold(heldSeats.seatHoldId, heldSeats.positions());
+			}
+			held.clear();
+			throw e;
+		}
+	}
+
+	/**
+	 * adds the seat holds that were saved to the seat holds found by id and schedules their expiration
+	 */
+	private void register(List<HeldSeats> held) {
+		for (HeldSeats heldSeats : held) {
+			register(heldSeats.seatHoldId, heldSeats.toSeatHold(), heldSeats.positions());
+		}
+	}
+
+	private void register(int seatHoldId, SeatHold seatHold, int[] positions) {
+		seatHoldRegistry.register(seatHoldId, seatHold, positions, SeatHoldRegistry.NEVER_EXPIRES);
+		if (seatHold.getExpireTime() != null) {
+			holdExpirations.schedule(seatHold, toEpochMillis(seatHold.getExpireTime()));
+		}
+	}
+
+	/**
+	 * gives the seats of a seat hold back to the store unless another call ended it first
+	 */
+	private void release(CompactSeatStore seats, int seatHoldId) {
+		SeatHold seatHold = seatHoldRegistry.findSeatHold(seatHoldId);
+		int[] positions = seatHoldRegistry.findSeatIds(seatHoldId);
+		if (seatHold != null && seatHoldRegistry.remove(seatHoldId)) {
+			holdExpirations.cancel(seatHold);
+			seats.releaseHold(seatHoldId, positions);
+		}
+	}
+
+	private static long toEpochMillis(LocalDateTime time) {
+		return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * the positions of the seats of a seat hold in the store
+	 */
+	private static final class HeldSeats {
+
+		private final int seatHoldId;
+
+		/**
+		 * the time in epoch milliseconds when the seat hold expires, Long.MAX_VALUE if it is still in progress
+		 */
+		private final long expireMillis;
+
+		private int[] positions = new int[4];
+
+		private int size;
+
+		HeldSeats(int seatHoldId, long expireMillis) {
+			this.seatHoldId = seatHoldId;
+			this.expireMillis = expireMillis;
+		}
+
+		void add(int position) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+			}
+			positions[size++] = position;
+		}
+
+		int[] positions() {
+			return size == positions.length ? positions : Arrays.copyOf(positions, size);
+		}
+
+		/**
+		 * @return a seat hold standing for the one in the database, with only its id and expiration time
+		 */
+		SeatHold toSeatHold() {
+			SeatHold seatHold = new SeatHold();
+			seatHold.setSeatHoldId(seatHoldId);
+			if (expireMillis == Long.MAX_VALUE) {
+				seatHold.setInProgress(true);
+			} else {
+				seatHold.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis),
+						ZoneId.systemDefault()));
+			}
+			return seatHold;
+		}
+	}
+
+}
@@ -0,0 +1,206 @@
+package com.ticket.service.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.domain.IdBlock;
+import com.ticket.repository.IdBlockRepository;
+
+/**
+ * gives out the confirmation ids of the seat reservations. Ids are taken from
+ * blocks reserved in the database (hi/lo): the database is only used once per
+ * block and the ids of a block are handed out with an atomic counter. Blocks
+ * are never given out twice, so the ids stay unique across restarts and
+ * between application instances sharing the database. The ids left in a
+ * block when the application stops are skipped. A block is reserved in a
+ * transaction of its own, so it stays reserved when the reservation that
+ * needed the id is rolled back
+ */
+@Component
+public class ConfirmationIdGenerator {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(ConfirmationIdGenerator.class);
+
+	/**
+	 * the name of the confirmation id counter in the database
+	 */
+	static final String ID_BLOCK_NAME = "confirmationId";
+
+	/**
+	 * the prefix of every confirmation id
+	 */
+	static final String PREFIX = "VX";
+
+	/**
+	 * the minimum number of characters after the prefix
+	 */
+	static final int MIN_DIGITS = 4;
+
+	/**
+	 * the base 32 digits of the confirmation ids. The letters I, L, O and U are left out
+	 * so that ids read aloud or typed by hand are not mistaken for one another
+	 */
+	private static final char[] DIGITS = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+
+	@Autowired
+	private IdBlockRepository idBlockRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * the number of ids reserved in the database at a time
+	 */
+	@Value("${venue.confirmationIdBlockSize:100}")
+	private int blockSize;
+
+	/**
+	 * the block ids are currently given out from, empty until the first id is needed
+	 */
+	private final AtomicReference<Block> block = new AtomicReference<>(new Block(0, 0));
+
+	/**
+	 * @return a confirmation id that has not been given out before
+	 */
+	public String nextConfirmationId() {
+		return encode(nextId());
+	}
+
+	/**
+	 * @return the next number from the current block, reserving a new block when it runs out
+	 */
+	long nextId() {
+		while (true) {
+			Block current = block.get();
+			long id = current.next.getAndIncrement();
+			if (id < current.end) {
+				return id;
+			}
+			synchronized (this) {
+				// only the first thread to find the block used up reserves the next one
+				if (block.get() == current) {
+					long start = reserveBlock() * blockSize;
+					block.set(new Block(start, start + blockSize));
+				}
+			}
+		}
+	}
+
+	/**
+	 * makes sure a confirmation id given out before the database was emptied,
+	 * such as one read back from the seat journal, is not given out again. The
+	 * block the id came from and every block before it are skipped
+	 * @param confirmationId the confirmation id
+	 */
+	public void skipPast(String confirmationId) {
+		long nextBlock = decode(confirmationId) / blockSize + 1;
+		synchronized (this) {
+			newTransaction().execute(status -> {
+				if (!idBlockRepository.exists(ID_BLOCK_NAME)) {
+					idBlockRepository.saveAndFlush(new IdBlock(ID_BLOCK_NAME, nextBlock));
+				} else {
+					idBlockRepository.advanceNextBlock(ID_BLOCK_NAME, nextBlock);
+				}
+				return null;
+			});
+			if (block.get().end - blockSize < nextBlock * blockSize) {
+				// the ids left in the current block may have been given out already
+				block.set(new Block(0, 0));
+			}
+		}
+	}
+
+	/**
+	 * @return the number of a block no other caller has been given
+	 */
+	private long reserveBlock() {
+		TransactionTemplate transactionTemplate = newTransaction();
+		while (true) {
+			try {
+				return transactionTemplate.execute(status -> {
+					if (idBlockRepository.incrementNextBlock(ID_BLOCK_NAME) == 0) {
+						idBlockRepository.saveAndFlush(new IdBlock(ID_BLOCK_NAME, 1));
+						return 0L;
+					}
+					return idBlockRepository.findOne(ID_BLOCK_NAME).getNextBlock() - 1;
+				});
+			} catch (DataIntegrityViolationException e) {
+				// another instance created the counter first, take the next block from it
+				LOGGER.info("The confirmation id counter was created concurrently, retrying");
+			}
+		}
+	}
+
+	/**
+	 * @return a template running in a new transaction, committed whatever
+	 *         happens to the transaction of the caller, which would otherwise
+	 *         keep the counter locked and take the block back on rollback
+	 */
+	private TransactionTemplate newTransaction() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		return transactionTemplate;
+	}
+
+	/**
+	 * @param id a non-negative number
+	 * @return the confirmation id of the number, the prefix followed by base 32 digits
+	 */
+	static String encode(long id) {
+		char[] digits = new char[13];
+		int start = digits.length;
+		do {
+			digits[--start] = DIGITS[(int) (id & 31)];
+			id >>>= 5;
+		} while (id != 0 || digits.length - start < MIN_DIGITS);
+		return PREFIX + new String(digits, start, digits.length - start);
+	}
+
+	/**
+	 * @param confirmationId a confirmation id given out by encode
+	 * @return the number the confirmation id was made from
+	 * @throws IllegalArgumentException if it is not a confirmation id
+	 */
+	static long decode(String confirmationId) {
+		if (!confirmationId.startsWith(PREFIX) || confirmationId.length() < PREFIX.length() + MIN_DIGITS
+				|| confirmationId.length() > PREFIX.length() + 13) {
+			throw new IllegalArgumentException("Invalid confirmation id " + confirmationId);
+		}
+		long id = 0;
+		for (int i = PREFIX.length(); i < confirmationId.length(); i++) {
+			int digit = Arrays.binarySearch(DIGITS, confirmationId.charAt(i));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid confirmation id " + confirmationId);
+			}
+			id = id << 5 | digit;
+		}
+		return id;
+	}
+
+	/**
+	 * a range of ids reserved in the database
+	 */
+	private static class Block {
+
+		private final AtomicLong next;
+
+		private final long end;
+
+		Block(long start, long end) {
+			this.next = new AtomicLong(start);
+			this.end = end;
+		}
+	}
+
+}
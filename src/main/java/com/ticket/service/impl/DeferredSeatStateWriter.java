@@ -0,0 +1,144 @@
+package com.ticket.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+
+/**
+ * holds back the changes to a venue restored from a snapshot while its rows
+ * and seats are written to the database in the background. Once released,
+ * the changes held back are handed to the writer in the order they were
+ * made and every later change goes straight through. If the venue cannot
+ * be written back, the changes held back are dropped instead and every later
+ * change fails
+ */
+public class DeferredSeatStateWriter implements SeatStateWriter {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(DeferredSeatStateWriter.class);
+
+	/**
+	 * the writer the changes are handed to
+	 */
+	private final SeatStateWriter seatStateWriter;
+
+	/**
+	 * the changes held back, in the order they were made
+	 */
+	private final List<Consumer<SeatStateWriter>> deferredChanges = new ArrayList<>();
+
+	private volatile boolean released;
+
+	/**
+	 * whether the changes held back were dropped
+	 */
+	private boolean discarded;
+
+	/**
+	 * @param seatStateWriter the writer the changes are handed to once released
+	 */
+	public DeferredSeatStateWriter(SeatStateWriter seatStateWriter) {
+		this.seatStateWriter = seatStateWriter;
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+		write(writer -> writer.seatsHeld(seatHold, seats));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+		write(writer -> writer.seatsReserved(seatReservation, seats));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatHoldChanged(SeatHold seatHold) {
+		write(writer -> writer.seatHoldChanged(seatHold));
+	}
+
+	/**
+	 * holds back a change until released, or hands it to the writer if already released
+	 * @throws OptimisticLockingFailureException if the changes held back were dropped
+	 */
+	private void write(Consumer<SeatStateWriter> change) {
+		if (!released) {
+			synchronized (this) {
+				if (discarded) {
+					throw new OptimisticLockingFailureException(
+							"The venue was loaded again while the change was held back");
+				}
+				if (!released) {
+					deferredChanges.add(change);
+					return;
+				}
+			}
+		}
+		change.accept(seatStateWriter);
+	}
+
+	/**
+	 * hands the changes held back to the writer, each in a transaction of its
+	 * own as the service call that made it would have. Changes made meanwhile
+	 * wait until they are all handed over, so the order is kept. A change the
+	 * writer fails to save is not skipped, since the customer was already
+	 * given its seat hold or confirmation id: the release fails and the
+	 * changes stay held back, for the venue to be loaded again with discard
+	 * @param transactionTemplate runs each change in a transaction
+	 * @return the number of changes that were held back
+	 * @throws RuntimeException the failure of the first change that could not be saved
+	 */
+	public synchronized int release(TransactionTemplate transactionTemplate) {
+		for (Consumer<SeatStateWriter> change : deferredChanges) {
+			transactionTemplate.execute(status -> {
+				change.accept(seatStateWriter);
+				return null;
+			});
+		}
+		int numChanges = deferredChanges.size();
+		deferredChanges.clear();
+		released = true;
+		return numChanges;
+	}
+
+	/**
+	 * drops the changes held back, such as when the venue they were made to
+	 * could not be written back and is loaded instead. The changes made
+	 * meanwhile wait until the venue is loaded and then fail, as do the later
+	 * ones, since they were made to the venue that could not be written back
+	 * @param reload loads the venue again
+	 * @return the number of changes that were dropped
+	 */
+	public synchronized int discard(Runnable reload) {
+		reload.run();
+		int numChanges = deferredChanges.size();
+		deferredChanges.clear();
+		discarded = true;
+		return numChanges;
+	}
+
+	/**
+	 * @return whether the changes go straight through to the writer
+	 */
+	public boolean isReleased() {
+		return released;
+	}
+
+}
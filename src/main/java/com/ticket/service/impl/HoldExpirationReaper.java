@@ -0,0 +1,96 @@
+package com.ticket.service.impl;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.ticket.domain.Venue;
+
+/**
+ * background task that releases the seats of expired seat holds as soon as
+ * they expire, so that reading the seat counters of a venue is a plain read
+ */
+@Component
+public class HoldExpirationReaper {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(HoldExpirationReaper.class);
+
+	/**
+	 * the number of milliseconds between two passes of the reaper
+	 */
+	@Value("${venue.holdReaperMillis:10}")
+	private long reaperMillis;
+
+	/**
+	 * the venues whose expired seat holds are released by the reaper
+	 */
+	private final Set<Venue> venues = ConcurrentHashMap.newKeySet();
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * starts the reaper thread
+	 */
+	@PostConstruct
+	public void start() {
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "hold-expiration-reaper");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::releaseExpiredHolds, reaperMillis, reaperMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * stops the reaper thread
+	 */
+	@PreDestroy
+	public void stop() {
+		executor.shutdownNow();
+	}
+
+	/**
+	 * starts releasing the expired seat holds of a venue
+	 * @param venue the venue
+	 */
+	public void register(Venue venue) {
+		venue.setExpiredHoldsReleasedInBackground(true);
+		venues.add(venue);
+	}
+
+	/**
+	 * stops releasing the expired seat holds of a venue
+	 * @param venue the venue
+	 */
+	public void unregister(Venue venue) {
+		venues.remove(venue);
+		venue.setExpiredHoldsReleasedInBackground(false);
+	}
+
+	/**
+	 * releases the seats of the seat holds that have expired in every registered venue
+	 */
+	void releaseExpiredHolds() {
+		LocalDateTime now = LocalDateTime.now();
+		for (Venue venue : venues) {
+			try {
+				venue.releaseExpiredHolds(now);
+			} catch (RuntimeException e) {
+				// keep the reaper alive for the next pass
+				LOGGER.error("Failed to release the expired seat holds of venue " + venue.getVenueId(), e);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,457 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.VenueLoadedEvent;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+
+/**
+ * appends every change to the in-memory venues to the seat journal once the
+ * service call that made it commits, after handing it to the write behind or
+ * write through writer. The journal is the durable record: with write
+ * behind, a service call only copies a record into the mapped journal and
+ * the database is brought up to date in the background. When a venue is
+ * loaded into an empty database the journal is read back into it, so the
+ * holds still holding their seats and the reservations made before a restart
+ * are there again when the venue is read.
+ * How often the journal is forced to disk is chosen with venue.journalSync:
+ * after every change (always), every venue.journalSyncMillis (interval), or
+ * whenever the operating system writes the mapped pages back (os)
+ */
+@Component
+@Primary
+@ConditionalOnProperty(name = "venue.journal", havingValue = "true")
+public class JournalSeatStateWriter implements SeatStateWriter {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(JournalSeatStateWriter.class);
+
+	/**
+	 * when the journal is forced to disk
+	 */
+	enum SyncPolicy {
+
+		/**
+		 * before every service call returns, sharing the force with the concurrent calls
+		 */
+		ALWAYS,
+
+		/**
+		 * from a background thread at a fixed rate
+		 */
+		INTERVAL,
+
+		/**
+		 * only when the operating system writes the pages back and on shutdown
+		 */
+		OS
+	}
+
+	@Autowired(required = false)
+	private WriteBehindSeatStateWriter writeBehindSeatStateWriter;
+
+	@Autowired(required = false)
+	private WriteThroughSeatStateWriter writeThroughSeatStateWriter;
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	private ConfirmationIdGenerator confirmationIdGenerator;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * the path of the journal file
+	 */
+	@Value("${venue.journalFile:seats.journal}")
+	private String journalFile;
+
+	/**
+	 * when the journal is forced to disk: always, interval or os
+	 */
+	@Value("${venue.journalSync:always}")
+	private String journalSync;
+
+	/**
+	 * the number of milliseconds between two forces of the interval policy
+	 */
+	@Value("${venue.journalSyncMillis:10}")
+	private long syncMillis;
+
+	/**
+	 * the number of bytes of the journal mapped at a time
+	 */
+	@Value("${venue.journalRegionBytes:16777216}")
+	private int regionBytes;
+
+	private SyncPolicy syncPolicy;
+
+	private SeatJournal journal;
+
+	/**
+	 * the writer the changes are handed to once journaled
+	 */
+	private volatile SeatStateWriter seatStateWriter;
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * opens the journal and starts forcing it to disk if the policy is interval
+	 */
+	@PostConstruct
+	public void start() throws IOException {
+		syncPolicy = SyncPolicy.valueOf(journalSync.trim().toUpperCase());
+		resumeDatabaseWrites();
+		journal = new SeatJournal(Paths.get(journalFile), regionBytes);
+		LOGGER.info("Opened seat journal " + journalFile + " at " + journal.position() + " bytes, forced to disk "
+				+ syncPolicy.name().toLowerCase());
+		if (syncPolicy == SyncPolicy.INTERVAL) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "seat-journal-sync");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleAtFixedRate(journal::sync, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * stops forcing the journal and closes it, which forces it one last time
+	 */
+	@PreDestroy
+	public void stop() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		journal.close();
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+		int[] rowNumbers = new int[seats.size()];
+		int[] seatNumbers = new int[seats.size()];
+		numbers(seats, rowNumbers, seatNumbers);
+		Integer venueId = seatHold.getVenue().getVenueId();
+		Integer seatHoldId = seatHold.getSeatHoldId();
+		String customerEmail = seatHold.getCustomerEmail();
+		long expireMillis = toEpochMillis(seatHold.getExpireTime());
+		seatStateWriter.seatsHeld(seatHold, seats);
+		AfterCommit.run(() -> synced(
+				journal.appendHold(venueId, seatHoldId, customerEmail, expireMillis, rowNumbers, seatNumbers)));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+		int[] rowNumbers = new int[seats.size()];
+		int[] seatNumbers = new int[seats.size()];
+		Integer venueId = numbers(seats, rowNumbers, seatNumbers);
+		String confirmationId = seatReservation.getConfirmationId();
+		String customerEmail = seatReservation.getCustomerEmail();
+		seatStateWriter.seatsReserved(seatReservation, seats);
+		AfterCommit.run(() -> synced(
+				journal.appendReservation(venueId, confirmationId, customerEmail, rowNumbers, seatNumbers)));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary. Only invalidations are
+	 * journaled: a seat hold that expired is dropped when the journal is read
+	 * back since its expire time is journaled with it
+	 */
+	@Override
+	public void seatHoldChanged(SeatHold seatHold) {
+		boolean invalidated = !seatHold.isHolding();
+		Integer venueId = seatHold.getVenue().getVenueId();
+		Integer seatHoldId = seatHold.getSeatHoldId();
+		seatStateWriter.seatHoldChanged(seatHold);
+		if (invalidated) {
+			AfterCommit.run(() -> synced(journal.appendInvalidation(venueId, seatHoldId)));
+		}
+	}
+
+	/**
+	 * forces the journal up to a change if the policy is always
+	 */
+	private void synced(long position) {
+		if (syncPolicy == SyncPolicy.ALWAYS) {
+			journal.sync(position);
+		}
+	}
+
+	/**
+	 * copies the row and seat numbers of seats
+	 * @return the id of the venue of the seats, 0 if there are none
+	 */
+	private static Integer numbers(Collection<Seat> seats, int[] rowNumbers, int[] seatNumbers) {
+		Integer venueId = 0;
+		int i = 0;
+		for (Seat seat : seats) {
+			venueId = seat.getRow().getVenue().getVenueId();
+			rowNumbers[i] = seat.getRow().getRowNumber();
+			seatNumbers[i++] = seat.getSeatNumber();
+		}
+		return venueId;
+	}
+
+	private static long toEpochMillis(LocalDateTime time) {
+		return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+	}
+
+	/**
+	 * reads the journal back into a venue that was just loaded into the database
+	 * @param event the event identifying the venue
+	 */
+	@EventListener
+	public void onVenueLoaded(VenueLoadedEvent event) throws IOException {
+		replay(event.getVenueId());
+	}
+
+	/**
+	 * saves the seat holds of a venue that are still holding their seats and
+	 * its reservations, as read from the journal, to a database where the
+	 * venue was just loaded. The seat holds keep their ids and the database
+	 * gives out ids and confirmation ids past those in the journal
+	 * @param venueId the id of the venue
+	 * @return the number of events read back for the venue
+	 * @throws IOException if the journal cannot be read
+	 */
+	public int replay(Integer venueId) throws IOException {
+		long start = System.nanoTime();
+		ReplayedVenue replayed = new ReplayedVenue(venueId);
+		journal.replay(replayed);
+		if (replayed.numEvents == 0) {
+			return 0;
+		}
+		LocalDateTime now = LocalDateTime.now();
+		List<SeatHold> seatHolds = new ArrayList<>(replayed.seatHolds.size());
+		for (ReplayedSeatHold seatHold : replayed.seatHolds.values()) {
+			if (seatHold.seatHold.isHolding(now)) {
+				seatHolds.add(seatHold.seatHold);
+			}
+		}
+		new TransactionTemplate(transactionManager).execute(status -> {
+			seatHoldRepository.insertSeatHolds(venueId, seatHolds);
+			for (SeatHold seatHold : seatHolds) {
+				ReplayedSeatHold seats = replayed.seatHolds.get(seatHold.getSeatHoldId());
+				seatRepository.holdSeatsByNumber(venueId, seatHold.getSeatHoldId(), seats.rowNumbers,
+						seats.seatNumbers);
+			}
+			for (ReplayedReservation reservation : replayed.reservations) {
+				SeatReservation saved = seatReservationRepository.save(reservation.seatReservation);
+				seatRepository.reserveSeatsByNumber(venueId, saved.getSeatReservationId(), reservation.rowNumbers,
+						reservation.seatNumbers);
+			}
+			return null;
+		});
+		seatHoldRepository.skipSeatHoldIds(replayed.lastSeatHoldId);
+		if (replayed.lastConfirmationId != null) {
+			confirmationIdGenerator.skipPast(replayed.lastConfirmationId);
+		}
+		LOGGER.info("Read back " + replayed.numEvents + " journaled changes of venue " + venueId + ": "
+				+ seatHolds.size() + " seat holds and " + replayed.reservations.size() + " reservations in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return replayed.numEvents;
+	}
+
+	/**
+	 * keeps journaling every change but holds back the writes to the
+	 * database, such as while a venue restored from a snapshot is written back
+	 * to the database
+	 * @return the writer holding back the writes, to be released once the database is ready
+	 */
+	public DeferredSeatStateWriter deferDatabaseWrites() {
+		DeferredSeatStateWriter deferred = new DeferredSeatStateWriter(seatStateWriter);
+		seatStateWriter = deferred;
+		return deferred;
+	}
+
+	/**
+	 * hands the changes to the write behind or write through writer straight
+	 * away again, dropping a writer that held them back
+	 */
+	public void resumeDatabaseWrites() {
+		seatStateWriter = writeBehindSeatStateWriter != null ? writeBehindSeatStateWriter
+				: writeThroughSeatStateWriter;
+	}
+
+	/**
+	 * @return the position of the end of the last change journaled
+	 */
+	public long position() {
+		return journal.position();
+	}
+
+	/**
+	 * reads the changes journaled from a position on
+	 * @param from the position
+	 * @param visitor what to do with each change
+	 * @throws IOException if the journal cannot be read
+	 */
+	public void replay(long from, SeatJournal.Visitor visitor) throws IOException {
+		journal.replay(from, visitor);
+	}
+
+	/**
+	 * @return the number of changes journaled since the application started
+	 */
+	public long getNumEvents() {
+		return journal.getNumEvents();
+	}
+
+	/**
+	 * @return the number of times the journal was forced to disk
+	 */
+	public long getNumSyncs() {
+		return journal.getNumSyncs();
+	}
+
+	/**
+	 * the seat holds and reservations of a venue read back from the journal
+	 */
+	private static class ReplayedVenue implements SeatJournal.Visitor {
+
+		private final Integer venueId;
+
+		/**
+		 * the seat holds that were not invalidated indexed by seat hold id
+		 */
+		private final Map<Integer, ReplayedSeatHold> seatHolds = new LinkedHashMap<>();
+
+		private final List<ReplayedReservation> reservations = new ArrayList<>();
+
+		private int numEvents;
+
+		/**
+		 * the largest seat hold id, including those of seat holds that ended
+		 */
+		private int lastSeatHoldId;
+
+		/**
+		 * the confirmation id made from the largest number
+		 */
+		private String lastConfirmationId;
+
+		ReplayedVenue(Integer venueId) {
+			this.venueId = venueId;
+		}
+
+		@Override
+		public void seatsHeld(int venueId, int seatHoldId, String customerEmail, long expireMillis,
+				int[] rowNumbers, int[] seatNumbers) {
+			if (this.venueId != venueId) {
+				return;
+			}
+			SeatHold seatHold = new SeatHold(customerEmail, null);
+			seatHold.setSeatHoldId(seatHoldId);
+			seatHold.commitSeatHold(
+					LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+			seatHolds.put(seatHoldId, new ReplayedSeatHold(seatHold, rowNumbers, seatNumbers));
+			lastSeatHoldId = Math.max(lastSeatHoldId, seatHoldId);
+			numEvents++;
+		}
+
+		@Override
+		public void seatsReserved(int venueId, String confirmationId, String customerEmail, int[] rowNumbers,
+				int[] seatNumbers) {
+			if (this.venueId != venueId) {
+				return;
+			}
+			reservations.add(new ReplayedReservation(new SeatReservation(customerEmail, confirmationId), rowNumbers,
+					seatNumbers));
+			if (lastConfirmationId == null || ConfirmationIdGenerator
+					.decode(confirmationId) > ConfirmationIdGenerator.decode(lastConfirmationId)) {
+				lastConfirmationId = confirmationId;
+			}
+			numEvents++;
+		}
+
+		@Override
+		public void seatHoldInvalidated(int venueId, int seatHoldId) {
+			if (this.venueId != venueId) {
+				return;
+			}
+			seatHolds.remove(seatHoldId);
+			numEvents++;
+		}
+	}
+
+	/**
+	 * a seat hold read back from the journal and the numbers of its seats
+	 */
+	private static class ReplayedSeatHold {
+
+		private final SeatHold seatHold;
+
+		private final int[] rowNumbers;
+
+		private final int[] seatNumbers;
+
+		ReplayedSeatHold(SeatHold seatHold, int[] rowNumbers, int[] seatNumbers) {
+			this.seatHold = seatHold;
+			this.rowNumbers = rowNumbers;
+			this.seatNumbers = seatNumbers;
+		}
+	}
+
+	/**
+	 * a reservation read back from the journal and the numbers of its seats
+	 */
+	private static class ReplayedReservation {
+
+		private final SeatReservation seatReservation;
+
+		private final int[] rowNumbers;
+
+		private final int[] seatNumbers;
+
+		ReplayedReservation(SeatReservation seatReservation, int[] rowNumbers, int[] seatNumbers) {
+			this.seatReservation = seatReservation;
+			this.rowNumbers = rowNumbers;
+			this.seatNumbers = seatNumbers;
+		}
+	}
+
+}
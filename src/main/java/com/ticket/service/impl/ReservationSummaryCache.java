@@ -0,0 +1,227 @@
+package com.ticket.service.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.ticket.VenueLoadedEvent;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.service.ReservationSummary;
+
+/**
+ * keeps the summaries of the reservations looked up by confirmation id, so
+ * repeated lookups such as gate scans are served without the database. The
+ * cache holds at most a fixed number of summaries, dropping the least recently
+ * used one to make room, and a summary is dropped once it has been in the cache
+ * longer than the time to live. Lookups of confirmation ids that do not exist
+ * are not cached
+ */
+@Component
+public class ReservationSummaryCache {
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	/**
+	 * the largest number of summaries kept
+	 */
+	@Value("${venue.reservationCacheSize:100000}")
+	private int maxSize;
+
+	/**
+	 * the number of seconds a summary is kept
+	 */
+	@Value("${venue.reservationCacheSeconds:3600}")
+	private long ttlSeconds;
+
+	/**
+	 * the current time in milliseconds
+	 */
+	private final LongSupplier clock;
+
+	/**
+	 * the cached summaries by confirmation id, least recently used first
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	private final AtomicLong expirations = new AtomicLong();
+
+	public ReservationSummaryCache() {
+		this.clock = System::currentTimeMillis;
+	}
+
+	/**
+	 * instantiation of the cache outside of the application context
+	 * @param maxSize the largest number of summaries kept
+	 * @param ttlSeconds the number of seconds a summary is kept
+	 * @param clock the current time in milliseconds
+	 */
+	ReservationSummaryCache(int maxSize, long ttlSeconds, LongSupplier clock) {
+		this.maxSize = maxSize;
+		this.ttlSeconds = ttlSeconds;
+		this.clock = clock;
+	}
+
+	/**
+	 * finds the summary of a reservation, reading it from the database on a miss
+	 * @param confirmationId the confirmation id
+	 * @return the summary, or null if there is no such reservation
+	 */
+	public ReservationSummary get(String confirmationId) {
+		return get(confirmationId, this::load);
+	}
+
+	/**
+	 * finds the summary of a reservation, loading it on a miss. The loader is
+	 * called outside of the cache lock, so a slow load does not hold up other
+	 * lookups
+	 * @param confirmationId the confirmation id
+	 * @param loader loads the summary of a confirmation id, returning null if there is no such reservation
+	 * @return the summary, or null if there is no such reservation
+	 */
+	public ReservationSummary get(String confirmationId, Function<String, ReservationSummary> loader) {
+		ReservationSummary summary = find(confirmationId);
+		if (summary != null) {
+			hits.incrementAndGet();
+			return summary;
+		}
+		misses.incrementAndGet();
+		summary = loader.apply(confirmationId);
+		if (summary != null) {
+			put(summary);
+		}
+		return summary;
+	}
+
+	/**
+	 * adds the summary of a reservation, replacing any summary with the same confirmation id
+	 * @param summary the summary
+	 */
+	public synchronized void put(ReservationSummary summary) {
+		entries.put(summary.getConfirmationId(), new Entry(summary, clock.getAsLong() + ttlSeconds * 1000));
+		if (entries.size() > maxSize) {
+			Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+			while (entries.size() > maxSize) {
+				leastRecentlyUsed.next();
+				leastRecentlyUsed.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * reads the summary of a reservation from the database
+	 * @param confirmationId the confirmation id
+	 * @return the summary, or null if there is no such reservation
+	 */
+	private ReservationSummary load(String confirmationId) {
+		List<Object[]> reservedSeats = seatReservationRepository.findReservedSeatsByConfirmationId(confirmationId);
+		if (reservedSeats.isEmpty()) {
+			return null;
+		}
+		int[] rowNumbers = new int[reservedSeats.size()];
+		int[] seatNumbers = new int[reservedSeats.size()];
+		for (int i = 0; i < reservedSeats.size(); i++) {
+			rowNumbers[i] = (Integer) reservedSeats.get(i)[1];
+			seatNumbers[i] = (Integer) reservedSeats.get(i)[2];
+		}
+		return new ReservationSummary(confirmationId, (String) reservedSeats.get(0)[0], rowNumbers, seatNumbers);
+	}
+
+	/**
+	 * @return the summary, or null if it is not cached or has expired
+	 */
+	private synchronized ReservationSummary find(String confirmationId) {
+		Entry entry = entries.get(confirmationId);
+		if (entry == null) {
+			return null;
+		}
+		if (entry.expireMillis <= clock.getAsLong()) {
+			entries.remove(confirmationId);
+			expirations.incrementAndGet();
+			return null;
+		}
+		return entry.summary;
+	}
+
+	/**
+	 * drops every summary
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * drops the summaries once the reservations of a venue were reloaded into the database
+	 * @param event the event identifying the venue
+	 */
+	@EventListener
+	public void onVenueLoaded(VenueLoadedEvent event) {
+		clear();
+	}
+
+	/**
+	 * @return the number of summaries in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that were not in the cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of summaries dropped to make room
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * @return the number of summaries dropped once their time to live was over
+	 */
+	public long getExpirations() {
+		return expirations.get();
+	}
+
+	/**
+	 * a cached summary and the time it is dropped
+	 */
+	private static class Entry {
+
+		private final ReservationSummary summary;
+
+		private final long expireMillis;
+
+		Entry(ReservationSummary summary, long expireMillis) {
+			this.summary = summary;
+			this.expireMillis = expireMillis;
+		}
+	}
+
+}
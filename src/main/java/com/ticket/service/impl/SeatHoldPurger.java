@@ -0,0 +1,185 @@
+package com.ticket.service.impl;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.repository.SeatHoldRepository;
+
+/**
+ * background task that deletes the seat holds that no longer hold their
+ * seats, so the seat hold table and the seats referring to it do not grow for
+ * the whole life of an on sale. The seats still referring to the seat holds
+ * are cleared in bulk first and, if configured, a compact copy of each seat
+ * hold is kept in the archived seat hold table. Expired seat holds are only
+ * purged after a grace period, so a seat change still waiting to be written
+ * never refers to a seat hold that is gone
+ */
+@Component
+public class SeatHoldPurger {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(SeatHoldPurger.class);
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * the number of seconds between two passes of the purger, 0 to only purge when asked
+	 */
+	@Value("${venue.holdPurgeSeconds:60}")
+	private long purgeSeconds;
+
+	/**
+	 * the number of seconds a seat hold must have been expired before it is purged
+	 */
+	@Value("${venue.holdPurgeGraceSeconds:60}")
+	private long graceSeconds;
+
+	/**
+	 * the largest number of seat holds purged in one transaction
+	 */
+	@Value("${venue.holdPurgeBatchSize:1000}")
+	private int batchSize;
+
+	/**
+	 * whether a compact copy of the purged seat holds is kept
+	 */
+	@Value("${venue.holdArchive:false}")
+	private boolean archive;
+
+	private final AtomicLong numSeatHoldsPurged = new AtomicLong();
+
+	private final AtomicLong numSeatHoldsArchived = new AtomicLong();
+
+	private final AtomicLong numSeatsUnlinked = new AtomicLong();
+
+	private final AtomicLong numBytesReclaimed = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * starts the purger thread unless purging is only done when asked
+	 */
+	@PostConstruct
+	public void start() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		if (purgeSeconds <= 0) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "seat-hold-purger");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::purgeInBackground, purgeSeconds, purgeSeconds, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * stops the purger thread
+	 */
+	@PreDestroy
+	public void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * purges the seat holds that ended, one batch per transaction, until none are left
+	 * @return the number of seat holds purged
+	 */
+	public int purge() {
+		LocalDateTime now = LocalDateTime.now();
+		LocalDateTime expiredBefore = now.minusSeconds(graceSeconds);
+		int purged = 0;
+		int batchPurged;
+		do {
+			batchPurged = transactionTemplate.execute(status -> purgeBatch(expiredBefore, now));
+			purged += batchPurged;
+		} while (batchPurged == batchSize);
+		if (purged > 0) {
+			LOGGER.info("Purged " + purged + " seat holds, " + numSeatHoldsPurged.get() + " seat holds and "
+					+ numBytesReclaimed.get() + " bytes reclaimed so far");
+		}
+		return purged;
+	}
+
+	/**
+	 * purges one batch of seat holds within the current transaction
+	 * @return the number of seat holds purged
+	 */
+	private int purgeBatch(LocalDateTime expiredBefore, LocalDateTime now) {
+		List<Integer> seatHoldIds = seatHoldRepository.findEndedSeatHoldIds(expiredBefore, batchSize);
+		if (seatHoldIds.isEmpty()) {
+			return 0;
+		}
+		long bytes = seatHoldRepository.estimateSize(seatHoldIds);
+		if (archive) {
+			numSeatHoldsArchived.addAndGet(seatHoldRepository.archiveSeatHolds(seatHoldIds, now));
+		}
+		numSeatsUnlinked.addAndGet(seatHoldRepository.unlinkSeats(seatHoldIds));
+		int deleted = seatHoldRepository.deleteSeatHolds(seatHoldIds);
+		numSeatHoldsPurged.addAndGet(deleted);
+		numBytesReclaimed.addAndGet(bytes);
+		return seatHoldIds.size();
+	}
+
+	/**
+	 * purges the seat holds that ended, keeping the purger alive if it fails
+	 */
+	private void purgeInBackground() {
+		try {
+			purge();
+		} catch (RuntimeException e) {
+			LOGGER.error("Failed to purge the seat holds that ended", e);
+		}
+	}
+
+	/**
+	 * @return the number of seat holds deleted
+	 */
+	public long getNumSeatHoldsPurged() {
+		return numSeatHoldsPurged.get();
+	}
+
+	/**
+	 * @return the number of seat holds copied to the archive
+	 */
+	public long getNumSeatHoldsArchived() {
+		return numSeatHoldsArchived.get();
+	}
+
+	/**
+	 * @return the number of seats whose seat hold was cleared
+	 */
+	public long getNumSeatsUnlinked() {
+		return numSeatsUnlinked.get();
+	}
+
+	/**
+	 * @return an estimate of the number of bytes taken by the seat holds deleted
+	 */
+	public long getNumBytesReclaimed() {
+		return numBytesReclaimed.get();
+	}
+
+}
@@ -0,0 +1,423 @@
+package com.ticket.service.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * append-only file of the seat holds, reservations and invalidations made in
+ * the in-memory venues, written through a memory-mapped region so that an
+ * append is a copy into memory. Every event is a run of fixed size records: a
+ * header record with a checksum of the whole event, followed by records for
+ * text that does not fit in the header and for the seats. An event whose
+ * checksum does not match, such as one cut short by a crash, ends the journal
+ * and is overwritten by the next append. The file is only made durable when
+ * sync is called, so callers decide how often to pay for it
+ */
+public class SeatJournal implements Closeable {
+
+	/**
+	 * the size of every record in bytes
+	 */
+	static final int RECORD_BYTES = 64;
+
+	static final byte HOLD = 1;
+
+	static final byte RESERVATION = 2;
+
+	static final byte INVALIDATION = 3;
+
+	static final byte TEXT = 4;
+
+	static final byte SEATS = 5;
+
+	/**
+	 * fills the end of a region too small for the next event
+	 */
+	static final byte PADDING = 6;
+
+	/**
+	 * the number of text bytes in a header record
+	 */
+	private static final int HEADER_TEXT_BYTES = RECORD_BYTES - 28;
+
+	/**
+	 * the number of text bytes in a text record
+	 */
+	private static final int TEXT_BYTES = RECORD_BYTES - 1;
+
+	/**
+	 * the number of seats in a seats record
+	 */
+	private static final int SEATS_PER_RECORD = (RECORD_BYTES - 8) / 8;
+
+	/**
+	 * what to do with each event read back from the journal
+	 */
+	public interface Visitor {
+
+		/**
+		 * @param venueId the id of the venue
+		 * @param seatHoldId the id of the seat hold
+		 * @param customerEmail the email of the customer
+		 * @param expireMillis the time the seat hold expires in epoch milliseconds
+		 * @param rowNumbers the row number of each seat held
+		 * @param seatNumbers the seat number of each seat held
+		 */
+		void seatsHeld(int venueId, int seatHoldId, String customerEmail, long expireMillis, int[] rowNumbers,
+				int[] seatNumbers);
+
+		/**
+		 * @param venueId the id of the venue
+		 * @param confirmationId the confirmation id of the reservation
+		 * @param customerEmail the email of the customer
+		 * @param rowNumbers the row number of each seat reserved
+		 * @param seatNumbers the seat number of each seat reserved
+		 */
+		void seatsReserved(int venueId, String confirmationId, String customerEmail, int[] rowNumbers,
+				int[] seatNumbers);
+
+		/**
+		 * @param venueId the id of the venue
+		 * @param seatHoldId the id of the seat hold that was invalidated
+		 */
+		void seatHoldInvalidated(int venueId, int seatHoldId);
+	}
+
+	private final FileChannel channel;
+
+	/**
+	 * the smallest number of bytes mapped at a time
+	 */
+	private final int regionBytes;
+
+	/**
+	 * the mapped region appended to
+	 */
+	private MappedByteBuffer region;
+
+	/**
+	 * the position in the file of the start of the mapped region
+	 */
+	private long regionStart;
+
+	/**
+	 * the position in the file of the end of the last event
+	 */
+	private long position;
+
+	/**
+	 * the position up to which the journal was last made durable
+	 */
+	private volatile long syncedPosition;
+
+	/**
+	 * guards the forcing of the mapped region
+	 */
+	private final Object syncLock = new Object();
+
+	private final CRC32 checksum = new CRC32();
+
+	private final AtomicLong numEvents = new AtomicLong();
+
+	private final AtomicLong numSyncs = new AtomicLong();
+
+	/**
+	 * opens a journal, creating the file if there is none. The file is cut
+	 * after the last complete event, so whatever a crash left half written is
+	 * not read back once new events are appended after it
+	 * @param file the journal file
+	 * @param regionBytes the smallest number of bytes mapped at a time
+	 * @throws IOException if the file cannot be opened
+	 */
+	public SeatJournal(Path file, int regionBytes) throws IOException {
+		if (regionBytes < RECORD_BYTES) {
+			throw new IllegalArgumentException("Invalid journal region size " + regionBytes);
+		}
+		this.regionBytes = regionBytes - regionBytes % RECORD_BYTES;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		this.position = replay(null);
+		channel.truncate(position);
+		this.syncedPosition = position;
+		mapRegion(position, this.regionBytes);
+	}
+
+	/**
+	 * appends the seats of a new seat hold
+	 * @return the position of the end of the event, to be passed to sync
+	 */
+	public long appendHold(int venueId, int seatHoldId, String customerEmail, long expireMillis, int[] rowNumbers,
+			int[] seatNumbers) {
+		return append(HOLD, venueId, seatHoldId, expireMillis, customerEmail, rowNumbers, seatNumbers);
+	}
+
+	/**
+	 * appends the seats of a new seat reservation
+	 * @return the position of the end of the event, to be passed to sync
+	 */
+	public long appendReservation(int venueId, String confirmationId, String customerEmail, int[] rowNumbers,
+			int[] seatNumbers) {
+		// confirmation ids are made of letters and digits, so the first line break ends it
+		return append(RESERVATION, venueId, 0, 0, confirmationId + "\n" + customerEmail, rowNumbers, seatNumbers);
+	}
+
+	/**
+	 * appends the invalidation of a seat hold
+	 * @return the position of the end of the event, to be passed to sync
+	 */
+	public long appendInvalidation(int venueId, int seatHoldId) {
+		return append(INVALIDATION, venueId, seatHoldId, 0, "", new int[0], new int[0]);
+	}
+
+	/**
+	 * encodes an event and copies it into the mapped region
+	 */
+	private long append(byte type, int venueId, int seatHoldId, long time, String text, int[] rowNumbers,
+			int[] seatNumbers) {
+		byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+		if (textBytes.length > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Text too long for the journal: " + textBytes.length + " bytes");
+		}
+		int numTextRecords = (Math.max(0, textBytes.length - HEADER_TEXT_BYTES) + TEXT_BYTES - 1) / TEXT_BYTES;
+		int numSeatRecords = (rowNumbers.length + SEATS_PER_RECORD - 1) / SEATS_PER_RECORD;
+		ByteBuffer event = ByteBuffer.allocate((1 + numTextRecords + numSeatRecords) * RECORD_BYTES);
+		event.put(type).put((byte) 0).putShort((short) textBytes.length).putInt(venueId).putInt(seatHoldId)
+				.putInt(rowNumbers.length).putLong(time).putInt(0);
+		event.put(textBytes, 0, Math.min(textBytes.length, HEADER_TEXT_BYTES));
+		for (int i = 0; i < numTextRecords; i++) {
+			int offset = HEADER_TEXT_BYTES + i * TEXT_BYTES;
+			event.position((1 + i) * RECORD_BYTES);
+			event.put(TEXT).put(textBytes, offset, Math.min(textBytes.length - offset, TEXT_BYTES));
+		}
+		for (int i = 0; i < numSeatRecords; i++) {
+			int first = i * SEATS_PER_RECORD;
+			int count = Math.min(rowNumbers.length - first, SEATS_PER_RECORD);
+			event.position((1 + numTextRecords + i) * RECORD_BYTES);
+			event.put(SEATS).put((byte) count).putShort((short) 0).putInt(0);
+			for (int j = first; j < first + count; j++) {
+				event.putInt(rowNumbers[j]).putInt(seatNumbers[j]);
+			}
+		}
+		synchronized (this) {
+			checksum.reset();
+			checksum.update(event.array());
+			event.putInt(24, (int) checksum.getValue());
+			if (event.capacity() > region.remaining()) {
+				nextRegion(event.capacity());
+			}
+			region.put(event.array());
+			position += event.capacity();
+			numEvents.incrementAndGet();
+			return position;
+		}
+	}
+
+	/**
+	 * pads the rest of the mapped region and maps the region after it. The
+	 * region left behind is forced, so sync only ever needs to force the
+	 * current region. The caller must hold the lock of the journal
+	 */
+	private void nextRegion(int eventBytes) {
+		while (region.hasRemaining()) {
+			region.put(region.position(), PADDING);
+			region.position(region.position() + RECORD_BYTES);
+		}
+		position = regionStart + region.capacity();
+		region.force();
+		try {
+			mapRegion(position, Math.max(regionBytes, eventBytes));
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to grow the journal", e);
+		}
+	}
+
+	private void mapRegion(long start, int size) throws IOException {
+		region = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+		regionStart = start;
+	}
+
+	/**
+	 * makes the journal durable up to a position. Callers arriving while
+	 * another caller forces the journal wait for it and usually find their
+	 * events already forced, so concurrent appends share one force (group commit)
+	 * @param upTo the position returned by an append
+	 */
+	public void sync(long upTo) {
+		if (syncedPosition >= upTo) {
+			return;
+		}
+		synchronized (syncLock) {
+			if (syncedPosition >= upTo) {
+				return;
+			}
+			MappedByteBuffer current;
+			long end;
+			synchronized (this) {
+				current = region;
+				end = position;
+			}
+			current.force();
+			numSyncs.incrementAndGet();
+			syncedPosition = end;
+		}
+	}
+
+	/**
+	 * makes every event appended so far durable
+	 */
+	public void sync() {
+		long end;
+		synchronized (this) {
+			end = position;
+		}
+		sync(end);
+	}
+
+	/**
+	 * reads every complete event of the journal in the order they were appended
+	 * @param visitor what to do with each event, null to only find the end of the journal
+	 * @return the position of the end of the last complete event
+	 * @throws IOException if the file cannot be read
+	 */
+	public long replay(Visitor visitor) throws IOException {
+		return replay(0, visitor);
+	}
+
+	/**
+	 * reads the complete events of the journal from a position on, such as
+	 * the position recorded with a venue snapshot
+	 * @param from the position returned by an append or by position
+	 * @param visitor what to do with each event
+	 * @return the position of the end of the last complete event
+	 * @throws IOException if the file cannot be read
+	 */
+	public long replay(long from, Visitor visitor) throws IOException {
+		ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+		long readPosition = from;
+		long end = from;
+		while (read(record, readPosition)) {
+			byte type = record.get(0);
+			if (type == PADDING) {
+				readPosition += RECORD_BYTES;
+				end = readPosition;
+				continue;
+			}
+			if (type != HOLD && type != RESERVATION && type != INVALIDATION) {
+				break;
+			}
+			int textLength = record.getShort(2);
+			int numSeats = record.getInt(12);
+			int numTextRecords = (Math.max(0, textLength - HEADER_TEXT_BYTES) + TEXT_BYTES - 1) / TEXT_BYTES;
+			int numSeatRecords = (numSeats + SEATS_PER_RECORD - 1) / SEATS_PER_RECORD;
+			long eventBytes = (1L + numTextRecords + numSeatRecords) * RECORD_BYTES;
+			if (textLength < 0 || numSeats < 0 || readPosition + eventBytes > channel.size()) {
+				break;
+			}
+			ByteBuffer event = ByteBuffer.allocate((int) eventBytes);
+			channel.read(event, readPosition);
+			int storedChecksum = event.getInt(24);
+			event.putInt(24, 0);
+			CRC32 eventChecksum = new CRC32();
+			eventChecksum.update(event.array());
+			if ((int) eventChecksum.getValue() != storedChecksum) {
+				break;
+			}
+			if (visitor != null) {
+				visit(event, type, textLength, numSeats, numTextRecords, visitor);
+			}
+			readPosition += eventBytes;
+			end = readPosition;
+		}
+		return end;
+	}
+
+	/**
+	 * reads a record of the file into the buffer
+	 * @return false if the file ends before the record
+	 */
+	private boolean read(ByteBuffer record, long readPosition) throws IOException {
+		record.clear();
+		while (record.hasRemaining()) {
+			if (channel.read(record, readPosition + record.position()) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * decodes an event whose checksum matched and hands it to the visitor
+	 */
+	private static void visit(ByteBuffer event, byte type, int textLength, int numSeats, int numTextRecords,
+			Visitor visitor) {
+		byte[] textBytes = new byte[textLength];
+		event.position(28);
+		event.get(textBytes, 0, Math.min(textLength, HEADER_TEXT_BYTES));
+		for (int i = 0; i < numTextRecords; i++) {
+			int offset = HEADER_TEXT_BYTES + i * TEXT_BYTES;
+			event.position((1 + i) * RECORD_BYTES + 1);
+			event.get(textBytes, offset, Math.min(textLength - offset, TEXT_BYTES));
+		}
+		String text = new String(textBytes, StandardCharsets.UTF_8);
+		int[] rowNumbers = new int[numSeats];
+		int[] seatNumbers = new int[numSeats];
+		for (int i = 0; i < numSeats; i++) {
+			int record = 1 + numTextRecords + i / SEATS_PER_RECORD;
+			event.position(record * RECORD_BYTES + 8 + (i % SEATS_PER_RECORD) * 8);
+			rowNumbers[i] = event.getInt();
+			seatNumbers[i] = event.getInt();
+		}
+		int venueId = event.getInt(4);
+		switch (type) {
+		case HOLD:
+			visitor.seatsHeld(venueId, event.getInt(8), text, event.getLong(16), rowNumbers, seatNumbers);
+			break;
+		case RESERVATION:
+			int lineBreak = text.indexOf('\n');
+			visitor.seatsReserved(venueId, text.substring(0, lineBreak), text.substring(lineBreak + 1), rowNumbers,
+					seatNumbers);
+			break;
+		default:
+			visitor.seatHoldInvalidated(venueId, event.getInt(8));
+		}
+	}
+
+	/**
+	 * makes the journal durable and closes the file
+	 */
+	@Override
+	public void close() throws IOException {
+		sync();
+		channel.close();
+	}
+
+	/**
+	 * @return the position of the end of the last event
+	 */
+	public synchronized long position() {
+		return position;
+	}
+
+	/**
+	 * @return the number of events appended since the journal was opened
+	 */
+	public long getNumEvents() {
+		return numEvents.get();
+	}
+
+	/**
+	 * @return the number of times the journal was forced to disk
+	 */
+	public long getNumSyncs() {
+		return numSyncs.get();
+	}
+
+}
@@ -0,0 +1,229 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import com.ticket.VenueLoadedEvent;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.Venue;
+
+/**
+ * keeps the rendered seat maps of each venue and viewport along with the
+ * state revision of the venue they were rendered at, so the seat map of a
+ * venue that has not changed is handed out again after comparing revisions
+ * instead of being rendered seat by seat. The cache holds at most a fixed
+ * number of seat maps, dropping the least recently used one to make room, and
+ * seat maps showing too many seats to keep are written without the cache
+ */
+@Component
+public class SeatMapCache {
+
+	/**
+	 * the largest number of seat maps kept
+	 */
+	@Value("${venue.seatMapCacheSize:64}")
+	private int maxSize;
+
+	/**
+	 * the largest number of seats in a seat map kept
+	 */
+	@Value("${venue.seatMapCacheMaxSeats:10000}")
+	private int maxSeats;
+
+	/**
+	 * the seat map last rendered for each venue and viewport, least recently used first
+	 */
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong evictions = new AtomicLong();
+
+	public SeatMapCache() {
+	}
+
+	/**
+	 * instantiation of the cache outside of the application context
+	 * @param maxSize the largest number of seat maps kept
+	 * @param maxSeats the largest number of seats in a seat map kept
+	 */
+	SeatMapCache(int maxSize, int maxSeats) {
+		this.maxSize = maxSize;
+		this.maxSeats = maxSeats;
+	}
+
+	/**
+	 * writes the seat map of part of a venue, from the cache if the seat map
+	 * is small enough to keep
+	 * @param venue the venue
+	 * @param viewport the rows and seats shown
+	 * @param out where the seat map is written
+	 * @throws IOException if the seat map cannot be written
+	 */
+	public void render(Venue venue, SeatMapViewport viewport, Appendable out) throws IOException {
+		int rows = Math.max(0, Math.min(viewport.getLastRow(), venue.getRows().size()) - viewport.getFirstRow() + 1);
+		int seatsPerRow = Math.max(0,
+				Math.min(viewport.getLastSeat(), venue.getNumberOfSeatsPerRow()) - viewport.getFirstSeat() + 1);
+		if ((long) rows * seatsPerRow > maxSeats) {
+			venue.renderSeatMap(out, viewport);
+		} else {
+			out.append(get(venue, viewport));
+		}
+	}
+
+	/**
+	 * finds the seat map of part of a venue, rendering it if the venue changed
+	 * since it was last rendered. The seat map is rendered outside of the
+	 * cache lock, so a large venue does not hold up other lookups
+	 * @param venue the venue
+	 * @param viewport the rows and seats shown
+	 * @return the seat map
+	 */
+	public String get(Venue venue, SeatMapViewport viewport) {
+		// the revision is read before rendering, so the seat map is at least as recent as its revision
+		long revision = venue.currentStateRevision();
+		Key key = new Key(venue.getVenueId(), viewport);
+		String seatMap = find(key, revision);
+		if (seatMap != null) {
+			hits.incrementAndGet();
+			return seatMap;
+		}
+		misses.incrementAndGet();
+		StringBuilder rendered = new StringBuilder();
+		try {
+			venue.renderSeatMap(rendered, viewport);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		seatMap = rendered.toString();
+		put(key, new Entry(revision, seatMap));
+		return seatMap;
+	}
+
+	/**
+	 * @return the seat map, or null if it is not cached or was rendered at another revision
+	 */
+	private synchronized String find(Key key, long revision) {
+		Entry entry = entries.get(key);
+		return entry != null && entry.revision == revision ? entry.seatMap : null;
+	}
+
+	/**
+	 * adds a seat map unless a seat map rendered at a later revision was added meanwhile
+	 */
+	private synchronized void put(Key key, Entry entry) {
+		Entry previous = entries.get(key);
+		if (previous != null && previous.revision > entry.revision) {
+			return;
+		}
+		entries.put(key, entry);
+		if (entries.size() > maxSize) {
+			Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+			while (entries.size() > maxSize) {
+				leastRecentlyUsed.next();
+				leastRecentlyUsed.remove();
+				evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * drops every seat map
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * drops the seat maps of the venues replaced by a reload. They would no
+	 * longer be handed out since a reloaded venue starts at a new revision
+	 * @param event the event identifying the venue
+	 */
+	@EventListener
+	public void onVenueLoaded(VenueLoadedEvent event) {
+		clear();
+	}
+
+	/**
+	 * @return the number of seat maps in the cache
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of lookups served from the cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of lookups that rendered the seat map
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of seat maps dropped to make room
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	/**
+	 * the venue and viewport of a seat map
+	 */
+	private static class Key {
+
+		private final Integer venueId;
+
+		private final SeatMapViewport viewport;
+
+		Key(Integer venueId, SeatMapViewport viewport) {
+			this.venueId = venueId;
+			this.viewport = viewport;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return (venueId == null ? other.venueId == null : venueId.equals(other.venueId))
+					&& viewport.equals(other.viewport);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (venueId == null ? 0 : venueId.hashCode()) + viewport.hashCode();
+		}
+	}
+
+	/**
+	 * a rendered seat map and the revision of the venue it was rendered at
+	 */
+	private static class Entry {
+
+		private final long revision;
+
+		private final String seatMap;
+
+		Entry(long revision, String seatMap) {
+			this.revision = revision;
+			this.seatMap = seatMap;
+		}
+	}
+
+}
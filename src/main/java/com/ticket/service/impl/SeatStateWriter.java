@@ -0,0 +1,34 @@
+package com.ticket.service.impl;
+
+import java.util.Collection;
+
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+
+/**
+ * saves the changes made to the in-memory venues to the database
+ */
+public interface SeatStateWriter {
+
+	/**
+	 * saves the seats of a new seat hold. The seat hold itself must already be saved
+	 * @param seatHold the seat hold
+	 * @param seats the seats that were held
+	 */
+	void seatsHeld(SeatHold seatHold, Collection<Seat> seats);
+
+	/**
+	 * saves a new seat reservation and the seats it reserved
+	 * @param seatReservation the seat reservation
+	 * @param seats the seats that were reserved
+	 */
+	void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats);
+
+	/**
+	 * saves a seat hold that has changed, such as one that was invalidated
+	 * @param seatHold the seat hold
+	 */
+	void seatHoldChanged(SeatHold seatHold);
+
+}
@@ -0,0 +1,271 @@
+package com.ticket.service.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * runs commands one at a time on a single thread in the order they were
+ * submitted, in the style of the LMAX disruptor. Producers claim a sequence
+ * number with one atomic increment and publish their command into a
+ * pre-allocated ring of slots, so submitting takes no lock and allocates
+ * nothing but the future. The consumer thread takes every published command
+ * up to a maximum batch size and runs them together through a batch runner,
+ * typically a transaction, and completes their futures only once the whole
+ * batch has run. A batch whose runner fails has its commands run again one at
+ * a time without the runner, so the runner must undo what the batch did
+ */
+public class SequencedExecutor {
+
+	/**
+	 * the number of times a waiting thread spins before it starts yielding
+	 */
+	private static final int SPIN_TRIES = 100;
+
+	/**
+	 * the number of times a waiting thread yields before it starts parking
+	 */
+	private static final int YIELD_TRIES = 200;
+
+	/**
+	 * the number of nanoseconds a waiting thread parks for at a time
+	 */
+	private static final long PARK_NANOS = 50000L;
+
+	/**
+	 * the sequence given to producers once the executor is stopped
+	 */
+	private static final long CLOSED = Long.MAX_VALUE / 2;
+
+	/**
+	 * a pre-allocated entry of the ring
+	 */
+	private static final class Slot {
+
+		private Callable<?> command;
+
+		private CompletableFuture<Object> completion;
+
+		private Object result;
+
+		private Throwable failure;
+
+		/**
+		 * the sequence of the command in the slot, written last to publish it
+		 */
+		private volatile long sequence = -1;
+	}
+
+	/**
+	 * ends a batch at the command that failed
+	 */
+	private static final class CommandFailedException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		CommandFailedException(Exception cause) {
+			super(cause);
+		}
+	}
+
+	private final Slot[] slots;
+
+	private final int mask;
+
+	private final int maxBatchSize;
+
+	/**
+	 * runs each batch of commands, for example inside a single transaction,
+	 * and undoes them if the batch fails
+	 */
+	private final Consumer<Runnable> batchRunner;
+
+	/**
+	 * the next sequence to give to a producer
+	 */
+	private final AtomicLong claimed = new AtomicLong();
+
+	/**
+	 * the sequence of the last command run and completed
+	 */
+	private volatile long consumed = -1;
+
+	/**
+	 * the sequence after the last command to run, known once the executor is stopped
+	 */
+	private volatile long end = Long.MAX_VALUE;
+
+	private final Thread consumer;
+
+	/**
+	 * instantiates the executor and starts its thread
+	 *
+	 * @param name
+	 *            the name of the thread
+	 * @param ringSize
+	 *            the number of commands that can wait to run, rounded up to a power of two
+	 * @param maxBatchSize
+	 *            the largest number of commands run in one batch
+	 * @param batchRunner
+	 *            runs each batch of commands, undoing them if it fails
+	 */
+	public SequencedExecutor(String name, int ringSize, int maxBatchSize, Consumer<Runnable> batchRunner) {
+		if (ringSize < 1 || maxBatchSize < 1) {
+			throw new IllegalArgumentException("the ring and batch sizes must be positive");
+		}
+		int size = Integer.highestOneBit(Math.max(1, ringSize - 1)) << 1;
+		this.slots = new Slot[size];
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot();
+		}
+		this.mask = size - 1;
+		this.maxBatchSize = Math.min(maxBatchSize, size);
+		this.batchRunner = batchRunner;
+		this.consumer = new Thread(this::consume, name);
+		consumer.setDaemon(true);
+		consumer.start();
+	}
+
+	/**
+	 * @return the number of commands the ring can hold
+	 */
+	public int getRingSize() {
+		return slots.length;
+	}
+
+	/**
+	 * @return the number of commands submitted and not completed yet
+	 */
+	public int numPendingCommands() {
+		long next = Math.min(claimed.get(), end);
+		return (int) Math.max(0, next - consumed - 1);
+	}
+
+	/**
+	 * queues a command to run after every command submitted before it. The
+	 * caller waits while the ring is full
+	 *
+	 * @param command
+	 *            the command
+	 * @return the future completed with the result of the command once its batch has run
+	 * @throws RejectedExecutionException
+	 *             if the executor is stopped
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> submit(Callable<T> command) {
+		long sequence = claimed.getAndIncrement();
+		if (sequence >= CLOSED) {
+			throw new RejectedExecutionException("the executor is stopped");
+		}
+		// wait until the consumer is done with the command that used the slot one lap before
+		for (int tries = 0; sequence - slots.length > consumed; tries++) {
+			idle(tries);
+		}
+		Slot slot = slots[(int) (sequence & mask)];
+		CompletableFuture<T> completion = new CompletableFuture<>();
+		slot.command = command;
+		slot.completion = (CompletableFuture<Object>) completion;
+		slot.sequence = sequence;
+		return completion;
+	}
+
+	/**
+	 * rejects new commands, waits for the commands already submitted to run
+	 * and stops the thread
+	 */
+	public void stop() throws InterruptedException {
+		long next = claimed.getAndSet(CLOSED);
+		if (next < CLOSED) {
+			end = next;
+		}
+		LockSupport.unpark(consumer);
+		consumer.join();
+	}
+
+	/**
+	 * runs the published commands in batches until the executor is stopped and drained
+	 */
+	private void consume() {
+		long next = 0;
+		int tries = 0;
+		while (next < end) {
+			int batchSize = 0;
+			while (batchSize < maxBatchSize && slots[(int) ((next + batchSize) & mask)].sequence == next + batchSize) {
+				batchSize++;
+			}
+			if (batchSize == 0) {
+				idle(tries++);
+				continue;
+			}
+			tries = 0;
+			runBatch(next, batchSize);
+			next += batchSize;
+			consumed = next - 1;
+		}
+	}
+
+	/**
+	 * runs a batch of commands and then completes them. The batch stops at the
+	 * first command that fails, so the batch runner can roll it back as a
+	 * whole. When the batch runner fails, every command of the batch is run
+	 * again on its own without the batch runner, in order, so a command that
+	 * fails only fails its own future
+	 */
+	private void runBatch(long first, int batchSize) {
+		try {
+			batchRunner.accept(() -> {
+				for (int i = 0; i < batchSize; i++) {
+					Slot slot = slots[(int) ((first + i) & mask)];
+					try {
+						slot.result = slot.command.call();
+					} catch (Exception e) {
+						throw new CommandFailedException(e);
+					}
+				}
+			});
+		} catch (RuntimeException | Error e) {
+			for (int i = 0; i < batchSize; i++) {
+				Slot slot = slots[(int) ((first + i) & mask)];
+				try {
+					slot.result = slot.command.call();
+				} catch (Exception | Error failure) {
+					slot.result = null;
+					slot.failure = failure;
+				}
+			}
+		}
+		for (int i = 0; i < batchSize; i++) {
+			Slot slot = slots[(int) ((first + i) & mask)];
+			CompletableFuture<Object> completion = slot.completion;
+			Object result = slot.result;
+			Throwable failure = slot.failure;
+			slot.command = null;
+			slot.completion = null;
+			slot.result = null;
+			slot.failure = null;
+			if (failure == null) {
+				completion.complete(result);
+			} else {
+				completion.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * backs off a little more the longer a thread has been waiting
+	 */
+	private static void idle(int tries) {
+		if (tries < SPIN_TRIES) {
+			return;
+		}
+		if (tries < YIELD_TRIES) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+	}
+
+}
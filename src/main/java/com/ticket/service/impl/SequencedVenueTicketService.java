@@ -0,0 +1,239 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.domain.SeatChangeBatch;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.SeatReservation;
+import com.ticket.service.ReservationSummary;
+import com.ticket.service.SeatHoldRequest;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * ticket service that sends every command changing the seats through a
+ * ring buffer to a single allocation thread. The commands are applied to
+ * the venue in the order they were submitted and without contention, and
+ * each batch of commands taken from the ring is saved in one transaction
+ * before any of its callers is answered. When a batch fails the in-memory
+ * venue is discarded, since the batch is rolled back in the database, and its
+ * commands are run again one at a time, each in a transaction of its own
+ * retried on conflict. Reading the venue does not go through the ring
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "venue.singleWriter", havingValue = "true")
+public class SequencedVenueTicketService implements VenueTicketService {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(SequencedVenueTicketService.class);
+
+	/**
+	 * the service that applies the commands on the allocation thread
+	 */
+	@Autowired
+	private VenueTicketServiceImpl venueTicketService;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	/**
+	 * the id for the venue used in this application
+	 */
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	/**
+	 * the number of commands that can wait for the allocation thread
+	 */
+	@Value("${venue.ringSize:1024}")
+	private int ringSize;
+
+	/**
+	 * the largest number of commands saved in one transaction
+	 */
+	@Value("${venue.ringMaxBatch:64}")
+	private int ringMaxBatch;
+
+	private SequencedExecutor executor;
+
+	/**
+	 * starts the allocation thread
+	 */
+	@PostConstruct
+	public void start() {
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		executor = new SequencedExecutor("seat-allocator", ringSize, ringMaxBatch, batch -> {
+			try {
+				transactionTemplate.execute(status -> {
+					batch.run();
+					return null;
+				});
+			} catch (RuntimeException | Error e) {
+				// the seats changed by the batch are only rolled back in the database
+				LOGGER.info("A batch of seat commands was rolled back, running its commands one at a time: " + e);
+				venueTicketService.discardVenue(venueId);
+				throw e;
+			}
+		});
+		LOGGER.info("Allocating seats on a single thread with a ring of " + executor.getRingSize() + " commands");
+	}
+
+	/**
+	 * applies the commands still in the ring and stops the allocation thread
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.stop();
+	}
+
+	/**
+	 * @return the number of commands waiting for the allocation thread
+	 */
+	public int getNumPendingCommands() {
+		return executor.numPendingCommands();
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public int numSeatsAvailable() {
+		return venueTicketService.numSeatsAvailable();
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public SeatHold findAndHoldSeats(int numSeatsRequested, String customerEmail) {
+		return call(executor.submit(() -> venueTicketService.findAndHoldSeats(numSeatsRequested, customerEmail)));
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findAndHoldSeats(List<SeatHoldRequest> requests) {
+		return call(executor.submit(() -> venueTicketService.findAndHoldSeats(requests)));
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public String reserveSeats(int seatHoldId, String customerEmail) {
+		return call(executor.submit(() -> venueTicketService.reserveSeats(seatHoldId, customerEmail)));
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void invalidateHold(SeatHold seatHold) {
+		call(executor.submit(() -> {
+			venueTicketService.invalidateHold(seatHold);
+			return null;
+		}));
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findSeatHolds(String customerEmail) {
+		return venueTicketService.findSeatHolds(customerEmail);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatReservation> findSeatReservations(String customerEmail) {
+		return venueTicketService.findSeatReservations(customerEmail);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public ReservationSummary findReservation(String confirmationId) {
+		return venueTicketService.findReservation(confirmationId);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public String printVenue(Integer venueId) {
+		return venueTicketService.printVenue(venueId);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderVenue(Integer venueId, SeatMapViewport viewport, Appendable out) throws IOException {
+		venueTicketService.renderVenue(venueId, viewport, out);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderSectionSummary(Integer venueId, int rowsPerSection, Appendable out) throws IOException {
+		venueTicketService.renderSectionSummary(venueId, rowsPerSection, out);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public long getStateRevision(Integer venueId) {
+		return venueTicketService.getStateRevision(venueId);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public SeatChangeBatch findSeatChanges(Integer venueId, long revision, int maxChanges) {
+		return venueTicketService.findSeatChanges(venueId, revision, maxChanges);
+	}
+
+	/**
+	 * waits for a command to be applied and saved
+	 * @param completion the future of the command
+	 * @return the result of the command
+	 */
+	private static <T> T call(CompletableFuture<T> completion) {
+		try {
+			return completion.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+
+}
@@ -0,0 +1,415 @@
+package com.ticket.service.impl;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.domain.SeatChangeBatch;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatHoldRegistry;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.ReservationSummary;
+import com.ticket.service.SeatHoldRequest;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * ticket service that finds and claims seats with queries against the seat
+ * table instead of keeping the venue in memory, for venues too large to load.
+ * It picks the same seats as the in-memory venue: requests are split into
+ * complete rows and halved when they cannot be held together, and each part
+ * is held in the first row that can hold it, from the center out. The seats
+ * found are claimed with a conditional update that only takes seats that are
+ * still available, and searched again if another call took some of them first
+ */
+@Service
+@Primary
+@ConditionalOnProperty(name = "venue.allocation", havingValue = "sql")
+public class SqlVenueTicketService implements VenueTicketService {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(SqlVenueTicketService.class);
+
+	/**
+	 * the number of times the seats for a part of a request are searched again after another call took them
+	 */
+	private static final int CLAIM_ATTEMPTS = 10;
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	private VenueRepository venueRepository;
+
+	@Autowired
+	private RowRepository rowRepository;
+
+	@Autowired
+	private ConfirmationIdGenerator confirmationIdGenerator;
+
+	@Autowired
+	private ReservationSummaryCache reservationSummaryCache;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate transactionTemplate;
+
+	/**
+	 * the seats and expiration times of the seat holds made by this service
+	 * that are still holding, so reserving or ending them does not load the
+	 * seat hold from the database. Seat holds made by other instances are
+	 * looked up in the database
+	 */
+	private final SeatHoldRegistry seatHoldRegistry = new SeatHoldRegistry();
+
+	/**
+	 * the number of seconds for which a seat hold will apply
+	 */
+	@Value("${venue.seatHoldSeconds}")
+	private Integer seatHoldSeconds;
+
+	/**
+	 * the id for the venue used in this application
+	 */
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	/**
+	 * the number of times a call is run again after it ran into another call changing the same seats
+	 */
+	@Value("${venue.conflictRetries:5}")
+	private int conflictRetries;
+
+	/**
+	 * the number of milliseconds waited before the first retry, doubled for every retry and randomized
+	 */
+	@Value("${venue.conflictBackoffMillis:10}")
+	private long conflictBackoffMillis;
+
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public int numSeatsAvailable() {
+		return seatRepository.countAvailableSeats(venueId, LocalDateTime.now());
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public SeatHold findAndHoldSeats(int numSeatsRequested, String customerEmail) {
+		LOGGER.info("Attempting to find and hold " + numSeatsRequested + " seats in the venue");
+		SeatHold seatHold = inTransaction(
+				status -> holdSeats(numSeatsRequested, customerEmail, LocalDateTime.now(), status));
+		register(seatHold);
+		return seatHold;
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findAndHoldSeats(List<SeatHoldRequest> requests) {
+		LOGGER.info("Attempting to find and hold seats for a batch of " + requests.size() + " requests");
+		List<SeatHold> seatHolds = inTransaction(status -> {
+			LocalDateTime now = LocalDateTime.now();
+			List<SeatHold> heldSeatHolds = new ArrayList<>(requests.size());
+			for (SeatHoldRequest request : requests) {
+				heldSeatHolds.add(holdSeats(request.getNumSeats(), request.getCustomerEmail(), now, null));
+			}
+			return heldSeatHolds;
+		});
+		for (SeatHold seatHold : seatHolds) {
+			register(seatHold);
+		}
+		return seatHolds;
+	}
+
+	/**
+	 * see TicketService for method summary
+	 */
+	@Override
+	public String reserveSeats(int seatHoldId, String customerEmail) {
+		long expireMillis = seatHoldRegistry.findExpireMillis(seatHoldId);
+		int[] seatIds = seatHoldRegistry.findSeatIds(seatHoldId);
+		if (expireMillis != SeatHoldRegistry.NOT_FOUND && expireMillis <= System.currentTimeMillis()) {
+			seatHoldRegistry.remove(seatHoldId);
+			return null;
+		}
+		String confirmationId = inTransaction(status -> {
+			LocalDateTime now = LocalDateTime.now();
+			SeatReservation reservation = new SeatReservation(customerEmail,
+					confirmationIdGenerator.nextConfirmationId());
+			seatReservationRepository.saveAndFlush(reservation);
+			// both updates only reserve the seats if the seat hold is still holding them
+			int numSeatsReserved = seatIds != null
+					? seatRepository.reserveSeats(seatHoldId, seatIds, reservation.getSeatReservationId(), now)
+					: seatRepository.reserveSeatsOfHold(seatHoldId, reservation.getSeatReservationId(), now);
+			if (numSeatsReserved == 0 || seatIds != null && numSeatsReserved < seatIds.length) {
+				status.setRollbackOnly();
+				return null;
+			}
+			// the seat hold ends so that it is no longer found among the live seat holds of the customer
+			seatHoldRepository.invalidate(seatHoldId);
+			return reservation.getConfirmationId();
+		});
+		// the seat hold has either been reserved or no longer holds its seats
+		seatHoldRegistry.remove(seatHoldId);
+		return confirmationId;
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void invalidateHold(SeatHold seatHold) {
+		// the seats of a seat hold that is no longer holding are available, so only the seat hold is changed
+		seatHold.setInProgress(false);
+		seatHold.setExpireTime(null);
+		seatHoldRegistry.remove(seatHold.getSeatHoldId());
+		inTransaction(status -> seatHoldRepository.invalidate(seatHold.getSeatHoldId()));
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findSeatHolds(String customerEmail) {
+		return seatHoldRepository.findLiveSeatHolds(customerEmail, LocalDateTime.now());
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatReservation> findSeatReservations(String customerEmail) {
+		return seatReservationRepository.findByCustomerEmail(customerEmail);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public ReservationSummary findReservation(String confirmationId) {
+		// the reservation is summarized the first time it is looked up, as only the ids of its seats are known here
+		return reservationSummaryCache.get(confirmationId);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public String printVenue(Integer venueId) {
+		if (rowRepository.countByVenueVenueId(venueId) > 40 || seatRepository.countSeatsPerRow(venueId) > 40) {
+			return Venue.SEAT_MAP_PRINT_ERROR_MSG;
+		}
+		return inTransaction(status -> venueRepository.findSeatMapByVenueId(venueId).printVenue());
+	}
+
+	/**
+	 * see VenueTicketService for method summary. The seat map is read in one
+	 * query and written once the transaction is over, so a slow writer does
+	 * not hold a connection
+	 */
+	@Override
+	public void renderVenue(Integer venueId, SeatMapViewport viewport, Appendable out) throws IOException {
+		inTransaction(status -> venueRepository.findSeatMapByVenueId(venueId)).renderSeatMap(out, viewport);
+	}
+
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderSectionSummary(Integer venueId, int rowsPerSection, Appendable out) throws IOException {
+		inTransaction(status -> venueRepository.findSeatMapByVenueId(venueId)).renderSectionSummary(out,
+				rowsPerSection);
+	}
+
+	/**
+	 * see VenueTicketService for method summary. The seats are only changed in
+	 * the database, so there is no revision to follow
+	 */
+	@Override
+	public long getStateRevision(Integer venueId) {
+		return 0;
+	}
+
+	/**
+	 * see VenueTicketService for method summary. The seat changes are not
+	 * recorded, so viewers always read a new seat map
+	 */
+	@Override
+	public SeatChangeBatch findSeatChanges(Integer venueId, long revision, int maxChanges) {
+		return SeatChangeBatch.snapshotRequired();
+	}
+
+	/**
+	 * @return the number of seat holds made by this service that are still holding
+	 */
+	public int numLiveSeatHolds() {
+		return seatHoldRegistry.size();
+	}
+
+	/**
+	 * adds a seat hold that was saved to the seat holds found by id
+	 * @param seatHold the seat hold, or null if the seats could not be held
+	 */
+	private void register(SeatHold seatHold) {
+		if (seatHold != null && seatHold.getExpireTime() != null) {
+			seatHoldRegistry.register(seatHold.getSeatHoldId(), null, SeatHoldRegistry.seatIdsOf(seatHold),
+					Timestamp.valueOf(seatHold.getExpireTime()).getTime());
+		}
+	}
+
+	/**
+	 * finds and holds seats the same way as Venue.findAndHoldSeats within the current transaction
+	 * @param status the current transaction, rolled back if the seats cannot be held, or null to release the seats instead
+	 * @return the seat hold, or null if the seats could not be held
+	 */
+	private SeatHold holdSeats(int numSeatsRequested, String customerEmail, LocalDateTime now,
+			TransactionStatus status) {
+		// the seat hold is saved first so that the seats can refer to it when they are claimed
+		SeatHold seatHold = new SeatHold(customerEmail, venueRepository.getOne(venueId));
+		seatHold.setExpireTime(now.plusSeconds(seatHoldSeconds));
+		seatHold.setInProgress(false);
+		seatHoldRepository.saveAndFlush(seatHold);
+
+		List<Integer> heldSeatIds = new ArrayList<>(numSeatsRequested);
+		List<Integer> seatRequests = new ArrayList<>();
+		int seatsPerRow = seatRepository.countSeatsPerRow(venueId);
+		for (int remaining = numSeatsRequested; remaining > 0; remaining -= seatsPerRow) {
+			seatRequests.add(Math.min(remaining, seatsPerRow));
+		}
+		boolean counted = false;
+		while (heldSeatIds.size() < numSeatsRequested) {
+			for (int i = 0; i < seatRequests.size(); i++) {
+				List<Integer> seatIds = claimSeats(seatHold, seatRequests.get(i), now);
+				if (!seatIds.isEmpty()) {
+					heldSeatIds.addAll(seatIds);
+					seatRequests.remove(i--);
+				}
+			}
+			if (seatRequests.isEmpty()) {
+				break;
+			}
+			// counting the available seats takes a pass over the venue, so it
+			// is only done once a part could not be held to save the halving
+			if (!counted && numSeatsRequested - heldSeatIds.size() > seatRepository.countAvailableSeats(venueId, now)) {
+				LOGGER.info("Not enough remaining seats in the venue");
+				releaseSeats(seatHold, heldSeatIds, status);
+				return null;
+			}
+			counted = true;
+			// hold the requests that could not be held in two smaller groups, the bigger one first
+			List<Integer> halvedSeatRequests = new ArrayList<>();
+			for (Integer request : seatRequests) {
+				if (request / 2 < 1) {
+					LOGGER.info("Could not hold " + numSeatsRequested + " seats");
+					releaseSeats(seatHold, heldSeatIds, status);
+					return null;
+				}
+				halvedSeatRequests.add(request - request / 2);
+				halvedSeatRequests.add(request / 2);
+			}
+			seatRequests = halvedSeatRequests;
+		}
+		seatHold.setSeatsHeld(seatRepository.findAll(heldSeatIds));
+		return seatHold;
+	}
+
+	/**
+	 * holds a part of a request in one row, searching again if another call took the seats first
+	 * @return the ids of the seats held, or an empty list if no row can hold them
+	 */
+	private List<Integer> claimSeats(SeatHold seatHold, int numSeats, LocalDateTime now) {
+		for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++) {
+			List<Integer> seatIds = seatRepository.findSeatsToHold(venueId, numSeats, now);
+			if (seatIds.isEmpty()) {
+				return seatIds;
+			}
+			if (seatRepository.claimSeats(seatHold.getSeatHoldId(), seatIds, now) == seatIds.size()) {
+				return seatIds;
+			}
+			// put back the seats that were claimed before searching again
+			seatRepository.releaseSeats(seatHold.getSeatHoldId(), seatIds);
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * undoes a seat hold that could not hold all of its seats
+	 */
+	private void releaseSeats(SeatHold seatHold, List<Integer> seatIds, TransactionStatus status) {
+		if (status != null) {
+			status.setRollbackOnly();
+			return;
+		}
+		// the other seat holds of the transaction are kept, and the seat hold
+		// saved for the claims is deleted once no seat refers to it
+		if (!seatIds.isEmpty()) {
+			seatRepository.releaseSeats(seatHold.getSeatHoldId(), seatIds);
+		}
+		seatHoldRepository.delete(seatHold);
+	}
+
+	/**
+	 * runs a call in a transaction, again after a random wait that grows with
+	 * every retry if it ran into another call changing the same seats
+	 */
+	private <T> T inTransaction(Function<TransactionStatus, T> call) {
+		for (int retry = 0;; retry++) {
+			try {
+				return transactionTemplate.execute(call::apply);
+			} catch (ConcurrencyFailureException e) {
+				if (retry == conflictRetries) {
+					throw e;
+				}
+				LOGGER.info("Seats were changed by another call, retrying: " + e.getMessage());
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong((conflictBackoffMillis << Math.min(retry, 20)) + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+}
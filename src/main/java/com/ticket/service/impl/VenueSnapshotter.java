@@ -0,0 +1,403 @@
+package com.ticket.service.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.VenueRestoredEvent;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.domain.VenueSnapshot;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+
+/**
+ * writes a snapshot of the in-memory venues every venue.snapshotSeconds and
+ * when the application stops, and restores a venue from its latest snapshot
+ * when the application starts on an empty database. A snapshot is written
+ * from a background thread one row at a time to a temporary file that then
+ * replaces the previous snapshot, so allocation is never paused and a crash
+ * leaves the previous snapshot whole. On restore the snapshot is mapped
+ * rather than read through a stream, brought up to date with the seat
+ * journal, and served straight from memory. The rows and seats are written
+ * back to the database in the background while the changes made meanwhile are
+ * held back. Snapshots need venue.journal=true: a snapshot is taken while
+ * seats are held, so a seat hold spanning rows may be caught half way and
+ * only the journal makes it whole again
+ */
+@Component
+@ConditionalOnProperty(name = "venue.snapshot", havingValue = "true")
+public class VenueSnapshotter {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(VenueSnapshotter.class);
+
+	@Autowired
+	private VenueRepository venueRepository;
+
+	@Autowired
+	private RowRepository rowRepository;
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	private ConfirmationIdGenerator confirmationIdGenerator;
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired(required = false)
+	private JournalSeatStateWriter journalSeatStateWriter;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * the directory the snapshots are written to
+	 */
+	@Value("${venue.snapshotDir:snapshots}")
+	private String snapshotDir;
+
+	/**
+	 * the number of seconds between two snapshots of a venue
+	 */
+	@Value("${venue.snapshotSeconds:60}")
+	private long snapshotSeconds;
+
+	/**
+	 * the venues snapshotted, with the state revision of their last snapshot
+	 */
+	private final Map<Venue, Long> venues = new ConcurrentHashMap<>();
+
+	/**
+	 * the writers holding back the changes to the venues being written back,
+	 * kept once a venue could not be written back until it is loaded instead
+	 */
+	private final Map<Integer, DeferredSeatStateWriter> writingBack = new ConcurrentHashMap<>();
+
+	/**
+	 * the largest seat hold id found in a restored snapshot, which the
+	 * database may not have caught up with yet
+	 */
+	private volatile int lastRestoredSeatHoldId;
+
+	private final AtomicLong numSnapshots = new AtomicLong();
+
+	private ScheduledExecutorService executor;
+
+	/**
+	 * starts the snapshot thread
+	 * @throws IllegalStateException if there is no seat journal
+	 */
+	@PostConstruct
+	public void start() throws IOException {
+		if (journalSeatStateWriter == null) {
+			throw new IllegalStateException("venue.snapshot=true requires venue.journal=true, as a snapshot"
+					+ " is only complete once the journal written meanwhile is applied to it");
+		}
+		Files.createDirectories(Paths.get(snapshotDir));
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "venue-snapshot");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::snapshotChangedVenues, snapshotSeconds, snapshotSeconds,
+				TimeUnit.SECONDS);
+	}
+
+	/**
+	 * stops the snapshot thread, letting a restore being written back finish,
+	 * and writes a last snapshot of every venue that changed
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+		snapshotChangedVenues();
+	}
+
+	/**
+	 * starts snapshotting a venue
+	 * @param venue the venue
+	 */
+	public void register(Venue venue) {
+		venues.putIfAbsent(venue, 0L);
+	}
+
+	/**
+	 * stops snapshotting a venue
+	 * @param venue the venue
+	 */
+	public void unregister(Venue venue) {
+		venues.remove(venue);
+	}
+
+	/**
+	 * writes a snapshot of every venue that changed since its last snapshot
+	 */
+	public void snapshotChangedVenues() {
+		for (Venue venue : venues.keySet()) {
+			try {
+				long revision = venue.currentStateRevision();
+				Long snapshotRevision = venues.get(venue);
+				if (snapshotRevision != null && snapshotRevision.longValue() != revision) {
+					snapshot(venue);
+					venues.replace(venue, revision);
+				}
+			} catch (IOException | RuntimeException e) {
+				LOGGER.warn("Could not snapshot venue " + venue.getVenueId(), e);
+			}
+		}
+	}
+
+	/**
+	 * writes a snapshot of a venue, replacing its previous snapshot once complete
+	 * @param venue the venue
+	 * @return the path of the snapshot
+	 * @throws IOException if the snapshot cannot be written
+	 */
+	public Path snapshot(Venue venue) throws IOException {
+		long start = System.nanoTime();
+		// taken before the first row is read so the journal covers every change the snapshot may miss
+		long journalPosition = journalSeatStateWriter.position();
+		int lastSeatHoldId = Math.max(lastRestoredSeatHoldId, seatHoldRepository.findLastSeatHoldId());
+		Path file = snapshotFile(venue.getVenueId());
+		Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+			VenueSnapshot.write(venue, journalPosition, lastSeatHoldId, out);
+			channel.force(true);
+		}
+		Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		numSnapshots.incrementAndGet();
+		LOGGER.info("Wrote snapshot of venue " + venue.getVenueId() + " (" + Files.size(file) + " bytes) in "
+				+ (System.nanoTime() - start) / 1000000 + " ms");
+		return file;
+	}
+
+	/**
+	 * @param venueId the id of the venue
+	 * @return the path of the latest snapshot of the venue
+	 */
+	public Path snapshotFile(Integer venueId) {
+		return Paths.get(snapshotDir, "venue-" + venueId + ".snapshot");
+	}
+
+	/**
+	 * restores a venue from its latest snapshot into an empty database. The
+	 * venue is handed to the service straight away; its rows, seats, seat
+	 * holds and reservations are written to the database in the background
+	 * and the changes made to the venue meanwhile are held back until then
+	 * @param venueId the id of the venue
+	 * @return the writing back of the venue to the database, null if there is
+	 *         no usable snapshot and the venue has to be loaded instead. If it
+	 *         fails, the changes stay held back until the venue is loaded
+	 *         with reloadVenue
+	 */
+	public CompletableFuture<Void> restoreVenue(Integer venueId) {
+		long start = System.nanoTime();
+		Path file = snapshotFile(venueId);
+		if (!Files.exists(file)) {
+			return null;
+		}
+		VenueSnapshot snapshot;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			snapshot = VenueSnapshot.read(mapped);
+		} catch (IOException | IllegalArgumentException e) {
+			LOGGER.warn("Could not read snapshot " + file + ", loading venue " + venueId + " instead", e);
+			return null;
+		}
+		if (snapshot.getVenueId() != venueId) {
+			LOGGER.warn("Snapshot " + file + " is of venue " + snapshot.getVenueId() + ", loading venue " + venueId
+					+ " instead");
+			return null;
+		}
+		JournalTail tail = new JournalTail(snapshot);
+		try {
+			journalSeatStateWriter.replay(snapshot.getJournalPosition(), tail);
+		} catch (IOException e) {
+			LOGGER.warn("Could not read the seat journal after snapshot " + file + ", loading venue " + venueId
+					+ " instead", e);
+			return null;
+		}
+
+		// the ids given out from now on must follow those of the snapshot and the journal
+		venueRepository.save(new Venue(venueId));
+		lastRestoredSeatHoldId = Math.max(snapshot.getLastSeatHoldId(), tail.lastSeatHoldId);
+		for (SeatHold seatHold : snapshot.getSeatHolds()) {
+			lastRestoredSeatHoldId = Math.max(lastRestoredSeatHoldId, seatHold.getSeatHoldId());
+		}
+		seatHoldRepository.skipSeatHoldIds(lastRestoredSeatHoldId);
+		String lastConfirmationId = null;
+		for (SeatReservation seatReservation : snapshot.getSeatReservations()) {
+			if (lastConfirmationId == null || ConfirmationIdGenerator.decode(
+					seatReservation.getConfirmationId()) > ConfirmationIdGenerator.decode(lastConfirmationId)) {
+				lastConfirmationId = seatReservation.getConfirmationId();
+			}
+		}
+		if (lastConfirmationId != null) {
+			confirmationIdGenerator.skipPast(lastConfirmationId);
+		}
+
+		Venue venue = snapshot.toVenue(LocalDateTime.now());
+		// the changes are still journaled straight away, only the database waits
+		DeferredSeatStateWriter deferred = journalSeatStateWriter.deferDatabaseWrites();
+		writingBack.put(venueId, deferred);
+		eventPublisher.publishEvent(new VenueRestoredEvent(this, venue, journalSeatStateWriter));
+		LOGGER.info("Restored venue " + venueId + " with " + snapshot.numSeats() + " seats from snapshot " + file
+				+ " and " + tail.numEvents + " journaled changes in " + (System.nanoTime() - start) / 1000000 + " ms");
+		return CompletableFuture.runAsync(() -> writeBack(snapshot, deferred), executor);
+	}
+
+	/**
+	 * writes a restored venue to the database and then hands over the changes
+	 * held back meanwhile. If the venue or one of the changes cannot be
+	 * written back, what was written is deleted again and the changes stay
+	 * held back
+	 */
+	private void writeBack(VenueSnapshot snapshot, DeferredSeatStateWriter deferred) {
+		long start = System.nanoTime();
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		int numChanges;
+		try {
+			transactionTemplate.execute(status -> {
+				seatHoldRepository.insertSeatHolds(snapshot.getVenueId(), snapshot.getSeatHolds());
+				seatReservationRepository.save(snapshot.getSeatReservations());
+				return null;
+			});
+			rowRepository.insertRowsAndSeats(snapshot);
+			numChanges = deferred.release(transactionTemplate);
+		} catch (RuntimeException e) {
+			// the database was empty before the restore, so it is emptied again for the venue to be loaded
+			transactionTemplate.execute(status -> {
+				seatRepository.deleteAllInBatch();
+				rowRepository.deleteAllInBatch();
+				seatHoldRepository.deleteAllInBatch();
+				seatReservationRepository.deleteAllInBatch();
+				return null;
+			});
+			throw e;
+		}
+		writingBack.remove(snapshot.getVenueId());
+		LOGGER.info("Wrote restored venue " + snapshot.getVenueId() + " back to the database in "
+				+ (System.nanoTime() - start) / 1000000 + " ms, followed by " + numChanges + " changes held back");
+	}
+
+	/**
+	 * loads a venue whose restore could not be written back to the database.
+	 * The changes held back are dropped since they were journaled and are read
+	 * back with the rest of the journal once the venue is loaded. The changes
+	 * made while the venue is loaded wait for it and then fail as conflicts,
+	 * so that they are made again on the venue loaded
+	 * @param venueId the id of the venue
+	 * @param loadVenue loads the venue into the database
+	 */
+	public void reloadVenue(Integer venueId, Runnable loadVenue) {
+		DeferredSeatStateWriter deferred = writingBack.remove(venueId);
+		if (deferred == null) {
+			loadVenue.run();
+			return;
+		}
+		int numChanges = deferred.discard(() -> {
+			loadVenue.run();
+			journalSeatStateWriter.resumeDatabaseWrites();
+		});
+		LOGGER.info("Loaded venue " + venueId + " instead of its snapshot, dropping " + numChanges
+				+ " changes held back that were read back from the journal");
+	}
+
+	/**
+	 * @return the number of snapshots written since the application started
+	 */
+	public long getNumSnapshots() {
+		return numSnapshots.get();
+	}
+
+	/**
+	 * applies the changes journaled after a snapshot was started to the snapshot
+	 */
+	private static class JournalTail implements SeatJournal.Visitor {
+
+		private final VenueSnapshot snapshot;
+
+		private int numEvents;
+
+		/**
+		 * the largest seat hold id, including those of seat holds that ended
+		 */
+		private int lastSeatHoldId;
+
+		JournalTail(VenueSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		@Override
+		public void seatsHeld(int venueId, int seatHoldId, String customerEmail, long expireMillis,
+				int[] rowNumbers, int[] seatNumbers) {
+			if (snapshot.getVenueId() == venueId) {
+				snapshot.applySeatHold(seatHoldId, customerEmail, expireMillis, rowNumbers, seatNumbers);
+				lastSeatHoldId = Math.max(lastSeatHoldId, seatHoldId);
+				numEvents++;
+			}
+		}
+
+		@Override
+		public void seatsReserved(int venueId, String confirmationId, String customerEmail, int[] rowNumbers,
+				int[] seatNumbers) {
+			if (snapshot.getVenueId() == venueId) {
+				snapshot.applySeatReservation(confirmationId, customerEmail, rowNumbers, seatNumbers);
+				numEvents++;
+			}
+		}
+
+		@Override
+		public void seatHoldInvalidated(int venueId, int seatHoldId) {
+			if (snapshot.getVenueId() == venueId) {
+				snapshot.applySeatHoldInvalidation(seatHoldId);
+				numEvents++;
+			}
+		}
+	}
+
+}
@@ -1,21 +1,44 @@
 package com.ticket.service.impl;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.annotation.PostConstruct;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import com.ticket.domain.Seat;
+import com.ticket.VenueConflictEvent;
+import com.ticket.VenueLoadedEvent;
+import com.ticket.VenueRestoredEvent;
+import com.ticket.domain.SeatChangeBatch;
 import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
 import com.ticket.domain.SeatReservation;
 import com.ticket.domain.Venue;
 import com.ticket.repository.SeatHoldRepository;
-import com.ticket.repository.SeatRepository;
 import com.ticket.repository.SeatReservationRepository;
 import com.ticket.repository.VenueRepository;
+import com.ticket.service.ReservationSummary;
+import com.ticket.service.SeatHoldRequest;
 import com.ticket.service.VenueTicketService;
 
 @Service
@@ -36,16 +59,57 @@ public class VenueTicketServiceImpl implements VenueTicketService{
 	private SeatHoldRepository seatHoldRepository;
 	
 	/**
-	 * data repository for the seats
+	 * data repository for the seat reservations
 	 */
 	@Autowired
-	private SeatRepository seatRepository;
+	private SeatReservationRepository seatReservationRepository;
 	
 	/**
-	 * data repository for the seat reservations
+	 * gives out the confirmation ids of the reservations
 	 */
 	@Autowired
-	private SeatReservationRepository seatReservationRepository;
+	private ConfirmationIdGenerator confirmationIdGenerator;
+	
+	/**
+	 * saves the changes to the seats, either before returning or in the background
+	 */
+	@Autowired
+	private SeatStateWriter seatStateWriter;
+	
+	/**
+	 * the writer saving the changes in the background, if venue.writeBehind=true
+	 */
+	@Autowired(required = false)
+	private WriteBehindSeatStateWriter writeBehindSeatStateWriter;
+	
+	/**
+	 * the writer of a venue restored from a snapshot, which holds the changes
+	 * back until the venue is back in the database. Null unless a venue was restored
+	 */
+	private volatile SeatStateWriter restoredSeatStateWriter;
+	
+	/**
+	 * the summaries of the reservations looked up or made recently
+	 */
+	@Autowired
+	private ReservationSummaryCache reservationSummaryCache;
+	
+	/**
+	 * the seat maps rendered since the venue last changed
+	 */
+	@Autowired
+	private SeatMapCache seatMapCache;
+	
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	
+	private TransactionTemplate transactionTemplate;
+	
+	/**
+	 * loads the venues in a transaction of their own, so that their seats are never managed by the
+	 * transaction of a service call and only change in the database through the seat state writer
+	 */
+	private TransactionTemplate loadTransactionTemplate;
 	
 	/**
 	 * the number of seconds for which a seat hold will apply
@@ -59,17 +123,65 @@ public class VenueTicketServiceImpl implements VenueTicketService{
 	@Value("${venue.id}")
 	private Integer venueId;
 	
+	/**
+	 * the number of times a call is run again after another instance of the service changed the same seats
+	 */
+	@Value("${venue.conflictRetries:5}")
+	private int conflictRetries;
+	
+	/**
+	 * the number of milliseconds waited before the first retry, doubled for every retry and randomized
+	 */
+	@Value("${venue.conflictBackoffMillis:10}")
+	private long conflictBackoffMillis;
+	
+	/**
+	 * the number of seat changes of the venue kept for viewers
+	 */
+	@Value("${venue.seatChangeFeedSize:1024}")
+	private int seatChangeFeedSize;
+	
+	/**
+	 * the number of calls that found seats changed by another instance of the service
+	 */
+	private final AtomicLong numConflicts = new AtomicLong();
+	
+	/**
+	 * the venues whose seat state is kept in memory, loaded from the database the first time they are used.
+	 * Every change to the seats is applied to these venues and then saved to the database by the seat state writer
+	 */
+	private final Map<Integer, Venue> venues = new ConcurrentHashMap<>();
+	
+	/**
+	 * releases the seats of the expired seat holds of the in-memory venues
+	 */
+	@Autowired
+	private HoldExpirationReaper holdExpirationReaper;
+	
+	/**
+	 * writes snapshots of the in-memory venues, if venue.snapshot=true
+	 */
+	@Autowired(required = false)
+	private VenueSnapshotter venueSnapshotter;
+	
 	public VenueTicketServiceImpl(){
 	}
 	
+	@PostConstruct
+	public void init() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		loadTransactionTemplate = new TransactionTemplate(transactionManager);
+		loadTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		loadTransactionTemplate.setReadOnly(true);
+	}
+	
 	/**
 	 * see TicketService for method summary
 	 */
 	@Override
 	public int numSeatsAvailable() {
 		LOGGER.info("Retrieving number of available seats in the venue");
-		Venue venue = venueRepository.findOne(venueId);
-		return venue.numSeatsAvailable();
+		return getVenue(venueId).numSeatsAvailable();
 	}
 
 	/**
@@ -77,8 +189,15 @@ public class VenueTicketServiceImpl implements VenueTicketService{
 	 */
 	@Override
 	public SeatHold findAndHoldSeats(int numSeatsRequested, String customerEmail) {
+		return retryOnConflict(() -> holdSeats(numSeatsRequested, customerEmail));
+	}
+	
+	/**
+	 * finds and holds seats within the current transaction
+	 */
+	private SeatHold holdSeats(int numSeatsRequested, String customerEmail) {
 		LOGGER.info("Attempting to find and hold " + numSeatsRequested + " seats in the venue");
-		Venue venue = venueRepository.findOne(venueId);
+		Venue venue = getVenue(venueId);
 		
 		SeatHold seatHold = venue.findAndHoldSeats(numSeatsRequested, customerEmail);
 		
@@ -87,36 +206,82 @@ public class VenueTicketServiceImpl implements VenueTicketService{
 		}
 		// populate the SeatHold with the list of seats and customer info and
 		seatHold.commitSeatHold(LocalDateTime.now().plusSeconds(seatHoldSeconds));
+		// the seat hold is saved right away since its id is given to the customer
 		seatHoldRepository.save(seatHold);
 		// add it to the list of venue seat holds
-		for(Seat seat: seatHold.getSeatsHeld()){
-			seat.setSeatHold(seatHold);
-			seatRepository.save(seat);
-		}
+		venue.addSeatHold(seatHold);
+		seatStateWriter().seatsHeld(seatHold, seatHold.getSeatsHeld());
 		// return the seat hold
 		return seatHold;
 
 	}
 
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findAndHoldSeats(List<SeatHoldRequest> requests) {
+		return retryOnConflict(() -> holdSeats(requests));
+	}
+	
+	/**
+	 * finds and holds seats for a batch of requests within the current transaction
+	 */
+	private List<SeatHold> holdSeats(List<SeatHoldRequest> requests) {
+		LOGGER.info("Attempting to find and hold seats for a batch of " + requests.size() + " requests");
+		Venue venue = getVenue(venueId);
+		LocalDateTime expireTime = LocalDateTime.now().plusSeconds(seatHoldSeconds);
+		
+		List<SeatHold> seatHolds = new ArrayList<>(requests.size());
+		List<SeatHold> committedSeatHolds = new ArrayList<>(requests.size());
+		for (SeatHoldRequest request : requests) {
+			SeatHold seatHold = venue.findAndHoldSeats(request.getNumSeats(), request.getCustomerEmail());
+			if (seatHold != null) {
+				seatHold.commitSeatHold(expireTime);
+				committedSeatHolds.add(seatHold);
+			}
+			seatHolds.add(seatHold);
+		}
+		// the seat holds are saved right away since their ids are given to the customers
+		seatHoldRepository.save(committedSeatHolds);
+		for (SeatHold seatHold : committedSeatHolds) {
+			venue.addSeatHold(seatHold);
+			seatStateWriter().seatsHeld(seatHold, seatHold.getSeatsHeld());
+		}
+		LOGGER.info("Held seats for " + committedSeatHolds.size() + " of " + requests.size() + " requests");
+		return seatHolds;
+	}
+
 	/**
 	 * see TicketService for method summary
 	 */
 	@Override
 	public String reserveSeats(int seatHoldId, String customerEmail) {
-		SeatHold seatHold = seatHoldRepository.findOne(seatHoldId);
+		return retryOnConflict(() -> reserveHeldSeats(seatHoldId, customerEmail));
+	}
+	
+	/**
+	 * reserves the seats of a seat hold within the current transaction
+	 */
+	private String reserveHeldSeats(int seatHoldId, String customerEmail) {
+		Venue venue = getVenue(venueId);
+		SeatHold seatHold = venue.findSeatHold(seatHoldId);
 		
 		//determine if the seatHold is no longer valid
-		if(!seatHold.isHolding()){
+		if(seatHold == null || !seatHold.isHolding()){
 			return null;
 		}
-		SeatReservation reservation = new SeatReservation(customerEmail);
-		seatReservationRepository.save(reservation);
+		SeatReservation reservation = new SeatReservation(customerEmail, confirmationIdGenerator.nextConfirmationId());
 		
-		// reserve the seats based on the seat hold
-		for (Seat seat : seatHold.getSeatsHeld()) {
-			seat.reserveSeat(reservation);
-			seatRepository.save(seat);
+		// reserve the seats based on the seat hold unless it expired in the meantime
+		if(!venue.reserveSeats(seatHold, reservation)){
+			return null;
 		}
+		seatStateWriter().seatsReserved(reservation, seatHold.getSeatsHeld());
+		// the confirmation id can be checked straight away, even before the write behind saves the reservation,
+		// but only once the reservation is committed so that a rolled back one is never found
+		ReservationSummary summary = ReservationSummary.of(reservation, seatHold.getSeatsHeld());
+		AfterCommit.run(() -> reservationSummaryCache.put(summary));
 		// return confirmation Id and populate it in a list for later retrieval
 		// if necessary
 		
@@ -128,18 +293,256 @@ public class VenueTicketServiceImpl implements VenueTicketService{
 	 */
 	@Override
 	public void invalidateHold(SeatHold seatHold) {
+		retryOnConflict(() -> {
+			invalidate(seatHold);
+			return null;
+		});
+	}
+	
+	/**
+	 * invalidates a seat hold within the current transaction
+	 */
+	private void invalidate(SeatHold seatHold) {
+		// invalidate the copy of the seat hold that is holding the in-memory seats
+		SeatHold venueSeatHold = getVenue(venueId).findSeatHold(seatHold.getSeatHoldId());
+		if(venueSeatHold != null){
+			seatHold = venueSeatHold;
+		}else if(!seatHold.isHolding()){
+			// the seat hold already ended and may have been purged, so there is nothing to save
+			return;
+		}
 		seatHold.invalidate();
-		seatHoldRepository.save(seatHold);
+		seatStateWriter().seatHoldChanged(seatHold);
 	}
 
 	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatHold> findSeatHolds(String customerEmail) {
+		return getVenue(venueId).findSeatHolds(customerEmail);
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public List<SeatReservation> findSeatReservations(String customerEmail) {
+		// the reservations made since the venue was loaded may still be waiting for the seat state writer
+		List<SeatReservation> unsavedReservations = getVenue(venueId).findSeatReservations(customerEmail);
+		List<SeatReservation> reservations = seatReservationRepository.findByCustomerEmail(customerEmail);
+		Set<String> confirmationIds = new HashSet<>();
+		for (SeatReservation reservation : reservations) {
+			confirmationIds.add(reservation.getConfirmationId());
+		}
+		for (SeatReservation reservation : unsavedReservations) {
+			if (!confirmationIds.contains(reservation.getConfirmationId())) {
+				reservations.add(reservation);
+			}
+		}
+		return reservations;
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public ReservationSummary findReservation(String confirmationId) {
+		return reservationSummaryCache.get(confirmationId);
+	}
+	
 	/**
 	 * prints a visual representation of the venue's rows and seats as well as their state
-	 * A = available, H = held, R = reserved
+	 * A = available, H = held, R = reserved. The seat map is only rendered again once the venue changed
 	 */
 	public String printVenue(Integer venueId) {
-		Venue venue = venueRepository.findOne(venueId);
-		return venue.printVenue();
+		Venue venue = getVenue(venueId);
+		if (!venue.isSeatMapPrintable()) {
+			return Venue.SEAT_MAP_PRINT_ERROR_MSG;
+		}
+		return seatMapCache.get(venue, SeatMapViewport.ALL);
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderVenue(Integer venueId, SeatMapViewport viewport, Appendable out) throws IOException {
+		seatMapCache.render(getVenue(venueId), viewport, out);
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public void renderSectionSummary(Integer venueId, int rowsPerSection, Appendable out) throws IOException {
+		getVenue(venueId).renderSectionSummary(out, rowsPerSection);
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public long getStateRevision(Integer venueId) {
+		return getVenue(venueId).currentStateRevision();
+	}
+	
+	/**
+	 * see VenueTicketService for method summary
+	 */
+	@Override
+	public SeatChangeBatch findSeatChanges(Integer venueId, long revision, int maxChanges) {
+		return getVenue(venueId).findSeatChanges(revision, maxChanges);
+	}
+	
+	/**
+	 * runs a call in a transaction. The call changes the in-memory venue
+	 * before the transaction commits, so whenever the transaction fails the
+	 * venue is discarded to be read again from the database. If another
+	 * instance of the service changed the same seats the call is run again
+	 * after a random wait that grows with every retry, any other failure is
+	 * thrown to the caller. A call that joins a transaction started by its
+	 * caller is not retried since that transaction can only be rolled back
+	 * @param call the call
+	 * @return the result of the call
+	 * @throws OptimisticLockingFailureException if the seats still conflict after the last retry
+	 */
+	private <T> T retryOnConflict(Supplier<T> call) {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return call.get();
+		}
+		for (int retry = 0;; retry++) {
+			try {
+				return transactionTemplate.execute(status -> call.get());
+			} catch (OptimisticLockingFailureException e) {
+				numConflicts.incrementAndGet();
+				discardVenue(venueId);
+				if (retry == conflictRetries) {
+					throw e;
+				}
+				LOGGER.info("Seats were changed by another instance, retrying: " + e.getMessage());
+				long backoffMillis = conflictBackoffMillis << Math.min(retry, 20);
+				try {
+					Thread.sleep(ThreadLocalRandom.current().nextLong(backoffMillis + 1));
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			} catch (RuntimeException | Error e) {
+				discardVenue(venueId);
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * @return the number of calls that found seats changed by another instance of the service
+	 */
+	public long getNumConflicts() {
+		return numConflicts.get();
+	}
+	
+	/**
+	 * @param venueId the id of the venue
+	 * @return the in-memory venue, loaded from the database if this is the first time it is used. With write behind,
+	 * the changes still queued are written first so that a venue discarded from memory is read back as it was
+	 * @throws IllegalStateException if the changes still queued could not be written
+	 */
+	private Venue getVenue(Integer venueId) {
+		Venue venue = venues.get(venueId);
+		if (venue != null) {
+			return venue;
+		}
+		if (writeBehindSeatStateWriter != null && !writeBehindSeatStateWriter.flushAll()) {
+			throw new IllegalStateException("The queued seat changes could not be written, venue " + venueId
+					+ " cannot be read from the database");
+		}
+		return venues.computeIfAbsent(venueId, this::loadVenue);
+	}
+	
+	/**
+	 * loads the seat map of a venue from the database and builds its seat counters before it is shared between threads.
+	 * The seat holds and reservations of the venue that no longer hold any seat are not loaded
+	 * @param venueId the id of the venue
+	 * @return the venue
+	 */
+	private Venue loadVenue(Integer venueId) {
+		return prepareVenue(loadTransactionTemplate.execute(status -> venueRepository.findSeatMapByVenueId(venueId)));
+	}
+	
+	/**
+	 * builds the seat counters of a venue before it is shared between threads
+	 * and starts releasing its expired seat holds
+	 * @param venue the venue
+	 * @return the venue
+	 */
+	private Venue prepareVenue(Venue venue) {
+		venue.setSeatChangeFeedSize(seatChangeFeedSize);
+		venue.numSeatsAvailable();
+		holdExpirationReaper.register(venue);
+		if (venueSnapshotter != null) {
+			venueSnapshotter.register(venue);
+		}
+		return venue;
+	}
+	
+	/**
+	 * @return the writer the changes to the in-memory venues are saved through
+	 */
+	private SeatStateWriter seatStateWriter() {
+		SeatStateWriter restored = restoredSeatStateWriter;
+		return restored != null ? restored : seatStateWriter;
+	}
+	
+	/**
+	 * discards the in-memory copy of a venue that has been (re)loaded into the database
+	 * @param event the event identifying the venue
+	 */
+	@EventListener
+	public void onVenueLoaded(VenueLoadedEvent event) {
+		LOGGER.info("Venue " + event.getVenueId() + " was loaded. Discarding the in-memory copy");
+		discardVenue(event.getVenueId());
+		restoredSeatStateWriter = null;
+	}
+	
+	/**
+	 * discards the in-memory copy of a venue whose changes were dropped by the write behind since another instance
+	 * changed the same seats, so that it is read again with the seats as the other instance left them
+	 * @param event the event identifying the venue
+	 */
+	@EventListener
+	public void onVenueConflict(VenueConflictEvent event) {
+		LOGGER.info("Changes to venue " + event.getVenueId() + " conflicted with another instance. Discarding the"
+				+ " in-memory copy");
+		discardVenue(event.getVenueId());
+	}
+	
+	/**
+	 * serves a venue restored from a snapshot from memory, saving its changes
+	 * through the writer of the restore until the venue is loaded again
+	 * @param event the event holding the venue
+	 */
+	@EventListener
+	public void onVenueRestored(VenueRestoredEvent event) {
+		Venue venue = event.getVenue();
+		discardVenue(venue.getVenueId());
+		restoredSeatStateWriter = event.getSeatStateWriter();
+		venues.put(venue.getVenueId(), prepareVenue(venue));
+	}
+	
+	/**
+	 * discards the in-memory copy of a venue so that it is read from the database the next time it is used
+	 * @param venueId the id of the venue
+	 */
+	void discardVenue(Integer venueId) {
+		Venue venue = venues.remove(venueId);
+		if(venue != null){
+			holdExpirationReaper.unregister(venue);
+			if (venueSnapshotter != null) {
+				venueSnapshotter.unregister(venue);
+			}
+		}
 	}
 
 	
@@ -0,0 +1,487 @@
+package com.ticket.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.VenueConflictEvent;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+
+/**
+ * saves the changes to the in-memory venues from a background thread so that
+ * service calls do not wait on the database. The in-memory venues are the
+ * authoritative state: the queue only remembers which seats changed and
+ * writes their latest state, so repeated changes to a seat are written once.
+ * A change is only queued once the service call that made it commits, with
+ * the state the seats had in that call, so a call rolled back never reaches
+ * the database even if it changed seats still waiting to be written.
+ * The queue is bounded and callers wait when it is full. Whatever is still
+ * queued is written when the application shuts down, and the venues are
+ * rebuilt from the database when it starts again.
+ * <p>
+ * Write behind is for a single instance of the service: since the call that
+ * made a change has already returned when it is written, a change that
+ * conflicts with another instance cannot be retried, so the writer refuses to
+ * start when venue.instances is more than one. Seats and seat holds are still
+ * only written at the version they were read at, so a change made by another
+ * instance is never overwritten. The change that conflicts is dropped, counted
+ * and logged, and the in-memory venue is discarded to be read back as the
+ * database has it
+ */
+@Component
+@ConditionalOnProperty(name = "venue.writeBehind", havingValue = "true")
+public class WriteBehindSeatStateWriter implements SeatStateWriter {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(WriteBehindSeatStateWriter.class);
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * the number of instances of the service sharing the database
+	 */
+	@Value("${venue.instances:1}")
+	private int instances;
+
+	/**
+	 * the maximum number of changes waiting to be written
+	 */
+	@Value("${venue.writeBehindCapacity:100000}")
+	private int capacity;
+
+	/**
+	 * the number of milliseconds the writer waits for more changes before writing
+	 */
+	@Value("${venue.writeBehindFlushMillis:50}")
+	private long flushMillis;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * the seats changed since the last write indexed by seat id
+	 */
+	private Map<Integer, PendingSeat> pendingSeats = new LinkedHashMap<>();
+
+	/**
+	 * the seat holds changed since the last write indexed by seat hold id
+	 */
+	private Map<Integer, SeatHold> pendingSeatHolds = new LinkedHashMap<>();
+
+	/**
+	 * the seat reservations created since the last write
+	 */
+	private List<SeatReservation> pendingSeatReservations = new ArrayList<>();
+
+	/**
+	 * the number of changes dropped since another instance changed the same seats or seat holds
+	 */
+	private final AtomicLong numDroppedChanges = new AtomicLong();
+
+	private volatile boolean running;
+
+	private Thread writer;
+
+	/**
+	 * starts the writer thread
+	 * @throws IllegalStateException if other instances of the service share the database
+	 */
+	@PostConstruct
+	public void start() {
+		if (instances > 1) {
+			throw new IllegalStateException("venue.writeBehind cannot be used by " + instances
+					+ " instances sharing a database, the changes conflicting with another instance would be lost");
+		}
+		running = true;
+		writer = new Thread(this::writePendingChanges, "seat-state-writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * stops the writer thread and writes the changes still queued
+	 */
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		lock.lock();
+		try {
+			running = false;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		// the writer may be waiting for more changes, those are written below
+		writer.interrupt();
+		writer.join();
+		if (!flushAll()) {
+			LOGGER.error(numPendingChanges() + " seat changes could not be written before shutting down");
+		}
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+		List<PendingSeat> changedSeats = pendingSeats(seats);
+		AfterCommit.run(() -> enqueue(null, changedSeats));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+		List<PendingSeat> changedSeats = pendingSeats(seats);
+		AfterCommit.run(() -> enqueue(seatReservation, changedSeats));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatHoldChanged(SeatHold seatHold) {
+		AfterCommit.run(() -> {
+			lock.lock();
+			try {
+				awaitCapacity(1);
+				pendingSeatHolds.put(seatHold.getSeatHoldId(), seatHold);
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		});
+	}
+
+	/**
+	 * @return the number of changes waiting to be written
+	 */
+	public int numPendingChanges() {
+		lock.lock();
+		try {
+			return pendingSeats.size() + pendingSeatHolds.size() + pendingSeatReservations.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the number of changes dropped since another instance changed the same seats or seat holds
+	 */
+	public long getNumDroppedChanges() {
+		return numDroppedChanges.get();
+	}
+
+	/**
+	 * writes every change queued so far, after any write already in progress,
+	 * so that the database can be read back as the in-memory venues are
+	 * @return whether the changes were written. If not some are still queued
+	 */
+	public synchronized boolean flushAll() {
+		while (numPendingChanges() > 0) {
+			if (!flush()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * writes the changes queued so far in a transaction of their own. Only
+	 * one write runs at a time. The changes another instance made conflicting
+	 * are dropped and the others written again
+	 * @return whether the changes were written. If not they are queued again
+	 */
+	public synchronized boolean flush() {
+		Batch batch;
+		lock.lock();
+		try {
+			batch = takeBatch();
+		} finally {
+			lock.unlock();
+		}
+		if (batch.size() == 0) {
+			return true;
+		}
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		while (true) {
+			try {
+				List<SeatHold> savedSeatHolds = transactionTemplate.execute(status -> {
+					// the seats refer to the reservations, so those are inserted first
+					seatReservationRepository.save(batch.seatReservations);
+					List<SeatHold> saved = seatHoldRepository.save(batch.seatHolds.values());
+					seatRepository.updateSeatStates(batch.seatStates());
+					return saved;
+				});
+				// the saved copies have the new versions of the seat holds that were merged
+				int i = 0;
+				for (SeatHold seatHold : batch.seatHolds.values()) {
+					seatHold.setVersion(savedSeatHolds.get(i++).getVersion());
+				}
+				for (PendingSeat pendingSeat : batch.seats.values()) {
+					pendingSeat.seat.setVersion(pendingSeat.seat.getVersion() + 1);
+				}
+				return true;
+			} catch (ObjectOptimisticLockingFailureException e) {
+				Set<Integer> venueIds = new HashSet<>();
+				int numDropped = batch.dropConflict(e, venueIds);
+				if (numDropped == 0) {
+					LOGGER.error("Failed to write " + batch.size() + " seat changes, they will be retried", e);
+					requeue(batch);
+					return false;
+				}
+				numDroppedChanges.addAndGet(numDropped);
+				LOGGER.error("Another instance changed " + e.getPersistentClassName() + " " + e.getIdentifier()
+						+ " since it was read, dropping " + numDropped + " changes and writing the other "
+						+ batch.size() + " changes");
+				for (Integer venueId : venueIds) {
+					eventPublisher.publishEvent(new VenueConflictEvent(this, venueId));
+				}
+				batch.clearSeatReservationIds();
+				if (batch.size() == 0) {
+					return true;
+				}
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to write " + batch.size() + " seat changes, they will be retried", e);
+				requeue(batch);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * copies the state of seats as the call changing them left it
+	 */
+	private static List<PendingSeat> pendingSeats(Collection<Seat> seats) {
+		List<PendingSeat> pendingSeats = new ArrayList<>(seats.size());
+		for (Seat seat : seats) {
+			pendingSeats.add(new PendingSeat(seat));
+		}
+		return pendingSeats;
+	}
+
+	/**
+	 * queues a seat reservation and the seats that changed with it as one step
+	 */
+	private void enqueue(SeatReservation seatReservation, List<PendingSeat> seats) {
+		lock.lock();
+		try {
+			awaitCapacity(seats.size() + (seatReservation != null ? 1 : 0));
+			if (seatReservation != null) {
+				pendingSeatReservations.add(seatReservation);
+			}
+			for (PendingSeat seat : seats) {
+				pendingSeats.put(seat.seat.getSeatId(), seat);
+			}
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * waits until there is room for a number of changes. A change larger than
+	 * the whole queue only waits for the queue to be empty. The caller must
+	 * hold the lock
+	 */
+	private void awaitCapacity(int numChanges) {
+		int pending = pendingSeats.size() + pendingSeatHolds.size() + pendingSeatReservations.size();
+		while (running && pending > 0 && pending + numChanges > capacity) {
+			notFull.awaitUninterruptibly();
+			pending = pendingSeats.size() + pendingSeatHolds.size() + pendingSeatReservations.size();
+		}
+	}
+
+	/**
+	 * body of the writer thread
+	 */
+	private void writePendingChanges() {
+		while (running) {
+			lock.lock();
+			try {
+				while (running && pendingSeats.isEmpty() && pendingSeatHolds.isEmpty()
+						&& pendingSeatReservations.isEmpty()) {
+					notEmpty.await();
+				}
+			} catch (InterruptedException e) {
+				return;
+			} finally {
+				lock.unlock();
+			}
+			try {
+				// let more changes to the same seats accumulate before writing
+				TimeUnit.MILLISECONDS.sleep(flushMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * takes every queued change. The caller must hold the lock
+	 */
+	private Batch takeBatch() {
+		Batch batch = new Batch(pendingSeats, pendingSeatHolds, pendingSeatReservations);
+		pendingSeats = new LinkedHashMap<>();
+		pendingSeatHolds = new LinkedHashMap<>();
+		pendingSeatReservations = new ArrayList<>();
+		notFull.signalAll();
+		return batch;
+	}
+
+	/**
+	 * queues the changes of a batch that could not be written again, behind
+	 * any newer change to the same seats and seat holds
+	 */
+	private void requeue(Batch batch) {
+		lock.lock();
+		try {
+			batch.clearSeatReservationIds();
+			batch.seatReservations.addAll(pendingSeatReservations);
+			pendingSeatReservations = batch.seatReservations;
+			batch.seatHolds.forEach(pendingSeatHolds::putIfAbsent);
+			batch.seats.forEach(pendingSeats::putIfAbsent);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * a seat waiting to be written with the state it had when its change was committed
+	 */
+	private static class PendingSeat {
+
+		/**
+		 * the seat in memory, whose version moves on once it is written
+		 */
+		private final Seat seat;
+
+		/**
+		 * the state to write, which later changes to the seat do not touch
+		 */
+		private final Seat state;
+
+		PendingSeat(Seat seat) {
+			this.seat = seat;
+			this.state = seat.copyState();
+		}
+	}
+
+	/**
+	 * the changes written in one transaction
+	 */
+	private static class Batch {
+
+		private final Map<Integer, PendingSeat> seats;
+
+		private final Map<Integer, SeatHold> seatHolds;
+
+		private final List<SeatReservation> seatReservations;
+
+		Batch(Map<Integer, PendingSeat> seats, Map<Integer, SeatHold> seatHolds,
+				List<SeatReservation> seatReservations) {
+			this.seats = seats;
+			this.seatHolds = seatHolds;
+			this.seatReservations = seatReservations;
+		}
+
+		int size() {
+			return seats.size() + seatHolds.size() + seatReservations.size();
+		}
+
+		/**
+		 * @return the states of the seats to write, at the versions the seats in memory are at
+		 */
+		List<Seat> seatStates() {
+			List<Seat> states = new ArrayList<>(seats.size());
+			for (PendingSeat pendingSeat : seats.values()) {
+				pendingSeat.state.setVersion(pendingSeat.seat.getVersion());
+				states.add(pendingSeat.state);
+			}
+			return states;
+		}
+
+		/**
+		 * forgets the ids given to the seat reservations by an insert that was rolled back
+		 */
+		void clearSeatReservationIds() {
+			for (SeatReservation seatReservation : seatReservations) {
+				seatReservation.setSeatReservationId(null);
+			}
+		}
+
+		/**
+		 * removes the seats or the seat hold another instance changed
+		 * @param conflict the conflict
+		 * @param venueIds collects the ids of the venues of the changes removed
+		 * @return the number of changes removed
+		 */
+		int dropConflict(ObjectOptimisticLockingFailureException conflict, Set<Integer> venueIds) {
+			int numDropped = 0;
+			if (Seat.class.getName().equals(conflict.getPersistentClassName())
+					&& conflict.getIdentifier() instanceof Collection) {
+				for (Object seatId : (Collection<?>) conflict.getIdentifier()) {
+					PendingSeat pendingSeat = seats.remove(seatId);
+					if (pendingSeat != null) {
+						venueIds.add(pendingSeat.seat.getRow().getVenue().getVenueId());
+						numDropped++;
+					}
+				}
+			} else if (SeatHold.class.getName().equals(conflict.getPersistentClassName())) {
+				SeatHold seatHold = seatHolds.remove(conflict.getIdentifier());
+				if (seatHold != null) {
+					venueIds.add(seatHold.getVenue().getVenueId());
+					numDropped++;
+				}
+			}
+			return numDropped;
+		}
+	}
+
+}
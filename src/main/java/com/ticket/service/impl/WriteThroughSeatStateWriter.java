@@ -0,0 +1,138 @@
+package com.ticket.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+
+/**
+ * saves every change to the database before the service call returns. The
+ * seats changed together are updated with a single statement, so a service
+ * call that runs in a transaction writes a hold or a reservation in one commit.
+ * A seat is only written if it is still at the version it was read at, which
+ * detects another instance of the service changing the same seat
+ */
+@Component
+@ConditionalOnProperty(name = "venue.writeBehind", havingValue = "false", matchIfMissing = true)
+public class WriteThroughSeatStateWriter implements SeatStateWriter {
+
+	@Autowired
+	private SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	private SeatRepository seatRepository;
+
+	@Autowired
+	private SeatReservationRepository seatReservationRepository;
+
+	/**
+	 * the maximum number of seats updated by a single statement
+	 */
+	@Value("${venue.seatUpdateBatchSize:1000}")
+	private int batchSize;
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+		updateSeats(seats, (seatIds, version) -> seatRepository.updateSeatHold(seatHold, seatIds, version));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+		seatReservationRepository.save(seatReservation);
+		updateSeats(seats,
+				(seatIds, version) -> seatRepository.updateSeatReservation(seatReservation, seatIds, version));
+	}
+
+	/**
+	 * see SeatStateWriter for method summary
+	 */
+	@Override
+	public void seatHoldChanged(SeatHold seatHold) {
+		// the saved copy has the new version when the seat hold was merged
+		seatHold.setVersion(seatHoldRepository.save(seatHold).getVersion());
+	}
+
+	/**
+	 * updates seats with one statement per version and batch, then moves the
+	 * in-memory seats to their new version
+	 * @param seats the seats
+	 * @param update updates the seats with the given ids and version
+	 * @throws ObjectOptimisticLockingFailureException if a seat was changed since it was read
+	 */
+	private void updateSeats(Collection<Seat> seats, SeatUpdate update) {
+		for (Map.Entry<Integer, List<Seat>> entry : seatsByVersion(seats).entrySet()) {
+			int version = entry.getKey();
+			for (List<Integer> seatIds : seatIds(entry.getValue())) {
+				if (update.apply(seatIds, version) != seatIds.size()) {
+					throw new ObjectOptimisticLockingFailureException(Seat.class, seatIds);
+				}
+			}
+			for (Seat seat : entry.getValue()) {
+				seat.setVersion(version + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param seats the seats
+	 * @return the seats grouped by their version
+	 */
+	private Map<Integer, List<Seat>> seatsByVersion(Collection<Seat> seats) {
+		Map<Integer, List<Seat>> seatsByVersion = new LinkedHashMap<>();
+		for (Seat seat : seats) {
+			seatsByVersion.computeIfAbsent(seat.getVersion(), version -> new ArrayList<>()).add(seat);
+		}
+		return seatsByVersion;
+	}
+
+	/**
+	 * @param seats the seats
+	 * @return the ids of the seats split into lists of at most the batch size
+	 */
+	private List<List<Integer>> seatIds(Collection<Seat> seats) {
+		List<List<Integer>> batches = new ArrayList<>();
+		List<Integer> batch = null;
+		for (Seat seat : seats) {
+			if (batch == null || batch.size() == batchSize) {
+				batch = new ArrayList<>(Math.min(batchSize, seats.size()));
+				batches.add(batch);
+			}
+			batch.add(seat.getSeatId());
+		}
+		return batches;
+	}
+
+	/**
+	 * a bulk update of seats at one version
+	 */
+	private interface SeatUpdate {
+
+		/**
+		 * @param seatIds the ids of the seats
+		 * @param version the version of the seats
+		 * @return the number of seats updated
+		 */
+		int apply(List<Integer> seatIds, int version);
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.ticket;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import javax.annotation.Resource;
 
@@ -13,6 +14,8 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Row;
+import com.ticket.domain.Seat;
 import com.ticket.domain.Venue;
 import com.ticket.repository.VenueRepository;
 
@@ -35,10 +38,24 @@ public class BootstrapTest {
 	@Test
 	public void testLoadVenue() {
 		
-		Venue venue = venueRepository.findOne(venueId);
+		Venue venue = venueRepository.findSeatMapByVenueId(venueId);
 		assertEquals(venueId, bootstrap.getVenueId());
 		assertEquals(bootstrap.getNumRows().intValue(), venue.getRows().size());
 		assertEquals(bootstrap.getNumSeatsPerRow().intValue(), venue.getRows().iterator().next().getSeats().size());
 	}
+	
+	@Test
+	public void testLoadVenueNumbersRowsAndSeats() {
+		Venue venue = venueRepository.findSeatMapByVenueId(venueId);
+		int rowNumber = 1;
+		for (Row row : venue.getRows()) {
+			assertEquals(rowNumber++, row.getRowNumber().intValue());
+			int seatNumber = 1;
+			for (Seat seat : row.getSeats()) {
+				assertSame(row, seat.getRow());
+				assertEquals(seatNumber++, seat.getSeatNumber().intValue());
+			}
+		}
+	}
 
 }
@@ -0,0 +1,186 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactSeatStoreTest {
+
+	private String customerEmail = "email@email.com";
+	private int venueRows;
+	private int venueSeatsPerRow;
+	private CompactSeatStore store;
+
+	@Before
+	public void setUp() {
+		venueRows = 10;
+		venueSeatsPerRow = 20;
+		store = CompactSeatStore.allocateDirect(venueRows, venueSeatsPerRow);
+	}
+
+	@Test
+	public void testHoldSeatsMatchesRow() {
+		Random random = new Random(5);
+		for (int trial = 0; trial < 300; trial++) {
+			Venue venue = new Venue(1);
+			Row row = new Row(1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			SeatHold otherHold = new SeatHold(customerEmail, venue);
+			for (int i = 0; i < 10; i++) {
+				Seat seat = new Seat(i + 1, row);
+				if (random.nextInt(3) == 0) {
+					seat.placeHold(otherHold);
+				}
+				seats.add(seat);
+			}
+			row.setSeats(seats);
+			venue.setRows(new LinkedHashSet<>(Collections.singleton(row)));
+			CompactSeatStore rowStore = storeLike(venue, 1, 10);
+
+			int numSeats = 1 + random.nextInt(6);
+			List<Seat> heldSeats = row.holdSeats(numSeats, new SeatHold(customerEmail, venue));
+			int[] held = rowStore.holdSeats(0, numSeats, 7);
+			if (heldSeats.isEmpty()) {
+				assertNull(held);
+			} else {
+				int[] expected = new int[heldSeats.size()];
+				for (int i = 0; i < expected.length; i++) {
+					expected[i] = heldSeats.get(i).getSeatNumber() - 1;
+				}
+				assertArrayEquals(expected, held);
+			}
+		}
+	}
+
+	@Test
+	public void testFindAndHoldSeatsByThree() {
+		int totalSeats = venueRows * venueSeatsPerRow;
+		for (int i = 0; i < totalSeats / 3; i++) {
+			assertEquals(3, store.findAndHoldSeats(3, i + 1).length);
+		}
+		assertEquals(totalSeats % 3, store.numSeatsAvailable());
+		assertEquals(totalSeats - totalSeats % 3, store.numSeatsHeld());
+	}
+
+	@Test
+	public void testRequestMoreSeatsThanRowSize() {
+		int[] held = store.findAndHoldSeats(venueSeatsPerRow + 1, 1);
+		assertEquals(venueSeatsPerRow + 1, held.length);
+		// the first row is full and one seat is taken in the second row
+		for (int seat = 0; seat < venueSeatsPerRow; seat++) {
+			assertEquals(SeatOccupancy.HELD, store.state(seat));
+		}
+		assertEquals(venueSeatsPerRow * venueRows - venueSeatsPerRow - 1, store.numSeatsAvailable());
+		assertNull(store.findAndHoldSeats(venueRows * venueSeatsPerRow, 2));
+	}
+
+	@Test
+	public void testReserveAndRelease() {
+		int[] held = store.findAndHoldSeats(4, 11);
+		assertTrue(!store.reserveSeats(12, 21, held));
+		assertTrue(store.reserveSeats(11, 21, held));
+		for (int position : held) {
+			assertEquals(SeatOccupancy.RESERVED, store.state(position));
+			assertEquals(21, store.handle(position));
+		}
+		// reserved seats are not released with the hold
+		store.releaseHold(11, held);
+		assertEquals(4, store.numSeatsReserved());
+
+		int[] other = store.findAndHoldSeats(5, 12);
+		store.releaseHold(12, other);
+		assertEquals(0, store.numSeatsHeld());
+		assertEquals(venueRows * venueSeatsPerRow - 4, store.numSeatsAvailable());
+		assertEquals(0, store.handle(other[0]));
+	}
+
+	@Test
+	public void testRestoredSeatsAreSkipped() {
+		// the first row is reserved and the middle of the second row is held
+		for (int seat = 0; seat < venueSeatsPerRow; seat++) {
+			store.restoreSeat(seat, SeatOccupancy.RESERVED, 5);
+		}
+		store.restoreSeat(venueSeatsPerRow, SeatOccupancy.HELD, 6);
+		store.indexRowCapacities();
+		assertEquals(venueSeatsPerRow, store.numSeatsReserved());
+		assertEquals(1, store.numSeatsHeld());
+		assertEquals(6, store.handle(venueSeatsPerRow));
+
+		// a whole row only fits in the third row
+		int[] held = store.findAndHoldSeats(venueSeatsPerRow, 7);
+		for (int position : held) {
+			assertEquals(2, position / venueSeatsPerRow);
+		}
+	}
+
+	@Test
+	public void testRenderMatchesVenue() throws IOException {
+		Random random = new Random(11);
+		Venue venue = new Venue(1);
+		SeatHold seatHold = new SeatHold(customerEmail, venue);
+		SeatReservation seatReservation = new SeatReservation(customerEmail, "VX0001");
+		Set<Row> rows = new LinkedHashSet<>();
+		for (int i = 0; i < venueRows; i++) {
+			Row row = new Row(i + 1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (int j = 0; j < venueSeatsPerRow; j++) {
+				Seat seat = new Seat(j + 1, row);
+				int taken = random.nextInt(4);
+				if (taken == 1) {
+					seat.placeHold(seatHold);
+				} else if (taken == 2) {
+					seat.reserveSeat(seatReservation);
+				}
+				seats.add(seat);
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		CompactSeatStore venueStore = storeLike(venue, venueRows, venueSeatsPerRow);
+
+		SeatMapViewport viewport = new SeatMapViewport(2, 7, 3, 15);
+		StringBuilder expected = new StringBuilder();
+		StringBuilder actual = new StringBuilder();
+		venue.renderSeatMap(expected, viewport);
+		venueStore.renderSeatMap(actual, viewport);
+		assertEquals(expected.toString(), actual.toString());
+
+		expected.setLength(0);
+		actual.setLength(0);
+		venue.renderSectionSummary(expected, 3);
+		venueStore.renderSectionSummary(actual, 3);
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	/**
+	 * @return a store with the same seats held and reserved as the venue
+	 */
+	private CompactSeatStore storeLike(Venue venue, int numRows, int seatsPerRow) {
+		CompactSeatStore venueStore = CompactSeatStore.allocateDirect(numRows, seatsPerRow);
+		for (Row row : venue.getRows()) {
+			for (Seat seat : row.getSeats()) {
+				int position = (row.getRowNumber() - 1) * seatsPerRow + seat.getSeatNumber() - 1;
+				if (seat.isReserved()) {
+					venueStore.restoreSeat(position, SeatOccupancy.RESERVED, 2);
+				} else if (seat.isHeld()) {
+					venueStore.restoreSeat(position, SeatOccupancy.HELD, 1);
+				}
+			}
+		}
+		venueStore.indexRowCapacities();
+		return venueStore;
+	}
+
+}
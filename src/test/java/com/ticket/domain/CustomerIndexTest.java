@@ -0,0 +1,91 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CustomerIndexTest {
+
+	private CustomerIndex<String> index;
+
+	@Before
+	public void setUp() {
+		index = new CustomerIndex<>();
+	}
+
+	@Test
+	public void testFindReturnsTheEntriesOfTheCustomerInOrder() {
+		index.add("a@email.com", "hold1");
+		index.add("b@email.com", "hold2");
+		index.add("a@email.com", "hold3");
+		assertEquals(Arrays.asList("hold1", "hold3"), index.find("a@email.com"));
+		assertEquals(Arrays.asList("hold2"), index.find("b@email.com"));
+		assertTrue(index.find("c@email.com").isEmpty());
+		assertEquals(2, index.numCustomers());
+	}
+
+	@Test
+	public void testFindWithFilter() {
+		index.add("a@email.com", "hold1");
+		index.add("a@email.com", "expired");
+		assertEquals(Arrays.asList("hold1"), index.find("a@email.com", entry -> !entry.equals("expired")));
+		// the filtered entries stay in the index
+		assertEquals(2, index.find("a@email.com").size());
+	}
+
+	@Test
+	public void testRemoveByIdentity() {
+		String entry = new String("hold");
+		index.add("a@email.com", entry);
+		assertFalse(index.remove("a@email.com", new String("hold")));
+		assertFalse(index.remove("b@email.com", entry));
+		assertTrue(index.remove("a@email.com", entry));
+		assertTrue(index.find("a@email.com").isEmpty());
+		// a customer without entries is dropped
+		assertEquals(0, index.numCustomers());
+	}
+
+	@Test
+	public void testEntriesWithoutCustomerAreNotIndexed() {
+		index.add(null, "hold");
+		assertEquals(0, index.numCustomers());
+		assertTrue(index.find(null).isEmpty());
+		assertFalse(index.remove(null, "hold"));
+	}
+
+	@Test
+	public void testConcurrentAddAndRemove() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int thread = 0; thread < 4; thread++) {
+				String customerEmail = thread % 2 == 0 ? "a@email.com" : "b@email.com";
+				futures.add(executor.submit(() -> {
+					for (int i = 0; i < 10000; i++) {
+						String entry = new String("hold");
+						index.add(customerEmail, entry);
+						index.find(customerEmail);
+						assertTrue(index.remove(customerEmail, entry));
+					}
+				}));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(0, index.numCustomers());
+	}
+
+}
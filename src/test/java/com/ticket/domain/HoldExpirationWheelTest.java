@@ -0,0 +1,95 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HoldExpirationWheelTest {
+
+	private HoldExpirationWheel wheel;
+	private long start;
+
+	@Before
+	public void setUp() {
+		start = 1000000;
+		// 8 buckets of 10 milliseconds, a rotation every 80 milliseconds
+		wheel = new HoldExpirationWheel(10, 8, start);
+	}
+
+	@Test
+	public void testExpireAtDeadline() {
+		SeatHold seatHold = new SeatHold();
+		wheel.schedule(seatHold, start + 25);
+		assertTrue(wheel.expire(start + 20).isEmpty());
+		assertTrue(wheel.expire(start + 24).isEmpty());
+		List<SeatHold> expired = wheel.expire(start + 30);
+		assertEquals(1, expired.size());
+		assertSame(seatHold, expired.get(0));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testExpireAfterSeveralRotations() {
+		SeatHold seatHold = new SeatHold();
+		wheel.schedule(seatHold, start + 500);
+		for (long now = start; now < start + 500; now += 10) {
+			assertTrue(wheel.expire(now).isEmpty());
+		}
+		assertEquals(1, wheel.expire(start + 500).size());
+	}
+
+	@Test
+	public void testExpireAfterLongPause() {
+		List<SeatHold> seatHolds = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			SeatHold seatHold = new SeatHold();
+			seatHolds.add(seatHold);
+			wheel.schedule(seatHold, start + i * 7);
+		}
+		// skipping many rotations still visits every bucket once
+		assertEquals(100, wheel.expire(start + 10000).size());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testCancel() {
+		SeatHold first = new SeatHold();
+		SeatHold second = new SeatHold();
+		SeatHold third = new SeatHold();
+		wheel.schedule(first, start + 15);
+		wheel.schedule(second, start + 15);
+		wheel.schedule(third, start + 15);
+		wheel.cancel(second);
+		wheel.cancel(second);
+		assertEquals(2, wheel.size());
+		List<SeatHold> expired = wheel.expire(start + 20);
+		assertEquals(2, expired.size());
+		assertTrue(expired.contains(first));
+		assertTrue(expired.contains(third));
+	}
+
+	@Test
+	public void testRescheduleReplacesExpiration() {
+		SeatHold seatHold = new SeatHold();
+		wheel.schedule(seatHold, start + 15);
+		wheel.schedule(seatHold, start + 45);
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.expire(start + 20).isEmpty());
+		assertEquals(1, wheel.expire(start + 50).size());
+	}
+
+	@Test
+	public void testScheduleInThePast() {
+		wheel.expire(start + 100);
+		SeatHold seatHold = new SeatHold();
+		wheel.schedule(seatHold, start + 50);
+		assertEquals(1, wheel.expire(start + 110).size());
+	}
+
+}
@@ -0,0 +1,66 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class RowCapacityTreeTest {
+
+	@Test
+	public void testFirstAtLeast() {
+		RowCapacityTree tree = new RowCapacityTree(5);
+		int[] capacities = { 2, 0, 7, 3, 7 };
+		for (int i = 0; i < capacities.length; i++) {
+			tree.update(i, capacities[i]);
+		}
+		assertEquals(7, tree.max());
+		assertEquals(0, tree.firstAtLeast(1, 0));
+		assertEquals(2, tree.firstAtLeast(3, 0));
+		assertEquals(3, tree.firstAtLeast(3, 3));
+		assertEquals(4, tree.firstAtLeast(7, 3));
+		assertEquals(-1, tree.firstAtLeast(8, 0));
+		assertEquals(-1, tree.firstAtLeast(1, 5));
+	}
+
+	@Test
+	public void testUpdate() {
+		RowCapacityTree tree = new RowCapacityTree(3);
+		tree.update(0, 10);
+		tree.update(2, 4);
+		assertEquals(0, tree.firstAtLeast(5, 0));
+		tree.update(0, 1);
+		assertEquals(4, tree.max());
+		assertEquals(-1, tree.firstAtLeast(5, 0));
+		assertEquals(2, tree.firstAtLeast(2, 0));
+		tree.update(1, 6);
+		assertEquals(1, tree.firstAtLeast(5, 0));
+		assertEquals(6, tree.get(1));
+	}
+
+	@Test
+	public void testMatchesLinearScan() {
+		Random random = new Random(7);
+		for (int size = 1; size < 40; size++) {
+			RowCapacityTree tree = new RowCapacityTree(size);
+			int[] capacities = new int[size];
+			for (int step = 0; step < 200; step++) {
+				int index = random.nextInt(size);
+				capacities[index] = random.nextInt(20);
+				tree.update(index, capacities[index]);
+
+				int numSeats = 1 + random.nextInt(20);
+				int fromIndex = random.nextInt(size);
+				int expected = -1;
+				for (int i = fromIndex; i < size && expected < 0; i++) {
+					if (capacities[i] >= numSeats) {
+						expected = i;
+					}
+				}
+				assertEquals(expected, tree.firstAtLeast(numSeats, fromIndex));
+			}
+		}
+	}
+
+}
@@ -3,10 +3,12 @@ package com.ticket.domain;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
@@ -123,6 +125,84 @@ public class RowTest {
 		assertEquals(100, bigRow.numSeatsAvailable());
 	}
 	
+	@Test
+	public void testHoldSeatsAfterMiddleHoldExpires() throws InterruptedException {
+		// seats 1 through 5 are held by a hold that expires, seats 6, 8, 10 stay held
+		smallRow.holdSeats(5, seatHold);
+		SeatHold otherHold = new SeatHold(customerEmail, venue);
+		assertEquals(3, smallRow.holdSeats(3, otherHold).size());
+		seatHold.commitSeatHold(LocalDateTime.now().plusNanos(holdExpireSleepMillis * 1000000));
+		Thread.sleep(holdExpireSleepMillis);
+
+		// the middle is available again but a contiguous group of 8 would overlap the other hold
+		assertTrue(smallRow.holdSeats(8, new SeatHold(customerEmail, venue)).isEmpty());
+		assertEquals(7, smallRow.numSeatsAvailable());
+	}
+
+	@Test
+	public void testExpiredHoldIsOnlyReleasedByTheReaper() {
+		venue.setExpiredHoldsReleasedInBackground(true);
+		List<Seat> heldSeats = bigRow.holdSeats(50, seatHold);
+		seatHold.setSeatsHeld(heldSeats);
+		seatHold.commitSeatHold(LocalDateTime.now().minusSeconds(1));
+
+		// the row keeps the expired hold until the venue releases it
+		assertEquals(50, bigRow.numSeatsAvailable());
+		assertTrue(bigRow.holdSeats(99, new SeatHold(customerEmail, venue)).isEmpty());
+
+		// past the tick of the expiration wheel the hold is due in
+		venue.releaseExpiredHolds(LocalDateTime.now().plusSeconds(1));
+		assertEquals(100, bigRow.numSeatsAvailable());
+		assertEquals(99, bigRow.holdSeats(99, new SeatHold(customerEmail, venue)).size());
+	}
+
+	@Test
+	public void testInvalidateReleasesSeats() {
+		List<Seat> heldSeats = smallRow.holdSeats(4, seatHold);
+		seatHold.setSeatsHeld(heldSeats);
+		assertEquals(6, smallRow.numSeatsAvailable());
+		seatHold.invalidate();
+		assertEquals(10, smallRow.numSeatsAvailable());
+		assertTrue(heldSeats.get(0).isAvailable());
+	}
+
+	@Test
+	public void testLargestHoldMatchesHoldSeats() {
+		Random random = new Random(11);
+		for (int trial = 0; trial < 500; trial++) {
+			boolean[] held = new boolean[10];
+			for (int i = 0; i < held.length; i++) {
+				held[i] = random.nextInt(3) == 0;
+			}
+			Row row = rowWithHeldSeats(held);
+			row.numSeatsAvailable();
+			int largestHold = row.largestHold();
+			if (largestHold > 0) {
+				assertEquals(largestHold, rowWithHeldSeats(held).holdSeats(largestHold, seatHold).size());
+			}
+			assertTrue(rowWithHeldSeats(held).holdSeats(largestHold + 1, seatHold).isEmpty());
+		}
+	}
+
+	/**
+	 * @param held whether each seat of the row, by index, is held
+	 * @return a row of seats held as given
+	 */
+	private Row rowWithHeldSeats(boolean[] held) {
+		Row row = new Row(1, venue);
+		Set<Seat> seats = new LinkedHashSet<>();
+		SeatHold otherHold = new SeatHold(customerEmail, venue);
+		for (int i = 0; i < held.length; i++) {
+			Seat seat = new Seat(i + 1, row);
+			if (held[i]) {
+				seat.placeHold(otherHold);
+			}
+			seats.add(seat);
+		}
+		row.setSeats(seats);
+		return row;
+	}
+
 	@Test
 	public void testPrintRow(){
 		String result = smallRow.print();
@@ -130,4 +210,19 @@ public class RowTest {
 		assertEquals(smallRow.getSeats().size() * 2 + 1, result.length());
 	}
 
+	@Test
+	public void testRenderRow() throws IOException {
+		smallRow.holdSeats(5, seatHold);
+		seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		StringBuilder fullRow = new StringBuilder();
+		smallRow.render(fullRow, 1, Integer.MAX_VALUE);
+		assertEquals(smallRow.print(), fullRow.toString());
+		//odd seats from the right end to the middle, then even seats from the middle to the left end
+		assertEquals(" A A H H H H H A A A ", fullRow.toString());
+		
+		StringBuilder partOfRow = new StringBuilder();
+		smallRow.render(partOfRow, 3, 6);
+		assertEquals(" H H H A ", partOfRow.toString());
+	}
+
 }
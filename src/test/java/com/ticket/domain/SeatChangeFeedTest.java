@@ -0,0 +1,93 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeatChangeFeedTest {
+
+	private final AtomicLong revisions = new AtomicLong(100);
+
+	private SeatChangeFeed feed;
+
+	@Before
+	public void setUp() {
+		feed = new SeatChangeFeed(3, revisions.get());
+	}
+
+	private long record(int rowNumber, int seatNumber, int state) {
+		return feed.record(rowNumber, seatNumber, state, revisions::incrementAndGet);
+	}
+
+	@Test
+	public void testCapacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(4, feed.capacity());
+		assertEquals(1, new SeatChangeFeed(1, 0).capacity());
+	}
+
+	@Test
+	public void testChangesSinceRevision() {
+		long first = record(1, 2, SeatOccupancy.HELD);
+		long second = record(1, 3, SeatOccupancy.HELD);
+		long third = record(1, 2, SeatOccupancy.RESERVED);
+
+		SeatChangeBatch allChanges = feed.changesSince(100, 10);
+		assertEquals(3, allChanges.size());
+		assertEquals(third, allChanges.getRevision());
+		assertEquals(first, allChanges.getRevision(0));
+		assertEquals(1, allChanges.getRowNumber(0));
+		assertEquals(2, allChanges.getSeatNumber(0));
+		assertEquals(SeatOccupancy.HELD, allChanges.getState(0));
+		assertEquals('R', allChanges.getStateCode(2));
+
+		SeatChangeBatch laterChanges = feed.changesSince(first, 10);
+		assertEquals(2, laterChanges.size());
+		assertEquals(second, laterChanges.getRevision(0));
+
+		SeatChangeBatch noChanges = feed.changesSince(third, 10);
+		assertEquals(0, noChanges.size());
+		assertEquals(third, noChanges.getRevision());
+	}
+
+	@Test
+	public void testChangesAreReadInBatches() {
+		record(1, 1, SeatOccupancy.HELD);
+		long second = record(1, 2, SeatOccupancy.HELD);
+		long third = record(1, 3, SeatOccupancy.HELD);
+
+		SeatChangeBatch firstBatch = feed.changesSince(100, 2);
+		assertEquals(2, firstBatch.size());
+		assertEquals(second, firstBatch.getRevision());
+		SeatChangeBatch secondBatch = feed.changesSince(firstBatch.getRevision(), 2);
+		assertEquals(1, secondBatch.size());
+		assertEquals(third, secondBatch.getRevision());
+	}
+
+	@Test
+	public void testViewerBehindTheRingNeedsSnapshot() {
+		long first = record(1, 1, SeatOccupancy.HELD);
+		for (int i = 2; i <= 5; i++) {
+			record(1, i, SeatOccupancy.HELD);
+		}
+		// the first change was overwritten
+		assertTrue(feed.changesSince(100, 10).isSnapshotRequired());
+		SeatChangeBatch changes = feed.changesSince(first, 10);
+		assertEquals(4, changes.size());
+		assertEquals(2, changes.getSeatNumber(0));
+	}
+
+	@Test
+	public void testRestartDropsChanges() {
+		long first = record(1, 1, SeatOccupancy.HELD);
+		long restart = feed.restart(revisions::incrementAndGet);
+		assertTrue(feed.changesSince(first, 10).isSnapshotRequired());
+		assertEquals(0, feed.changesSince(restart, 10).size());
+		record(1, 2, SeatOccupancy.HELD);
+		assertEquals(1, feed.changesSince(restart, 10).size());
+	}
+
+}
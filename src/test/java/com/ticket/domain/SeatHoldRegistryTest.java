@@ -0,0 +1,150 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeatHoldRegistryTest {
+
+	private SeatHoldRegistry registry;
+
+	@Before
+	public void setUp() {
+		registry = new SeatHoldRegistry(8);
+	}
+
+	@Test
+	public void testRegisterAndFind() {
+		SeatHold seatHold = new SeatHold();
+		registry.register(7, seatHold, new int[] { 70, 71 }, 1000);
+		assertSame(seatHold, registry.findSeatHold(7));
+		assertArrayEquals(new int[] { 70, 71 }, registry.findSeatIds(7));
+		assertEquals(1000, registry.findExpireMillis(7));
+		assertEquals(1, registry.size());
+
+		assertNull(registry.findSeatHold(8));
+		assertNull(registry.findSeatIds(8));
+		assertEquals(SeatHoldRegistry.NOT_FOUND, registry.findExpireMillis(8));
+	}
+
+	@Test
+	public void testRegisterAgainReplacesTheEntry() {
+		registry.register(7, null, new int[] { 70 }, 1000);
+		registry.register(7, null, new int[] { 71 }, 2000);
+		assertArrayEquals(new int[] { 71 }, registry.findSeatIds(7));
+		assertEquals(2000, registry.findExpireMillis(7));
+		assertEquals(1, registry.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegisterInvalidId() {
+		registry.register(0, null, new int[0], 1000);
+	}
+
+	@Test
+	public void testRemove() {
+		registry.register(7, null, new int[] { 70 }, 1000);
+		assertTrue(registry.remove(7));
+		assertFalse(registry.remove(7));
+		assertNull(registry.findSeatIds(7));
+		assertEquals(0, registry.size());
+	}
+
+	@Test
+	public void testRemoveKeepsCollidingEntries() {
+		// fill the table to its load factor so the entries share clusters
+		for (int id = 1; id <= 4; id++) {
+			registry.register(id, null, new int[] { id }, SeatHoldRegistry.NEVER_EXPIRES);
+		}
+		for (int id = 1; id <= 4; id += 2) {
+			registry.remove(id);
+		}
+		assertArrayEquals(new int[] { 2 }, registry.findSeatIds(2));
+		assertArrayEquals(new int[] { 4 }, registry.findSeatIds(4));
+		assertNull(registry.findSeatIds(1));
+		assertNull(registry.findSeatIds(3));
+	}
+
+	@Test
+	public void testRemoveExpired() {
+		registry.register(1, null, new int[] { 10 }, 1000);
+		registry.register(2, null, new int[] { 20 }, 2000);
+		registry.register(3, null, new int[] { 30 }, SeatHoldRegistry.NEVER_EXPIRES);
+		assertEquals(1, registry.removeExpired(1000));
+		assertEquals(SeatHoldRegistry.NOT_FOUND, registry.findExpireMillis(1));
+		assertEquals(2000, registry.findExpireMillis(2));
+		assertEquals(1, registry.removeExpired(Long.MAX_VALUE - 1));
+		assertEquals(1, registry.size());
+		assertArrayEquals(new int[] { 30 }, registry.findSeatIds(3));
+	}
+
+	@Test
+	public void testExpiredEntriesAreSweptBeforeGrowing() {
+		// holds that expired long ago are dropped instead of growing the table
+		for (int id = 1; id <= 10000; id++) {
+			registry.register(id, null, new int[] { id }, 1);
+		}
+		assertEquals(8, registry.capacity());
+		assertTrue(registry.size() <= 4);
+		assertArrayEquals(new int[] { 10000 }, registry.findSeatIds(10000));
+	}
+
+	@Test
+	public void testTableFollowsTheNumberOfLiveHolds() {
+		for (int id = 1; id <= 1000; id++) {
+			registry.register(id, null, new int[] { id }, SeatHoldRegistry.NEVER_EXPIRES);
+		}
+		assertTrue(registry.capacity() >= 2000);
+		for (int id = 1; id <= 1000; id++) {
+			registry.remove(id);
+		}
+		assertEquals(0, registry.size());
+		assertEquals(8, registry.capacity());
+	}
+
+	@Test
+	public void testMatchesAMap() {
+		Map<Integer, Long> expected = new HashMap<>();
+		Random random = new Random(11);
+		for (int i = 0; i < 100000; i++) {
+			int id = random.nextInt(500) + 1;
+			if (random.nextInt(3) == 0) {
+				assertEquals(expected.remove(id) != null, registry.remove(id));
+			} else {
+				long expireMillis = random.nextInt(1000) + SeatHoldRegistry.NEVER_EXPIRES / 2;
+				registry.register(id, null, new int[] { id }, expireMillis);
+				expected.put(id, expireMillis);
+			}
+		}
+		assertEquals(expected.size(), registry.size());
+		for (int id = 1; id <= 500; id++) {
+			Long expireMillis = expected.get(id);
+			assertEquals(expireMillis == null ? SeatHoldRegistry.NOT_FOUND : expireMillis.longValue(),
+					registry.findExpireMillis(id));
+		}
+	}
+
+	@Test
+	public void testSeatIdsOf() {
+		Row row = new Row(1, new Venue(1));
+		Seat seat = new Seat(1, row);
+		seat.setSeatId(11);
+		Seat unsavedSeat = new Seat(2, row);
+		SeatHold seatHold = new SeatHold();
+		assertArrayEquals(new int[0], SeatHoldRegistry.seatIdsOf(seatHold));
+		seatHold.setSeatsHeld(Arrays.asList(seat, unsavedSeat));
+		assertArrayEquals(new int[] { 11 }, SeatHoldRegistry.seatIdsOf(seatHold));
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeatOccupancyTest {
+
+	private SeatOccupancy occupancy;
+	private int size;
+
+	@Before
+	public void setUp() {
+		//larger than two words to exercise the word boundaries
+		size = 150;
+		occupancy = new SeatOccupancy(size);
+	}
+
+	@Test
+	public void testInitiallyAvailable() {
+		assertEquals(size, occupancy.numAvailable());
+		assertEquals(0, occupancy.numHeld());
+		assertEquals(0, occupancy.numReserved());
+		assertTrue(occupancy.isRangeAvailable(0, size));
+		assertFalse(occupancy.isRangeAvailable(0, size + 1));
+	}
+
+	@Test
+	public void testMarkStates() {
+		occupancy.markHeld(63);
+		occupancy.markReserved(64);
+		assertTrue(occupancy.isHeld(63));
+		assertTrue(occupancy.isReserved(64));
+		assertEquals(size - 2, occupancy.numAvailable());
+		assertEquals(1, occupancy.numHeld());
+		assertEquals(1, occupancy.numReserved());
+
+		occupancy.markAvailable(63);
+		assertTrue(occupancy.isAvailable(63));
+		assertEquals(0, occupancy.numHeld());
+		assertEquals(size - 1, occupancy.numAvailable());
+	}
+
+	@Test
+	public void testRangeAvailableAcrossWords() {
+		occupancy.markHeld(70);
+		assertTrue(occupancy.isRangeAvailable(0, 70));
+		assertFalse(occupancy.isRangeAvailable(0, 71));
+		assertTrue(occupancy.isRangeAvailable(71, size - 71));
+	}
+
+	@Test
+	public void testNextAvailableAndHeld() {
+		for (int i = 0; i < 130; i++) {
+			occupancy.markHeld(i);
+		}
+		assertEquals(130, occupancy.nextAvailable(0));
+		assertEquals(5, occupancy.nextHeld(5));
+		assertEquals(-1, occupancy.nextHeld(130));
+	}
+
+	@Test
+	public void testCollectAvailableEveryOther() {
+		occupancy.markHeld(1);
+		occupancy.markHeld(5);
+		int[] indexes = new int[3];
+		//right side of the row skips the held seats
+		assertEquals(3, occupancy.collectAvailableEveryOther(1, 3, indexes));
+		assertEquals(3, indexes[0]);
+		assertEquals(7, indexes[1]);
+		assertEquals(9, indexes[2]);
+		//left side of the row near the end only has a few seats left
+		assertEquals(2, occupancy.collectAvailableEveryOther(146, 3, indexes));
+		assertEquals(146, indexes[0]);
+		assertEquals(148, indexes[1]);
+	}
+
+}
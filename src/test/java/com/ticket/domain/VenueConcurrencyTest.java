@@ -0,0 +1,129 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * stress tests of many customers finding and holding seats in the same venue
+ * at once. The hold throughput by number of threads is measured by the
+ * sharedVenueFindAndHoldSeats benchmarks of SeatAllocationBenchmark
+ */
+public class VenueConcurrencyTest {
+
+	private String customerEmail = "email@email.com";
+	private int venueRows = 200;
+	private int venueSeatsPerRow = 120;
+
+	@Test
+	public void testNoSeatHeldTwiceWithSixtyFourThreads() throws InterruptedException {
+		Venue venue = createVenue();
+		ConcurrentLinkedQueue<SeatHold> seatHolds = new ConcurrentLinkedQueue<>();
+		ConcurrentLinkedQueue<SeatHold> reservedHolds = new ConcurrentLinkedQueue<>();
+
+		runCustomers(venue, 64, seatHold -> {
+			seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+			int choice = seatHold.getSeatsHeld().size() % 4;
+			if (choice == 0) {
+				seatHold.invalidate();
+			} else if (choice == 1 && venue.reserveSeats(seatHold, new SeatReservation())) {
+				reservedHolds.add(seatHold);
+			} else {
+				seatHolds.add(seatHold);
+			}
+		});
+
+		//the venue sold out without any seat belonging to two holds
+		assertEquals(0, venue.numSeatsAvailable());
+		Map<Seat, SeatHold> seatOwners = new IdentityHashMap<>();
+		for (SeatHold seatHold : seatHolds) {
+			for (Seat seat : seatHold.getSeatsHeld()) {
+				assertNull("seat held twice", seatOwners.put(seat, seatHold));
+				assertSame(seatHold, seat.getSeatHold());
+				assertTrue(seat.isHeld());
+			}
+		}
+		for (SeatHold seatHold : reservedHolds) {
+			for (Seat seat : seatHold.getSeatsHeld()) {
+				assertNull("seat held twice", seatOwners.put(seat, seatHold));
+				assertTrue(seat.isReserved());
+			}
+		}
+		assertEquals(venueRows * venueSeatsPerRow, seatOwners.size());
+		assertEquals(venue.numSeatsHeld() + venue.numSeatsReserved(), seatOwners.size());
+	}
+
+	/**
+	 * lets a number of customers request seats at the same time until the venue sells out
+	 * @return the number of successful holds
+	 */
+	private int runCustomers(Venue venue, int threads, HoldCallback callback) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		CountDownLatch startGate = new CountDownLatch(1);
+		AtomicInteger holds = new AtomicInteger();
+		for (int t = 0; t < threads; t++) {
+			Random random = new Random(t);
+			executor.execute(() -> {
+				try {
+					startGate.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				while (venue.numSeatsAvailable() > 0) {
+					int numSeats = random.nextInt(100) < 3 ? venueSeatsPerRow + random.nextInt(venueSeatsPerRow)
+							: random.nextInt(8) + 1;
+					SeatHold seatHold = venue.findAndHoldSeats(numSeats, customerEmail);
+					if (seatHold != null) {
+						holds.incrementAndGet();
+						callback.onHold(seatHold);
+					}
+				}
+			});
+		}
+		startGate.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+		return holds.get();
+	}
+
+	private interface HoldCallback {
+		void onHold(SeatHold seatHold);
+	}
+
+	/**
+	 * creates venue with POJOs instead of the database
+	 */
+	private Venue createVenue() {
+		Venue venue = new Venue(1);
+		Set<Row> rows = new LinkedHashSet<>();
+		for (Integer i = 0; i < venueRows; i++) {
+			Row row = new Row(i + 1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (Integer j = 0; j < venueSeatsPerRow; j++) {
+				seats.add(new Seat(j + 1, row));
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		venue.numSeatsAvailable();
+		return venue;
+	}
+
+}
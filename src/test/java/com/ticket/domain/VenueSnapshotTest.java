@@ -0,0 +1,172 @@
+package com.ticket.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class VenueSnapshotTest {
+
+	private String customerEmail = "email@email.com";
+	private Venue venue;
+	private int venueRows;
+	private int venueSeatsPerRow;
+	private int nextSeatHoldId;
+
+	@Before
+	public void setUp() {
+		venue = new Venue(1);
+		venueRows = 10;
+		venueSeatsPerRow = 20;
+		createVenue();
+	}
+
+	/**
+	 * creates venue with POJOs instead of the database, with ids as if it was saved
+	 */
+	private void createVenue() {
+		Set<Row> rows = new LinkedHashSet<>();
+		for (int i = 0; i < venueRows; i++) {
+			Row row = new Row(i + 1, venue);
+			row.setRowId(100 + i);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (int j = 0; j < venueSeatsPerRow; j++) {
+				Seat seat = new Seat(j + 1, row);
+				seat.setSeatId(1000 + i * venueSeatsPerRow + j);
+				seat.setVersion(j % 3);
+				seats.add(seat);
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+	}
+
+	private SeatHold holdSeats(int numSeats, int holdSeconds) {
+		SeatHold seatHold = venue.findAndHoldSeats(numSeats, customerEmail);
+		seatHold.setSeatHoldId(++nextSeatHoldId);
+		seatHold.commitSeatHold(LocalDateTime.now().plusSeconds(holdSeconds));
+		venue.addSeatHold(seatHold);
+		return seatHold;
+	}
+
+	private byte[] write(long journalPosition) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		VenueSnapshot.write(venue, journalPosition, nextSeatHoldId, out);
+		return out.toByteArray();
+	}
+
+	@Test
+	public void testSeatStateSurvivesRoundTrip() throws IOException {
+		SeatHold seatHold = holdSeats(4, 60);
+		SeatHold reservedSeatHold = holdSeats(25, 60);
+		SeatReservation seatReservation = new SeatReservation(customerEmail, "VX0001");
+		assertTrue(venue.reserveSeats(reservedSeatHold, seatReservation));
+
+		VenueSnapshot snapshot = VenueSnapshot.read(ByteBuffer.wrap(write(77)));
+		assertEquals(1, snapshot.getVenueId());
+		assertEquals(77, snapshot.getJournalPosition());
+		assertEquals(2, snapshot.getLastSeatHoldId());
+		assertEquals(venueRows, snapshot.numRows());
+		assertEquals(venueRows * venueSeatsPerRow, snapshot.numSeats());
+
+		Venue restored = snapshot.toVenue(LocalDateTime.now());
+		assertEquals(venue.numSeatsAvailable(), restored.numSeatsAvailable());
+		assertEquals(4, restored.numSeatsHeld());
+		assertEquals(25, restored.numSeatsReserved());
+		SeatHold restoredSeatHold = restored.findSeatHold(seatHold.getSeatHoldId());
+		assertEquals(seatHold.getExpireTime().withNano(seatHold.getExpireTime().getNano() / 1000000 * 1000000),
+				restoredSeatHold.getExpireTime());
+		assertEquals(4, restoredSeatHold.getSeatsHeld().size());
+		assertNull(restored.findSeatHold(reservedSeatHold.getSeatHoldId()));
+		assertEquals("VX0001", restored.findSeatReservations(customerEmail).get(0).getConfirmationId());
+
+		Seat reservedSeat = reservedSeatHold.getSeatsHeld().get(0);
+		for (Row row : restored.getRows()) {
+			assertEquals(99 + row.getRowNumber(), row.getRowId().intValue());
+			for (Seat seat : row.getSeats()) {
+				int seatIndex = (row.getRowNumber() - 1) * venueSeatsPerRow + seat.getSeatNumber() - 1;
+				assertEquals(1000 + seatIndex, seat.getSeatId().intValue());
+				assertEquals((seat.getSeatNumber() - 1) % 3, seat.getVersion());
+				if (seat.getSeatId().equals(reservedSeat.getSeatId())) {
+					assertTrue(seat.isReserved());
+				}
+			}
+		}
+
+		// the restored seat hold can still be reserved
+		assertTrue(restored.reserveSeats(restoredSeatHold, new SeatReservation(customerEmail, "VX0002")));
+		assertEquals(29, restored.numSeatsReserved());
+	}
+
+	@Test
+	public void testEndedSeatHoldsAreNotRestored() throws IOException {
+		SeatHold invalidatedSeatHold = holdSeats(4, 60);
+		holdSeats(3, 1);
+		invalidatedSeatHold.invalidate();
+		VenueSnapshot snapshot = VenueSnapshot.read(ByteBuffer.wrap(write(0)));
+		assertEquals(1, snapshot.getSeatHolds().size());
+
+		// the second seat hold has expired by the time the venue is restored
+		Venue restored = snapshot.toVenue(LocalDateTime.now().plusSeconds(2));
+		assertEquals(venueRows * venueSeatsPerRow, restored.numSeatsAvailable());
+		assertTrue(restored.findSeatHolds(customerEmail).isEmpty());
+		assertTrue(snapshot.getSeatHolds().isEmpty());
+	}
+
+	@Test
+	public void testJournaledChangesAreApplied() throws IOException {
+		SeatHold seatHold = holdSeats(4, 60);
+		SeatHold invalidatedSeatHold = holdSeats(2, 60);
+		VenueSnapshot snapshot = VenueSnapshot.read(ByteBuffer.wrap(write(0)));
+
+		long expireMillis = System.currentTimeMillis() + 60000;
+		snapshot.applySeatHoldInvalidation(invalidatedSeatHold.getSeatHoldId());
+		snapshot.applySeatHold(3, customerEmail, expireMillis, new int[] { 9, 9 }, new int[] { 1, 2 });
+		// the seats of the first seat hold are reserved
+		int[] rowNumbers = new int[4];
+		int[] seatNumbers = new int[4];
+		for (int i = 0; i < 4; i++) {
+			rowNumbers[i] = seatHold.getSeatsHeld().get(i).getRow().getRowNumber();
+			seatNumbers[i] = seatHold.getSeatsHeld().get(i).getSeatNumber();
+		}
+		snapshot.applySeatReservation("VX0001", customerEmail, rowNumbers, seatNumbers);
+		// a change already in the snapshot is applied again without effect
+		snapshot.applySeatReservation("VX0001", customerEmail, rowNumbers, seatNumbers);
+
+		Venue restored = snapshot.toVenue(LocalDateTime.now());
+		assertEquals(4, restored.numSeatsReserved());
+		assertEquals(2, restored.numSeatsHeld());
+		assertNull(restored.findSeatHold(seatHold.getSeatHoldId()));
+		assertNull(restored.findSeatHold(invalidatedSeatHold.getSeatHoldId()));
+		assertEquals(2, restored.findSeatHold(3).getSeatsHeld().size());
+		List<SeatReservation> seatReservations = restored.findSeatReservations(customerEmail);
+		assertEquals(1, seatReservations.size());
+		assertEquals(1, snapshot.getSeatHolds().size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCorruptSnapshotIsRejected() throws IOException {
+		holdSeats(4, 60);
+		byte[] bytes = write(0);
+		bytes[bytes.length / 2] ^= 1;
+		VenueSnapshot.read(ByteBuffer.wrap(bytes));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncatedSnapshotIsRejected() throws IOException {
+		byte[] bytes = write(0);
+		VenueSnapshot.read(ByteBuffer.wrap(bytes, 0, bytes.length - 10));
+	}
+
+}
@@ -2,11 +2,15 @@ package com.ticket.domain;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
@@ -130,6 +134,27 @@ public class VenueTest {
 		assertEquals(totalVenueSeats % reserveSeats, venue.numSeatsAvailable());
 	}
 	
+	@Test
+	public void testHoldSkipsFragmentedRows(){
+		List<Row> rows = new ArrayList<>(venue.getRows());
+		SeatHold otherHold = new SeatHold(customerEmail, venue);
+		// every row but the last can hold at most 10 seats together
+		for (Row row : rows.subList(0, venueRows - 1)) {
+			for (Seat seat : row.getSeats()) {
+				if (seat.getSeatNumber() == 11 || seat.getSeatNumber() == 12) {
+					seat.placeHold(otherHold);
+				}
+			}
+		}
+		SeatHold seatHold = venue.findAndHoldSeats(11, customerEmail);
+		assertEquals(11, seatHold.getSeatsHeld().size());
+		for (Seat seat : seatHold.getSeatsHeld()) {
+			assertEquals(rows.get(venueRows - 1), seat.getRow());
+		}
+		// a group of 10 still goes to the front
+		assertEquals(rows.get(0), venue.findAndHoldSeats(10, customerEmail).getSeatsHeld().get(0).getRow());
+	}
+	
 	@Test
 	public void testRequestMoreSeatsThanRowSize(){
 		int reserveSeats = venueSeatsPerRow + 1;
@@ -152,7 +177,149 @@ public class VenueTest {
 		//after hold expiration, all seats should be available
 		assertEquals(totalVenueSeats.intValue(), venue.numSeatsAvailable());
 	}
+
+	@Test
+	public void testExpiredHoldsReleasedInBackground() throws InterruptedException{
+		venue.setExpiredHoldsReleasedInBackground(true);
+		int reserveSeats = 5;
+		SeatHold seatHold = venue.findAndHoldSeats(reserveSeats, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().plusNanos(venueHoldMilliseconds * 1000000));
+		Thread.sleep(holdExpireSleepMillis);
+		//reading the counters does not release the expired hold, the reaper does
+		assertEquals(totalVenueSeats - reserveSeats, venue.numSeatsAvailable());
+		venue.releaseExpiredHolds(LocalDateTime.now());
+		assertEquals(totalVenueSeats.intValue(), venue.numSeatsAvailable());
+		assertEquals(0, venue.numPendingExpirations());
+		assertNull(seatHold.getSeatsHeld().get(0).getSeatHold());
+	}
+
+	@Test
+	public void testInvalidateCancelsExpiration(){
+		SeatHold seatHold = venue.findAndHoldSeats(5, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		assertEquals(1, venue.numPendingExpirations());
+		seatHold.invalidate();
+		assertEquals(0, venue.numPendingExpirations());
+		assertEquals(totalVenueSeats.intValue(), venue.numSeatsAvailable());
+	}
+
+	@Test
+	public void testLiveSeatHoldsAreRemovedOnceTheyStopHolding(){
+		venue.setExpiredHoldsReleasedInBackground(true);
+		SeatHold[] seatHolds = new SeatHold[3];
+		for (int i = 0; i < seatHolds.length; i++) {
+			seatHolds[i] = venue.findAndHoldSeats(5, customerEmail);
+			seatHolds[i].setSeatHoldId(i + 1);
+			seatHolds[i].commitSeatHold(LocalDateTime.now().plusMinutes(1));
+			venue.addSeatHold(seatHolds[i]);
+		}
+		assertEquals(3, venue.numLiveSeatHolds());
+		assertEquals(seatHolds[0], venue.findSeatHold(1));
+
+		assertTrue(venue.reserveSeats(seatHolds[0], new SeatReservation(customerEmail, "confirmation")));
+		assertNull(venue.findSeatHold(1));
+		seatHolds[1].invalidate();
+		assertNull(venue.findSeatHold(2));
+		seatHolds[2].commitSeatHold(LocalDateTime.now().minusSeconds(1));
+		// past the tick of the expiration wheel the hold is due in
+		venue.releaseExpiredHolds(LocalDateTime.now().plusSeconds(1));
+		assertNull(venue.findSeatHold(3));
+		assertEquals(0, venue.numLiveSeatHolds());
+	}
+
+	@Test
+	public void testFindSeatHoldsAndReservationsOfCustomer(){
+		venue.setExpiredHoldsReleasedInBackground(true);
+		String otherCustomerEmail = "other@email.com";
+		SeatHold[] seatHolds = new SeatHold[3];
+		for (int i = 0; i < seatHolds.length; i++) {
+			seatHolds[i] = venue.findAndHoldSeats(2, i == 2 ? otherCustomerEmail : customerEmail);
+			seatHolds[i].setSeatHoldId(i + 1);
+			seatHolds[i].commitSeatHold(LocalDateTime.now().plusMinutes(1));
+			venue.addSeatHold(seatHolds[i]);
+		}
+		assertEquals(Arrays.asList(seatHolds[0], seatHolds[1]), venue.findSeatHolds(customerEmail));
+		assertEquals(Arrays.asList(seatHolds[2]), venue.findSeatHolds(otherCustomerEmail));
+
+		SeatReservation seatReservation = new SeatReservation(customerEmail, "confirmation");
+		assertTrue(venue.reserveSeats(seatHolds[0], seatReservation));
+		assertEquals(Arrays.asList(seatHolds[1]), venue.findSeatHolds(customerEmail));
+		assertEquals(Arrays.asList(seatReservation), venue.findSeatReservations(customerEmail));
+		assertTrue(venue.findSeatReservations(otherCustomerEmail).isEmpty());
+
+		// a hold that expired is no longer returned even before the expiration wheel releases it
+		seatHolds[1].commitSeatHold(LocalDateTime.now().minusSeconds(1));
+		assertTrue(venue.findSeatHolds(customerEmail).isEmpty());
+		seatHolds[2].invalidate();
+		assertTrue(venue.findSeatHolds(otherCustomerEmail).isEmpty());
+	}
+
+	@Test
+	public void testSeatCountersNeverDrift() throws InterruptedException{
+		Random random = new Random(42);
+		List<SeatHold> seatHolds = new ArrayList<>();
+		assertSeatCountsConsistent();
+		for (int i = 0; i < 60; i++) {
+			SeatHold seatHold = venue.findAndHoldSeats(random.nextInt(25) + 1, customerEmail);
+			if (seatHold != null) {
+				//long enough not to expire while the counters are being compared
+				seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+				seatHolds.add(seatHold);
+			}
+			assertSeatCountsConsistent();
+			if (seatHold != null && i % 3 == 0) {
+				SeatReservation seatReservation = new SeatReservation();
+				for (Seat seat : seatHold.getSeatsHeld()) {
+					seat.reserveSeat(seatReservation);
+				}
+			} else if (seatHold != null && i % 3 == 1) {
+				seatHold.invalidate();
+			}
+			assertSeatCountsConsistent();
+		}
+		//after the remaining holds expire only the reserved seats are taken
+		for (SeatHold seatHold : seatHolds) {
+			if (seatHold.isHolding()) {
+				seatHold.commitSeatHold(LocalDateTime.now().plusNanos(venueHoldMilliseconds * 1000000));
+			}
+		}
+		Thread.sleep(holdExpireSleepMillis);
+		assertSeatCountsConsistent();
+		assertEquals(0, venue.numSeatsHeld());
+		assertEquals(totalVenueSeats - venue.numSeatsReserved(), venue.numSeatsAvailable());
+	}
 	
+	/**
+	 * recounts the state of every seat from scratch and checks it against the counters kept by the venue and its rows
+	 */
+	private void assertSeatCountsConsistent() {
+		int available = 0;
+		int held = 0;
+		int reserved = 0;
+		for (Row row : venue.getRows()) {
+			int rowAvailable = 0;
+			int rowHeld = 0;
+			int rowReserved = 0;
+			for (Seat seat : row.getSeats()) {
+				if (seat.isReserved()) {
+					rowReserved++;
+				} else if (seat.isHeld()) {
+					rowHeld++;
+				} else {
+					rowAvailable++;
+				}
+			}
+			assertEquals(rowAvailable, row.numSeatsAvailable());
+			assertEquals(rowHeld, row.numSeatsHeld());
+			assertEquals(rowReserved, row.numSeatsReserved());
+			available += rowAvailable;
+			held += rowHeld;
+			reserved += rowReserved;
+		}
+		assertEquals(available, venue.numSeatsAvailable());
+		assertEquals(held, venue.numSeatsHeld());
+		assertEquals(reserved, venue.numSeatsReserved());
+	}
 	
 	@Test
 	public void testDivideGroups(){
@@ -181,5 +348,96 @@ public class VenueTest {
 		assertEquals(Venue.SEAT_MAP_PRINT_ERROR_MSG, largeVenueMap);
 		
 	}
+	
+	@Test
+	public void testRenderSeatMap() throws IOException {
+		StringBuilder venueMap = new StringBuilder();
+		venue.renderSeatMap(venueMap, SeatMapViewport.ALL);
+		assertEquals(venue.printVenue(), venueMap.toString());
+		
+		StringBuilder partOfVenueMap = new StringBuilder();
+		venue.renderSeatMap(partOfVenueMap, new SeatMapViewport(3, 5, 1, 4));
+		String rowArray[] = partOfVenueMap.toString().split("\n");
+		assertEquals(3 + 4, rowArray.length);
+		assertEquals(" A A A A ", rowArray[4]);
+		
+		//venues too large to print are still rendered
+		venueRows = 100;
+		venueSeatsPerRow = 100;
+		createVenue();
+		StringBuilder largeVenueMap = new StringBuilder();
+		venue.renderSeatMap(largeVenueMap, SeatMapViewport.ALL);
+		assertEquals(venueRows + 4, largeVenueMap.toString().split("\n").length);
+	}
+	
+	@Test
+	public void testSeatChangesKeepSeatMapUpToDate() throws IOException {
+		venue.numSeatsAvailable();
+		long revision = venue.currentStateRevision();
+		char[][] seatMap = new char[venueRows][venueSeatsPerRow];
+		for (char[] row : seatMap) {
+			Arrays.fill(row, 'A');
+		}
+		
+		SeatHold reservedHold = venue.findAndHoldSeats(4, customerEmail);
+		reservedHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		assertTrue(venue.reserveSeats(reservedHold, new SeatReservation(customerEmail, "confirmation")));
+		SeatHold invalidatedHold = venue.findAndHoldSeats(3, customerEmail);
+		invalidatedHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		invalidatedHold.invalidate();
+		SeatHold expiredHold = venue.findAndHoldSeats(2, customerEmail);
+		expiredHold.commitSeatHold(LocalDateTime.now().minusSeconds(1));
+		SeatHold heldHold = venue.findAndHoldSeats(5, customerEmail);
+		heldHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		
+		SeatChangeBatch changes = venue.findSeatChanges(revision, 1000);
+		assertTrue(!changes.isSnapshotRequired());
+		// held then reserved, held then released twice over, held
+		assertEquals(4 * 2 + 3 * 2 + 2 * 2 + 5, changes.size());
+		for (int i = 0; i < changes.size(); i++) {
+			seatMap[changes.getRowNumber(i) - 1][changes.getSeatNumber(i) - 1] = changes.getStateCode(i);
+		}
+		assertEquals(venue.currentStateRevision(), changes.getRevision());
+		assertEquals(0, venue.findSeatChanges(changes.getRevision(), 1000).size());
+		
+		int held = 0;
+		int reserved = 0;
+		for (char[] row : seatMap) {
+			for (char seat : row) {
+				held += seat == 'H' ? 1 : 0;
+				reserved += seat == 'R' ? 1 : 0;
+			}
+		}
+		assertEquals(venue.numSeatsHeld(), held);
+		assertEquals(venue.numSeatsReserved(), reserved);
+		assertEquals(5, held);
+		assertEquals(4, reserved);
+	}
+	
+	@Test
+	public void testViewerTooFarBehindNeedsSnapshot() {
+		venue.setSeatChangeFeedSize(4);
+		venue.numSeatsAvailable();
+		long revision = venue.currentStateRevision();
+		venue.findAndHoldSeats(5, customerEmail);
+		assertTrue(venue.findSeatChanges(revision, 1000).isSnapshotRequired());
+	}
+	
+	@Test
+	public void testRenderSectionSummary() throws IOException {
+		SeatHold seatHold = venue.findAndHoldSeats(10, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		assertTrue(venue.reserveSeats(seatHold, new SeatReservation(customerEmail, "confirmation")));
+		SeatHold secondSeatHold = venue.findAndHoldSeats(5, customerEmail);
+		secondSeatHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		
+		StringBuilder summary = new StringBuilder();
+		venue.renderSectionSummary(summary, 4);
+		String lines[] = summary.toString().split("\n");
+		//the best seats are in the first rows
+		assertEquals("Rows 1-4: 65 available, 5 held, 10 reserved", lines[2]);
+		assertEquals("Rows 5-8: 80 available, 0 held, 0 reserved", lines[3]);
+		assertEquals("Rows 9-10: 40 available, 0 held, 0 reserved", lines[4]);
+	}
 
 }
@@ -30,7 +30,7 @@ public class SeatReservationTest {
 
 	@Before
 	public void setUp() {
-		seatReservation = new SeatReservation("email@email.com");
+		seatReservation = new SeatReservation("email@email.com", "VX0001");
 		confirmationId = seatReservation.getConfirmationId();
 		seatReservationRepository.save(seatReservation);
 	}
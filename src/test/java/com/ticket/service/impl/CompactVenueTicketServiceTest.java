@@ -0,0 +1,224 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class CompactVenueTicketServiceTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	ApplicationContext applicationContext;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	private String customerEmail = "email@email.com";
+	private CompactVenueTicketService compactVenueTicketService;
+
+	@Before
+	public void setUp() {
+		// the service is only a bean when venue.allocation=compact
+		compactVenueTicketService = newService();
+	}
+
+	@After
+	public void tearDown() {
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testHoldsTheSameSeatsAsTheInMemoryVenue() {
+		// the seat holds must not expire while the test runs
+		ReflectionTestUtils.setField(compactVenueTicketService, "seatHoldSeconds", 600);
+		Venue venue = venueRepository.findSeatMapByVenueId(venueId);
+		Random random = new Random(7);
+		List<SeatHold> compactSeatHolds = new ArrayList<>();
+		List<SeatHold> seatHolds = new ArrayList<>();
+		for (int request = 0; request < 200; request++) {
+			// mostly small groups, some larger than a row, and every fourth hold given up to leave gaps
+			int numSeats = random.nextInt(10) < 1 ? numSeatsPerRow + random.nextInt(numSeatsPerRow)
+					: random.nextInt(8) + 1;
+			String message = "request " + request + " for " + numSeats;
+			SeatHold seatHold = venue.findAndHoldSeats(numSeats, customerEmail);
+			SeatHold compactSeatHold = compactVenueTicketService.findAndHoldSeats(numSeats, customerEmail);
+			if (seatHold == null) {
+				assertNull(message, compactSeatHold);
+			} else {
+				assertNotNull(message, compactSeatHold);
+				seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+				assertEquals(message, seatIds(seatHold), storedSeatIds(compactSeatHold));
+				seatHolds.add(seatHold);
+				compactSeatHolds.add(compactSeatHold);
+			}
+			if (request % 4 == 3 && !seatHolds.isEmpty()) {
+				int released = random.nextInt(seatHolds.size());
+				seatHolds.remove(released).invalidate();
+				compactVenueTicketService.invalidateHold(compactSeatHolds.remove(released));
+			}
+			assertEquals(message, venue.numSeatsAvailable(), compactVenueTicketService.numSeatsAvailable());
+		}
+	}
+
+	@Test
+	public void testReserveSeats() {
+		SeatHold seatHold = compactVenueTicketService.findAndHoldSeats(5, customerEmail);
+		assertEquals(1, compactVenueTicketService.numLiveSeatHolds());
+		String confirmationId = compactVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(confirmationId);
+		assertEquals(5, seatReservationRepository.getReservationByConfirmationId(confirmationId).getReservedSeats().size());
+		assertEquals(5, compactVenueTicketService.findReservation(confirmationId).getNumSeats());
+		assertEquals(numRows * numSeatsPerRow - 5, compactVenueTicketService.numSeatsAvailable());
+		assertEquals(0, compactVenueTicketService.numLiveSeatHolds());
+		// the seats of the hold are already reserved
+		assertNull(compactVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+	}
+
+	@Test
+	public void testInvalidatedHoldCannotBeReserved() {
+		SeatHold seatHold = compactVenueTicketService.findAndHoldSeats(5, customerEmail);
+		compactVenueTicketService.invalidateHold(seatHold);
+		assertEquals(0, compactVenueTicketService.numLiveSeatHolds());
+		assertEquals(numRows * numSeatsPerRow, compactVenueTicketService.numSeatsAvailable());
+		assertNull(compactVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+	}
+
+	@Test
+	public void testExpiredHoldReleasesItsSeats() {
+		ReflectionTestUtils.setField(compactVenueTicketService, "seatHoldSeconds", 0);
+		SeatHold seatHold = compactVenueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		assertNotNull(seatHold);
+		Set<Integer> seatIds = storedSeatIds(seatHold);
+		assertNull(compactVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+		assertEquals(numRows * numSeatsPerRow, compactVenueTicketService.numSeatsAvailable());
+		assertEquals(0, compactVenueTicketService.numLiveSeatHolds());
+		// the same seats are held again
+		ReflectionTestUtils.setField(compactVenueTicketService, "seatHoldSeconds", 60);
+		assertEquals(seatIds, storedSeatIds(compactVenueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail)));
+	}
+
+	@Test
+	public void testSeatsAreReadBackFromTheDatabase() {
+		SeatHold reservedSeatHold = compactVenueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		compactVenueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+		SeatHold seatHold = compactVenueTicketService.findAndHoldSeats(3, customerEmail);
+
+		// another instance reads the reserved and held seats into its own store
+		CompactVenueTicketService otherInstance = newService();
+		assertEquals(numRows * numSeatsPerRow - numSeatsPerRow - 3, otherInstance.numSeatsAvailable());
+		assertEquals(1, otherInstance.numLiveSeatHolds());
+		assertEquals((long) numRows * numSeatsPerRow * 4, otherInstance.seatStoreBytes());
+		String confirmationId = otherInstance.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		assertEquals(3, seatReservationRepository.getReservationByConfirmationId(confirmationId).getReservedSeats().size());
+	}
+
+	@Test
+	public void testRenderVenue() throws IOException {
+		compactVenueTicketService.findAndHoldSeats(3, customerEmail);
+		StringBuilder venueMap = new StringBuilder();
+		compactVenueTicketService.renderVenue(venueId, SeatMapViewport.ALL, venueMap);
+		assertEquals(compactVenueTicketService.printVenue(venueId), venueMap.toString());
+
+		// the seat map is the same as the one of the in-memory venue
+		StringBuilder expected = new StringBuilder();
+		venueRepository.findSeatMapByVenueId(venueId).renderSeatMap(expected, SeatMapViewport.ALL);
+		assertEquals(expected.toString(), venueMap.toString());
+		// the seat changes are not recorded, so viewers read a new seat map every time
+		assertTrue(compactVenueTicketService.findSeatChanges(venueId, 0, 100).isSnapshotRequired());
+	}
+
+	private CompactVenueTicketService newService() {
+		CompactVenueTicketService service = new CompactVenueTicketService();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(service);
+		service.init();
+		return service;
+	}
+
+	private Set<Integer> seatIds(SeatHold seatHold) {
+		Set<Integer> seatIds = new TreeSet<>();
+		for (Seat seat : seatHold.getSeatsHeld()) {
+			seatIds.add(seat.getSeatId());
+		}
+		return seatIds;
+	}
+
+	/**
+	 * @return the ids of the seats stored with the seat hold or its reservation
+	 */
+	private Set<Integer> storedSeatIds(SeatHold seatHold) {
+		return new TreeSet<>(jdbcTemplate.queryForList("select seat_id from seat where seat_hold_seat_hold_id = ?",
+				Integer.class, seatHold.getSeatHoldId()));
+	}
+
+}
@@ -0,0 +1,160 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.App;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.IdBlock;
+import com.ticket.repository.IdBlockRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class ConfirmationIdGeneratorTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	IdBlockRepository idBlockRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Test
+	public void testEncode() {
+		assertEquals("VX0000", ConfirmationIdGenerator.encode(0));
+		assertEquals("VX000Z", ConfirmationIdGenerator.encode(31));
+		assertEquals("VX0010", ConfirmationIdGenerator.encode(32));
+		assertEquals("VXZZZZ", ConfirmationIdGenerator.encode(32 * 32 * 32 * 32 - 1));
+		assertEquals("VX10000", ConfirmationIdGenerator.encode(32 * 32 * 32 * 32));
+		for (long id = 0; id < 10000; id++) {
+			String confirmationId = ConfirmationIdGenerator.encode(id).substring(2);
+			assertFalse(confirmationId, confirmationId.matches(".*[ILOU].*"));
+		}
+	}
+
+	@Test
+	public void testDatabaseIsUsedOncePerBlock() {
+		ConfirmationIdGenerator generator = newGenerator(10);
+		long before = nextBlock();
+		for (int i = 0; i < 25; i++) {
+			generator.nextConfirmationId();
+		}
+		assertEquals(before + 3, nextBlock());
+	}
+
+	@Test
+	public void testConcurrentIdsAreUnique() throws InterruptedException {
+		ConfirmationIdGenerator generator = newGenerator(10);
+		Set<String> confirmationIds = ConcurrentHashMap.newKeySet();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 500; i++) {
+					confirmationIds.add(generator.nextConfirmationId());
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(2000, confirmationIds.size());
+	}
+
+	@Test
+	public void testInstancesAndRestartsDoNotCollide() {
+		// two instances sharing the database, then a third started after them
+		ConfirmationIdGenerator first = newGenerator(7);
+		ConfirmationIdGenerator second = newGenerator(7);
+		Set<String> confirmationIds = new HashSet<>();
+		for (int i = 0; i < 100; i++) {
+			assertTrue(confirmationIds.add(first.nextConfirmationId()));
+			assertTrue(confirmationIds.add(second.nextConfirmationId()));
+		}
+		ConfirmationIdGenerator restarted = newGenerator(7);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(confirmationIds.add(restarted.nextConfirmationId()));
+		}
+	}
+
+	@Test
+	public void testDecode() {
+		for (long id = 0; id < 100000; id += 7) {
+			assertEquals(id, ConfirmationIdGenerator.decode(ConfirmationIdGenerator.encode(id)));
+		}
+		assertEquals(Long.MAX_VALUE, ConfirmationIdGenerator.decode(ConfirmationIdGenerator.encode(Long.MAX_VALUE)));
+	}
+
+	@Test
+	public void testIdsAfterSkippedIdAreNotGivenOutAgain() {
+		ConfirmationIdGenerator generator = newGenerator(10);
+		String first = generator.nextConfirmationId();
+		// an id given out before the database was emptied, far past the current block
+		String skipped = ConfirmationIdGenerator.encode(ConfirmationIdGenerator.decode(first) + 95);
+		generator.skipPast(skipped);
+		String next = generator.nextConfirmationId();
+		assertTrue(next, ConfirmationIdGenerator.decode(next) > ConfirmationIdGenerator.decode(skipped));
+
+		// an id behind the counter changes nothing
+		long before = nextBlock();
+		generator.skipPast(first);
+		assertEquals(before, nextBlock());
+	}
+
+	@Test
+	public void testBlockIsKeptWhenTheCallerRollsBack() {
+		ConfirmationIdGenerator generator = newGenerator(10);
+		long before = nextBlock();
+		// the id is taken inside a reservation that is then rolled back
+		String rolledBack = new TransactionTemplate(transactionManager).execute(status -> {
+			String confirmationId = generator.nextConfirmationId();
+			status.setRollbackOnly();
+			return confirmationId;
+		});
+		assertEquals(before + 1, nextBlock());
+
+		// another instance is given the next block, not the one rolled back
+		ConfirmationIdGenerator other = newGenerator(10);
+		String next = other.nextConfirmationId();
+		assertTrue(next, ConfirmationIdGenerator.decode(next) >= ConfirmationIdGenerator.decode(rolledBack) + 10);
+		String retried = generator.nextConfirmationId();
+		assertEquals(ConfirmationIdGenerator.decode(rolledBack) + 1, ConfirmationIdGenerator.decode(retried));
+	}
+
+	private ConfirmationIdGenerator newGenerator(int blockSize) {
+		ConfirmationIdGenerator generator = new ConfirmationIdGenerator();
+		ReflectionTestUtils.setField(generator, "idBlockRepository", idBlockRepository);
+		ReflectionTestUtils.setField(generator, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(generator, "blockSize", blockSize);
+		return generator;
+	}
+
+	/**
+	 * @return the number of the next block of confirmation ids in the database
+	 */
+	private long nextBlock() {
+		IdBlock idBlock = idBlockRepository.findOne(ConfirmationIdGenerator.ID_BLOCK_NAME);
+		return idBlock == null ? 0 : idBlock.getNextBlock();
+	}
+
+}
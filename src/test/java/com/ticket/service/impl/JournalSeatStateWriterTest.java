@@ -0,0 +1,209 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.ReservationSummary;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class JournalSeatStateWriterTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	ApplicationContext applicationContext;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	SeatStateWriter seatStateWriter;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	private String customerEmail = "email@email.com";
+	private Path journalFile;
+	private JournalSeatStateWriter writer;
+	private VenueTicketServiceImpl venueTicketService;
+
+	@Before
+	public void setUp() throws IOException {
+		journalFile = Files.createTempFile("seats", ".journal");
+		start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		writer.stop();
+		Files.deleteIfExists(journalFile);
+		emptyDatabase();
+		bootstrap.loadVenue();
+	}
+
+	/**
+	 * starts a service that journals its changes, as the application does when venue.journal=true
+	 */
+	private void start() throws IOException {
+		writer = new JournalSeatStateWriter();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(writer);
+		ReflectionTestUtils.setField(writer, "journalFile", journalFile.toString());
+		ReflectionTestUtils.setField(writer, "regionBytes", 4096);
+		writer.start();
+		venueTicketService = new VenueTicketServiceImpl();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(venueTicketService);
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", writer);
+		venueTicketService.init();
+	}
+
+	/**
+	 * stops the service and starts it again on an empty database, as after a restart of the application
+	 */
+	private int restart() throws IOException {
+		writer.stop();
+		emptyDatabase();
+		start();
+		bootstrap.loadVenue();
+		return writer.replay(venueId);
+	}
+
+	private void emptyDatabase() {
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+	}
+
+	@Test
+	public void testHoldsAndReservationsSurviveRestart() throws IOException {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		SeatHold reservedSeatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		SeatHold invalidatedSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		venueTicketService.invalidateHold(invalidatedSeatHold);
+		String confirmationId = venueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(confirmationId);
+		assertEquals(5, writer.getNumEvents());
+
+		assertEquals(5, restart());
+		assertEquals(numRows * numSeatsPerRow - 7, venueTicketService.numSeatsAvailable());
+		List<Integer> seatHoldIds = new ArrayList<>();
+		for (SeatHold found : venueTicketService.findSeatHolds(customerEmail)) {
+			seatHoldIds.add(found.getSeatHoldId());
+		}
+		assertTrue(seatHoldIds.contains(seatHold.getSeatHoldId()));
+		assertTrue(!seatHoldIds.contains(invalidatedSeatHold.getSeatHoldId()));
+
+		ReservationSummary reservation = venueTicketService.findReservation(confirmationId);
+		assertNotNull(reservation);
+		assertEquals(3, reservation.getNumSeats());
+
+		// the seat hold read back can still be reserved, and new ids follow those in the journal
+		String nextConfirmationId = venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(nextConfirmationId);
+		assertTrue(!nextConfirmationId.equals(confirmationId));
+		SeatHold nextSeatHold = venueTicketService.findAndHoldSeats(1, customerEmail);
+		assertTrue(nextSeatHold.getSeatHoldId() > invalidatedSeatHold.getSeatHoldId());
+		assertEquals(numRows * numSeatsPerRow - 8, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testHoldRolledBackOnConflictIsNotReadBack() throws IOException {
+		// another instance holds the first row, which this instance still sees free
+		venueTicketService.numSeatsAvailable();
+		Venue otherVenue = venueRepository.findSeatMapByVenueId(venueId);
+		SeatHold otherSeatHold = otherVenue.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		otherSeatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+		new TransactionTemplate(transactionManager).execute(status -> {
+			seatHoldRepository.save(otherSeatHold);
+			seatStateWriter.seatsHeld(otherSeatHold, otherSeatHold.getSeatsHeld());
+			return null;
+		});
+		long conflicts = venueTicketService.getNumConflicts();
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		assertEquals(conflicts + 1, venueTicketService.getNumConflicts());
+		// only the hold made by the retry is journaled
+		assertEquals(1, writer.getNumEvents());
+
+		assertEquals(1, restart());
+		assertEquals((numRows - 1) * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+		List<SeatHold> seatHolds = venueTicketService.findSeatHolds(customerEmail);
+		assertEquals(1, seatHolds.size());
+		assertEquals(seatHold.getSeatHoldId(), seatHolds.get(0).getSeatHoldId());
+		// the seats are those of the retry in the second row, not those of the first row rolled back
+		assertEquals(numSeatsPerRow.intValue(), seatHolds.get(0).getSeatsHeld().size());
+		for (Seat seat : seatHolds.get(0).getSeatsHeld()) {
+			assertEquals(2, seat.getRow().getRowNumber().intValue());
+		}
+	}
+
+	@Test
+	public void testExpiredHoldIsNotReadBack() throws IOException {
+		ReflectionTestUtils.setField(venueTicketService, "seatHoldSeconds", 0);
+		venueTicketService.findAndHoldSeats(4, customerEmail);
+
+		assertEquals(1, restart());
+		assertEquals(numRows * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+		assertTrue(venueTicketService.findSeatHolds(customerEmail).isEmpty());
+	}
+
+}
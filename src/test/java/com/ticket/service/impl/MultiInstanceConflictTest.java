@@ -0,0 +1,222 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.h2.tools.Server;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.ComponentScan;
+import org.springframework.context.annotation.FilterType;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+
+import com.ticket.domain.SeatHold;
+
+/**
+ * runs two instances of the service in separate JVMs against one H2 server
+ * until they sell out the venue, then checks that no seat was held by both
+ * and logs how often the instances conflicted
+ */
+public class MultiInstanceConflictTest {
+
+	public static final Logger LOGGER = LoggerFactory.getLogger(MultiInstanceConflictTest.class);
+
+	private static final String READY = "INSTANCE READY";
+	private static final String RESULT = "INSTANCE RESULT";
+	private static final int ROWS = 40;
+	private static final int SEATS_PER_ROW = 50;
+
+	@Test
+	public void testInstancesSharingADatabaseNeverHoldTheSameSeat() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		Server server = Server.createTcpServer("-tcpPort", String.valueOf(port)).start();
+		String url = "jdbc:h2:tcp://localhost:" + port + "/mem:shared;DB_CLOSE_DELAY=-1";
+		List<Process> processes = new ArrayList<>();
+		try {
+			// the first instance creates the tables and loads the venue before the second one starts
+			List<BlockingQueue<String>> outputs = new ArrayList<>();
+			for (int i = 0; i < 2; i++) {
+				Process process = startInstance(url, i);
+				processes.add(process);
+				BlockingQueue<String> output = readLines(process);
+				outputs.add(output);
+				assertNotNull("instance " + i + " did not start", awaitLine(output, READY, 2));
+			}
+			for (Process process : processes) {
+				Writer input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+				input.write("go\n");
+				input.flush();
+			}
+
+			int totalSeats = 0;
+			long totalHolds = 0;
+			long totalConflicts = 0;
+			double slowestSeconds = 0;
+			for (int i = 0; i < outputs.size(); i++) {
+				String result = awaitLine(outputs.get(i), RESULT, 5);
+				assertNotNull("instance " + i + " did not finish", result);
+				String[] fields = result.substring(RESULT.length()).trim().split(" ");
+				long holds = Long.parseLong(fields[0]);
+				int seats = Integer.parseInt(fields[1]);
+				long conflicts = Long.parseLong(fields[2]);
+				long failures = Long.parseLong(fields[3]);
+				double seconds = Long.parseLong(fields[4]) / 1000.0;
+				LOGGER.info(String.format("instance %d: %d holds of %d seats in %.3f s, %d conflicts, %d failed calls", i,
+						holds, seats, seconds, conflicts, failures));
+				// every hold is of 1 to 4 seats
+				assertTrue(holds <= seats && seats <= 4 * holds);
+				totalSeats += seats;
+				totalHolds += holds;
+				totalConflicts += conflicts;
+				slowestSeconds = Math.max(slowestSeconds, seconds);
+			}
+			LOGGER.info(String.format("2 instances: %d holds in %.3f s, conflict rate %.2f%%", totalHolds, slowestSeconds,
+					100.0 * totalConflicts / (totalHolds + totalConflicts)));
+
+			// a seat held by both instances would be counted twice
+			assertEquals(ROWS * SEATS_PER_ROW, totalSeats);
+			assertEquals(ROWS * SEATS_PER_ROW, countHeldSeats(url));
+		} finally {
+			for (Process process : processes) {
+				process.destroy();
+			}
+			server.stop();
+		}
+	}
+
+	private Process startInstance(String url, int instance) throws IOException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				Instance.class.getName(), url, String.valueOf(instance));
+		builder.redirectErrorStream(true);
+		return builder.start();
+	}
+
+	/**
+	 * reads the output of an instance on a separate thread so that it never blocks
+	 */
+	private BlockingQueue<String> readLines(Process process) {
+		BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+		Thread reader = new Thread(() -> {
+			try (BufferedReader output = new BufferedReader(
+					new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+				for (String line = output.readLine(); line != null; line = output.readLine()) {
+					lines.add(line);
+				}
+			} catch (IOException e) {
+				// the instance was stopped
+			}
+		});
+		reader.setDaemon(true);
+		reader.start();
+		return lines;
+	}
+
+	/**
+	 * @return the first line of the output starting with a prefix, or null if none came in time
+	 */
+	private String awaitLine(BlockingQueue<String> lines, String prefix, int minutes) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(minutes);
+		for (long left = deadline - System.nanoTime(); left > 0; left = deadline - System.nanoTime()) {
+			String line = lines.poll(left, TimeUnit.NANOSECONDS);
+			if (line != null && line.startsWith(prefix)) {
+				return line;
+			}
+		}
+		return null;
+	}
+
+	private int countHeldSeats(String url) throws SQLException {
+		try (Connection connection = DriverManager.getConnection(url, "sa", "");
+				Statement statement = connection.createStatement();
+				ResultSet resultSet = statement
+						.executeQuery("select count(*) from seat where seat_hold_seat_hold_id is not null")) {
+			assertTrue(resultSet.next());
+			return resultSet.getInt(1);
+		}
+	}
+
+	/**
+	 * an instance of the service without the console, holding seats as fast as
+	 * it can once told to start until it finds none left
+	 */
+	@EnableAutoConfiguration
+	@EntityScan(basePackages = "com.ticket")
+	@EnableJpaRepositories(basePackages = "com.ticket")
+	@ComponentScan(basePackages = "com.ticket", excludeFilters = @ComponentScan.Filter(type = FilterType.REGEX, pattern = {
+			"com\\.ticket\\.App", "com\\.ticket\\.console\\..*" }))
+	public static class Instance {
+
+		public static void main(String[] args) throws IOException {
+			String url = args[0];
+			int instance = Integer.parseInt(args[1]);
+			ConfigurableApplicationContext context = new SpringApplicationBuilder(Instance.class).web(false).run(
+					"--spring.datasource.url=" + url, "--spring.jpa.hibernate.ddl-auto=update", "--venue.rows=" + ROWS,
+					"--venue.seatsPerRow=" + SEATS_PER_ROW, "--venue.seatHoldSeconds=600",
+					"--venue.conflictRetries=10", "--venue.instances=2");
+			VenueTicketServiceImpl venueTicketService = context.getBean(VenueTicketServiceImpl.class);
+			venueTicketService.numSeatsAvailable();
+			System.out.println(READY);
+			new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+
+			Random random = new Random(instance);
+			long holds = 0;
+			int seats = 0;
+			long failures = 0;
+			long start = System.nanoTime();
+			while (true) {
+				SeatHold seatHold;
+				try {
+					seatHold = venueTicketService.findAndHoldSeats(random.nextInt(4) + 1, "instance" + instance + "@email.com");
+					if (seatHold == null) {
+						// the request may not fit anywhere while single seats are left
+						seatHold = venueTicketService.findAndHoldSeats(1, "instance" + instance + "@email.com");
+					}
+				} catch (OptimisticLockingFailureException e) {
+					failures++;
+					continue;
+				}
+				if (seatHold == null) {
+					break;
+				}
+				holds++;
+				seats += seatHold.getSeatsHeld().size();
+			}
+			long millis = (System.nanoTime() - start) / 1000000;
+			System.out.println(RESULT + " " + holds + " " + seats + " " + venueTicketService.getNumConflicts() + " "
+					+ failures + " " + millis);
+			context.close();
+		}
+	}
+
+}
@@ -0,0 +1,93 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ticket.service.ReservationSummary;
+
+public class ReservationSummaryCacheTest {
+
+	private final AtomicLong now = new AtomicLong(1000000);
+
+	private final AtomicInteger loads = new AtomicInteger();
+
+	private ReservationSummaryCache cache;
+
+	@Before
+	public void setUp() {
+		cache = new ReservationSummaryCache(2, 60, now::get);
+	}
+
+	@Test
+	public void testMissLoadsAndHitDoesNot() {
+		ReservationSummary summary = cache.get("VX0001", this::load);
+		assertEquals("VX0001", summary.getConfirmationId());
+		assertSame(summary, cache.get("VX0001", this::load));
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testUnknownConfirmationIdsAreNotCached() {
+		assertNull(cache.get("unknown", id -> null));
+		assertNull(cache.get("unknown", id -> null));
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		cache.put(summary("VX0001"));
+		cache.put(summary("VX0002"));
+		// the first summary becomes the most recently used
+		cache.get("VX0001", this::load);
+		cache.put(summary("VX0003"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get("VX0001", this::load);
+		cache.get("VX0002", this::load);
+		assertEquals(1, loads.get());
+	}
+
+	@Test
+	public void testSummaryExpires() {
+		cache.put(summary("VX0001"));
+		now.addAndGet(59999);
+		cache.get("VX0001", this::load);
+		assertEquals(0, loads.get());
+		now.addAndGet(1);
+		cache.get("VX0001", this::load);
+		assertEquals(1, loads.get());
+		assertEquals(1, cache.getExpirations());
+	}
+
+	@Test
+	public void testClear() {
+		cache.put(summary("VX0001"));
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testSeatsNeedRowAndSeatNumbers() {
+		new ReservationSummary("VX0001", "email@email.com", new int[] { 1 }, new int[0]);
+	}
+
+	private ReservationSummary load(String confirmationId) {
+		loads.incrementAndGet();
+		return summary(confirmationId);
+	}
+
+	private static ReservationSummary summary(String confirmationId) {
+		return new ReservationSummary(confirmationId, "email@email.com", new int[] { 1, 1 }, new int[] { 4, 5 });
+	}
+
+}
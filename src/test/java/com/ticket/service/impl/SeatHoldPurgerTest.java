@@ -0,0 +1,188 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.VenueLoadedEvent;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.ArchivedSeatHold;
+import com.ticket.domain.SeatHold;
+import com.ticket.repository.ArchivedSeatHoldRepository;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.VenueTicketService;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class SeatHoldPurgerTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	SeatHoldPurger seatHoldPurger;
+
+	@Autowired
+	VenueTicketService venueTicketService;
+
+	@Autowired
+	VenueTicketServiceImpl venueTicketServiceImpl;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	ArchivedSeatHoldRepository archivedSeatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	@Value("${venue.seatHoldSeconds}")
+	private Integer seatHoldSeconds;
+
+	private String customerEmail = "email@email.com";
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(seatHoldPurger, "archive", false);
+		ReflectionTestUtils.setField(seatHoldPurger, "graceSeconds", 60L);
+		ReflectionTestUtils.setField(venueTicketServiceImpl, "seatHoldSeconds", seatHoldSeconds);
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		archivedSeatHoldRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testPurgesSeatHoldsThatEnded() {
+		SeatHold invalidatedSeatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		venueTicketService.invalidateHold(invalidatedSeatHold);
+		SeatHold expiredSeatHold = holdExpiredSeats(4);
+		ReflectionTestUtils.setField(seatHoldPurger, "graceSeconds", 0L);
+		SeatHold reservedSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		String confirmationId = venueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(5, customerEmail);
+		long bytesReclaimed = seatHoldPurger.getNumBytesReclaimed();
+
+		assertEquals(2, seatHoldPurger.purge());
+		assertNull(seatHoldRepository.findOne(invalidatedSeatHold.getSeatHoldId()));
+		assertNull(seatHoldRepository.findOne(expiredSeatHold.getSeatHoldId()));
+		assertEquals(0, seatsLinkedTo(invalidatedSeatHold) + seatsLinkedTo(expiredSeatHold));
+		assertTrue(seatHoldPurger.getNumBytesReclaimed() > bytesReclaimed);
+		// the seat holds that are still live and the reservations are untouched
+		assertEquals(5, seatsLinkedTo(seatHold));
+		assertEquals(2, seatReservationRepository.getReservationByConfirmationId(confirmationId).getReservedSeats().size());
+		assertEquals(0, seatHoldPurger.purge());
+
+		// the purged seat holds can no longer be reserved or invalidated, the live one can
+		assertNull(venueTicketService.reserveSeats(expiredSeatHold.getSeatHoldId(), customerEmail));
+		venueTicketService.invalidateHold(invalidatedSeatHold);
+		assertNotNull(venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+		int seatsAvailable = numRows * numSeatsPerRow - 7;
+		assertEquals(seatsAvailable, venueTicketService.numSeatsAvailable());
+		// and reading the venue again from the database gives the same seats
+		venueTicketServiceImpl.onVenueLoaded(new VenueLoadedEvent(this, venueId));
+		assertEquals(seatsAvailable, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testExpiredSeatHoldsAreKeptForTheGracePeriod() {
+		SeatHold expiredSeatHold = holdExpiredSeats(4);
+		assertEquals(0, seatHoldPurger.purge());
+		assertEquals(4, seatsLinkedTo(expiredSeatHold));
+	}
+
+	@Test
+	public void testArchivesPurgedSeatHolds() {
+		ReflectionTestUtils.setField(seatHoldPurger, "archive", true);
+		long archived = seatHoldPurger.getNumSeatHoldsArchived();
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		venueTicketService.invalidateHold(seatHold);
+
+		assertEquals(1, seatHoldPurger.purge());
+		assertEquals(archived + 1, seatHoldPurger.getNumSeatHoldsArchived());
+		ArchivedSeatHold archivedSeatHold = archivedSeatHoldRepository.findOne(seatHold.getSeatHoldId());
+		assertEquals(customerEmail, archivedSeatHold.getCustomerEmail());
+		assertEquals(venueId, archivedSeatHold.getVenueId());
+		assertNull(archivedSeatHold.getExpireTime());
+		assertNotNull(archivedSeatHold.getArchiveTime());
+	}
+
+	@Test
+	public void testPurgesInBatches() {
+		ReflectionTestUtils.setField(seatHoldPurger, "batchSize", 2);
+		try {
+			for (int i = 0; i < 5; i++) {
+				venueTicketService.invalidateHold(venueTicketService.findAndHoldSeats(1, customerEmail));
+			}
+			assertEquals(5, seatHoldPurger.purge());
+			assertEquals(0, seatHoldRepository.count());
+		} finally {
+			ReflectionTestUtils.setField(seatHoldPurger, "batchSize", 1000);
+		}
+	}
+
+	/**
+	 * @return a seat hold that expires as soon as it is made
+	 */
+	private SeatHold holdExpiredSeats(int numSeats) {
+		ReflectionTestUtils.setField(venueTicketServiceImpl, "seatHoldSeconds", 0);
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(numSeats, customerEmail);
+		ReflectionTestUtils.setField(venueTicketServiceImpl, "seatHoldSeconds", seatHoldSeconds);
+		return seatHold;
+	}
+
+	/**
+	 * @return the number of seats in the database referring to a seat hold
+	 */
+	private int seatsLinkedTo(SeatHold seatHold) {
+		return jdbcTemplate.queryForObject("select count(*) from seat where seat_hold_seat_hold_id = ?",
+				Integer.class, seatHold.getSeatHoldId());
+	}
+
+}
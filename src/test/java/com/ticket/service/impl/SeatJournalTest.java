@@ -0,0 +1,168 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SeatJournalTest {
+
+	private Path file;
+
+	private SeatJournal journal;
+
+	@Before
+	public void setUp() throws IOException {
+		file = Files.createTempFile("seats", ".journal");
+		journal = new SeatJournal(file, 4 * SeatJournal.RECORD_BYTES);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		journal.close();
+		Files.deleteIfExists(file);
+	}
+
+	/**
+	 * collects the events read back as strings
+	 */
+	private static class Events implements SeatJournal.Visitor {
+
+		private final List<String> events = new ArrayList<>();
+
+		private final List<int[]> rowNumbers = new ArrayList<>();
+
+		private final List<int[]> seatNumbers = new ArrayList<>();
+
+		@Override
+		public void seatsHeld(int venueId, int seatHoldId, String customerEmail, long expireMillis,
+				int[] rowNumbers, int[] seatNumbers) {
+			events.add("hold " + venueId + " " + seatHoldId + " " + customerEmail + " " + expireMillis);
+			this.rowNumbers.add(rowNumbers);
+			this.seatNumbers.add(seatNumbers);
+		}
+
+		@Override
+		public void seatsReserved(int venueId, String confirmationId, String customerEmail, int[] rowNumbers,
+				int[] seatNumbers) {
+			events.add("reservation " + venueId + " " + confirmationId + " " + customerEmail);
+			this.rowNumbers.add(rowNumbers);
+			this.seatNumbers.add(seatNumbers);
+		}
+
+		@Override
+		public void seatHoldInvalidated(int venueId, int seatHoldId) {
+			events.add("invalidation " + venueId + " " + seatHoldId);
+			rowNumbers.add(new int[0]);
+			seatNumbers.add(new int[0]);
+		}
+	}
+
+	private Events reopen() throws IOException {
+		journal.close();
+		journal = new SeatJournal(file, 4 * SeatJournal.RECORD_BYTES);
+		Events events = new Events();
+		journal.replay(events);
+		return events;
+	}
+
+	@Test
+	public void testEventsAreReadBackInOrder() throws IOException {
+		journal.appendHold(1, 7, "email@email.com", 123456789L, new int[] { 1, 1 }, new int[] { 1, 2 });
+		journal.appendReservation(1, "VX0001", "email@email.com", new int[] { 1, 1 }, new int[] { 1, 2 });
+		journal.appendInvalidation(1, 8);
+
+		Events events = reopen();
+		assertEquals(3, events.events.size());
+		assertEquals("hold 1 7 email@email.com 123456789", events.events.get(0));
+		assertArrayEquals(new int[] { 1, 1 }, events.rowNumbers.get(0));
+		assertArrayEquals(new int[] { 1, 2 }, events.seatNumbers.get(0));
+		assertEquals("reservation 1 VX0001 email@email.com", events.events.get(1));
+		assertArrayEquals(new int[] { 1, 2 }, events.seatNumbers.get(1));
+		assertEquals("invalidation 1 8", events.events.get(2));
+	}
+
+	@Test
+	public void testLongEmailAndManySeats() throws IOException {
+		StringBuilder email = new StringBuilder();
+		for (int i = 0; i < 20; i++) {
+			email.append("long.customer.name");
+		}
+		email.append("@email.com");
+		int[] rowNumbers = new int[100];
+		int[] seatNumbers = new int[100];
+		for (int i = 0; i < 100; i++) {
+			rowNumbers[i] = i / 30 + 1;
+			seatNumbers[i] = i % 30 + 1;
+		}
+		journal.appendHold(1, 7, email.toString(), 1L, rowNumbers, seatNumbers);
+		journal.appendHold(1, 8, "email@email.com", 2L, new int[] { 5 }, new int[] { 6 });
+
+		Events events = reopen();
+		assertEquals(2, events.events.size());
+		assertEquals("hold 1 7 " + email + " 1", events.events.get(0));
+		assertArrayEquals(rowNumbers, events.rowNumbers.get(0));
+		assertArrayEquals(seatNumbers, events.seatNumbers.get(0));
+		assertEquals("hold 1 8 email@email.com 2", events.events.get(1));
+	}
+
+	@Test
+	public void testEventsSpanRegions() throws IOException {
+		for (int i = 0; i < 10; i++) {
+			// two records each, so some regions end with padding
+			journal.appendHold(1, i, "email@email.com", i, new int[] { 1, 1, 1 }, new int[] { 1, 2, 3 });
+			journal.appendInvalidation(1, i);
+		}
+		assertTrue(journal.position() > 30 * SeatJournal.RECORD_BYTES);
+
+		Events events = reopen();
+		assertEquals(20, events.events.size());
+		assertEquals("hold 1 9 email@email.com 9", events.events.get(18));
+		assertEquals("invalidation 1 9", events.events.get(19));
+	}
+
+	@Test
+	public void testTornEventEndsJournal() throws IOException {
+		journal.appendHold(1, 7, "email@email.com", 1L, new int[] { 1 }, new int[] { 1 });
+		long end = journal.appendHold(1, 8, "email@email.com", 1L, new int[] { 1 }, new int[] { 2 });
+		journal.close();
+		// the seats record of the last event was not written before a crash
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(SeatJournal.RECORD_BYTES), end - SeatJournal.RECORD_BYTES);
+		}
+		journal = new SeatJournal(file, 4 * SeatJournal.RECORD_BYTES);
+		assertEquals(2 * SeatJournal.RECORD_BYTES, journal.position());
+
+		// the next event takes the place of the torn one
+		journal.appendInvalidation(1, 7);
+		Events events = reopen();
+		assertEquals(2, events.events.size());
+		assertEquals("hold 1 7 email@email.com 1", events.events.get(0));
+		assertEquals("invalidation 1 7", events.events.get(1));
+	}
+
+	@Test
+	public void testSyncIsSharedByEarlierEvents() {
+		long first = journal.appendInvalidation(1, 1);
+		long second = journal.appendInvalidation(1, 2);
+		journal.sync(second);
+		journal.sync(first);
+		assertEquals(1, journal.getNumSyncs());
+		assertEquals(2, journal.getNumEvents());
+		journal.sync(second);
+		assertEquals(1, journal.getNumSyncs());
+	}
+
+}
@@ -0,0 +1,125 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ticket.domain.Row;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.Venue;
+
+public class SeatMapCacheTest {
+
+	private String customerEmail = "email@email.com";
+
+	private Venue venue;
+
+	private SeatMapCache cache;
+
+	@Before
+	public void setUp() {
+		venue = createVenue(10, 20);
+		cache = new SeatMapCache(2, 100);
+	}
+
+	/**
+	 * creates venue with POJOs instead of the database
+	 */
+	private Venue createVenue(int numRows, int seatsPerRow) {
+		Venue venue = new Venue(1);
+		Set<Row> rows = new LinkedHashSet<>();
+		for (int i = 0; i < numRows; i++) {
+			Row row = new Row(i + 1, venue);
+			Set<Seat> seats = new LinkedHashSet<>();
+			for (int j = 0; j < seatsPerRow; j++) {
+				seats.add(new Seat(j + 1, row));
+			}
+			row.setSeats(seats);
+			rows.add(row);
+		}
+		venue.setRows(rows);
+		return venue;
+	}
+
+	@Test
+	public void testUnchangedVenueIsNotRenderedAgain() {
+		SeatMapViewport viewport = new SeatMapViewport(1, 2, 1, 20);
+		String seatMap = cache.get(venue, viewport);
+		assertSame(seatMap, cache.get(venue, new SeatMapViewport(1, 2, 1, 20)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testChangedVenueIsRenderedAgain() {
+		SeatMapViewport viewport = new SeatMapViewport(1, 2, 1, 20);
+		String seatMap = cache.get(venue, viewport);
+		long revision = venue.currentStateRevision();
+
+		SeatHold seatHold = venue.findAndHoldSeats(4, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(1));
+		assertTrue(venue.currentStateRevision() > revision);
+		String heldSeatMap = cache.get(venue, viewport);
+		assertTrue(!seatMap.equals(heldSeatMap));
+		assertEquals(venue.printVenue().substring(0, heldSeatMap.length() - 2),
+				heldSeatMap.substring(0, heldSeatMap.length() - 2));
+
+		seatHold.invalidate();
+		assertEquals(seatMap, cache.get(venue, viewport));
+		assertEquals(3, cache.getMisses());
+	}
+
+	@Test
+	public void testExpiredHoldIsRenderedAgain() {
+		SeatMapViewport viewport = new SeatMapViewport(1, 2, 1, 20);
+		String seatMap = cache.get(venue, viewport);
+		SeatHold seatHold = venue.findAndHoldSeats(4, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().minusSeconds(1));
+		assertEquals(seatMap, cache.get(venue, viewport));
+	}
+
+	@Test
+	public void testReloadedVenueIsRenderedAgain() {
+		SeatMapViewport viewport = new SeatMapViewport(1, 2, 1, 20);
+		cache.get(venue, viewport);
+		Venue reloadedVenue = createVenue(10, 20);
+		assertTrue(reloadedVenue.currentStateRevision() > venue.currentStateRevision());
+		cache.get(reloadedVenue, viewport);
+		assertEquals(2, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedIsEvicted() {
+		cache.get(venue, new SeatMapViewport(1, 1, 1, 20));
+		cache.get(venue, new SeatMapViewport(2, 2, 1, 20));
+		cache.get(venue, new SeatMapViewport(1, 1, 1, 20));
+		cache.get(venue, new SeatMapViewport(3, 3, 1, 20));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		cache.get(venue, new SeatMapViewport(1, 1, 1, 20));
+		assertEquals(2, cache.getHits());
+	}
+
+	@Test
+	public void testLargeSeatMapIsNotCached() throws IOException {
+		StringBuilder seatMap = new StringBuilder();
+		cache.render(venue, SeatMapViewport.ALL, seatMap);
+		assertEquals(venue.printVenue(), seatMap.toString());
+		assertEquals(0, cache.size());
+
+		StringBuilder smallSeatMap = new StringBuilder();
+		cache.render(venue, new SeatMapViewport(1, 5, 1, 20), smallSeatMap);
+		assertEquals(1, cache.size());
+	}
+
+}
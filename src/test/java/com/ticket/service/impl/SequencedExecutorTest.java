@@ -0,0 +1,210 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SequencedExecutorTest {
+
+	private SequencedExecutor executor;
+
+	@After
+	public void tearDown() throws InterruptedException {
+		if (executor != null) {
+			executor.stop();
+		}
+	}
+
+	@Test
+	public void testCommandsRunInSubmissionOrder() throws Exception {
+		executor = new SequencedExecutor("test", 16, 4, Runnable::run);
+		// only the consumer thread touches the list
+		List<Integer> applied = new ArrayList<>();
+		int producers = 8;
+		int commands = 1000;
+		ExecutorService pool = Executors.newFixedThreadPool(producers);
+		for (int p = 0; p < producers; p++) {
+			int producer = p;
+			pool.execute(() -> {
+				for (int i = 0; i < commands; i++) {
+					int command = producer * commands + i;
+					executor.submit(() -> applied.add(command));
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+		executor.submit(() -> null).get();
+
+		assertEquals(producers * commands, applied.size());
+		int[] last = new int[producers];
+		for (int p = 0; p < producers; p++) {
+			last[p] = p * commands - 1;
+		}
+		for (int command : applied) {
+			int producer = command / commands;
+			assertEquals(last[producer] + 1, command);
+			last[producer] = command;
+		}
+	}
+
+	@Test
+	public void testCommandsCompleteAfterTheirBatch() throws Exception {
+		CountDownLatch firstStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Integer> batchSizes = new ArrayList<>();
+		AtomicInteger run = new AtomicInteger();
+		executor = new SequencedExecutor("test", 16, 4, batch -> {
+			int before = run.get();
+			batch.run();
+			batchSizes.add(run.get() - before);
+		});
+		CompletableFuture<Integer> first = executor.submit(() -> {
+			firstStarted.countDown();
+			release.await();
+			return run.incrementAndGet();
+		});
+		assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+		List<CompletableFuture<Integer>> rest = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			rest.add(executor.submit(run::incrementAndGet));
+		}
+		assertEquals(7, executor.numPendingCommands());
+		release.countDown();
+
+		assertEquals(Integer.valueOf(1), first.get(5, TimeUnit.SECONDS));
+		for (int i = 0; i < rest.size(); i++) {
+			assertEquals(Integer.valueOf(i + 2), rest.get(i).get(5, TimeUnit.SECONDS));
+		}
+		// the commands queued while the first one ran were taken in full batches
+		assertEquals(1, batchSizes.get(0).intValue());
+		assertEquals(4, batchSizes.get(1).intValue());
+		assertEquals(2, batchSizes.get(2).intValue());
+		assertEquals(0, executor.numPendingCommands());
+	}
+
+	@Test
+	public void testFailedCommandOnlyFailsItself() throws Exception {
+		executor = new SequencedExecutor("test", 16, 16, Runnable::run);
+		IllegalStateException failure = new IllegalStateException("command failed");
+		CompletableFuture<String> failed = executor.submit(() -> {
+			throw failure;
+		});
+		CompletableFuture<String> next = executor.submit(() -> "ok");
+		assertEquals("ok", next.get(5, TimeUnit.SECONDS));
+		try {
+			failed.get(5, TimeUnit.SECONDS);
+			fail("the command should have failed");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+	}
+
+	@Test
+	public void testCommandsOfAFailedBatchRunAgainOnTheirOwn() throws Exception {
+		CountDownLatch firstStarted = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		// only the consumer thread touches the lists
+		List<String> committed = new ArrayList<>();
+		List<String> applied = new ArrayList<>();
+		AtomicInteger batches = new AtomicInteger();
+		executor = new SequencedExecutor("test", 16, 16, batch -> {
+			batches.incrementAndGet();
+			applied.clear();
+			try {
+				batch.run();
+			} catch (RuntimeException e) {
+				// rolls the batch back
+				applied.clear();
+				throw e;
+			}
+			committed.addAll(applied);
+		});
+		CompletableFuture<String> first = executor.submit(() -> {
+			firstStarted.countDown();
+			release.await();
+			applied.add("first");
+			return "first";
+		});
+		assertTrue(firstStarted.await(5, TimeUnit.SECONDS));
+		IllegalStateException failure = new IllegalStateException("command failed");
+		CompletableFuture<String> before = executor.submit(() -> {
+			applied.add("before");
+			return "before";
+		});
+		CompletableFuture<String> failed = executor.submit(() -> {
+			throw failure;
+		});
+		CompletableFuture<String> after = executor.submit(() -> {
+			applied.add("after");
+			return "after";
+		});
+		release.countDown();
+
+		assertEquals("first", first.get(5, TimeUnit.SECONDS));
+		assertEquals("before", before.get(5, TimeUnit.SECONDS));
+		assertEquals("after", after.get(5, TimeUnit.SECONDS));
+		try {
+			failed.get(5, TimeUnit.SECONDS);
+			fail("the command should have failed");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		// the second batch was rolled back and its commands run again without the runner
+		assertEquals(2, batches.get());
+		assertEquals("[first]", committed.toString());
+		assertEquals("[before, after]", applied.toString());
+	}
+
+	@Test
+	public void testCommandsOfABatchThatFailsToCommitRunAgainOnTheirOwn() throws Exception {
+		IllegalStateException failure = new IllegalStateException("commit failed");
+		AtomicInteger run = new AtomicInteger();
+		executor = new SequencedExecutor("test", 16, 16, batch -> {
+			batch.run();
+			throw failure;
+		});
+		CompletableFuture<Integer> future = executor.submit(run::incrementAndGet);
+		assertEquals(Integer.valueOf(2), future.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testStopRunsQueuedCommandsAndRejectsNewOnes() throws Exception {
+		executor = new SequencedExecutor("test", 1024, 8, Runnable::run);
+		AtomicInteger run = new AtomicInteger();
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			futures.add(executor.submit(run::incrementAndGet));
+		}
+		executor.stop();
+		assertEquals(500, run.get());
+		for (CompletableFuture<Integer> future : futures) {
+			assertTrue(future.isDone());
+			assertFalse(future.isCompletedExceptionally());
+		}
+		try {
+			executor.submit(run::incrementAndGet);
+			fail("the executor should be stopped");
+		} catch (RejectedExecutionException e) {
+			// expected
+		}
+		executor = null;
+	}
+
+}
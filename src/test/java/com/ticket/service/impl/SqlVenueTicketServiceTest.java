@@ -0,0 +1,278 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.SeatHoldRequest;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class SqlVenueTicketServiceTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	ApplicationContext applicationContext;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	private String customerEmail = "email@email.com";
+	private SqlVenueTicketService sqlVenueTicketService;
+
+	@Before
+	public void setUp() {
+		// the service is only a bean when venue.allocation=sql
+		sqlVenueTicketService = new SqlVenueTicketService();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(sqlVenueTicketService);
+		sqlVenueTicketService.init();
+	}
+
+	@After
+	public void tearDown() {
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testHoldsTheSameSeatsAsTheInMemoryVenue() {
+		// the seat holds must not expire while the test runs
+		ReflectionTestUtils.setField(sqlVenueTicketService, "seatHoldSeconds", 600);
+		Venue venue = venueRepository.findSeatMapByVenueId(venueId);
+		Random random = new Random(7);
+		List<SeatHold> sqlSeatHolds = new ArrayList<>();
+		List<SeatHold> seatHolds = new ArrayList<>();
+		for (int request = 0; request < 200; request++) {
+			// mostly small groups, some larger than a row, and every fourth hold given up to leave gaps
+			int numSeats = random.nextInt(10) < 1 ? numSeatsPerRow + random.nextInt(numSeatsPerRow)
+					: random.nextInt(8) + 1;
+			String message = "request " + request + " for " + numSeats;
+			SeatHold seatHold = venue.findAndHoldSeats(numSeats, customerEmail);
+			SeatHold sqlSeatHold = sqlVenueTicketService.findAndHoldSeats(numSeats, customerEmail);
+			if (seatHold == null) {
+				assertNull(message, sqlSeatHold);
+			} else {
+				assertNotNull(message, sqlSeatHold);
+				seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+				assertEquals(message, seatIds(seatHold), seatIds(sqlSeatHold));
+				seatHolds.add(seatHold);
+				sqlSeatHolds.add(sqlSeatHold);
+			}
+			if (request % 4 == 3 && !seatHolds.isEmpty()) {
+				int released = random.nextInt(seatHolds.size());
+				seatHolds.remove(released).invalidate();
+				sqlVenueTicketService.invalidateHold(sqlSeatHolds.remove(released));
+			}
+			assertEquals(message, venue.numSeatsAvailable(), sqlVenueTicketService.numSeatsAvailable());
+		}
+	}
+
+	@Test
+	public void testClaimOnlyTakesAvailableSeats() {
+		SeatHold seatHold = sqlVenueTicketService.findAndHoldSeats(4, customerEmail);
+		List<Integer> heldSeatIds = new ArrayList<>(seatIds(seatHold));
+		SeatHold otherSeatHold = saveSeatHold();
+		List<Integer> seatIds = new ArrayList<>(heldSeatIds.subList(2, 4));
+		seatIds.addAll(seatRepository.findSeatsToHold(venueId, 2, LocalDateTime.now()));
+		assertEquals(4, seatIds.size());
+
+		// only the two seats that were not held yet are claimed, and they can be put back
+		assertEquals(2, seatRepository.claimSeats(otherSeatHold.getSeatHoldId(), seatIds, LocalDateTime.now()));
+		assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seatIds.get(0)));
+		assertEquals(otherSeatHold.getSeatHoldId(), seatHoldIdOf(seatIds.get(3)));
+		assertEquals(2, seatRepository.releaseSeats(otherSeatHold.getSeatHoldId(), seatIds));
+		assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seatIds.get(1)));
+		assertNull(seatHoldIdOf(seatIds.get(2)));
+	}
+
+	@Test
+	public void testReserveSeats() {
+		SeatHold seatHold = sqlVenueTicketService.findAndHoldSeats(5, customerEmail);
+		assertEquals(1, sqlVenueTicketService.numLiveSeatHolds());
+		String confirmationId = sqlVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(confirmationId);
+		assertEquals(5, seatReservationRepository.getReservationByConfirmationId(confirmationId).getReservedSeats().size());
+		assertEquals(5, sqlVenueTicketService.findReservation(confirmationId).getNumSeats());
+		assertEquals(numRows * numSeatsPerRow - 5, sqlVenueTicketService.numSeatsAvailable());
+		assertEquals(0, sqlVenueTicketService.numLiveSeatHolds());
+		// the seats of the hold are already reserved
+		assertNull(sqlVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+	}
+
+	@Test
+	public void testReserveSeatsHeldByAnotherInstance() {
+		SqlVenueTicketService otherInstance = new SqlVenueTicketService();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(otherInstance);
+		otherInstance.init();
+		SeatHold seatHold = otherInstance.findAndHoldSeats(5, customerEmail);
+		SeatHold invalidatedSeatHold = otherInstance.findAndHoldSeats(5, customerEmail);
+		otherInstance.invalidateHold(invalidatedSeatHold);
+		assertEquals(0, sqlVenueTicketService.numLiveSeatHolds());
+
+		// the seat holds are looked up in the database
+		assertNotNull(sqlVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+		assertNull(sqlVenueTicketService.reserveSeats(invalidatedSeatHold.getSeatHoldId(), customerEmail));
+		assertEquals(numRows * numSeatsPerRow - 5, sqlVenueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testFindSeatHoldsAndReservationsOfCustomer() {
+		SeatHold reservedSeatHold = sqlVenueTicketService.findAndHoldSeats(2, customerEmail);
+		SeatHold seatHold = sqlVenueTicketService.findAndHoldSeats(3, customerEmail);
+		sqlVenueTicketService.invalidateHold(sqlVenueTicketService.findAndHoldSeats(1, customerEmail));
+		sqlVenueTicketService.findAndHoldSeats(4, "other@email.com");
+		String confirmationId = sqlVenueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+
+		// neither the reserved nor the invalidated seat hold is live
+		List<SeatHold> seatHolds = sqlVenueTicketService.findSeatHolds(customerEmail);
+		assertEquals(1, seatHolds.size());
+		assertEquals(seatIds(seatHold), seatIds(seatHolds.get(0)));
+		assertEquals(confirmationId, sqlVenueTicketService.findSeatReservations(customerEmail).get(0).getConfirmationId());
+		assertEquals(1, sqlVenueTicketService.findSeatReservations(customerEmail).size());
+		assertEquals(1, sqlVenueTicketService.findSeatHolds("other@email.com").size());
+	}
+
+	@Test
+	public void testInvalidatedHoldCannotBeReserved() {
+		SeatHold seatHold = sqlVenueTicketService.findAndHoldSeats(5, customerEmail);
+		sqlVenueTicketService.invalidateHold(seatHold);
+		assertEquals(0, sqlVenueTicketService.numLiveSeatHolds());
+		assertEquals(numRows * numSeatsPerRow, sqlVenueTicketService.numSeatsAvailable());
+		assertNull(sqlVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+	}
+
+	@Test
+	public void testExpiredHoldReleasesItsSeats() {
+		ReflectionTestUtils.setField(sqlVenueTicketService, "seatHoldSeconds", 0);
+		SeatHold seatHold = sqlVenueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		assertNotNull(seatHold);
+		assertEquals(numRows * numSeatsPerRow, sqlVenueTicketService.numSeatsAvailable());
+		assertNull(sqlVenueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+		assertEquals(0, sqlVenueTicketService.numLiveSeatHolds());
+		// the same seats are held again
+		ReflectionTestUtils.setField(sqlVenueTicketService, "seatHoldSeconds", 60);
+		assertEquals(seatIds(seatHold), seatIds(sqlVenueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail)));
+	}
+
+	@Test
+	public void testRequestThatCannotBeHeldLeavesNoSeatsHeld() {
+		// the first request leaves a single seat, so the second one is turned down without holding it
+		List<SeatHold> seatHolds = sqlVenueTicketService.findAndHoldSeats(Arrays.asList(
+				new SeatHoldRequest(numRows * numSeatsPerRow - 1, customerEmail),
+				new SeatHoldRequest(2, customerEmail)));
+		assertEquals(numRows * numSeatsPerRow - 1, seatHolds.get(0).getSeatsHeld().size());
+		assertNull(seatHolds.get(1));
+		assertEquals(1, sqlVenueTicketService.numSeatsAvailable());
+		// the seat hold saved for the second request is not left behind
+		assertEquals(1, seatHoldRepository.count());
+	}
+
+	@Test
+	public void testRenderVenue() throws IOException {
+		sqlVenueTicketService.findAndHoldSeats(3, customerEmail);
+		StringBuilder venueMap = new StringBuilder();
+		sqlVenueTicketService.renderVenue(venueId, SeatMapViewport.ALL, venueMap);
+		assertEquals(sqlVenueTicketService.printVenue(venueId), venueMap.toString());
+		// the seat changes are not recorded, so viewers read a new seat map every time
+		assertTrue(sqlVenueTicketService.findSeatChanges(venueId, 0, 100).isSnapshotRequired());
+	}
+
+	private SeatHold saveSeatHold() {
+		return new TransactionTemplate(transactionManager).execute(status -> {
+			SeatHold seatHold = new SeatHold(customerEmail, venueRepository.getOne(venueId));
+			seatHold.setInProgress(false);
+			seatHold.setExpireTime(LocalDateTime.now().plusMinutes(10));
+			return seatHoldRepository.saveAndFlush(seatHold);
+		});
+	}
+
+	private Set<Integer> seatIds(SeatHold seatHold) {
+		Set<Integer> seatIds = new TreeSet<>();
+		for (Seat seat : seatHold.getSeatsHeld()) {
+			seatIds.add(seat.getSeatId());
+		}
+		return seatIds;
+	}
+
+	/**
+	 * @return the id of the seat hold stored for a seat
+	 */
+	private Integer seatHoldIdOf(Integer seatId) {
+		return jdbcTemplate.queryForObject("select seat_hold_seat_hold_id from seat where seat_id = ?",
+				Integer.class, seatId);
+	}
+
+}
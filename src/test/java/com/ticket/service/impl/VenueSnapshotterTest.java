@@ -0,0 +1,314 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.VenueLoadedEvent;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class VenueSnapshotterTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	ApplicationContext applicationContext;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueTicketServiceImpl venueTicketService;
+
+	@Autowired
+	SeatStateWriter seatStateWriter;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	private String customerEmail = "email@email.com";
+	private Path snapshotDir;
+	private VenueSnapshotter snapshotter;
+	private Path journalFile;
+	private JournalSeatStateWriter journalWriter;
+
+	/**
+	 * starts a journal and a snapshotter for the service, as the application
+	 * does when venue.journal=true and venue.snapshot=true
+	 */
+	@Before
+	public void setUp() throws IOException {
+		journalWriter = new JournalSeatStateWriter();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(journalWriter);
+		journalFile = Files.createTempFile("seats", ".journal");
+		ReflectionTestUtils.setField(journalWriter, "journalFile", journalFile.toString());
+		ReflectionTestUtils.setField(journalWriter, "regionBytes", 4096);
+		journalWriter.start();
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", journalWriter);
+
+		snapshotDir = Files.createTempDirectory("snapshots");
+		snapshotter = new VenueSnapshotter();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(snapshotter);
+		ReflectionTestUtils.setField(snapshotter, "journalSeatStateWriter", journalWriter);
+		ReflectionTestUtils.setField(snapshotter, "snapshotDir", snapshotDir.toString());
+		ReflectionTestUtils.setField(snapshotter, "snapshotSeconds", 3600L);
+		snapshotter.start();
+		ReflectionTestUtils.setField(venueTicketService, "venueSnapshotter", snapshotter);
+		// the venue is read again and registered with the snapshotter
+		venueTicketService.onVenueLoaded(new VenueLoadedEvent(this, venueId));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ReflectionTestUtils.setField(venueTicketService, "venueSnapshotter", null);
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", seatStateWriter);
+		ReflectionTestUtils.setField(bootstrap, "venueSnapshotter", null);
+		snapshotter.stop();
+		journalWriter.stop();
+		Files.deleteIfExists(journalFile);
+		Files.deleteIfExists(snapshotter.snapshotFile(venueId));
+		Files.deleteIfExists(snapshotDir);
+		emptyDatabase();
+		bootstrap.loadVenue();
+	}
+
+	private void emptyDatabase() {
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+	}
+
+	@Test
+	public void testVenueIsRestoredFromSnapshot() throws IOException, InterruptedException, ExecutionException {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		SeatHold reservedSeatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		SeatHold invalidatedSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		venueTicketService.invalidateHold(invalidatedSeatHold);
+		String confirmationId = venueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(confirmationId);
+		snapshotter.snapshotChangedVenues();
+		assertEquals(1, snapshotter.getNumSnapshots());
+		// nothing changed since the last snapshot
+		snapshotter.snapshotChangedVenues();
+		assertEquals(1, snapshotter.getNumSnapshots());
+
+		emptyDatabase();
+		Future<?> writeBack = snapshotter.restoreVenue(venueId);
+		assertNotNull(writeBack);
+		// the venue is served from memory while it is written back
+		assertEquals(numRows * numSeatsPerRow - 7, venueTicketService.numSeatsAvailable());
+		List<Integer> seatHoldIds = new ArrayList<>();
+		for (SeatHold found : venueTicketService.findSeatHolds(customerEmail)) {
+			seatHoldIds.add(found.getSeatHoldId());
+		}
+		assertTrue(seatHoldIds.contains(seatHold.getSeatHoldId()));
+		assertTrue(!seatHoldIds.contains(invalidatedSeatHold.getSeatHoldId()));
+		SeatHold nextSeatHold = venueTicketService.findAndHoldSeats(1, customerEmail);
+		assertTrue(nextSeatHold.getSeatHoldId() > invalidatedSeatHold.getSeatHoldId());
+
+		writeBack.get();
+		assertEquals(numRows * numSeatsPerRow, seatRepository.count());
+		// the seat hold made meanwhile was saved once the seats were written back
+		List<SeatHold> savedSeatHolds = seatHoldRepository.findLiveSeatHolds(customerEmail, LocalDateTime.now());
+		assertEquals(2, savedSeatHolds.size());
+		assertEquals(seatHold.getSeatHoldId(), savedSeatHolds.get(0).getSeatHoldId());
+		assertEquals(4, savedSeatHolds.get(0).getSeatsHeld().size());
+		assertEquals(1, savedSeatHolds.get(1).getSeatsHeld().size());
+		assertEquals(3, seatReservationRepository.findReservedSeatsByConfirmationId(confirmationId).size());
+
+		// the restored seat hold is saved against the seats written back
+		String nextConfirmationId = venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(nextConfirmationId);
+		assertTrue(!nextConfirmationId.equals(confirmationId));
+		assertEquals(4, seatReservationRepository.findReservedSeatsByConfirmationId(nextConfirmationId).size());
+	}
+
+	@Test
+	public void testChangesJournaledAfterSnapshotAreRestored()
+			throws IOException, InterruptedException, ExecutionException {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		snapshotter.snapshotChangedVenues();
+		// changes after the snapshot are only in the journal
+		SeatHold journaledSeatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		venueTicketService.invalidateHold(seatHold);
+		String confirmationId = venueTicketService.reserveSeats(journaledSeatHold.getSeatHoldId(), customerEmail);
+		assertNotNull(confirmationId);
+
+		emptyDatabase();
+		Future<?> writeBack = snapshotter.restoreVenue(venueId);
+		assertEquals(numRows * numSeatsPerRow - 3, venueTicketService.numSeatsAvailable());
+		assertTrue(venueTicketService.findSeatHolds(customerEmail).isEmpty());
+		// changes made while the venue is written back are journaled straight away
+		long numEvents = journalWriter.getNumEvents();
+		SeatHold nextSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		assertTrue(nextSeatHold.getSeatHoldId() > journaledSeatHold.getSeatHoldId());
+		assertEquals(numEvents + 1, journalWriter.getNumEvents());
+
+		writeBack.get();
+		assertEquals(3, seatReservationRepository.findReservedSeatsByConfirmationId(confirmationId).size());
+		List<SeatHold> savedSeatHolds = seatHoldRepository.findLiveSeatHolds(customerEmail, LocalDateTime.now());
+		assertEquals(1, savedSeatHolds.size());
+		assertEquals(2, savedSeatHolds.get(0).getSeatsHeld().size());
+		String nextConfirmationId = venueTicketService.reserveSeats(nextSeatHold.getSeatHoldId(), customerEmail);
+		assertTrue(!nextConfirmationId.equals(confirmationId));
+	}
+
+	@Test
+	public void testVenueIsLoadedWhenItCannotBeWrittenBack()
+			throws IOException, InterruptedException, ExecutionException {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		String confirmationId = venueTicketService
+				.reserveSeats(venueTicketService.findAndHoldSeats(3, customerEmail).getSeatHoldId(), customerEmail);
+		snapshotter.snapshotChangedVenues();
+		Integer firstRowId = jdbcTemplate.queryForObject("select min(row_id) from row", Integer.class);
+		ReflectionTestUtils.setField(bootstrap, "venueSnapshotter", snapshotter);
+
+		emptyDatabase();
+		// a row of another venue takes the id of the first row, so the rows of the snapshot cannot be written back
+		venueRepository.save(new Venue(venueId + 1));
+		jdbcTemplate.update("insert into row (row_id, row_number, venue_venue_id) values (?, 1, ?)", firstRowId,
+				venueId + 1);
+		bootstrap.restoreVenue().get();
+		// the venue was loaded instead, and the journal is read back into it as the application does once loaded
+		journalWriter.replay(venueId);
+		assertEquals(numRows * numSeatsPerRow, seatRepository.count());
+		assertEquals(numRows * numSeatsPerRow - 7, venueTicketService.numSeatsAvailable());
+		List<Integer> seatHoldIds = new ArrayList<>();
+		for (SeatHold found : venueTicketService.findSeatHolds(customerEmail)) {
+			seatHoldIds.add(found.getSeatHoldId());
+		}
+		assertTrue(seatHoldIds.contains(seatHold.getSeatHoldId()));
+		assertEquals(3, seatReservationRepository.findReservedSeatsByConfirmationId(confirmationId).size());
+
+		// changes go straight to the database again
+		SeatHold nextSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		String nextConfirmationId = venueTicketService.reserveSeats(nextSeatHold.getSeatHoldId(), customerEmail);
+		assertEquals(2, seatReservationRepository.findReservedSeatsByConfirmationId(nextConfirmationId).size());
+	}
+
+	@Test
+	public void testVenueIsLoadedWhenAChangeHeldBackCannotBeSaved()
+			throws IOException, InterruptedException, ExecutionException {
+		venueTicketService.findAndHoldSeats(4, customerEmail);
+		snapshotter.snapshotChangedVenues();
+		ReflectionTestUtils.setField(bootstrap, "venueSnapshotter", snapshotter);
+		// the venue is only written back once the test lets the snapshotter run
+		CountDownLatch writeBackStarting = new CountDownLatch(1);
+		ScheduledExecutorService executor = (ScheduledExecutorService) ReflectionTestUtils.getField(snapshotter,
+				"executor");
+		executor.execute(() -> {
+			try {
+				writeBackStarting.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		emptyDatabase();
+		Future<?> restored = bootstrap.restoreVenue();
+		// a hold made meanwhile is held back, and its seat hold is then lost, so its seats cannot be saved
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		jdbcTemplate.update("delete from seat_hold where seat_hold_id = ?", seatHold.getSeatHoldId());
+		writeBackStarting.countDown();
+		restored.get();
+		// the venue was loaded instead, and the journal is read back into it as the application does once loaded
+		journalWriter.replay(venueId);
+		assertEquals(numRows * numSeatsPerRow, seatRepository.count());
+		assertEquals(Integer.valueOf(3), jdbcTemplate.queryForObject(
+				"select count(*) from seat where seat_hold_seat_hold_id = ?", Integer.class,
+				seatHold.getSeatHoldId()));
+		assertEquals(numRows * numSeatsPerRow - 7, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testSnapshotsNeedTheJournal() throws IOException {
+		VenueSnapshotter withoutJournal = new VenueSnapshotter();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(withoutJournal);
+		ReflectionTestUtils.setField(withoutJournal, "snapshotDir", snapshotDir.toString());
+		try {
+			withoutJournal.start();
+			fail("a snapshotter cannot start without the journal");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCorruptSnapshotIsNotRestored() throws IOException {
+		venueTicketService.findAndHoldSeats(4, customerEmail);
+		snapshotter.snapshotChangedVenues();
+		Path file = snapshotter.snapshotFile(venueId);
+		byte[] bytes = Files.readAllBytes(file);
+		bytes[bytes.length / 2] ^= 1;
+		Files.write(file, bytes);
+
+		emptyDatabase();
+		assertNull(snapshotter.restoreVenue(venueId));
+		assertTrue(!venueRepository.exists(venueId));
+	}
+
+}
@@ -0,0 +1,384 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+
+/**
+ * tests of the service finding seats that another instance of the service
+ * changed in the shared database. The other instance is played by a second
+ * copy of the venue read from the database
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class VenueTicketServiceConflictTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	ApplicationContext applicationContext;
+
+	@Autowired
+	VenueTicketServiceImpl venueTicketService;
+
+	@Autowired
+	SeatStateWriter seatStateWriter;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	ReservationSummaryCache reservationSummaryCache;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	private String customerEmail = "email@email.com";
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(venueTicketService, "conflictRetries", 5);
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", seatStateWriter);
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testHoldIsRetriedOnSeatsHeldByAnotherInstance() {
+		// both instances see the same free venue and pick the same row
+		assertEquals(numRows * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+		long conflicts = venueTicketService.getNumConflicts();
+		SeatHold otherSeatHold = holdSeatsFromAnotherInstance(numSeatsPerRow);
+
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		assertNotNull(seatHold);
+		assertEquals(conflicts + 1, venueTicketService.getNumConflicts());
+		Set<Integer> otherSeatIds = new HashSet<>();
+		for (Seat seat : otherSeatHold.getSeatsHeld()) {
+			otherSeatIds.add(seat.getSeatId());
+			assertEquals(otherSeatHold.getSeatHoldId(), seatHoldIdOf(seat));
+		}
+		for (Seat seat : seatHold.getSeatsHeld()) {
+			assertFalse("seat held by both instances", otherSeatIds.contains(seat.getSeatId()));
+			assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seat));
+		}
+		assertEquals((numRows - 2) * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testConflictFailsAfterTheLastRetry() {
+		ReflectionTestUtils.setField(venueTicketService, "conflictRetries", 0);
+		venueTicketService.numSeatsAvailable();
+		holdSeatsFromAnotherInstance(numSeatsPerRow);
+		try {
+			venueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+			fail("the conflict should not have been retried");
+		} catch (OptimisticLockingFailureException e) {
+			// expected
+		}
+		// the venue was read again, so the next call finds the seats taken
+		assertNotNull(venueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail));
+		assertEquals((numRows - 2) * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testFailedReservationLeavesTheSeatsHeld() {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		long conflicts = venueTicketService.getNumConflicts();
+		// the reservation fails for a reason other than a conflict, such as a lost connection
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter",
+				new FailingSeatStateWriter(seatStateWriter));
+		try {
+			venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+			fail("the reservation should have failed");
+		} catch (IllegalStateException e) {
+			// expected, and not retried
+		}
+		assertEquals(conflicts, venueTicketService.getNumConflicts());
+
+		// the venue was read again, so the seats are still held rather than reserved
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", seatStateWriter);
+		assertTrue(venueTicketService.findSeatReservations(customerEmail).isEmpty());
+		assertEquals(1, venueTicketService.findSeatHolds(customerEmail).size());
+		assertEquals(numRows * numSeatsPerRow - 4, venueTicketService.numSeatsAvailable());
+		assertEquals(0, seatReservationRepository.count());
+		assertNotNull(venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail));
+		assertEquals(1, venueTicketService.findSeatReservations(customerEmail).size());
+	}
+
+	@Test
+	public void testInvalidateIsRetriedOnSeatHoldChangedByAnotherInstance() {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		long conflicts = venueTicketService.getNumConflicts();
+		// the other instance saved the seat hold after this instance did
+		jdbcTemplate.update("update seat_hold set version = version + 1 where seat_hold_id = ?",
+				seatHold.getSeatHoldId());
+
+		venueTicketService.invalidateHold(seatHold);
+		assertEquals(conflicts + 1, venueTicketService.getNumConflicts());
+		assertEquals(numRows * numSeatsPerRow, venueTicketService.numSeatsAvailable());
+		assertTrue(venueTicketService.findSeatHolds(customerEmail).isEmpty());
+		assertEquals(Boolean.FALSE, jdbcTemplate.queryForObject(
+				"select in_progress from seat_hold where seat_hold_id = ?", Boolean.class, seatHold.getSeatHoldId()));
+	}
+
+	@Test
+	public void testRolledBackReservationIsNotCached() {
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		// the reservation joins the transaction of the caller, which then rolls back
+		String confirmationId = new TransactionTemplate(transactionManager).execute(status -> {
+			String reserved = venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+			status.setRollbackOnly();
+			return reserved;
+		});
+		assertNotNull(confirmationId);
+		assertNull(reservationSummaryCache.get(confirmationId));
+
+		venueTicketService.discardVenue(venueId);
+		String committedConfirmationId = venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		// the committed reservation is found in the cache
+		long hits = reservationSummaryCache.getHits();
+		assertEquals(4, reservationSummaryCache.get(committedConfirmationId).getNumSeats());
+		assertEquals(hits + 1, reservationSummaryCache.getHits());
+	}
+
+	@Test
+	public void testConflictInASequencedBatchOnlyRunsItsCommandsAgain() throws Exception {
+		SequencedVenueTicketService sequencedService = new SequencedVenueTicketService();
+		applicationContext.getAutowireCapableBeanFactory().autowireBean(sequencedService);
+		sequencedService.start();
+		ExecutorService customers = Executors.newFixedThreadPool(3);
+		try {
+			venueTicketService.numSeatsAvailable();
+			// the other instance holds the second row, which this instance still sees free
+			SeatHold otherSeatHold = holdSeatsFromAnotherInstance(numSeatsPerRow, 1);
+			// the first hold keeps the allocation thread busy until the next two are queued
+			CountDownLatch firstHoldSaving = new CountDownLatch(1);
+			CountDownLatch release = new CountDownLatch(1);
+			ReflectionTestUtils.setField(venueTicketService, "seatStateWriter",
+					new BlockingSeatStateWriter(seatStateWriter, firstHoldSaving, release));
+			Future<SeatHold> first = customers.submit(() -> sequencedService.findAndHoldSeats(1, customerEmail));
+			assertTrue(firstHoldSaving.await(5, TimeUnit.SECONDS));
+			Future<SeatHold> conflicting = customers
+					.submit(() -> sequencedService.findAndHoldSeats(numSeatsPerRow, customerEmail));
+			awaitPendingCommands(sequencedService, 2);
+			Future<SeatHold> next = customers.submit(() -> sequencedService.findAndHoldSeats(1, customerEmail));
+			awaitPendingCommands(sequencedService, 3);
+			release.countDown();
+
+			// the batch of the conflicting hold was rolled back and both holds made again on their own
+			assertNotNull(first.get(5, TimeUnit.SECONDS));
+			SeatHold seatHold = conflicting.get(5, TimeUnit.SECONDS);
+			SeatHold nextSeatHold = next.get(5, TimeUnit.SECONDS);
+			assertNotNull(seatHold);
+			assertNotNull(nextSeatHold);
+			Set<Integer> otherSeatIds = new HashSet<>();
+			for (Seat seat : otherSeatHold.getSeatsHeld()) {
+				otherSeatIds.add(seat.getSeatId());
+			}
+			for (Seat seat : seatHold.getSeatsHeld()) {
+				assertFalse("seat held by both instances", otherSeatIds.contains(seat.getSeatId()));
+				assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seat));
+			}
+			assertEquals(nextSeatHold.getSeatHoldId(), seatHoldIdOf(nextSeatHold.getSeatsHeld().get(0)));
+			// the venue in memory agrees with the database
+			int numSeatsAvailable = numRows * numSeatsPerRow - 2 * numSeatsPerRow - 2;
+			assertEquals(numSeatsAvailable, venueTicketService.numSeatsAvailable());
+			assertEquals(Integer.valueOf(numSeatsAvailable), jdbcTemplate.queryForObject(
+					"select count(*) from seat where seat_hold_seat_hold_id is null", Integer.class));
+		} finally {
+			customers.shutdownNow();
+			sequencedService.stop();
+		}
+	}
+
+	/**
+	 * waits until a number of commands are queued for the allocation thread
+	 */
+	private void awaitPendingCommands(SequencedVenueTicketService sequencedService, int numCommands)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (sequencedService.getNumPendingCommands() < numCommands) {
+			assertTrue("the command was not queued", System.nanoTime() < deadline);
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * holds seats from a separate copy of the venue, as another instance of the service would
+	 */
+	private SeatHold holdSeatsFromAnotherInstance(int numSeats) {
+		return holdSeatsFromAnotherInstance(numSeats, 0);
+	}
+
+	/**
+	 * holds seats from a separate copy of the venue, as another instance of the
+	 * service would, after leaving a number of full rows free
+	 */
+	private SeatHold holdSeatsFromAnotherInstance(int numSeats, int rowsLeftFree) {
+		Venue otherVenue = venueRepository.findSeatMapByVenueId(venueId);
+		otherVenue.numSeatsAvailable();
+		for (int i = 0; i < rowsLeftFree; i++) {
+			otherVenue.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		}
+		SeatHold seatHold = otherVenue.findAndHoldSeats(numSeats, customerEmail);
+		seatHold.commitSeatHold(LocalDateTime.now().plusMinutes(10));
+		new TransactionTemplate(transactionManager).execute(status -> {
+			seatHoldRepository.save(seatHold);
+			seatStateWriter.seatsHeld(seatHold, seatHold.getSeatsHeld());
+			return null;
+		});
+		return seatHold;
+	}
+
+	/**
+	 * saves the changes through another writer, the first seat hold only once released
+	 */
+	private static class BlockingSeatStateWriter implements SeatStateWriter {
+
+		private final SeatStateWriter seatStateWriter;
+
+		private final CountDownLatch firstHoldSaving;
+
+		private final CountDownLatch release;
+
+		BlockingSeatStateWriter(SeatStateWriter seatStateWriter, CountDownLatch firstHoldSaving,
+				CountDownLatch release) {
+			this.seatStateWriter = seatStateWriter;
+			this.firstHoldSaving = firstHoldSaving;
+			this.release = release;
+		}
+
+		@Override
+		public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+			if (firstHoldSaving.getCount() > 0) {
+				firstHoldSaving.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			seatStateWriter.seatsHeld(seatHold, seats);
+		}
+
+		@Override
+		public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+			seatStateWriter.seatsReserved(seatReservation, seats);
+		}
+
+		@Override
+		public void seatHoldChanged(SeatHold seatHold) {
+			seatStateWriter.seatHoldChanged(seatHold);
+		}
+	}
+
+	/**
+	 * saves holds through another writer and fails every reservation
+	 */
+	private static class FailingSeatStateWriter implements SeatStateWriter {
+
+		private final SeatStateWriter seatStateWriter;
+
+		FailingSeatStateWriter(SeatStateWriter seatStateWriter) {
+			this.seatStateWriter = seatStateWriter;
+		}
+
+		@Override
+		public void seatsHeld(SeatHold seatHold, Collection<Seat> seats) {
+			seatStateWriter.seatsHeld(seatHold, seats);
+		}
+
+		@Override
+		public void seatsReserved(SeatReservation seatReservation, Collection<Seat> seats) {
+			throw new IllegalStateException("the reservation could not be saved");
+		}
+
+		@Override
+		public void seatHoldChanged(SeatHold seatHold) {
+			seatStateWriter.seatHoldChanged(seatHold);
+		}
+	}
+
+	/**
+	 * @return the id of the seat hold stored for a seat
+	 */
+	private Integer seatHoldIdOf(Seat seat) {
+		return jdbcTemplate.queryForObject("select seat_hold_seat_hold_id from seat where seat_id = ?",
+				Integer.class, seat.getSeatId());
+	}
+
+}
@@ -1,8 +1,11 @@
 package com.ticket.service.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -20,7 +23,9 @@ import com.ticket.App;
 import com.ticket.Bootstrap;
 import com.ticket.console.TicketUserInterface;
 import com.ticket.domain.Row;
+import com.ticket.domain.SeatChangeBatch;
 import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatMapViewport;
 import com.ticket.domain.SeatReservation;
 import com.ticket.domain.Venue;
 import com.ticket.repository.RowRepository;
@@ -28,6 +33,8 @@ import com.ticket.repository.SeatHoldRepository;
 import com.ticket.repository.SeatRepository;
 import com.ticket.repository.SeatReservationRepository;
 import com.ticket.repository.VenueRepository;
+import com.ticket.service.ReservationSummary;
+import com.ticket.service.SeatHoldRequest;
 import com.ticket.service.VenueTicketService;
 
 @RunWith(SpringJUnit4ClassRunner.class)
@@ -57,6 +64,12 @@ public class VenueTicketServiceIntegrationTest {
 	
 	@Autowired
 	SeatReservationRepository seatReservationRepository;
+	
+	@Autowired
+	ReservationSummaryCache reservationSummaryCache;
+	
+	@Autowired
+	SeatMapCache seatMapCache;
 
 	private String customerEmail = "email@email.com";
 	private Venue venue;
@@ -78,7 +91,7 @@ public class VenueTicketServiceIntegrationTest {
 	@Before
 	public void setUp(){
 
-		venue = venueRepository.findOne(venueId);
+		venue = venueRepository.findSeatMapByVenueId(venueId);
 		totalVenueSeats = numRows * numSeatsPerRow;
 		holdExpireSleepMillis = (long) (seatHoldSeconds * 1000) + 100; //100 more milliseconds than the seat hold has
 	}
@@ -140,6 +153,31 @@ public class VenueTicketServiceIntegrationTest {
 		
 	}
 	
+	@Test
+	public void testBatchFindAndHoldSeats(){
+		List<SeatHoldRequest> requests = new ArrayList<>();
+		requests.add(new SeatHoldRequest(3, customerEmail));
+		requests.add(new SeatHoldRequest(numSeatsPerRow + 2, "group@email.com"));
+		requests.add(new SeatHoldRequest(totalVenueSeats, customerEmail));
+		requests.add(new SeatHoldRequest(5, customerEmail));
+		
+		List<SeatHold> seatHolds = venueTicketService.findAndHoldSeats(requests);
+		assertEquals(requests.size(), seatHolds.size());
+		assertNull(seatHolds.get(2));
+		int heldSeats = 0;
+		for (int i : new int[] { 0, 1, 3 }) {
+			SeatHold seatHold = seatHolds.get(i);
+			assertEquals(requests.get(i).getNumSeats(), seatHold.getSeatsHeld().size());
+			assertEquals(requests.get(i).getCustomerEmail(), seatHold.getCustomerEmail());
+			assertNotNull(seatHoldRepository.findOne(seatHold.getSeatHoldId()));
+			heldSeats += seatHold.getSeatsHeld().size();
+		}
+		assertEquals(totalVenueSeats - heldSeats, venueTicketService.numSeatsAvailable());
+		
+		// the held seats can be reserved like those of a single hold
+		assertNotNull(venueTicketService.reserveSeats(seatHolds.get(1).getSeatHoldId(), "group@email.com"));
+	}
+	
 	@Test
 	public void testFindRowEndsAndMaxOut(){
 		int almostCompleteRowReservations = numSeatsPerRow - 2;
@@ -181,7 +219,7 @@ public class VenueTicketServiceIntegrationTest {
 		venueTicketService.findAndHoldSeats(reserveSeats, customerEmail);
 		assertEquals(totalVenueSeats - reserveSeats, venueTicketService.numSeatsAvailable());
 		//there should be 0 seats left in the first row
-		venue = venueRepository.findOne(venueId);
+		venue = venueRepository.findSeatMapByVenueId(venueId);
 		List<Row> rowList = new ArrayList<>(venue.getRows());
 		assertEquals(0, rowList.get(0).numSeatsAvailable());
 		//there should be only 1 seat taken in the second row
@@ -218,6 +256,46 @@ public class VenueTicketServiceIntegrationTest {
 		assertNull(confirmationCode);
 	}
 	
+	@Test
+	public void testFindSeatHoldsAndReservationsOfCustomer(){
+		SeatHold reservedSeatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		venueTicketService.findAndHoldSeats(4, "other@email.com");
+		String confirmationCode = venueTicketService.reserveSeats(reservedSeatHold.getSeatHoldId(), customerEmail);
+		
+		List<SeatHold> seatHolds = venueTicketService.findSeatHolds(customerEmail);
+		assertEquals(1, seatHolds.size());
+		assertEquals(seatHold.getSeatHoldId(), seatHolds.get(0).getSeatHoldId());
+		List<SeatReservation> reservations = venueTicketService.findSeatReservations(customerEmail);
+		assertEquals(1, reservations.size());
+		assertEquals(confirmationCode, reservations.get(0).getConfirmationId());
+		assertTrue(venueTicketService.findSeatReservations("other@email.com").isEmpty());
+	}
+	
+	@Test
+	public void testFindReservationByConfirmationId(){
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(3, customerEmail);
+		String confirmationCode = venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		long hits = reservationSummaryCache.getHits();
+		
+		// the summary of a reservation just made is served from memory
+		ReservationSummary summary = venueTicketService.findReservation(confirmationCode);
+		assertEquals(hits + 1, reservationSummaryCache.getHits());
+		assertEquals(customerEmail, summary.getCustomerEmail());
+		assertEquals(3, summary.getNumSeats());
+		
+		// and read from the database once it is no longer cached
+		reservationSummaryCache.clear();
+		ReservationSummary loadedSummary = venueTicketService.findReservation(confirmationCode);
+		assertEquals(customerEmail, loadedSummary.getCustomerEmail());
+		assertEquals(3, loadedSummary.getNumSeats());
+		for (int i = 0; i < summary.getNumSeats(); i++) {
+			assertEquals(summary.getRowNumber(i), loadedSummary.getRowNumber(i));
+			assertEquals(summary.getSeatNumber(i), loadedSummary.getSeatNumber(i));
+		}
+		assertNull(venueTicketService.findReservation("unknown"));
+	}
+	
 	@Test
 	public void testPrintVenue(){
 		String venueMap = venueTicketService.printVenue(venueId);
@@ -226,5 +304,49 @@ public class VenueTicketServiceIntegrationTest {
 		assertEquals(venue.getRows().size() + 4, rowArray.length);
 		
 	}
+	
+	@Test
+	public void testFindSeatChanges(){
+		long revision = venueTicketService.getStateRevision(venueId);
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(2, customerEmail);
+		venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		
+		SeatChangeBatch changes = venueTicketService.findSeatChanges(venueId, revision, 100);
+		assertEquals(4, changes.size());
+		assertEquals('H', changes.getStateCode(0));
+		assertEquals('R', changes.getStateCode(3));
+		assertEquals(venueTicketService.getStateRevision(venueId), changes.getRevision());
+		assertEquals(0, venueTicketService.findSeatChanges(venueId, changes.getRevision(), 100).size());
+	}
+	
+	@Test
+	public void testPrintVenueRendersOnlyAfterChanges(){
+		String venueMap = venueTicketService.printVenue(venueId);
+		long misses = seatMapCache.getMisses();
+		assertEquals(venueMap, venueTicketService.printVenue(venueId));
+		assertEquals(misses, seatMapCache.getMisses());
+		
+		venueTicketService.findAndHoldSeats(1, customerEmail);
+		String heldVenueMap = venueTicketService.printVenue(venueId);
+		assertEquals(misses + 1, seatMapCache.getMisses());
+		assertTrue(!venueMap.equals(heldVenueMap));
+	}
+	
+	@Test
+	public void testRenderVenue() throws IOException {
+		venueTicketService.findAndHoldSeats(numSeatsPerRow, customerEmail);
+		StringBuilder venueMap = new StringBuilder();
+		venueTicketService.renderVenue(venueId, SeatMapViewport.ALL, venueMap);
+		assertEquals(venueTicketService.printVenue(venueId), venueMap.toString());
+		
+		StringBuilder partOfVenueMap = new StringBuilder();
+		venueTicketService.renderVenue(venueId, new SeatMapViewport(2, 3, 1, 2), partOfVenueMap);
+		assertEquals(2 + 4, partOfVenueMap.toString().split("\n").length);
+		
+		StringBuilder summary = new StringBuilder();
+		venueTicketService.renderSectionSummary(venueId, numRows, summary);
+		assertEquals("Rows 1-" + numRows + ": " + (totalVenueSeats - numSeatsPerRow) + " available, " + numSeatsPerRow
+				+ " held, 0 reserved", summary.toString().split("\n")[2]);
+	}
 
 }
@@ -0,0 +1,211 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.VenueLoadedEvent;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Row;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+import com.ticket.service.SeatHoldRequest;
+import com.ticket.service.VenueTicketService;
+
+/**
+ * counts the SQL statements, the commits and the entities loaded by each
+ * service call so that loading more of the venue than an operation needs or
+ * saving the seats one at a time is caught
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class VenueTicketServiceStatementCountTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	VenueTicketService venueTicketService;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	EntityManagerFactory entityManagerFactory;
+
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	ConfirmationIdGenerator confirmationIdGenerator;
+
+	@Value("${venue.rows}")
+	private Integer numRows;
+
+	@Value("${venue.seatsPerRow}")
+	private Integer numSeatsPerRow;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	private String customerEmail = "email@email.com";
+	private Statistics statistics;
+
+	@Before
+	public void setUp() {
+		statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		statistics.setStatisticsEnabled(true);
+		// start from a venue that is not in memory yet
+		eventPublisher.publishEvent(new VenueLoadedEvent(this, venueId));
+		statistics.clear();
+	}
+
+	@After
+	public void tearDown() {
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testNumSeatsAvailableLoadsSeatMapOnce() {
+		venueTicketService.numSeatsAvailable();
+		// the venue, its rows and its seats in a single query
+		assertEquals(1, statistics.getPrepareStatementCount());
+		assertEquals(1 + numRows + numRows * numSeatsPerRow, statistics.getEntityLoadCount());
+		assertEquals(0, statistics.getCollectionFetchCount());
+
+		statistics.clear();
+		venueTicketService.numSeatsAvailable();
+		venueTicketService.printVenue(venueId);
+		assertEquals(0, statistics.getPrepareStatementCount());
+	}
+
+	@Test
+	public void testFindAndHoldSeatsSavesOnlyTheHold() {
+		venueTicketService.numSeatsAvailable();
+		statistics.clear();
+
+		int numSeats = 3;
+		venueTicketService.findAndHoldSeats(numSeats, customerEmail);
+		// venue reference check and insert of the hold, then one update of all the seats
+		assertEquals(3, statistics.getPrepareStatementCount());
+		assertEquals(1, statistics.getSuccessfulTransactionCount());
+		assertEquals(0, entityLoadCount(Seat.class));
+		assertVenueNotLoaded();
+	}
+
+	@Test
+	public void testLargeHoldUpdatesSeatsInBatches() {
+		venueTicketService.numSeatsAvailable();
+		statistics.clear();
+
+		// a hold across rows, updated 10 seats at a time
+		int numSeats = 25;
+		venueTicketService.findAndHoldSeats(numSeats, customerEmail);
+		assertEquals(2 + 3, statistics.getPrepareStatementCount());
+		assertEquals(1, statistics.getSuccessfulTransactionCount());
+		assertVenueNotLoaded();
+	}
+
+	@Test
+	public void testBatchFindAndHoldSeatsCommitsOnce() {
+		venueTicketService.numSeatsAvailable();
+		statistics.clear();
+
+		List<SeatHoldRequest> requests = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			requests.add(new SeatHoldRequest(1 + i % 4, customerEmail));
+		}
+		venueTicketService.findAndHoldSeats(requests);
+		// a single venue reference check, then an insert per hold and one update of the seats of each hold
+		assertEquals(1 + 2 * requests.size(), statistics.getPrepareStatementCount());
+		assertEquals(1, statistics.getSuccessfulTransactionCount());
+		assertVenueNotLoaded();
+	}
+
+	@Test
+	public void testReserveSeatsSavesOnlyTheReservation() {
+		int numSeats = 3;
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(numSeats, customerEmail);
+		// the block of confirmation ids is reserved by the first reservation only
+		confirmationIdGenerator.nextConfirmationId();
+		statistics.clear();
+
+		venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+		// insert of the reservation, then one update of all the seats
+		assertEquals(2, statistics.getPrepareStatementCount());
+		assertEquals(1, statistics.getSuccessfulTransactionCount());
+		assertEquals(0, entityLoadCount(Seat.class));
+		assertEquals(0, entityLoadCount(SeatHold.class));
+		assertEquals(0, entityLoadCount(SeatReservation.class));
+		assertVenueNotLoaded();
+	}
+
+	@Test
+	public void testInvalidateHoldSavesOnlyTheHold() {
+		int numSeats = 2;
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(numSeats, customerEmail);
+		statistics.clear();
+
+		venueTicketService.invalidateHold(seatHold);
+		// select and update of the hold and a reference check per seat
+		assertEquals(2 + numSeats, statistics.getPrepareStatementCount());
+		assertEquals(1, entityLoadCount(SeatHold.class));
+		assertVenueNotLoaded();
+	}
+
+	private long entityLoadCount(Class<?> entityClass) {
+		return statistics.getEntityStatistics(entityClass.getName()).getLoadCount();
+	}
+
+	private void assertVenueNotLoaded() {
+		assertEquals(0, entityLoadCount(Venue.class));
+		assertEquals(0, entityLoadCount(Row.class));
+		assertEquals(0, statistics.getCollectionLoadCount());
+	}
+
+}
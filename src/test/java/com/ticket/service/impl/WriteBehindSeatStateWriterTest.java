@@ -0,0 +1,324 @@
+package com.ticket.service.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.ticket.App;
+import com.ticket.Bootstrap;
+import com.ticket.console.TicketUserInterface;
+import com.ticket.domain.Row;
+import com.ticket.domain.Seat;
+import com.ticket.domain.SeatHold;
+import com.ticket.domain.SeatReservation;
+import com.ticket.domain.Venue;
+import com.ticket.repository.RowRepository;
+import com.ticket.repository.SeatHoldRepository;
+import com.ticket.repository.SeatRepository;
+import com.ticket.repository.SeatReservationRepository;
+import com.ticket.repository.VenueRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringBootTest(classes = App.class)
+public class WriteBehindSeatStateWriterTest {
+
+	@MockBean
+	private TicketUserInterface ticketUserInterface;
+
+	@Autowired
+	Bootstrap bootstrap;
+
+	@Autowired
+	VenueRepository venueRepository;
+
+	@Autowired
+	SeatRepository seatRepository;
+
+	@Autowired
+	SeatHoldRepository seatHoldRepository;
+
+	@Autowired
+	RowRepository rowRepository;
+
+	@Autowired
+	SeatReservationRepository seatReservationRepository;
+
+	@Autowired
+	PlatformTransactionManager transactionManager;
+
+	@Autowired
+	JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	VenueTicketServiceImpl venueTicketService;
+
+	@Autowired
+	SeatStateWriter seatStateWriter;
+
+	@Value("${venue.id}")
+	private Integer venueId;
+
+	private String customerEmail = "email@email.com";
+	private WriteBehindSeatStateWriter writer;
+	private Venue venue;
+	private List<Seat> seats;
+
+	@Before
+	public void setUp() {
+		writer = new WriteBehindSeatStateWriter();
+		ReflectionTestUtils.setField(writer, "seatRepository", seatRepository);
+		ReflectionTestUtils.setField(writer, "seatHoldRepository", seatHoldRepository);
+		ReflectionTestUtils.setField(writer, "seatReservationRepository", seatReservationRepository);
+		ReflectionTestUtils.setField(writer, "transactionManager", transactionManager);
+		ReflectionTestUtils.setField(writer, "eventPublisher", eventPublisher);
+		ReflectionTestUtils.setField(writer, "instances", 1);
+		ReflectionTestUtils.setField(writer, "capacity", 100);
+		// long enough that the writer thread never writes during a test
+		ReflectionTestUtils.setField(writer, "flushMillis", 60000L);
+
+		venue = venueRepository.findSeatMapByVenueId(venueId);
+		Row row = venue.getRows().iterator().next();
+		seats = new ArrayList<>(row.getSeats()).subList(0, 4);
+	}
+
+	@After
+	public void tearDown() {
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", seatStateWriter);
+		ReflectionTestUtils.setField(venueTicketService, "writeBehindSeatStateWriter", null);
+		seatRepository.deleteAll();
+		rowRepository.deleteAll();
+		seatHoldRepository.deleteAll();
+		seatReservationRepository.deleteAll();
+		venueRepository.deleteAll();
+		bootstrap.loadVenue();
+	}
+
+	@Test
+	public void testRepeatedChangesToASeatAreCoalesced() {
+		SeatHold seatHold = holdSeats(seats);
+		writer.seatsHeld(seatHold, seats.subList(0, 2));
+		writer.seatsHeld(seatHold, seats.subList(1, 4));
+		writer.seatsHeld(seatHold, seats);
+		assertEquals(seats.size(), writer.numPendingChanges());
+
+		assertTrue(writer.flush());
+		assertEquals(0, writer.numPendingChanges());
+		for (Seat seat : seats) {
+			assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seat));
+		}
+	}
+
+	@Test
+	public void testReservationIsWrittenBeforeItsSeats() {
+		SeatHold seatHold = holdSeats(seats);
+		writer.seatsHeld(seatHold, seats);
+		SeatReservation seatReservation = new SeatReservation(customerEmail, "VX0001");
+		for (Seat seat : seats) {
+			seat.reserveSeat(seatReservation);
+		}
+		writer.seatsReserved(seatReservation, seats);
+		assertEquals(seats.size() + 1, writer.numPendingChanges());
+
+		assertTrue(writer.flush());
+		SeatReservation saved = seatReservationRepository
+				.getReservationByConfirmationId(seatReservation.getConfirmationId());
+		assertEquals(seats.size(), saved.getReservedSeats().size());
+	}
+
+	@Test
+	public void testFailedWriteIsRetried() {
+		// the seat hold is not saved yet, so the seats cannot be written
+		SeatHold seatHold = new SeatHold(customerEmail, venue);
+		for (Seat seat : seats) {
+			seat.setSeatHold(seatHold);
+		}
+		writer.seatsHeld(seatHold, seats);
+		assertFalse(writer.flush());
+		assertEquals(seats.size(), writer.numPendingChanges());
+		assertNull(seatHoldIdOf(seats.get(0)));
+
+		seatHoldRepository.save(seatHold);
+		assertTrue(writer.flush());
+		assertEquals(0, writer.numPendingChanges());
+		assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seats.get(0)));
+	}
+
+	@Test
+	public void testSeatChangedByAnotherInstanceIsNotOverwritten() {
+		// another instance holds the first seat after it was read
+		SeatHold otherSeatHold = holdSeats(new ArrayList<>());
+		jdbcTemplate.update("update seat set seat_hold_seat_hold_id = ?, version = version + 1 where seat_id = ?",
+				otherSeatHold.getSeatHoldId(), seats.get(0).getSeatId());
+		SeatHold seatHold = holdSeats(seats);
+		writer.seatsHeld(seatHold, seats);
+		// the change to the first seat is dropped and the others written
+		assertTrue(writer.flush());
+		assertEquals(0, writer.numPendingChanges());
+		assertEquals(1, writer.getNumDroppedChanges());
+		assertEquals(otherSeatHold.getSeatHoldId(), seatHoldIdOf(seats.get(0)));
+		for (Seat seat : seats.subList(1, 4)) {
+			assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seat));
+		}
+		// the versions of the seats written are kept up to date
+		writer.seatsHeld(seatHold, seats.subList(1, 2));
+		assertTrue(writer.flush());
+	}
+
+	@Test
+	public void testVenueIsReadAgainWhenAChangeIsDropped() {
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", writer);
+		ReflectionTestUtils.setField(venueTicketService, "writeBehindSeatStateWriter", writer);
+		int numSeats = venueTicketService.numSeatsAvailable();
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		// another instance holds one of the seats, and another one still free, before they are written
+		SeatHold otherSeatHold = holdSeats(new ArrayList<>());
+		Seat heldSeat = seatHold.getSeatsHeld().get(0);
+		jdbcTemplate.update("update seat set seat_hold_seat_hold_id = ?, version = version + 1"
+				+ " where seat_id = ? or seat_id = (select max(seat_id) from seat)",
+				otherSeatHold.getSeatHoldId(), heldSeat.getSeatId());
+
+		assertTrue(writer.flush());
+		assertEquals(1, writer.getNumDroppedChanges());
+		assertEquals(otherSeatHold.getSeatHoldId(), seatHoldIdOf(heldSeat));
+		// the venue in memory was discarded and is read again as the database has it
+		assertEquals(numSeats - 5, venueTicketService.numSeatsAvailable());
+	}
+
+	@Test
+	public void testSharedDatabaseIsRefused() {
+		ReflectionTestUtils.setField(writer, "instances", 2);
+		try {
+			writer.start();
+			fail("write behind should not start with other instances");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testRolledBackChangesAreNotWritten() {
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", writer);
+		ReflectionTestUtils.setField(venueTicketService, "writeBehindSeatStateWriter", writer);
+		int numSeats = venueTicketService.numSeatsAvailable();
+		SeatHold seatHold = venueTicketService.findAndHoldSeats(4, customerEmail);
+		assertEquals(4, writer.numPendingChanges());
+
+		// a reservation and a hold that join the transaction of a caller, which then rolls back
+		TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+		transactionTemplate.execute(status -> {
+			venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail);
+			status.setRollbackOnly();
+			return null;
+		});
+		SeatHold rolledBackSeatHold = transactionTemplate.execute(status -> {
+			SeatHold held = venueTicketService.findAndHoldSeats(4, customerEmail);
+			status.setRollbackOnly();
+			return held;
+		});
+		assertEquals(4, writer.numPendingChanges());
+
+		// the seats are written as the committed hold left them, not as the rolled back reservation did
+		assertTrue(writer.flush());
+		assertEquals(0, seatReservationRepository.count());
+		assertTrue(seatHoldRepository.findOne(rolledBackSeatHold.getSeatHoldId()) == null);
+		for (Seat seat : seatHold.getSeatsHeld()) {
+			assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seat));
+			assertNull(jdbcTemplate.queryForObject(
+					"select seat_reservation_seat_reservation_id from seat where seat_id = ?", Integer.class,
+					seat.getSeatId()));
+		}
+		assertEquals(Integer.valueOf(4), jdbcTemplate.queryForObject(
+				"select count(*) from seat where seat_hold_seat_hold_id is not null", Integer.class));
+		venueTicketService.discardVenue(venueId);
+		assertEquals(numSeats - 4, venueTicketService.numSeatsAvailable());
+		assertTrue(venueTicketService.reserveSeats(seatHold.getSeatHoldId(), customerEmail) != null);
+		assertTrue(writer.flush());
+		assertEquals(1, seatReservationRepository.count());
+	}
+
+	@Test
+	public void testDiscardedVenueIsReadBackWithQueuedChanges() {
+		ReflectionTestUtils.setField(venueTicketService, "seatStateWriter", writer);
+		ReflectionTestUtils.setField(venueTicketService, "writeBehindSeatStateWriter", writer);
+		int numSeats = venueTicketService.numSeatsAvailable();
+		venueTicketService.findAndHoldSeats(4, customerEmail);
+		assertEquals(4, writer.numPendingChanges());
+
+		venueTicketService.discardVenue(venueId);
+		assertEquals(numSeats - 4, venueTicketService.numSeatsAvailable());
+		assertEquals(0, writer.numPendingChanges());
+	}
+
+	@Test
+	public void testStopWritesPendingChanges() throws InterruptedException {
+		writer.start();
+		SeatHold seatHold = holdSeats(seats);
+		writer.seatsHeld(seatHold, seats);
+		writer.stop();
+		assertEquals(0, writer.numPendingChanges());
+		assertEquals(seatHold.getSeatHoldId(), seatHoldIdOf(seats.get(3)));
+	}
+
+	@Test
+	public void testFullQueueMakesCallersWait() throws InterruptedException {
+		ReflectionTestUtils.setField(writer, "capacity", 3);
+		writer.start();
+		SeatHold seatHold = holdSeats(seats);
+		writer.seatsHeld(seatHold, seats.subList(0, 3));
+		Thread caller = new Thread(() -> writer.seatsHeld(seatHold, seats.subList(3, 4)));
+		caller.start();
+		caller.join(200);
+		assertTrue(caller.isAlive());
+		assertEquals(3, writer.numPendingChanges());
+
+		assertTrue(writer.flush());
+		caller.join(5000);
+		assertFalse(caller.isAlive());
+		assertEquals(1, writer.numPendingChanges());
+		writer.stop();
+	}
+
+	/**
+	 * saves a seat hold and places it on the seats in memory only
+	 */
+	private SeatHold holdSeats(List<Seat> seatsToHold) {
+		SeatHold seatHold = new SeatHold(customerEmail, venue);
+		for (Seat seat : seatsToHold) {
+			seat.placeHold(seatHold);
+		}
+		seatHoldRepository.save(seatHold);
+		return seatHold;
+	}
+
+	/**
+	 * @return the id of the seat hold stored for a seat
+	 */
+	private Integer seatHoldIdOf(Seat seat) {
+		return jdbcTemplate.queryForObject("select seat_hold_seat_hold_id from seat where seat_id = ?",
+				Integer.class, seat.getSeatId());
+	}
+
+}